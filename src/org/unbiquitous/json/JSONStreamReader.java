@@ -0,0 +1,590 @@
+package org.unbiquitous.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A pull parser reading JSON text one token at a time, straight from a
+ * <code>Reader</code>, an <code>InputStream</code> or a <code>CharSequence</code>
+ * (like a <code>CharBuffer</code>), without building a tree of
+ * <code>JSONObject</code>s for the whole text.
+ * <p>
+ * The reader keeps the leniency of the {@link JSONTokener}: names and
+ * strings may be unquoted or single quoted and a name may be separated from
+ * its value by <code>=</code> or <code>=&gt;</code>.
+ * <p>
+ * A reader can be reused for another text through the <code>reset</code>
+ * methods, keeping its buffers. It is not thread-safe.
+ */
+public class JSONStreamReader {
+
+    /**
+     * The kinds of tokens found in a JSON text.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME,
+        STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 1024;
+
+    /** Characters which end an unquoted text, as in the JSONTokener. */
+    private static final String DELIMITERS = ",:]}/\\\"[{;=#";
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private Reader reader;
+    private CharSequence sequence;
+    private int sequenceIndex;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private int consumed;
+
+    private int[] stack = new int[32];
+    private int depth;
+
+    /** Token already found by peek(), but not consumed yet. */
+    private Token peeked;
+    /** Quote of the peeked name or string, or zero if it is unquoted. */
+    private char quote;
+    /** The text of a peeked unquoted name or primitive value. */
+    private String literal;
+
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Construct a reader for the content of a Reader.
+     */
+    public JSONStreamReader(Reader reader) {
+        reset(reader);
+    }
+
+    /**
+     * Construct a reader for the content of an UTF-8 stream.
+     */
+    public JSONStreamReader(InputStream in) {
+        reset(in);
+    }
+
+    /**
+     * Construct a reader for a text already in memory.
+     */
+    public JSONStreamReader(CharSequence source) {
+        reset(source);
+    }
+
+    /**
+     * Starts reading another text, reusing the buffers of this reader.
+     */
+    public JSONStreamReader reset(CharSequence source) {
+        this.sequence = source;
+        this.reader = null;
+        return restart();
+    }
+
+    /**
+     * Starts reading another text, reusing the buffers of this reader.
+     */
+    public JSONStreamReader reset(Reader reader) {
+        this.reader = reader;
+        this.sequence = null;
+        return restart();
+    }
+
+    /**
+     * Starts reading another UTF-8 stream, reusing the buffers of this reader.
+     */
+    public JSONStreamReader reset(InputStream in) {
+        try {
+            return reset(new InputStreamReader(in, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JSONStreamReader restart() {
+        this.sequenceIndex = 0;
+        this.pos = 0;
+        this.limit = 0;
+        this.consumed = 0;
+        this.depth = 0;
+        this.peeked = null;
+        this.literal = null;
+        push(EMPTY_DOCUMENT);
+        return this;
+    }
+
+    /**
+     * @return The kind of the next token, without consuming it.
+     * @throws JSONException If the text is not valid JSON.
+     */
+    public Token peek() throws JSONException {
+        if (this.peeked != null) {
+            return this.peeked;
+        }
+        int c;
+        switch (this.stack[this.depth - 1]) {
+        case EMPTY_ARRAY:
+            this.stack[this.depth - 1] = NONEMPTY_ARRAY;
+            c = nextClean();
+            if (c == ']') {
+                return this.peeked = Token.END_ARRAY;
+            }
+            back(c);
+            return peekValue();
+        case NONEMPTY_ARRAY:
+            c = nextClean();
+            if (c == ']') {
+                return this.peeked = Token.END_ARRAY;
+            }
+            if (c != ',' && c != ';') {
+                throw syntaxError("Expected a ',' or ']'");
+            }
+            return peekValue();
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            c = nextClean();
+            if (c == '}') {
+                return this.peeked = Token.END_OBJECT;
+            }
+            if (this.stack[this.depth - 1] == NONEMPTY_OBJECT) {
+                if (c != ',' && c != ';') {
+                    throw syntaxError("Expected a ',' or '}'");
+                }
+                c = nextClean();
+                if (c == '}') {
+                    return this.peeked = Token.END_OBJECT;
+                }
+            }
+            this.stack[this.depth - 1] = DANGLING_NAME;
+            if (c == '"' || c == '\'') {
+                this.quote = (char) c;
+            } else if (c < 0) {
+                throw syntaxError("A JSONObject text must end with '}'");
+            } else {
+                back(c);
+                this.quote = 0;
+                this.literal = readLiteral();
+            }
+            return this.peeked = Token.NAME;
+        case DANGLING_NAME:
+            c = nextClean();
+            if (c == '=') {
+                c = next();
+                if (c != '>') {
+                    back(c);
+                }
+            } else if (c != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            this.stack[this.depth - 1] = NONEMPTY_OBJECT;
+            return peekValue();
+        case EMPTY_DOCUMENT:
+            this.stack[this.depth - 1] = NONEMPTY_DOCUMENT;
+            return peekValue();
+        default:
+            c = nextClean();
+            if (c < 0) {
+                return this.peeked = Token.END_DOCUMENT;
+            }
+            throw syntaxError("Unexpected text after the end of the document");
+        }
+    }
+
+    private Token peekValue() throws JSONException {
+        int c = nextClean();
+        switch (c) {
+        case '{':
+            return this.peeked = Token.BEGIN_OBJECT;
+        case '[':
+            return this.peeked = Token.BEGIN_ARRAY;
+        case '"':
+        case '\'':
+            this.quote = (char) c;
+            return this.peeked = Token.STRING;
+        case -1:
+            throw syntaxError("Missing value");
+        }
+        back(c);
+        this.quote = 0;
+        this.literal = readLiteral();
+        if (this.literal.length() == 0) {
+            throw syntaxError("Missing value");
+        }
+        if (this.literal.equalsIgnoreCase("true") || this.literal.equalsIgnoreCase("false")) {
+            return this.peeked = Token.BOOLEAN;
+        }
+        if (this.literal.equalsIgnoreCase("null")) {
+            return this.peeked = Token.NULL;
+        }
+        char b = this.literal.charAt(0);
+        if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
+            if (toNumber(this.literal) != null) {
+                return this.peeked = Token.NUMBER;
+            }
+        }
+        return this.peeked = Token.STRING;
+    }
+
+    /**
+     * @return <code>true</code> if the current object or array has more elements.
+     */
+    public boolean hasNext() throws JSONException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the beginning of an object.
+     */
+    public void beginObject() throws JSONException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the end of an object.
+     */
+    public void endObject() throws JSONException {
+        expect(Token.END_OBJECT);
+        this.depth -= 1;
+    }
+
+    /**
+     * Consumes the beginning of an array.
+     */
+    public void beginArray() throws JSONException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the end of an array.
+     */
+    public void endArray() throws JSONException {
+        expect(Token.END_ARRAY);
+        this.depth -= 1;
+    }
+
+    /**
+     * @return The name of the next property of the current object.
+     */
+    public String nextName() throws JSONException {
+        if (peek() != Token.NAME) {
+            throw syntaxError("Expected a name but was " + this.peeked);
+        }
+        return consumeText();
+    }
+
+    /**
+     * @return The next value as a string. Numbers and booleans are
+     *  returned as written.
+     */
+    public String nextString() throws JSONException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw syntaxError("Expected a string but was " + token);
+        }
+        return consumeText();
+    }
+
+    /**
+     * @return The next value as a boolean.
+     */
+    public boolean nextBoolean() throws JSONException {
+        expect(Token.BOOLEAN);
+        return this.literal.equalsIgnoreCase("true");
+    }
+
+    /**
+     * Consumes a null value.
+     */
+    public void nextNull() throws JSONException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * @return The next value as an int, it can be a number or a numeric string.
+     */
+    public int nextInt() throws JSONException {
+        return (int) nextDouble();
+    }
+
+    /**
+     * @return The next value as a long, it can be a number or a numeric string.
+     */
+    public long nextLong() throws JSONException {
+        Object n = toNumber(nextString());
+        if (n == null) {
+            throw syntaxError("Expected a number");
+        }
+        return ((Number) n).longValue();
+    }
+
+    /**
+     * @return The next value as a double, it can be a number or a numeric string.
+     */
+    public double nextDouble() throws JSONException {
+        Object n = toNumber(nextString());
+        if (n == null) {
+            throw syntaxError("Expected a number");
+        }
+        return ((Number) n).doubleValue();
+    }
+
+    /**
+     * Reads the next value as the {@link JSONTokener} would: objects and
+     * arrays become a JSONObject or a JSONArray, null becomes
+     * JSONObject.NULL and numbers become an Integer, a Long or a Double.
+     */
+    public Object nextValue() throws JSONException {
+        switch (peek()) {
+        case BEGIN_OBJECT:
+            JSONObject object = new JSONObject();
+            beginObject();
+            while (hasNext()) {
+                String name = nextName();
+                object.put(name, nextValue());
+            }
+            endObject();
+            return object;
+        case BEGIN_ARRAY:
+            JSONArray array = new JSONArray();
+            beginArray();
+            while (hasNext()) {
+                array.put(nextValue());
+            }
+            endArray();
+            return array;
+        case NULL:
+            nextNull();
+            return JSONObject.NULL;
+        case BOOLEAN:
+            return nextBoolean() ? Boolean.TRUE : Boolean.FALSE;
+        case NUMBER:
+            return toNumber(consumeText());
+        case STRING:
+            return consumeText();
+        default:
+            throw syntaxError("Expected a value but was " + this.peeked);
+        }
+    }
+
+    /**
+     * Skips the next value, including all the content of objects and arrays.
+     */
+    public void skipValue() throws JSONException {
+        int count = 0;
+        do {
+            switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                count += 1;
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                count += 1;
+                break;
+            case END_OBJECT:
+                endObject();
+                count -= 1;
+                break;
+            case END_ARRAY:
+                endArray();
+                count -= 1;
+                break;
+            case END_DOCUMENT:
+                throw syntaxError("Expected a value");
+            default:
+                skipText();
+            }
+        } while (count > 0);
+    }
+
+    private void expect(Token token) throws JSONException {
+        if (peek() != token) {
+            throw syntaxError("Expected " + token + " but was " + this.peeked);
+        }
+        this.peeked = null;
+    }
+
+    private String consumeText() throws JSONException {
+        this.peeked = null;
+        if (this.quote == 0) {
+            return this.literal;
+        }
+        return readQuoted(this.quote);
+    }
+
+    private void skipText() throws JSONException {
+        this.peeked = null;
+        if (this.quote != 0) {
+            readQuoted(this.quote);
+        }
+    }
+
+    private void push(int scope) {
+        if (this.depth == this.stack.length) {
+            int[] bigger = new int[this.depth * 2];
+            System.arraycopy(this.stack, 0, bigger, 0, this.depth);
+            this.stack = bigger;
+        }
+        this.stack[this.depth] = scope;
+        this.depth += 1;
+    }
+
+    private static Object toNumber(String s) {
+        try {
+            return new Integer(s);
+        } catch (NumberFormatException e) {
+            try {
+                return new Long(s);
+            } catch (NumberFormatException f) {
+                try {
+                    return new Double(s);
+                } catch (NumberFormatException g) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /* *****************************
+     *   	Characters
+     * *****************************/
+
+    private int next() throws JSONException {
+        if (this.pos == this.limit && !fill()) {
+            return -1;
+        }
+        return this.buffer[this.pos++];
+    }
+
+    private void back(int c) {
+        if (c >= 0) {
+            this.pos -= 1;
+        }
+    }
+
+    private int nextClean() throws JSONException {
+        for (;;) {
+            int c = next();
+            if (c < 0 || c > ' ') {
+                return c;
+            }
+        }
+    }
+
+    private boolean fill() throws JSONException {
+        this.consumed += this.limit;
+        this.pos = 0;
+        this.limit = 0;
+        if (this.sequence != null) {
+            int count = Math.min(this.buffer.length, this.sequence.length() - this.sequenceIndex);
+            for (int i = 0; i < count; i += 1) {
+                this.buffer[i] = this.sequence.charAt(this.sequenceIndex + i);
+            }
+            this.sequenceIndex += count;
+            this.limit = count;
+        } else {
+            try {
+                int count = this.reader.read(this.buffer, 0, this.buffer.length);
+                this.limit = Math.max(count, 0);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+        }
+        return this.limit > 0;
+    }
+
+    private String readLiteral() throws JSONException {
+        this.text.setLength(0);
+        int c = next();
+        while (c >= ' ' && DELIMITERS.indexOf(c) < 0) {
+            this.text.append((char) c);
+            c = next();
+        }
+        back(c);
+        int end = this.text.length();
+        while (end > 0 && this.text.charAt(end - 1) == ' ') {
+            end -= 1;
+        }
+        return this.text.substring(0, end);
+    }
+
+    private String readQuoted(char q) throws JSONException {
+        this.text.setLength(0);
+        for (;;) {
+            int c = next();
+            switch (c) {
+            case -1:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                c = next();
+                switch (c) {
+                case 'b':
+                    this.text.append('\b');
+                    break;
+                case 't':
+                    this.text.append('\t');
+                    break;
+                case 'n':
+                    this.text.append('\n');
+                    break;
+                case 'f':
+                    this.text.append('\f');
+                    break;
+                case 'r':
+                    this.text.append('\r');
+                    break;
+                case 'u':
+                    this.text.append((char) hex(4));
+                    break;
+                case 'x':
+                    this.text.append((char) hex(2));
+                    break;
+                case -1:
+                    throw syntaxError("Unterminated string");
+                default:
+                    this.text.append((char) c);
+                }
+                break;
+            default:
+                if (c == q) {
+                    return this.text.toString();
+                }
+                this.text.append((char) c);
+            }
+        }
+    }
+
+    private int hex(int digits) throws JSONException {
+        int value = 0;
+        for (int i = 0; i < digits; i += 1) {
+            int d = Character.digit(next(), 16);
+            if (d < 0) {
+                throw syntaxError("Illegal escape.");
+            }
+            value = value * 16 + d;
+        }
+        return value;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + (this.consumed + this.pos));
+    }
+}
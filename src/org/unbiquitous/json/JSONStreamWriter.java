@@ -0,0 +1,387 @@
+package org.unbiquitous.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes JSON text as it is produced, straight to a <code>Writer</code> or an
+ * <code>OutputStream</code>, without building <code>JSONObject</code>s or
+ * intermediate strings. Strings are escaped the same way as
+ * {@link JSONObject#quote(String)}.
+ * <p>
+ * When no destination is informed the text is kept in an internal buffer
+ * and can be taken with {@link #toString()}. A writer can be reused through
+ * {@link #reset()}, keeping its buffer. It is not thread-safe.
+ */
+public class JSONStreamWriter {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Writer writer;
+
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int count;
+
+    private int[] stack = new int[32];
+    private int depth;
+
+    /**
+     * Construct a writer keeping the text in memory.
+     */
+    public JSONStreamWriter() {
+        this.writer = null;
+        reset();
+    }
+
+    /**
+     * Construct a writer for a Writer.
+     */
+    public JSONStreamWriter(Writer writer) {
+        this.writer = writer;
+        reset();
+    }
+
+    /**
+     * Construct a writer for an UTF-8 stream.
+     */
+    public JSONStreamWriter(OutputStream out) {
+        try {
+            this.writer = new OutputStreamWriter(out, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        reset();
+    }
+
+    /**
+     * Discards the content kept in memory and starts another document.
+     */
+    public JSONStreamWriter reset() {
+        this.count = 0;
+        this.depth = 0;
+        push(EMPTY_DOCUMENT);
+        return this;
+    }
+
+    /**
+     * Begins an object, it must be ended with {@link #endObject()}.
+     */
+    public JSONStreamWriter beginObject() throws JSONException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        write('{');
+        return this;
+    }
+
+    /**
+     * Ends the current object.
+     */
+    public JSONStreamWriter endObject() throws JSONException {
+        int scope = this.stack[this.depth - 1];
+        if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+            throw new JSONException("Misplaced endObject.");
+        }
+        this.depth -= 1;
+        write('}');
+        return this;
+    }
+
+    /**
+     * Begins an array, it must be ended with {@link #endArray()}.
+     */
+    public JSONStreamWriter beginArray() throws JSONException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        write('[');
+        return this;
+    }
+
+    /**
+     * Ends the current array.
+     */
+    public JSONStreamWriter endArray() throws JSONException {
+        int scope = this.stack[this.depth - 1];
+        if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+            throw new JSONException("Misplaced endArray.");
+        }
+        this.depth -= 1;
+        write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next property of the current object.
+     */
+    public JSONStreamWriter name(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Null key.");
+        }
+        int scope = this.stack[this.depth - 1];
+        if (scope == NONEMPTY_OBJECT) {
+            write(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new JSONException("Misplaced key.");
+        }
+        this.stack[this.depth - 1] = DANGLING_NAME;
+        string(name);
+        write(':');
+        return this;
+    }
+
+    /**
+     * Writes a string value, or null.
+     */
+    public JSONStreamWriter value(String value) throws JSONException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     */
+    public JSONStreamWriter value(boolean value) throws JSONException {
+        beforeValue();
+        write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a long value.
+     */
+    public JSONStreamWriter value(long value) throws JSONException {
+        beforeValue();
+        write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a double value.
+     * @throws JSONException If the value is not a finite number.
+     */
+    public JSONStreamWriter value(double value) throws JSONException {
+        beforeValue();
+        write(JSONObject.numberToString(new Double(value)));
+        return this;
+    }
+
+    /**
+     * Writes a null value.
+     */
+    public JSONStreamWriter nullValue() throws JSONException {
+        beforeValue();
+        write("null");
+        return this;
+    }
+
+    /**
+     * Writes any value the same way a JSONObject would: maps, collections
+     * and arrays are written as objects and arrays, numbers and booleans
+     * as they are and anything else as the string of its
+     * <code>toString()</code>.
+     */
+    @SuppressWarnings("rawtypes")
+    public JSONStreamWriter value(Object value) throws JSONException {
+        if (value == null || value.equals(null)) {
+            return nullValue();
+        }
+        if (value instanceof String) {
+            return value((String) value);
+        }
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            beforeValue();
+            write(JSONObject.numberToString((Number) value));
+            return this;
+        }
+        if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        }
+        if (value instanceof JSONString || value instanceof JSONObject
+                || value instanceof JSONArray) {
+            beforeValue();
+            write(JSONObject.valueToString(value));
+            return this;
+        }
+        if (value instanceof Map) {
+            beginObject();
+            Iterator it = ((Map) value).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                name(entry.getKey().toString());
+                value(entry.getValue());
+            }
+            return endObject();
+        }
+        if (value instanceof Collection) {
+            beginArray();
+            Iterator it = ((Collection) value).iterator();
+            while (it.hasNext()) {
+                value(it.next());
+            }
+            return endArray();
+        }
+        if (value.getClass().isArray()) {
+            beginArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i += 1) {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    /**
+     * Sends the buffered text to the destination.
+     */
+    public void flush() throws JSONException {
+        if (this.writer == null) {
+            return;
+        }
+        try {
+            this.writer.write(this.buffer, 0, this.count);
+            this.count = 0;
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * @return The text written so far, when it is kept in memory.
+     */
+    public String toString() {
+        return new String(this.buffer, 0, this.count);
+    }
+
+    private void beforeValue() throws JSONException {
+        switch (this.stack[this.depth - 1]) {
+        case EMPTY_DOCUMENT:
+            this.stack[this.depth - 1] = NONEMPTY_DOCUMENT;
+            break;
+        case EMPTY_ARRAY:
+            this.stack[this.depth - 1] = NONEMPTY_ARRAY;
+            break;
+        case NONEMPTY_ARRAY:
+            write(',');
+            break;
+        case DANGLING_NAME:
+            this.stack[this.depth - 1] = NONEMPTY_OBJECT;
+            break;
+        case NONEMPTY_DOCUMENT:
+            throw new JSONException("A JSON text must have only one top level value.");
+        default:
+            throw new JSONException("Value out of sequence.");
+        }
+    }
+
+    private void push(int scope) {
+        if (this.depth == this.stack.length) {
+            int[] bigger = new int[this.depth * 2];
+            System.arraycopy(this.stack, 0, bigger, 0, this.depth);
+            this.stack = bigger;
+        }
+        this.stack[this.depth] = scope;
+        this.depth += 1;
+    }
+
+    private void string(String s) throws JSONException {
+        write('"');
+        char c = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i += 1) {
+            char b = c;
+            c = s.charAt(i);
+            switch (c) {
+            case '\\':
+            case '"':
+                write('\\');
+                write(c);
+                break;
+            case '/':
+                if (b == '<') {
+                    write('\\');
+                }
+                write(c);
+                break;
+            case '\b':
+                write("\\b");
+                break;
+            case '\t':
+                write("\\t");
+                break;
+            case '\n':
+                write("\\n");
+                break;
+            case '\f':
+                write("\\f");
+                break;
+            case '\r':
+                write("\\r");
+                break;
+            default:
+                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
+                               (c >= '\u2000' && c < '\u2100')) {
+                    write('\\');
+                    write('u');
+                    write(HEX[(c >> 12) & 0xF]);
+                    write(HEX[(c >> 8) & 0xF]);
+                    write(HEX[(c >> 4) & 0xF]);
+                    write(HEX[c & 0xF]);
+                } else {
+                    write(c);
+                }
+            }
+        }
+        write('"');
+    }
+
+    private void write(String s) throws JSONException {
+        int len = s.length();
+        for (int i = 0; i < len; i += 1) {
+            write(s.charAt(i));
+        }
+    }
+
+    private void write(char c) throws JSONException {
+        if (this.count == this.buffer.length) {
+            if (this.writer != null) {
+                try {
+                    this.writer.write(this.buffer, 0, this.count);
+                } catch (IOException e) {
+                    throw new JSONException(e);
+                }
+                this.count = 0;
+            } else {
+                char[] bigger = new char[this.buffer.length * 2];
+                System.arraycopy(this.buffer, 0, bigger, 0, this.count);
+                this.buffer = bigger;
+            }
+        }
+        this.buffer[this.count++] = c;
+    }
+}
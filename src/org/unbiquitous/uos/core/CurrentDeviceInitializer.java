@@ -8,8 +8,10 @@ import java.util.ResourceBundle;
 import java.util.UUID;
 import java.util.logging.Logger;
 
+import org.unbiquitous.uos.core.messageEngine.MessageEncoding;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
 import org.unbiquitous.uos.core.network.model.NetworkDevice;
 
@@ -43,6 +45,8 @@ public class CurrentDeviceInitializer implements UOSComponent{
 		
 		//get metadata
 		currentDevice.addProperty("platform",System.getProperty("java.vm.name"));
+		currentDevice.addProperty(WireProtocol.DEVICE_PROPERTY,WireProtocol.supported());
+		currentDevice.addProperty(MessageEncoding.DEVICE_PROPERTY,MessageEncoding.supported());
 		
 		// Collect network interface information
 		List<NetworkDevice> networkDeviceList = factory.get(ConnectionManagerControlCenter.class).getNetworkDevices();
@@ -0,0 +1,24 @@
+package org.unbiquitous.uos.core;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of the middleware's own pools and timers, as daemons
+ * so they never hold the JVM, named after the pool and numbered as in
+ * "uos-events-1".
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+
+	public DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+}
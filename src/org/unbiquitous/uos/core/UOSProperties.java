@@ -0,0 +1,52 @@
+package org.unbiquitous.uos.core;
+
+import java.util.ResourceBundle;
+import java.util.logging.Logger;
+
+/**
+ * Reads the optional numeric parameters of the middleware, falling back to
+ * their defaults when they're not informed. Malformed values are reported
+ * and the default is used instead.
+ */
+public class UOSProperties {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private UOSProperties() {}
+
+	public static int intValue(ResourceBundle properties, String key, int defaultValue){
+		String value = valueOf(properties, key);
+		if (value == null){
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return malformed(key, value, defaultValue);
+		}
+	}
+
+	public static long longValue(ResourceBundle properties, String key, long defaultValue){
+		String value = valueOf(properties, key);
+		if (value == null){
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return malformed(key, value, defaultValue);
+		}
+	}
+
+	private static String valueOf(ResourceBundle properties, String key){
+		if (properties == null || !properties.containsKey(key)){
+			return null;
+		}
+		return properties.getString(key).trim();
+	}
+
+	private static <T> T malformed(String key, String value, T defaultValue){
+		logger.severe("Ignoring '"+key+"': '"+value+"' is not a number, using "+defaultValue+".");
+		return defaultValue;
+	}
+}
@@ -1,9 +1,18 @@
 package org.unbiquitous.uos.core.adaptabitilyEngine;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.unbiquitous.uos.core.DaemonThreadFactory;
 import org.unbiquitous.uos.core.SecurityManager;
 import org.unbiquitous.uos.core.UOSComponent;
 import org.unbiquitous.uos.core.UOSComponentFactory;
@@ -13,16 +22,21 @@ import org.unbiquitous.uos.core.applicationManager.ApplicationManager;
 import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
 import org.unbiquitous.uos.core.connectivity.ConnectivityManager;
 import org.unbiquitous.uos.core.deviceManager.DeviceDao;
+import org.unbiquitous.uos.core.deviceManager.DeviceDiscovery;
 import org.unbiquitous.uos.core.deviceManager.DeviceManager;
 import org.unbiquitous.uos.core.driverManager.DriverDao;
 import org.unbiquitous.uos.core.driverManager.DriverDeployer;
 import org.unbiquitous.uos.core.driverManager.DriverManager;
 import org.unbiquitous.uos.core.driverManager.DriverManagerException;
+import org.unbiquitous.uos.core.driverManager.InstanceSelectors;
 import org.unbiquitous.uos.core.driverManager.ReflectionServiceCaller;
 import org.unbiquitous.uos.core.messageEngine.MessageEngine;
 import org.unbiquitous.uos.core.messageEngine.MessageEngineException;
 import org.unbiquitous.uos.core.messageEngine.NotifyHandler;
+import org.unbiquitous.uos.core.messageEngine.ServiceCallExecutor;
 import org.unbiquitous.uos.core.messageEngine.ServiceCallHandler;
+import org.unbiquitous.uos.core.messageEngine.ServiceCallback;
+import org.unbiquitous.uos.core.messageEngine.ServiceFuture;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
@@ -30,9 +44,9 @@ import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
+import org.unbiquitous.uos.core.network.connectionManager.StreamChannels;
+import org.unbiquitous.uos.core.network.connectionManager.StreamChannels.Listening;
 import org.unbiquitous.uos.core.network.loopback.LoopbackDevice;
-import org.unbiquitous.uos.core.network.model.NetworkDevice;
-import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
 import org.unbiquitous.uos.core.ontologyEngine.Ontology;
 
 /**
@@ -55,8 +69,19 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 	protected ConnectivityManager connectivityManager;
 	protected ResourceBundle properties;
 	protected ApplicationManager applicationManager;
+	protected ServiceCallExecutor serviceCallExecutor;
 
 	private DeviceManager deviceManager;
+	
+	/** Leases of the subscribers of the drivers. */
+	protected SubscriptionLeases leases = new SubscriptionLeases(SubscriptionLeases.DEFAULT_DURATION);
+	
+	/** Renews the subscriptions of this device to the events of the others. */
+	private ScheduledExecutorService renewal;
+	
+	/** Sends the notifies held by the policies of the subscribers. */
+	private static final ScheduledExecutorService notifyTimer = 
+			Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("uos-notify-timer"));
 
 
 	/**
@@ -102,7 +127,7 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 			throw new IllegalArgumentException("Service Driver or Service Name is empty");
 		}
 		
-		StreamConnectionThreaded[] streamConnectionThreadeds = null;
+		Listening streamChannels = null;
 		
 		UOSMessageContext messageContext = new UOSMessageContext();
 		messageContext.setCallerDevice(new LoopbackDevice(1)); // FIXME: Tales - 21/07/2012 
@@ -111,19 +136,95 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 		
 		// In case of a Stream Service, a Stream Channel must be opened
 		if(serviceCall.getServiceType().equals(ServiceType.STREAM)){
-			streamConnectionThreadeds = openStreamChannel(device, serviceCall, messageContext);
+			streamChannels = openStreamChannel(device, serviceCall, messageContext);
 		}
 		
 		/* Verify Device Name or the main device object itself
 		 * If the device corresponds to the current device instance, make a local service call
 		 */
 		if (isLocalCall(device)){
-			return localServiceCall(serviceCall, streamConnectionThreadeds, messageContext);
+			return localServiceCall(serviceCall, streamChannels, messageContext);
 		}else{
-			return remoteServiceCall(device, serviceCall,streamConnectionThreadeds, messageContext);
+			return remoteServiceCall(device, serviceCall,streamChannels, messageContext);
 		}
 	}
 
+	/**
+	 * Method responsible for calling a service without blocking the caller.
+	 * 
+	 * @see #callServiceAsync(UpDevice, ServiceCall, long, ServiceCallback)
+	 */
+	public ServiceFuture callServiceAsync(UpDevice device, ServiceCall serviceCall){
+		return callServiceAsync(device, serviceCall, 0, null);
+	}
+	
+	/**
+	 * Method responsible for calling a service without blocking the caller. 
+	 * Remote calls keep no thread waiting for their responses, while local 
+	 * and stream calls are run by the threads of the {@link ServiceCallExecutor}.
+	 * 
+	 * @param device Device providing the service to be called. Null if local.
+	 * @param serviceCall Object representing the service call to be placed.
+	 * @param timeout Time (in milliseconds) for the call to be done, if not positive 
+	 * 			the default response timeout is used for remote calls and local calls never expire.
+	 * @param callback Optional callback to be informed of the outcome of the call.
+	 * @return The future response for the called service.
+	 */
+	public ServiceFuture callServiceAsync(final UpDevice device, final ServiceCall serviceCall, 
+											long timeout, ServiceCallback callback){
+		if (	serviceCall == null ||
+				serviceCall.getDriver() == null || serviceCall.getDriver().isEmpty() ||
+				serviceCall.getService() == null || serviceCall.getService().isEmpty()){
+			throw new IllegalArgumentException("Service Driver or Service Name is empty");
+		}
+		
+		ServiceFuture future;
+		if (isLocalCall(device) || serviceCall.getServiceType().equals(ServiceType.STREAM)){
+			// local drivers and stream channels are served through blocking calls
+			future = serviceCallExecutor.submit(new Callable<ServiceResponse>() {
+				public ServiceResponse call() throws Exception {
+					return callService(device, serviceCall);
+				}
+			}, timeout);
+		}else{
+			future = remoteServiceCallAsync(device, serviceCall, timeout);
+		}
+		if (callback != null){
+			future.addCallback(callback);
+		}
+		return future;
+	}
+	
+	private ServiceFuture remoteServiceCallAsync(UpDevice device, ServiceCall serviceCall, long timeout) {
+		final UOSMessageContext messageContext = new UOSMessageContext();
+		messageContext.setCallerDevice(new LoopbackDevice(1));
+		
+		final ServiceFuture result = serviceCallExecutor.newFuture(0);
+		final ServiceFuture remote = messageEngine.callServiceAsync(device, serviceCall, timeout);
+		remote.addCallback(new ServiceCallback() {
+			public void onResponse(ServiceResponse response) {
+				if (response != null){
+					response.setMessageContext(messageContext);
+				}
+				result.complete(response);
+			}
+			public void onFailure(Exception cause) {
+				if (cause instanceof MessageEngineException){
+					cause = new ServiceCallException(cause);
+				}
+				result.fail(cause);
+			}
+		});
+		result.addCallback(new ServiceCallback() {
+			public void onResponse(ServiceResponse response) {}
+			public void onFailure(Exception cause) {
+				// cancelling the call must give up on the remote response
+				remote.cancel(false);
+			}
+		});
+		return result;
+	}
+
 	private boolean isLocalCall(UpDevice device) {
 		return device == null || device.getName() == null ||
 				device.getName().equalsIgnoreCase(currentDevice.getName());
@@ -131,7 +232,7 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 
 	private ServiceResponse remoteServiceCall(UpDevice device,
 			ServiceCall serviceCall,
-			StreamConnectionThreaded[] streamConnectionThreadeds,
+			Listening streamChannels,
 			UOSMessageContext messageContext) throws ServiceCallException {
 		// If not a local service call, delegate to the serviceHandler
 		try{
@@ -139,13 +240,13 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 			response.setMessageContext(messageContext);
 			return response;
 		}catch (MessageEngineException e){
-			closeStreamChannels(streamConnectionThreadeds);
+			closeStreamChannels(streamChannels);
 			throw new ServiceCallException(e);
 		}
 	}
 
 	private ServiceResponse localServiceCall(ServiceCall serviceCall,
-			StreamConnectionThreaded[] streamConnectionThreadeds,
+			Listening streamChannels,
 			UOSMessageContext messageContext) throws ServiceCallException {
 		logger.info("Handling Local ServiceCall");
 		
@@ -159,7 +260,7 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 			return response;
 		} catch (DriverManagerException e) {
 			// if there was an opened stream channel, it must be closed
-			closeStreamChannels(streamConnectionThreadeds);
+			closeStreamChannels(streamChannels);
 			throw new ServiceCallException(e);
 		}
 	}
@@ -167,14 +268,11 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 	/**
 	 * Method responsible for closing opened Stream Channels
 	 * 
-	 * @param streamConnectionThreadeds Array with the opened streams to be properly closed
+	 * @param streamChannels The channels being listened to be properly closed
 	 */
-	private void closeStreamChannels(
-			StreamConnectionThreaded[] streamConnectionThreadeds) {
-		if (streamConnectionThreadeds != null){
-			for (int i = 0; i < streamConnectionThreadeds.length; i++) {
-				streamConnectionThreadeds[i].interrupt();
-			}
+	private void closeStreamChannels(Listening streamChannels) {
+		if (streamChannels != null){
+			streamChannels.cancel();
 		}
 	}
 
@@ -183,13 +281,13 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 	 * 
 	 * @param device The called device
 	 * @param serviceCall The ServiceCall message
-	 * @return An array of StreamConnectionThreaded objects with the opened streams
+	 * @return The channels being listened, handed to the message context as they are opened
 	 * @throws ServiceCallException
 	 */
-	private StreamConnectionThreaded[] openStreamChannel(UpDevice device,
+	private Listening openStreamChannel(UpDevice device,
 			ServiceCall serviceCall, UOSMessageContext messageContext)
 			throws ServiceCallException {
-		StreamConnectionThreaded[] streamConnectionThreadeds = null;
+		Listening streamChannels = null;
 		
 		try{
 			
@@ -202,59 +300,105 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 				netType = network.getNetType();
 			}
 			
-			int channels = serviceCall.getChannels();
-			streamConnectionThreadeds = new StreamConnectionThreaded[channels];
-			String[] channelIDs = new String[channels];
-			
-			for (int i = 0; i < channels; i++) {
-				NetworkDevice networkDevice = connectionManagerControlCenter.getAvailableNetworkDevice(netType);
-				channelIDs[i] = connectionManagerControlCenter.getChannelID(networkDevice.getNetworkDeviceName());
-				StreamConnectionThreaded streamConnectionThreaded = new StreamConnectionThreaded(messageContext, networkDevice);
-				streamConnectionThreaded.start();
-				streamConnectionThreadeds[i] = streamConnectionThreaded;
-			}
+			streamChannels = new StreamChannels(connectionManagerControlCenter)
+								.listen(netType, serviceCall.getChannels(), messageContext);
 			
-			serviceCall.setChannelIDs(channelIDs);
+			serviceCall.setChannelIDs(streamChannels.channelIDs());
 			serviceCall.setChannelType(netType);
 			
 		}catch (Exception e) {
 			throw new ServiceCallException(e);
 		}
-		return streamConnectionThreadeds;
+		return streamChannels;
 	}
 	
+	/**
+	 * Sends a notify message to the device informed.
+	 * 
+	 * @param notify Notify message to be sent.
+	 * @param device Device which is going to receive the notofy event
+	 * @throws MessageEngineException
+	 */
+	public void sendEventNotify(Notify notify, UpDevice device) throws NotifyException{
+		eventManager.sendEventNotify(notify,device);
+	}
 	
 	/**
-	 * Inner class for waiting a connection in case of stream service type.
+	 * Sends a notify message to all the devices subscribed to its event. 
+	 * Each subscriber is resolved to the device known to be at its interface 
+	 * the first time it is notified. Subscribers with a {@link NotifyPolicy} 
+	 * only get the notifies it allows, those held are sent once their 
+	 * interval ends. Subscribers whose lease expired, or whose device left 
+	 * the smart space, are dropped instead.
+	 * 
+	 * @param notify Notify message to be sent.
+	 * @param subscribers Devices subscribed to the events of the driver.
+	 * @throws NotifyException
 	 */
-	private class StreamConnectionThreaded extends Thread{
-		private UOSMessageContext msgContext;
-		private NetworkDevice networkDevice;
-		
-		public StreamConnectionThreaded(UOSMessageContext msgContext, NetworkDevice networkDevice){
-			this.msgContext = msgContext;
-			this.networkDevice = networkDevice;
+	public void notifySubscribers(Notify notify, EventSubscribers subscribers) throws NotifyException{
+		EventSubscribers.Subscriber[] subscribed = subscribers.subscribersOf(notify.getEventKey());
+		if (subscribed.length == 0){
+			return;
 		}
-		
-		public void run(){
-			try {
-				ClientConnection con = connectionManagerControlCenter.openPassiveConnection(networkDevice.getNetworkDeviceName(), networkDevice.getNetworkDeviceType());
-				msgContext.addDataStreams(con.getDataInputStream(), con.getDataOutputStream());
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+		leases.track(subscribers);
+		long now = System.currentTimeMillis();
+		List<UpDevice> targets = new ArrayList<UpDevice>(subscribed.length);
+		for (EventSubscribers.Subscriber subscriber : subscribed){
+			if (!leases.isLive(subscriber, now)){
+				subscribers.drop(notify.getEventKey(), subscriber);
+				continue;
+			}
+			long admitted = subscriber.gate == null ? NotifyGate.SEND : subscriber.gate.admit(notify, now);
+			if (admitted == NotifyGate.SEND){
+				targets.add(targetOf(subscriber));
+			}else if (admitted > 0){
+				releaseLater(subscriber, subscriber.gate.key(notify), admitted);
 			}
 		}
+		multicast(notify, targets);
+	}
+	
+	private UpDevice targetOf(EventSubscribers.Subscriber subscriber){
+		if (!subscriber.resolved && deviceManager != null){
+			UpNetworkInterface network = subscriber.networkInterface;
+			UpDevice resolved = deviceManager.retrieveDevice(
+					network.getNetworkAddress(), network.getNetType());
+			if (resolved != null){
+				subscriber.resolvedTo(resolved);
+			}
+		}
+		return subscriber.target();
 	}
 	
 	/**
-	 * Sends a notify message to the device informed.
-	 * 
-	 * @param notify Notify message to be sent.
-	 * @param device Device which is going to receive the notofy event
-	 * @throws MessageEngineException
+	 * Sends the notify held for the subscriber once its interval ends.
 	 */
-	public void sendEventNotify(Notify notify, UpDevice device) throws NotifyException{
-		eventManager.sendEventNotify(notify,device);
+	private void releaseLater(final EventSubscribers.Subscriber subscriber, final String key, long delay){
+		notifyTimer.schedule(new Runnable() {
+			public void run() {
+				long now = System.currentTimeMillis();
+				Notify held = subscriber.gate.release(key, now);
+				if (held == null || !leases.isLive(subscriber, now)){
+					return;
+				}
+				try {
+					multicast(held, Collections.singletonList(targetOf(subscriber)));
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Failed to send held notify.", e);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	private void multicast(Notify notify, List<UpDevice> targets) throws NotifyException{
+		if (targets.isEmpty()){
+			return;
+		}
+		try {
+			messageEngine.multicastEvent(notify, targets);
+		} catch (MessageEngineException e) {
+			throw new NotifyException(e);
+		}
 	}
 	
 	/**
@@ -311,6 +455,7 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 	 * @see NotifyHandler#handleNofify(Notify)
 	 */
 	public void handleNofify(Notify notify, UpDevice device) throws DriverManagerException {
+		leases.renew(device);
 		eventManager.handleNofify(notify, device);
 	}
 	
@@ -320,6 +465,9 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 	@Override
 	public ServiceResponse handleServiceCall(ServiceCall serviceCall, UOSMessageContext messageContext)
 			throws DriverManagerException {
+		if (messageContext != null){
+			leases.renew(messageContext.getCallerDevice());
+		}
 		if (isApplicationCall(serviceCall)){
 			return applicationManager.handleServiceCall(serviceCall, messageContext);
 		}else{
@@ -352,14 +500,17 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 						driverDao, 
 						deviceDao, 
 						new ReflectionServiceCaller(connectionManagerControlCenter));
+		InstanceSelectors.configure(driverManager, properties);
 		
 		// Deploy service-drivers
 		DriverDeployer driverDeployer = new DriverDeployer(driverManager,properties);
 		driverDeployer.deployDrivers();
 		
 		this.messageEngine = factory.get(MessageEngine.class);
-		this.eventManager = new EventManager(messageEngine);
+		this.serviceCallExecutor = factory.get(ServiceCallExecutor.class);
+		this.eventManager = new EventManager(messageEngine, new EventDelivery(properties));
 		this.connectivityManager = factory.get(ConnectivityManager.class);
+		this.leases = new SubscriptionLeases(properties);
 		
 		deviceManager = new DeviceManager(
 				currentDevice, 
@@ -368,9 +519,19 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 				connectionManagerControlCenter, 
 				factory.get(ConnectivityManager.class), 
 				gateway, driverManager);
+		deviceManager.setDiscovery(factory.get(DeviceDiscovery.class));
+		deviceManager.addDepartureListener(leases);
+		try {
+			// drivers changes pushed by other devices
+			eventManager.registerForEvent(deviceManager, null, 
+					"uos.DeviceDriver", null, DeviceManager.DRIVERS_CHANGED_EVENT);
+		} catch (NotifyException e) {
+			logger.log(Level.SEVERE, "Not possible to listen to the drivers changes of other devices.", e);
+		}
 		
 		connectionManagerControlCenter.radarControlCenter().setListener(deviceManager);
 		this.messageEngine.setDeviceManager(deviceManager);
+		renewLeases();
 		
 		applicationManager = new ApplicationManager(properties,gateway);
 		ApplicationDeployer applicationDeployer = new ApplicationDeployer(properties,applicationManager);
@@ -385,6 +546,27 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 		
 	}
 
+	/**
+	 * Keeps the leases of this device's subscriptions, renewing them twice 
+	 * in each lease.
+	 */
+	private void renewLeases(){
+		long period = leases.duration() / 2;
+		if (period <= 0){
+			return;
+		}
+		renewal = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("uos-lease-renewal"));
+		renewal.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					eventManager.renewLeases(deviceManager);
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Failed to renew the subscriptions.", e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
 	private void initGateway(UOSComponentFactory factory,
 			SmartSpaceGateway gateway, ApplicationDeployer applicationDeployer){
 		try {
@@ -414,8 +596,13 @@ public class AdaptabilityEngine implements ServiceCallHandler,
 	@Override
 	public void stop() {
 		try {
+			if (renewal != null){
+				renewal.shutdownNow();
+			}
+			deviceManager.tearDown();
 			driverManager.tearDown();
 			applicationManager.tearDown();
+			eventManager.tearDown();
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -0,0 +1,417 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.UOSProperties;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+
+/**
+ * Hands the events to their listeners without holding the thread which
+ * received them, so a slow listener delays only its own events.
+ *
+ * Each listener has a bounded queue of its own, drained by threads shared by
+ * all listeners. A listener receives its events one at a time, in the order
+ * they came, so events of the same device, driver and event key are never
+ * reordered. When its queue is full, the {@link Overflow} of the listener
+ * decides what's done with the new events.
+ */
+public class EventDelivery {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private static final String THREADS_KEY = "ubiquitos.events.threads";
+	private static final String QUEUE_KEY = "ubiquitos.events.queue";
+	private static final String OVERFLOW_KEY = "ubiquitos.events.overflow";
+
+	private static final int DEFAULT_THREADS = 4;
+	private static final int DEFAULT_QUEUE = 256;
+
+	/** Events handed in a row to a listener before its thread serves the others. */
+	private static final int BATCH = 32;
+
+	/**
+	 * What's done with an event which doesn't fit in the queue of its listener.
+	 */
+	public enum Overflow {
+		/**
+		 * The thread delivering it waits for room. Nothing is lost, but the
+		 * connection which received the event is held meanwhile.
+		 */
+		BLOCK,
+		/** The oldest event queued is dropped. The default. */
+		DROP_OLDEST,
+		/**
+		 * An event queued of the same device, driver, event key and instance
+		 * is replaced by the new one, even when there's room, so only the
+		 * latest value of each is delivered. Without one the oldest event
+		 * queued is dropped.
+		 */
+		COALESCE;
+
+		/**
+		 * @param name As in "block", "drop-oldest" or "coalesce".
+		 */
+		public static Overflow named(String name) {
+			return valueOf(name.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+		}
+	}
+
+	private final Executor executor;
+	private final ExecutorService own;
+	private final int queue;
+	private final Overflow overflow;
+
+	private final ConcurrentMap<UosEventListener, Mailbox> mailboxes = new ConcurrentHashMap<UosEventListener, Mailbox>();
+
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Delivery with its own threads, as configured.
+	 */
+	public EventDelivery(ResourceBundle properties) {
+		int threads = UOSProperties.intValue(properties, THREADS_KEY, DEFAULT_THREADS);
+		int queue = UOSProperties.intValue(properties, QUEUE_KEY, DEFAULT_QUEUE);
+		Overflow overflow = Overflow.DROP_OLDEST;
+		if (properties != null && properties.containsKey(OVERFLOW_KEY)){
+			overflow = Overflow.named(properties.getString(OVERFLOW_KEY));
+		}
+		this.own = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("uos-events"));
+		this.executor = own;
+		this.queue = queue;
+		this.overflow = overflow;
+	}
+
+	/**
+	 * @param executor Threads delivering the events, or <code>null</code> for
+	 * 			them to be delivered by the thread which received them.
+	 * @param queue Events queued for each listener by default.
+	 * @param overflow What's done, by default, with the events beyond it.
+	 */
+	public EventDelivery(Executor executor, int queue, Overflow overflow) {
+		this.executor = executor;
+		this.own = null;
+		this.queue = queue;
+		this.overflow = overflow;
+	}
+
+	/**
+	 * @return Delivery by the thread which received the events, with no queues.
+	 */
+	public static EventDelivery inline() {
+		return new EventDelivery(null, 0, Overflow.BLOCK);
+	}
+
+	/**
+	 * Queues the event for the listener.
+	 *
+	 * @param deviceName Device which sent the event.
+	 */
+	public void deliver(UosEventListener listener, Notify notify, String deviceName) {
+		if (executor == null){
+			handle(listener, notify, deviceName);
+			delivered.incrementAndGet();
+			return;
+		}
+		mailbox(listener).offer(new Pending(notify, deviceName));
+	}
+
+	private static void handle(UosEventListener listener, Notify notify, String deviceName) {
+		if (listener instanceof SenderAwareEventListener){
+			((SenderAwareEventListener) listener).handleEvent(notify, deviceName);
+		}else{
+			listener.handleEvent(notify);
+		}
+	}
+
+	/**
+	 * Drops the events still queued for the listener.
+	 */
+	public void forget(UosEventListener listener) {
+		Mailbox mailbox = mailboxes.remove(listener);
+		if (mailbox != null){
+			mailbox.clear();
+		}
+	}
+
+	private Mailbox mailbox(UosEventListener listener) {
+		Mailbox mailbox = mailboxes.get(listener);
+		if (mailbox == null){
+			int capacity = queue;
+			Overflow overflow = this.overflow;
+			EventPolicy policy = listener.getClass().getAnnotation(EventPolicy.class);
+			if (policy != null){
+				capacity = policy.queue() > 0 ? policy.queue() : capacity;
+				overflow = policy.overflow();
+			}
+			mailbox = new Mailbox(listener, Math.max(1, capacity), overflow);
+			Mailbox other = mailboxes.putIfAbsent(listener, mailbox);
+			if (other != null) mailbox = other;
+		}
+		return mailbox;
+	}
+
+	/** @return Events handed to the listeners. */
+	public long delivered() {return delivered.get();}
+	/** @return Events dropped since their queues were full. */
+	public long dropped() {return dropped.get();}
+	/** @return Events replaced by newer ones of the same key. */
+	public long coalesced() {return coalesced.get();}
+	/** @return Events whose listener failed to handle them. */
+	public long failed() {return failed.get();}
+
+	/**
+	 * @return How the events of the listener are going, or <code>null</code>
+	 * 			if none were queued for it.
+	 */
+	public Stats stats(UosEventListener listener) {
+		Mailbox mailbox = mailboxes.get(listener);
+		return mailbox == null ? null : mailbox.stats();
+	}
+
+	public void shutdown() {
+		if (own != null){
+			own.shutdownNow();
+		}
+		for (Mailbox mailbox : mailboxes.values()){
+			mailbox.clear();
+		}
+		mailboxes.clear();
+	}
+
+	/**
+	 * How the events of a single listener are going.
+	 */
+	public static class Stats {
+		private final int queued;
+		private final long lag;
+		private final long delivered;
+		private final long dropped;
+		private final long coalesced;
+
+		Stats(int queued, long lag, long delivered, long dropped, long coalesced) {
+			this.queued = queued;
+			this.lag = lag;
+			this.delivered = delivered;
+			this.dropped = dropped;
+			this.coalesced = coalesced;
+		}
+
+		/** @return Events waiting to be handed to the listener. */
+		public int queued() {return queued;}
+		/** @return Time (in milliseconds) the oldest event queued has been waiting. */
+		public long lag() {return lag;}
+		/** @return Events handed to the listener. */
+		public long delivered() {return delivered;}
+		/** @return Events dropped since the queue was full. */
+		public long dropped() {return dropped;}
+		/** @return Events replaced by newer ones of the same key. */
+		public long coalesced() {return coalesced;}
+
+		@Override
+		public String toString() {
+			return "queued="+queued+" lag="+lag+"ms delivered="+delivered+" dropped="+dropped+" coalesced="+coalesced;
+		}
+	}
+
+	/**
+	 * An event waiting for its listener. Events of the same device, driver,
+	 * event key and instance are equal, for coalescing.
+	 */
+	private static final class Pending {
+		Notify notify;
+		final String deviceName;
+		final long since = System.nanoTime();
+
+		Pending(Notify notify, String deviceName) {
+			this.notify = notify;
+			this.deviceName = deviceName;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash(deviceName) * 31 * 31 * 31 + hash(notify.getDriver()) * 31 * 31
+					+ hash(notify.getEventKey()) * 31 + hash(notify.getInstanceId());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Pending)) return false;
+			Pending other = (Pending) obj;
+			return equal(deviceName, other.deviceName)
+					&& equal(notify.getDriver(), other.notify.getDriver())
+					&& equal(notify.getEventKey(), other.notify.getEventKey())
+					&& equal(notify.getInstanceId(), other.notify.getInstanceId());
+		}
+
+		private static int hash(String value) {
+			return value == null ? 0 : value.hashCode();
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	/**
+	 * The queue of a listener, drained by a single thread at a time.
+	 */
+	private final class Mailbox implements Runnable {
+		private final UosEventListener listener;
+		private final int capacity;
+		private final Overflow overflow;
+
+		private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+		private final Map<Pending, Pending> byKey;
+		private boolean scheduled;
+		private boolean closed;
+		private Thread drainer;
+
+		private long delivered;
+		private long dropped;
+		private long coalesced;
+
+		Mailbox(UosEventListener listener, int capacity, Overflow overflow) {
+			this.listener = listener;
+			this.capacity = capacity;
+			this.overflow = overflow;
+			this.byKey = overflow == Overflow.COALESCE ? new HashMap<Pending, Pending>() : null;
+		}
+
+		synchronized void offer(Pending event) {
+			if (closed){
+				return;
+			}
+			if (byKey != null){
+				Pending same = byKey.get(event);
+				if (same != null){
+					same.notify = event.notify;
+					coalesced++;
+					EventDelivery.this.coalesced.incrementAndGet();
+					return;
+				}
+			}
+			// the listener itself never waits for its own queue
+			while (pending.size() >= capacity && Thread.currentThread() != drainer){
+				if (overflow != Overflow.BLOCK){
+					drop(pending.poll());
+					continue;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					drop(event);
+					return;
+				}
+				if (closed){
+					return;
+				}
+			}
+			pending.add(event);
+			if (byKey != null){
+				byKey.put(event, event);
+			}
+			if (!scheduled){
+				scheduled = true;
+				schedule();
+			}
+		}
+
+		private void drop(Pending event) {
+			if (byKey != null){
+				byKey.remove(event);
+			}
+			dropped++;
+			EventDelivery.this.dropped.incrementAndGet();
+		}
+
+		private void schedule() {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				logger.warning("Event delivery is shut down, dropping the events of "+listener);
+				while (!pending.isEmpty()){
+					drop(pending.poll());
+				}
+				scheduled = false;
+			}
+		}
+
+		public void run() {
+			synchronized (this) {
+				drainer = Thread.currentThread();
+			}
+			try {
+				for (int i = 0; i < BATCH; i++){
+					Pending next = take();
+					if (next == null){
+						return;
+					}
+					try {
+						handle(listener, next.notify, next.deviceName);
+						EventDelivery.this.delivered.incrementAndGet();
+					} catch (RuntimeException e) {
+						failed.incrementAndGet();
+						logger.log(Level.SEVERE, "Listener "+listener+" failed to handle the event.", e);
+					}
+				}
+			} finally {
+				synchronized (this) {
+					drainer = null;
+					if (scheduled){
+						// more events left, let the others be served before them
+						schedule();
+					}
+				}
+			}
+		}
+
+		private synchronized Pending take() {
+			Pending next = pending.poll();
+			if (next == null){
+				scheduled = false;
+				return null;
+			}
+			if (byKey != null){
+				byKey.remove(next);
+			}
+			delivered++;
+			notifyAll();
+			return next;
+		}
+
+		synchronized void clear() {
+			closed = true;
+			pending.clear();
+			if (byKey != null){
+				byKey.clear();
+			}
+			notifyAll();
+		}
+
+		synchronized Stats stats() {
+			Pending oldest = pending.peek();
+			long lag = oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.since);
+			return new Stats(pending.size(), lag, delivered, dropped, coalesced);
+		}
+	}
+}
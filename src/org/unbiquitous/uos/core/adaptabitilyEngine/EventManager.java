@@ -1,14 +1,17 @@
 package org.unbiquitous.uos.core.adaptabitilyEngine;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SubscriptionIndex.Subscription;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SubscriptionIndex.Visitor;
+import org.unbiquitous.uos.core.deviceManager.DeviceManager;
 import org.unbiquitous.uos.core.messageEngine.MessageEngine;
 import org.unbiquitous.uos.core.messageEngine.MessageEngineException;
 import org.unbiquitous.uos.core.messageEngine.NotifyHandler;
@@ -20,6 +23,10 @@ import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
 /**
  * Class responsible for managing the events received and the event listeners in the current device.
  * 
+ * Listeners are kept on a {@link SubscriptionIndex}, so they can be registered and 
+ * notified concurrently. The events are handed to them through an {@link EventDelivery}.
+ * Subscriptions made without a listener are kept apart, only to be renewed and unregistered.
+ * 
  * @author Fabricio Nogueira Buzeto
  *
  */
@@ -32,20 +39,43 @@ public class EventManager implements NotifyHandler {
 	private static final String REGISTER_LISTENER_SERVICE = "registerListener";
 	private static final String UNREGISTER_LISTENER_SERVICE = "unregisterListener";
 
-	private Map<String, List<ListenerInfo>> listenerMap = new HashMap<String, List<ListenerInfo>>();
+	private SubscriptionIndex subscriptions = new SubscriptionIndex();
+	
+	/** Subscriptions on other devices whose events have no listener */
+	private List<Subscription> remoteOnly = new CopyOnWriteArrayList<Subscription>();
 	
 	private MessageEngine messageEngine;
 	
+	private EventDelivery delivery;
+	
+	/** Hands the notify to each listener matched */
+	private final Visitor<Incoming> deliver = new Visitor<Incoming>() {
+		public void visit(Subscription subscription, Incoming incoming) {
+			delivery.deliver(subscription.listener, incoming.notify, incoming.deviceName);
+		}
+	};
+	
+	/**
+	 * Events delivered by the thread which received them.
+	 */
 	public EventManager(MessageEngine messageEngine) {
+		this(messageEngine, EventDelivery.inline());
+	}
+	
+	public EventManager(MessageEngine messageEngine, EventDelivery delivery) {
 		this.messageEngine = messageEngine;
+		this.delivery = delivery;
 	}
 	
-	private static class ListenerInfo{
-		UosEventListener listener;
-		UpDevice device;
-		String driver;
-		String instanceId;
-		String eventKey;
+	/** A notify being handled */
+	private static final class Incoming {
+		final Notify notify;
+		final String deviceName;
+		
+		Incoming(Notify notify, String deviceName) {
+			this.notify = notify;
+			this.deviceName = deviceName;
+		}
 	}
 	
 	/**
@@ -67,58 +97,23 @@ public class EventManager implements NotifyHandler {
 		}
 	}
 	
-	/**
-	 * This method formats a unique identifier for the event.
-	 */
-	private static String getEventIdentifier(UpDevice device, String driver, String instanceId, String eventKey){
-		StringBuilder id =  new StringBuilder();
-		if (device != null 
-				&& device.getName() != null
-				&& !device.getName().isEmpty()){
-			id.append("@"+device.getName());
-		}
-		if (driver != null
-				&& !driver.isEmpty()){
-			id.append("*"+driver);
-		}
-		if (eventKey != null
-				&& !eventKey.isEmpty()){
-			id.append("."+eventKey);
-		}
-		if (instanceId != null
-				&& !instanceId.isEmpty()){
-			id.append("#"+instanceId);
-		}
-		return id.toString();
-	}
-	
 	/**
 	 * Register a Listener for a event, driver and device specified.
 	 * 
 	 * @param listener UosEventListener responsible for dealing with the event.
-	 * @param device Device which event must be listened
+	 * @param device Device which event must be listened (If not informed all devices will be considered).
 	 * @param driver Driver responsible for the event.
 	 * @param instanceId Instance Identifier of the driver to be registered upon. (Optional)
 	 * @param eventKey EventKey that identifies the wanted event to be listened.
 	 * @throws NotifyException In case of an error.
 	 */
 	public void registerForEvent(UosEventListener listener, UpDevice device, String driver, String instanceId, String eventKey) throws NotifyException{
+		Subscription subscription = new Subscription(listener, device, driver, instanceId, eventKey);
 		
-		// If the listener is already registered it cannot be registered again
-		String eventIdentifier = getEventIdentifier(device, driver, instanceId, eventKey);
-		
-		logger.fine("Registering listener for event :"+eventIdentifier);
+		logger.fine("Registering listener for event :"+subscription);
 		
-		if (findListener(listener, listenerMap.get(eventIdentifier))== null){
-			
-			ListenerInfo info = new ListenerInfo();
-			
-			info.driver = driver;
-			info.instanceId = instanceId;
-			info.eventKey = eventKey;
-			info.listener = listener;
-			info.device = device;
-			
+		// If the listener is already registered it cannot be registered again
+		if (!isRegistered(subscription)){
 			try {
 				if (device != null){
 					// Send the event register request to the called device
@@ -129,23 +124,79 @@ public class EventManager implements NotifyHandler {
 						throw new NotifyException(response.getError());
 					}
 				}
-				// If the registry process goes ok, then add the listenner to the listener map
-				if (listenerMap.get(eventIdentifier) == null){
-					listenerMap.put(eventIdentifier,new ArrayList<ListenerInfo>());
+				if (listener == null){
+					logger.fine("No listener informed, the events of "+subscription+" won't be handled.");
+					if (device != null){
+						remoteOnly.add(subscription);
+					}
+					return;
 				}
-				
-				listenerMap.get(eventIdentifier).add(info);				
-				logger.fine("Registered listener for event :"+eventIdentifier);
+				// If the registry process goes ok, then add the listenner to the index
+				subscriptions.add(subscription);
+				logger.fine("Registered listener for event :"+subscription);
 			} catch (MessageEngineException e) {
 				throw new NotifyException(e);
 			}
 		}
 	}
 	
+	private boolean isRegistered(Subscription subscription) {
+		if (subscription.listener != null){
+			return subscriptions.contains(subscription);
+		}
+		for (Subscription other : remoteOnly){
+			if (other.sameEvent(subscription)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Registers again to the events listened from other devices, so their 
+	 * drivers keep the leases of this device's subscriptions. Devices no 
+	 * longer known are skipped, their subscriptions are renewed once they're 
+	 * back.
+	 * 
+	 * @param devices Devices known, if <code>null</code> all devices are considered.
+	 * @return The amount of subscriptions renewed.
+	 */
+	public int renewLeases(DeviceManager devices){
+		int renewed = 0;
+		Set<String> done = new HashSet<String>();
+		List<Subscription> all = subscriptions.all();
+		if (!remoteOnly.isEmpty()){
+			all = new ArrayList<Subscription>(all);
+			all.addAll(remoteOnly);
+		}
+		for (Subscription subscription : all){
+			if (subscription.device == null || !done.add(subscription.toString())){
+				continue;
+			}
+			if (devices != null && devices.retrieveDevice(subscription.device.getName()) == null){
+				continue;
+			}
+			try {
+				ServiceCall serviceCall = new ServiceCall(subscription.driver,REGISTER_LISTENER_SERVICE,subscription.instanceId);
+				serviceCall.addParameter(REGISTER_EVENT_LISTENER_EVENT_KEY_PARAMETER, subscription.eventKey);
+				ServiceResponse response = messageEngine.callService(subscription.device, serviceCall);
+				if (response != null && (response.getError() == null || response.getError().isEmpty())){
+					renewed++;
+				}else{
+					logger.fine("Not possible to renew the subscription "+subscription
+							+(response == null ? "" : ": "+response.getError()));
+				}
+			} catch (Exception e) {
+				logger.log(Level.FINE, "Not possible to renew the subscription "+subscription, e);
+			}
+		}
+		return renewed;
+	}
+	
 	/**
 	 * Removes a listener for receiving Notify events and notifies the event driver of its removal.
 	 * 
-	 * @param listener Listener to be removed.
+	 * @param listener Listener to be removed, <code>null</code> for the subscriptions made without one.
 	 * @param driver Driver from which the listener must be removed (If not informed all drivers will be considered).
 	 * @param instanceId InstanceId from the Driver which the listener must be removed (If not informed all instances will be considered).
 	 * @param eventKey EventKey from which the listener must be removed (If not informed all events will be considered).
@@ -153,74 +204,60 @@ public class EventManager implements NotifyHandler {
 	 */
 	public void unregisterForEvent(UosEventListener listener, UpDevice device, String driver, String instanceId, String eventKey) throws NotifyException{
 		
-		List<ListenerInfo> listeners = findListeners(	device, driver,
-														instanceId, eventKey);
-		
-		if (listeners == null){
-			return;
-		}
+		Subscription wanted = new Subscription(listener, device, driver, instanceId, eventKey);
 		
 		NotifyException exception = null;
 		
-		// Secondly filter listenners by the other data [listener, driver and instanceId]
-		Iterator<ListenerInfo> it = listeners.iterator();
-		ListenerInfo li;
-		while(it.hasNext() ){
-			li = it.next();
-			
-			// only if its the same listener, it should be removed
-			if (li.listener.equals(listener) ){
-				boolean remove = true;
-				
-				// If the driver name is informed, and it's not the same, it must not be removed
-				if (driver != null && li.driver != null){
-					remove = li.driver.equals(driver);
-				}
-				
-				// If the instanceId is informed, and it's not the same, it must not be removed
-				if (instanceId != null && li.instanceId != null){
-					remove = li.instanceId.equals(instanceId);
-				}
-				
-				if (remove){
-					try {
-						//Notify device of the listener removal
-						unregisterForEvent(li);
-						
-						//remove listener from the list
-						it.remove();
-						
-					} catch (NotifyException e) {
-						logger.log(Level.SEVERE,"Failed to unregisterForEvent",e);
-						exception = e;
+		// only the subscriptions of the same listener are considered
+		Subscription[] own = listener == null ? remoteOnly.toArray(new Subscription[0]) 
+											: subscriptions.subscriptionsOf(listener);
+		for (Subscription subscription : own){
+			if (isUnregistered(wanted, subscription)){
+				try {
+					//Notify device of the listener removal
+					unregisterForEvent(subscription);
+					
+					//remove listener from the index
+					if (listener == null){
+						remoteOnly.remove(subscription);
+					}else{
+						subscriptions.remove(subscription);
 					}
+					
+				} catch (NotifyException e) {
+					logger.log(Level.SEVERE,"Failed to unregisterForEvent",e);
+					exception = e;
 				}
 			}
 		}
 		
+		// events still queued for a listener of nothing are not delivered
+		if (listener != null && subscriptions.subscriptionsOf(listener).length == 0){
+			delivery.forget(listener);
+		}
+		
 		// In case of an error, throw it
 		if (exception != null){
 			throw exception;
 		}
 	}
 
-	private List<ListenerInfo> findListeners(UpDevice device, String driver,
-			String instanceId, String eventKey) {
-		// First filter the listeners by the event key 
-		List<ListenerInfo> listeners = null;
-		
-		if (eventKey == null){
-			// In this case all eventKeys must be checked for the listener to be removed.
-			listeners = new ArrayList<ListenerInfo>();
-			for (List<ListenerInfo> list : listenerMap.values()){
-				listeners.addAll(list);
-			}
-		}else{
-			// In case a eventKey is informed, then only the listeners for that event key must be used
-			String eventIdentifier = getEventIdentifier(device, driver, instanceId, eventKey);
-			listeners = listenerMap.get(eventIdentifier);
+	private static boolean isUnregistered(Subscription wanted, Subscription subscription) {
+		if (wanted.eventKey != null){
+			// In case a eventKey is informed, then only the listeners for that exact event must be removed
+			return wanted.sameEvent(subscription);
 		}
-		return listeners;
+		// If the driver name is informed, and it's not the same, it must not be removed
+		if (wanted.driver != null && subscription.driver != null 
+				&& !wanted.driver.equals(subscription.driver)){
+			return false;
+		}
+		// If the instanceId is informed, and it's not the same, it must not be removed
+		if (wanted.instanceId != null && subscription.instanceId != null 
+				&& !wanted.instanceId.equals(subscription.instanceId)){
+			return false;
+		}
+		return true;
 	}
 	
 	/**
@@ -230,7 +267,7 @@ public class EventManager implements NotifyHandler {
 	 * 
 	 * @throws NotifyException
 	 */
-	private void unregisterForEvent(ListenerInfo listenerInfo) throws NotifyException{
+	private void unregisterForEvent(Subscription listenerInfo) throws NotifyException{
 		// Send the event register request to the called device
 		ServiceCall serviceCall = new ServiceCall(listenerInfo.driver,UNREGISTER_LISTENER_SERVICE,listenerInfo.instanceId);
 		
@@ -252,68 +289,40 @@ public class EventManager implements NotifyHandler {
 	 * @see NotifyHandler#handleNofify(Notify)
 	 */
 	public void handleNofify(Notify notify, UpDevice device) {
-		if (notify == null || notify.getEventKey() == null || notify.getEventKey().isEmpty()){
+		if (notify == null){
+			logger.fine("No information in notify to handle.");
+			return;
+		}
+		if (notify.getEventKey() == null || notify.getEventKey().isEmpty()){
 			logger.fine("No information in notify to handle.");
 		}
 		
-		if (listenerMap == null || listenerMap.isEmpty()){
+		if (subscriptions.size() == 0){
 			logger.fine("No listeners waiting for notify events.");
+			return;
 		}
 		
 		//Notifying listeners from more specific to more general entries
+		String deviceName = device == null ? null : device.getName();
+		int notified = subscriptions.match(notify.getDriver(), notify.getEventKey(), 
+											deviceName, notify.getInstanceId(), deliver, 
+											new Incoming(notify, deviceName));
 		
-		String eventIdentifier;
-		// First full entries (device, driver, event, intanceId)
-		eventIdentifier = getEventIdentifier(device, notify.getDriver(), notify.getInstanceId(), notify.getEventKey());
-		List<ListenerInfo> listeners = listenerMap.get(eventIdentifier);
-		handleNotify(notify, listeners, eventIdentifier);
-		
-		// After less general entries (device, driver, event)
-		eventIdentifier = getEventIdentifier(device, notify.getDriver(), null, notify.getEventKey());
-		listeners = listenerMap.get(eventIdentifier);
-		handleNotify(notify, listeners, eventIdentifier);
-
-		// An then the least general entries (driver, event)
-		eventIdentifier = getEventIdentifier(null, notify.getDriver(), null, notify.getEventKey());
-		listeners = listenerMap.get(eventIdentifier);
-		handleNotify(notify, listeners, eventIdentifier);
-		
-	}
-
-	private void handleNotify(Notify notify, List<ListenerInfo> listeners, String eventIdentifier) {
-		if (listeners == null || listeners.isEmpty()){
-			logger.fine("No listeners waiting for notify events for the key '"+eventIdentifier+"'.");
-			return;
-		}
-		
-		// call handlers in each listener
-		for(ListenerInfo li : listeners){
-			if (li.listener != null){
-				li.listener.handleEvent(notify);
-			}
+		if (notified == 0 && logger.isLoggable(Level.FINE)){
+			logger.fine("No listeners waiting for notify events for the key '"+notify.getEventKey()
+						+"' of the driver '"+notify.getDriver()+"'.");
 		}
 	}
 	
 	/**
-	 * Find a listener instance in a list of ListenerInfos
-	 * 
-	 * @param listener Listener to be found.
-	 * @param list List to search in.
-	 * @return LinstenerInfo for the listener, if found.
+	 * @return How the events are being delivered to the listeners.
 	 */
-	private ListenerInfo findListener(UosEventListener listener, List<ListenerInfo> list){
-		ListenerInfo info = null;
-		
-		if (list != null && !list.isEmpty() && listener != null){
-			for (ListenerInfo li : list){
-				if (li.listener != null && li.listener.equals(listener)){
-					info = li;
-					break;
-				}
-			}
-		}
-		
-		return info;
+	public EventDelivery getDelivery() {
+		return delivery;
+	}
+	
+	public void tearDown() {
+		delivery.shutdown();
 	}
 	
 }
@@ -0,0 +1,31 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.unbiquitous.uos.core.adaptabitilyEngine.EventDelivery.Overflow;
+
+/**
+ * Declares how the events are queued for a listener, when on its class.
+ * Listeners without it use the queue and overflow configured for the
+ * {@link EventDelivery}.
+ *
+ * <pre>
+ * &#064;EventPolicy(queue=16, overflow=Overflow.COALESCE)
+ * public class PositionTracker implements UosEventListener {...}
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface EventPolicy {
+
+	/** Events queued for the listener, the configured amount if not positive. */
+	int queue() default 0;
+
+	/** What to do with the events beyond the queue. */
+	Overflow overflow() default Overflow.DROP_OLDEST;
+}
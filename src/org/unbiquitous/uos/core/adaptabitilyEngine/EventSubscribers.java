@@ -0,0 +1,270 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+
+/**
+ * The devices listening to the events of a driver, by event key, as
+ * registered through its <code>registerListener</code> service.
+ *
+ * Drivers keep one of these instead of their own lists and hand it to
+ * {@link Gateway#notifySubscribers}, which sends
+ * each notify to all of its subscribers at once. Each subscriber is resolved
+ * to the device known by the middleware only once, so later notifies are
+ * sent with whatever encoding and connections were negotiated with it.
+ *
+ * Each subscription may carry a {@link NotifyPolicy}, so only the notifies
+ * worth it are sent to the subscriber.
+ *
+ * Devices are told apart by host and network type, so one registering again
+ * from another port is still subscribed once, reached through the interface
+ * it registered from last.
+ *
+ * Subscriptions are leases renewed each time the device registers again or
+ * talks to this one. Those expired, or of devices which left the smart space,
+ * are dropped when notifying instead of being sent to dead addresses.
+ *
+ * The subscribers are kept in arrays replaced on each change, so notifies
+ * can be sent while devices come and go.
+ */
+public class EventSubscribers {
+
+	private static final Subscriber[] NONE = new Subscriber[0];
+
+	private final ConcurrentMap<String, Subscriber[]> byEvent = new ConcurrentHashMap<String, Subscriber[]>();
+
+	/**
+	 * A device listening to an event, reached through the interface it
+	 * registered from last.
+	 */
+	static final class Subscriber {
+		volatile UpNetworkInterface networkInterface;
+		/** The device it belongs to, by host and network type, whatever its port. */
+		final String deviceKey;
+		/** Policy of the subscription, <code>null</code> if all notifies are sent. */
+		final NotifyGate gate;
+		/** The device it was resolved to or, until then, one only known by the interface. */
+		volatile UpDevice device;
+		/** Whether the device was resolved. */
+		volatile boolean resolved;
+		/** When the device last registered to the event. */
+		volatile long renewedAt;
+		/** Whether it is no longer subscribed. */
+		volatile boolean removed;
+
+		Subscriber(UpNetworkInterface networkInterface, NotifyPolicy policy) {
+			this.networkInterface = networkInterface;
+			this.deviceKey = deviceKey(networkInterface.getNetworkAddress(), networkInterface.getNetType());
+			this.gate = policy == null || policy.isEmpty() ? null : new NotifyGate(policy);
+			this.renewedAt = System.currentTimeMillis();
+			this.device = anonymousAt(networkInterface);
+		}
+
+		private static UpDevice anonymousAt(UpNetworkInterface networkInterface) {
+			return new UpDevice("Anonymous").addNetworkInterface(
+					networkInterface.getNetworkAddress(), networkInterface.getNetType());
+		}
+
+		/**
+		 * Reaches the device through the interface it registered from again,
+		 * unless it was already resolved.
+		 */
+		void movedTo(NetworkDevice caller) {
+			String address = caller.getNetworkDeviceName();
+			if (address == null || address.equals(networkInterface.getNetworkAddress())){
+				return;
+			}
+			networkInterface = new UpNetworkInterface(caller.getNetworkDeviceType(), address);
+			if (!resolved){
+				device = anonymousAt(networkInterface);
+			}
+		}
+
+		/**
+		 * @return The device resolved or one only known by the interface.
+		 */
+		UpDevice target() {
+			return device;
+		}
+
+		void resolvedTo(UpDevice resolved) {
+			device = resolved;
+			this.resolved = true;
+		}
+	}
+
+	/**
+	 * @return The key of the device at the address, by its host and network
+	 * 			type, so all its ports count as the same device.
+	 */
+	static String deviceKey(String address, String type) {
+		return hostOf(address)+"@"+type;
+	}
+
+	/**
+	 * @return The host of the address, without its port, as in
+	 * 			<code>10.0.0.1:14984</code> or <code>[::1]:14984</code>.
+	 * 			Addresses with many ':' and no brackets are hosts alone.
+	 */
+	static String hostOf(String address) {
+		if (address == null){
+			return null;
+		}
+		if (address.startsWith("[")){
+			int end = address.indexOf(']');
+			return end < 0 ? address : address.substring(1, end);
+		}
+		int colon = address.lastIndexOf(':');
+		if (colon < 0 || address.indexOf(':') != colon){
+			return address;
+		}
+		return address.substring(0, colon);
+	}
+
+	/**
+	 * Subscribes the calling device to the event, unless it is already.
+	 * In that case its lease is renewed.
+	 *
+	 * @return <code>false</code> if it was already subscribed.
+	 */
+	public boolean add(String eventKey, NetworkDevice caller) {
+		return add(eventKey, caller, null);
+	}
+
+	/**
+	 * Subscribes the calling device to the event, unless it is already,
+	 * sending it only the notifies allowed by the policy. In case it is
+	 * already subscribed, even from another port, its lease is renewed,
+	 * keeping the former policy, and it's reached through the caller's
+	 * interface from then on.
+	 *
+	 * @return <code>false</code> if it was already subscribed.
+	 */
+	public synchronized boolean add(String eventKey, NetworkDevice caller, NotifyPolicy policy) {
+		if (eventKey == null || caller == null){
+			return false;
+		}
+		Subscriber[] subscribers = subscribersOf(eventKey);
+		int index = indexOf(subscribers, caller);
+		if (index >= 0){
+			subscribers[index].movedTo(caller);
+			subscribers[index].renewedAt = System.currentTimeMillis();
+			return false;
+		}
+		Subscriber[] copy = Arrays.copyOf(subscribers, subscribers.length + 1);
+		copy[subscribers.length] = new Subscriber(new UpNetworkInterface(
+							caller.getNetworkDeviceType(), caller.getNetworkDeviceName()), policy);
+		byEvent.put(eventKey, copy);
+		return true;
+	}
+
+	/**
+	 * Unsubscribes the calling device from the event or, if no event is
+	 * informed, from all of them.
+	 *
+	 * @return <code>false</code> if it wasn't subscribed.
+	 */
+	public synchronized boolean remove(String eventKey, NetworkDevice caller) {
+		if (caller == null){
+			return false;
+		}
+		if (eventKey != null){
+			return remove(eventKey, subscribersOf(eventKey), caller);
+		}
+		boolean removed = false;
+		for (String key : new ArrayList<String>(byEvent.keySet())){
+			removed |= remove(key, subscribersOf(key), caller);
+		}
+		return removed;
+	}
+
+	private boolean remove(String eventKey, Subscriber[] subscribers, NetworkDevice caller) {
+		int index = indexOf(subscribers, caller);
+		if (index < 0){
+			return false;
+		}
+		removeAt(eventKey, subscribers, index);
+		return true;
+	}
+
+	/**
+	 * Unsubscribes the subscriber from the event, if it still is.
+	 */
+	synchronized void drop(String eventKey, Subscriber subscriber) {
+		Subscriber[] subscribers = subscribersOf(eventKey);
+		for (int i = 0; i < subscribers.length; i++){
+			if (subscribers[i] == subscriber){
+				removeAt(eventKey, subscribers, i);
+				return;
+			}
+		}
+	}
+
+	private void removeAt(String eventKey, Subscriber[] subscribers, int index) {
+		subscribers[index].removed = true;
+		if (subscribers.length == 1){
+			byEvent.remove(eventKey);
+			return;
+		}
+		Subscriber[] copy = new Subscriber[subscribers.length - 1];
+		System.arraycopy(subscribers, 0, copy, 0, index);
+		System.arraycopy(subscribers, index + 1, copy, index, copy.length - index);
+		byEvent.put(eventKey, copy);
+	}
+
+	/**
+	 * @return The interfaces of the devices subscribed to the event.
+	 */
+	public List<UpNetworkInterface> of(String eventKey) {
+		Subscriber[] subscribers = subscribersOf(eventKey);
+		if (subscribers.length == 0){
+			return Collections.emptyList();
+		}
+		List<UpNetworkInterface> interfaces = new ArrayList<UpNetworkInterface>(subscribers.length);
+		for (Subscriber subscriber : subscribers){
+			interfaces.add(subscriber.networkInterface);
+		}
+		return interfaces;
+	}
+
+	/**
+	 * @return Whether any device is subscribed to the event.
+	 */
+	public boolean isEmpty(String eventKey) {
+		return subscribersOf(eventKey).length == 0;
+	}
+
+	/**
+	 * @return The events with any subscriber.
+	 */
+	Collection<String> events() {
+		return byEvent.keySet();
+	}
+
+	Subscriber[] subscribersOf(String eventKey) {
+		if (eventKey == null){
+			return NONE;
+		}
+		Subscriber[] subscribers = byEvent.get(eventKey);
+		return subscribers == null ? NONE : subscribers;
+	}
+
+	private static int indexOf(Subscriber[] subscribers, NetworkDevice caller) {
+		String key = deviceKey(caller.getNetworkDeviceName(), caller.getNetworkDeviceType());
+		for (int i = 0; i < subscribers.length; i++){
+			if (subscribers[i].deviceKey.equals(key)){
+				return i;
+			}
+		}
+		return -1;
+	}
+}
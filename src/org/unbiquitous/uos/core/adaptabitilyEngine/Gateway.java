@@ -5,6 +5,8 @@ import java.util.Map;
 
 import org.unbiquitous.uos.core.driverManager.DriverData;
 import org.unbiquitous.uos.core.messageEngine.MessageEngineException;
+import org.unbiquitous.uos.core.messageEngine.ServiceCallback;
+import org.unbiquitous.uos.core.messageEngine.ServiceFuture;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
@@ -45,6 +47,27 @@ public interface Gateway {
 	public ServiceResponse callService(UpDevice device,
 			ServiceCall serviceCall) throws ServiceCallException;
 
+	/**
+	 * Makes a Service Call without blocking the caller.
+	 * 
+	 * @param device The Device which you'll make the call. Null if local.
+	 * @param serviceCall	Call Object.
+	 * @return Future response of the execution.
+	 */
+	public ServiceFuture callServiceAsync(UpDevice device, ServiceCall serviceCall);
+	
+	/**
+	 * Makes a Service Call without blocking the caller.
+	 * 
+	 * @param device The Device which you'll make the call. Null if local.
+	 * @param serviceCall	Call Object.
+	 * @param timeout Time (in milliseconds) to wait for the response. If not positive the default is used.
+	 * @param callback Optional callback informed once the call is done.
+	 * @return Future response of the execution.
+	 */
+	public ServiceFuture callServiceAsync(UpDevice device, ServiceCall serviceCall, 
+			long timeout, ServiceCallback callback);
+
 	/**
 	 * Register a Listener for a event, driver and device specified.
 	 * 
@@ -100,6 +123,16 @@ public interface Gateway {
 	 */
 	public void sendEventNotify(Notify notify, UpDevice device) throws NotifyException;
 	
+	/**
+	 * Sends a notify message to all the devices subscribed to its event key,
+	 * encoding it only once and reaching them in parallel.
+	 * 
+	 * @param notify Notify message to be sent.
+	 * @param subscribers Devices subscribed to the events of the driver.
+	 * @throws NotifyException
+	 */
+	public void notifySubscribers(Notify notify, EventSubscribers subscribers) throws NotifyException;
+	
 	/**
 	 * @return Data about the Current Device uOS is running on.
 	 */
@@ -0,0 +1,139 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+
+/**
+ * Applies a {@link NotifyPolicy} to the notifies sent to a subscriber,
+ * keeping for each value of the coalescing parameter the last notify sent
+ * and the latest one held while the interval of the rate hasn't ended.
+ */
+class NotifyGate {
+
+	/** The notify must be sent right away. */
+	static final long SEND = 0;
+	/** Nothing to be done, the notify was discarded or replaced a held one. */
+	static final long SKIP = -1;
+
+	private final NotifyPolicy policy;
+	private final Map<String, Slot> slots = new HashMap<String, Slot>();
+
+	NotifyGate(NotifyPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Decides what to do with the notify.
+	 *
+	 * @return {@link #SEND}, {@link #SKIP} or, when the notify was held, the
+	 * 			milliseconds until it must be taken through {@link #release(String, long)}.
+	 */
+	synchronized long admit(Notify notify, long now) {
+		Slot slot = slotOf(key(notify));
+		if (isUrgent(notify)){
+			slot.sent(notify, now);
+			return SEND;
+		}
+		if (slot.lastSent != null && !moved(slot.lastSent, notify)){
+			// the latest value is close enough to the one sent, whatever was held in between
+			slot.pending = null;
+			return SKIP;
+		}
+		// elapsed first, so even the longest intervals don't overflow
+		long wait = policy.interval() - (now - slot.lastSentAt);
+		if (slot.lastSent == null || wait <= 0){
+			slot.sent(notify, now);
+			return SEND;
+		}
+		boolean scheduled = slot.pending != null;
+		slot.pending = notify;
+		return scheduled ? SKIP : wait;
+	}
+
+	/**
+	 * Takes the notify held for the key, as sent.
+	 *
+	 * @return The latest notify held or <code>null</code> if none is left.
+	 */
+	synchronized Notify release(String key, long now) {
+		Slot slot = slots.get(key);
+		if (slot == null || slot.pending == null){
+			return null;
+		}
+		Notify held = slot.pending;
+		slot.sent(held, now);
+		return held;
+	}
+
+	/**
+	 * @return The key the notify is coalesced by.
+	 */
+	String key(Notify notify) {
+		if (policy.coalesceBy() == null){
+			return "";
+		}
+		Object value = notify.getParameter(policy.coalesceBy());
+		return value == null ? "" : value.toString();
+	}
+
+	private Slot slotOf(String key) {
+		Slot slot = slots.get(key);
+		if (slot == null){
+			slot = new Slot();
+			slots.put(key, slot);
+		}
+		return slot;
+	}
+
+	private boolean isUrgent(Notify notify) {
+		for (String parameter : policy.urgent()){
+			if (notify.getParameter(parameter) != null){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Whether any of the watched parameters moved enough, or there
+	 * 			are none to be watched.
+	 */
+	private boolean moved(Notify sent, Notify notify) {
+		if (policy.deltas().isEmpty()){
+			return true;
+		}
+		for (Map.Entry<String, Double> delta : policy.deltas().entrySet()){
+			Double before = number(sent.getParameter(delta.getKey()));
+			Double after = number(notify.getParameter(delta.getKey()));
+			if (before == null || after == null || Math.abs(after - before) >= delta.getValue()){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Double number(Object value) {
+		if (value instanceof Number){
+			return ((Number) value).doubleValue();
+		}
+		try {
+			return value == null ? null : Double.valueOf(value.toString());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static final class Slot {
+		Notify lastSent;
+		long lastSentAt;
+		Notify pending;
+
+		void sent(Notify notify, long at) {
+			lastSent = notify;
+			lastSentAt = at;
+			pending = null;
+		}
+	}
+}
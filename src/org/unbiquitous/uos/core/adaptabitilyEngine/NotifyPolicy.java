@@ -0,0 +1,135 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+
+/**
+ * Declares which of the notifies of an event are worth sending to a
+ * subscriber, for drivers which emit them faster than they can be used
+ * (like the positions of a tracker). It is informed by the driver when
+ * handling <code>registerListener</code>, along with the subscriber, see
+ * {@link EventSubscribers#add(String, org.unbiquitous.uos.core.network.model.NetworkDevice, NotifyPolicy)}.
+ *
+ * <ul>
+ * <li>{@link #maxRate(double)} sends at most that many notifies per second.
+ * 	The ones in between are held and only the latest is sent once the
+ * 	interval ends.</li>
+ * <li>{@link #coalesceBy(String)} applies the rate to each value of the
+ * 	parameter apart (like each user e-mail), so the updates of one don't
+ * 	replace the ones of the other.</li>
+ * <li>{@link #minDelta(String, double)} discards the notifies whose numeric
+ * 	parameters moved less than the informed amount since the last one sent.</li>
+ * <li>{@link #urgentWith(String)} sends right away the notifies carrying the
+ * 	parameter, whatever the rest of the policy says.</li>
+ * </ul>
+ *
+ * <pre>
+ * subscribers.add(eventKey, caller, new NotifyPolicy()
+ * 				.maxRate(10).coalesceBy("email")
+ * 				.minDelta("positionX", 0.01).minDelta("positionY", 0.01));
+ * </pre>
+ */
+public class NotifyPolicy {
+
+	/**
+	 * Parameter of <code>registerListener</code> calls through which
+	 * subscribers ask for a lower rate of notifies than the driver's.
+	 */
+	public static final String MAX_RATE_PARAM = "maxRate";
+
+	private long interval;
+	private String coalesceBy;
+	private final Map<String, Double> deltas = new LinkedHashMap<String, Double>();
+	private final Set<String> urgent = new HashSet<String>();
+
+	/**
+	 * Sends at most the informed amount of notifies per second (of each value
+	 * of the {@link #coalesceBy(String)} parameter), not limited if not positive.
+	 */
+	public NotifyPolicy maxRate(double perSecond) {
+		interval = perSecond > 0 ? (long) Math.ceil(1000 / perSecond) : 0;
+		return this;
+	}
+
+	/**
+	 * Applies the rate and deltas to each value of the parameter apart.
+	 */
+	public NotifyPolicy coalesceBy(String parameter) {
+		coalesceBy = parameter;
+		return this;
+	}
+
+	/**
+	 * Discards the notifies whose parameter moved less than the informed
+	 * amount since the last one sent. When many are informed the notify is
+	 * sent if any of them moved enough.
+	 */
+	public NotifyPolicy minDelta(String parameter, double delta) {
+		deltas.put(parameter, delta);
+		return this;
+	}
+
+	/**
+	 * Sends the notifies carrying the parameter right away.
+	 */
+	public NotifyPolicy urgentWith(String parameter) {
+		urgent.add(parameter);
+		return this;
+	}
+
+	/**
+	 * Lowers the rate to the one asked for by the subscriber through the
+	 * {@link #MAX_RATE_PARAM} of its <code>registerListener</code> call, if any.
+	 * Rates which aren't positive finite numbers are ignored.
+	 */
+	public NotifyPolicy requestedBy(ServiceCall registerListener) {
+		Object requested = registerListener == null ? null : registerListener.getParameter(MAX_RATE_PARAM);
+		if (requested == null){
+			return this;
+		}
+		try {
+			double rate = Double.parseDouble(requested.toString());
+			if (!(rate > 0) || Double.isInfinite(rate)){
+				return this;
+			}
+			long asked = (long) Math.ceil(1000 / rate);
+			if (asked > interval){
+				interval = asked;
+			}
+		} catch (NumberFormatException e) {
+			// keeps the driver's own rate
+		}
+		return this;
+	}
+
+	/**
+	 * @return Milliseconds between two notifies of the same key, <code>0</code> if not limited.
+	 */
+	long interval() {
+		return interval;
+	}
+
+	String coalesceBy() {
+		return coalesceBy;
+	}
+
+	Map<String, Double> deltas() {
+		return Collections.unmodifiableMap(deltas);
+	}
+
+	Set<String> urgent() {
+		return Collections.unmodifiableSet(urgent);
+	}
+
+	/**
+	 * @return Whether every notify is sent as is.
+	 */
+	boolean isEmpty() {
+		return interval == 0 && deltas.isEmpty();
+	}
+}
@@ -0,0 +1,22 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+
+/**
+ * Listener which must know which device sent each event, like those which
+ * trust the contents of the event only when it comes from the device it
+ * is about.
+ *
+ * The events are handled only through {@link #handleEvent(Notify, String)}.
+ */
+public interface SenderAwareEventListener extends UosEventListener {
+
+	/**
+	 * Method responsible for dealing with the event received.
+	 *
+	 * @param event Notify message representing the event received.
+	 * @param sender Name of the device which sent the event,
+	 * 			<code>null</code> if it is not a known device.
+	 */
+	public void handleEvent(Notify event, String sender);
+}
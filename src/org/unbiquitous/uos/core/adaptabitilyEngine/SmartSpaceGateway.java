@@ -9,6 +9,8 @@ import org.unbiquitous.uos.core.connectivity.ConnectivityManager;
 import org.unbiquitous.uos.core.deviceManager.DeviceManager;
 import org.unbiquitous.uos.core.driverManager.DriverData;
 import org.unbiquitous.uos.core.driverManager.DriverManager;
+import org.unbiquitous.uos.core.messageEngine.ServiceCallback;
+import org.unbiquitous.uos.core.messageEngine.ServiceFuture;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
@@ -56,6 +58,15 @@ public class SmartSpaceGateway implements Gateway {
 			throws ServiceCallException {
 		return adaptabilityEngine.callService(device, serviceCall);
 	}
+	
+	public ServiceFuture callServiceAsync(UpDevice device, ServiceCall serviceCall) {
+		return adaptabilityEngine.callServiceAsync(device, serviceCall);
+	}
+	
+	public ServiceFuture callServiceAsync(UpDevice device, ServiceCall serviceCall,
+			long timeout, ServiceCallback callback) {
+		return adaptabilityEngine.callServiceAsync(device, serviceCall, timeout, callback);
+	}
 
 	public void registerForEvent(UosEventListener listener, UpDevice device,
 			String driver, String eventKey) throws NotifyException {
@@ -87,6 +98,11 @@ public class SmartSpaceGateway implements Gateway {
 		adaptabilityEngine.sendEventNotify(notify, device);
 	}
 
+	public void notifySubscribers(Notify notify, EventSubscribers subscribers)
+			throws NotifyException {
+		adaptabilityEngine.notifySubscribers(notify, subscribers);
+	}
+
 	public void unregisterForEvent(UosEventListener listener)
 			throws NotifyException {
 		adaptabilityEngine.unregisterForEvent(listener);
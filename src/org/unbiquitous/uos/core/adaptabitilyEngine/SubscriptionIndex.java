@@ -0,0 +1,287 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+
+/**
+ * Index of the listeners of events, by the driver, event key, device and
+ * instance they listen to. Any of those left out (<code>null</code> or empty)
+ * matches all of them.
+ *
+ * The index is a tree with a level for each of them, where each node knows
+ * its children by their value and keeps the one for "any" apart. Matching a
+ * notify walks only the branches of its own values and of "any", without
+ * building lists of the matches. The listeners are kept in arrays replaced on each change, so
+ * notifies are matched without locks while listeners come and go.
+ */
+class SubscriptionIndex {
+
+	private static final int DRIVER = 0;
+	private static final int EVENT_KEY = 1;
+	private static final int DEVICE = 2;
+	private static final int INSTANCE = 3;
+	private static final int LEVELS = 4;
+
+	private static final Subscription[] NONE = new Subscription[0];
+
+	private final Node root = new Node();
+	private final ConcurrentMap<UosEventListener, Subscription[]> byListener =
+									new ConcurrentHashMap<UosEventListener, Subscription[]>();
+	private volatile int size;
+
+	/**
+	 * Informed of each subscription matched.
+	 */
+	interface Visitor<A> {
+		void visit(Subscription subscription, A arg);
+	}
+
+	/**
+	 * A listener of events, as registered.
+	 */
+	static final class Subscription {
+		final UosEventListener listener;
+		final UpDevice device;
+		final String driver;
+		final String instanceId;
+		final String eventKey;
+		final String deviceName;
+
+		Subscription(UosEventListener listener, UpDevice device, String driver, String instanceId, String eventKey) {
+			this.listener = listener;
+			this.device = device;
+			this.driver = normalize(driver);
+			this.instanceId = normalize(instanceId);
+			this.eventKey = normalize(eventKey);
+			this.deviceName = device == null ? null : normalize(device.getName());
+		}
+
+		private String key(int level) {
+			switch (level) {
+				case DRIVER: return driver;
+				case EVENT_KEY: return eventKey;
+				case DEVICE: return deviceName;
+				default: return instanceId;
+			}
+		}
+
+		boolean sameAs(Subscription other) {
+			return listener.equals(other.listener) && sameEvent(other);
+		}
+
+		boolean sameEvent(Subscription other) {
+			return equal(driver, other.driver) && equal(eventKey, other.eventKey)
+					&& equal(deviceName, other.deviceName) && equal(instanceId, other.instanceId);
+		}
+
+		@Override
+		public String toString() {
+			return "@"+deviceName+"*"+driver+"."+eventKey+"#"+instanceId;
+		}
+	}
+
+	/**
+	 * Adds the subscription, unless its listener already listens to the same
+	 * event.
+	 *
+	 * @return <code>false</code> if it was already there.
+	 */
+	synchronized boolean add(Subscription subscription) {
+		if (contains(subscription)){
+			return false;
+		}
+		Node node = root;
+		for (int level = 0; level < LEVELS; level++){
+			node = node.childOrNew(subscription.key(level));
+		}
+		node.subscriptions = append(node.subscriptions, subscription);
+		byListener.put(subscription.listener, append(subscriptionsOf(subscription.listener), subscription));
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes the subscription of the same listener to the same event.
+	 *
+	 * @return <code>false</code> if there was none.
+	 */
+	synchronized boolean remove(Subscription subscription) {
+		Subscription[] own = subscriptionsOf(subscription.listener);
+		int index = indexOf(own, subscription);
+		if (index < 0){
+			return false;
+		}
+		if (own.length == 1){
+			byListener.remove(subscription.listener);
+		}else{
+			byListener.put(subscription.listener, removeAt(own, index));
+		}
+		remove(root, 0, subscription);
+		size--;
+		return true;
+	}
+
+	/**
+	 * @return Whether the listener already listens to the same event.
+	 */
+	boolean contains(Subscription subscription) {
+		Node node = root;
+		for (int level = 0; level < LEVELS && node != null; level++){
+			String key = subscription.key(level);
+			node = key == null ? node.any : node.children.get(key);
+		}
+		return node != null && indexOf(node.subscriptions, subscription) >= 0;
+	}
+
+	/**
+	 * @return All the subscriptions of the listener.
+	 */
+	Subscription[] subscriptionsOf(UosEventListener listener) {
+		if (listener == null){
+			return NONE;
+		}
+		Subscription[] subscriptions = byListener.get(listener);
+		return subscriptions == null ? NONE : subscriptions;
+	}
+
+	/**
+	 * @return All the subscriptions, of every listener.
+	 */
+	List<Subscription> all() {
+		if (size == 0){
+			return Collections.emptyList();
+		}
+		List<Subscription> all = new ArrayList<Subscription>(size);
+		for (Subscription[] subscriptions : byListener.values()){
+			Collections.addAll(all, subscriptions);
+		}
+		return all;
+	}
+
+	/**
+	 * Visits each subscription matching the event, from the more specific
+	 * to the more general ones.
+	 *
+	 * @return The amount of subscriptions visited.
+	 */
+	<A> int match(String driver, String eventKey, String deviceName, String instanceId, Visitor<A> visitor, A arg) {
+		return match(root, DRIVER, normalize(driver), normalize(eventKey),
+						normalize(deviceName), normalize(instanceId), visitor, arg);
+	}
+
+	private <A> int match(Node node, int level, String driver, String eventKey, String deviceName,
+							String instanceId, Visitor<A> visitor, A arg) {
+		if (level == LEVELS){
+			Subscription[] subscriptions = node.subscriptions;
+			for (int i = 0; i < subscriptions.length; i++){
+				visitor.visit(subscriptions[i], arg);
+			}
+			return subscriptions.length;
+		}
+		int matched = 0;
+		String key = level == DRIVER ? driver : level == EVENT_KEY ? eventKey : level == DEVICE ? deviceName : instanceId;
+		if (key != null){
+			Node child = node.children.get(key);
+			if (child != null){
+				matched += match(child, level + 1, driver, eventKey, deviceName, instanceId, visitor, arg);
+			}
+		}
+		Node any = node.any;
+		if (any != null){
+			matched += match(any, level + 1, driver, eventKey, deviceName, instanceId, visitor, arg);
+		}
+		return matched;
+	}
+
+	/**
+	 * @return Amount of subscriptions.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes the subscription from the branch, pruning the nodes left empty.
+	 *
+	 * @return Whether the node was left empty.
+	 */
+	private boolean remove(Node node, int level, Subscription subscription) {
+		if (level == LEVELS){
+			int index = indexOf(node.subscriptions, subscription);
+			if (index >= 0){
+				node.subscriptions = removeAt(node.subscriptions, index);
+			}
+			return node.subscriptions.length == 0;
+		}
+		String key = subscription.key(level);
+		Node child = key == null ? node.any : node.children.get(key);
+		if (child != null && remove(child, level + 1, subscription)){
+			if (key == null){
+				node.any = null;
+			}else{
+				node.children.remove(key);
+			}
+		}
+		return node.any == null && node.children.isEmpty();
+	}
+
+	private static int indexOf(Subscription[] subscriptions, Subscription subscription) {
+		for (int i = 0; i < subscriptions.length; i++){
+			if (subscriptions[i].sameAs(subscription)){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static Subscription[] append(Subscription[] subscriptions, Subscription subscription) {
+		Subscription[] copy = new Subscription[subscriptions.length + 1];
+		System.arraycopy(subscriptions, 0, copy, 0, subscriptions.length);
+		copy[subscriptions.length] = subscription;
+		return copy;
+	}
+
+	private static Subscription[] removeAt(Subscription[] subscriptions, int index) {
+		Subscription[] copy = new Subscription[subscriptions.length - 1];
+		System.arraycopy(subscriptions, 0, copy, 0, index);
+		System.arraycopy(subscriptions, index + 1, copy, index, copy.length - index);
+		return copy;
+	}
+
+	private static String normalize(String value) {
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * A level of the index. Only changed while holding the index.
+	 */
+	private static final class Node {
+		final ConcurrentMap<String, Node> children = new ConcurrentHashMap<String, Node>(4);
+		volatile Node any;
+		volatile Subscription[] subscriptions = NONE;
+
+		Node childOrNew(String key) {
+			if (key == null){
+				if (any == null){
+					any = new Node();
+				}
+				return any;
+			}
+			Node child = children.get(key);
+			if (child == null){
+				child = new Node();
+				children.put(key, child);
+			}
+			return child;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.unbiquitous.uos.core.UOSProperties;
+import org.unbiquitous.uos.core.deviceManager.DeviceManager;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+
+/**
+ * Decides whether the subscribers of the drivers are still worth notifying.
+ *
+ * A subscription is a lease, renewed each time the device registers to the
+ * event again and each time any message of it arrives, so devices talking
+ * to this one never need to renew it on purpose. A lease not renewed for the
+ * configured duration expires. The subscriptions of a device which left the
+ * smart space are dropped right away, no matter how recent their lease is,
+ * until it talks to this device again.
+ *
+ * Devices are told apart by host and network type, as when they leave.
+ *
+ * Leases don't expire unless a duration is configured, since devices which
+ * don't renew their subscriptions would stop receiving their events.
+ */
+class SubscriptionLeases implements DeviceManager.DepartureListener {
+
+	private static final String LEASE_KEY = "ubiquitos.events.lease";
+
+	/** Leases never expire */
+	static final long DEFAULT_DURATION = 0;
+
+	/** Amount of devices which left that are remembered. */
+	private static final int DEPARTED_CAPACITY = 256;
+
+	private final long duration;
+
+	/** When the last message of each device arrived, by host@type. */
+	private final ConcurrentMap<String, Long> seen = new ConcurrentHashMap<String, Long>();
+
+	/** When each device left, by host@type. */
+	private final Map<String, Long> departed = Collections.synchronizedMap(
+			new LinkedHashMap<String, Long>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+					return size() > DEPARTED_CAPACITY;
+				}
+			});
+
+	/** The subscribers already notified, purged when a device leaves. */
+	private final Set<EventSubscribers> registries = Collections.synchronizedSet(
+			Collections.newSetFromMap(new WeakHashMap<EventSubscribers, Boolean>()));
+
+	/**
+	 * Leases as configured.
+	 */
+	SubscriptionLeases(ResourceBundle properties) {
+		this(UOSProperties.longValue(properties, LEASE_KEY, DEFAULT_DURATION));
+	}
+
+	/**
+	 * @param duration Milliseconds a lease lasts without being renewed,
+	 * 			leases never expire if not positive.
+	 */
+	SubscriptionLeases(long duration) {
+		this.duration = duration;
+	}
+
+	/**
+	 * Renews the leases of the device which sent a message.
+	 */
+	void renew(NetworkDevice device) {
+		if (device != null && device.getNetworkDeviceName() != null){
+			renew(device.getNetworkDeviceName(), device.getNetworkDeviceType());
+		}
+	}
+
+	/**
+	 * Renews the leases of the device at any of its interfaces.
+	 */
+	void renew(UpDevice device) {
+		if (device == null || device.getNetworks() == null){
+			return;
+		}
+		for (UpNetworkInterface network : device.getNetworks()){
+			renew(network.getNetworkAddress(), network.getNetType());
+		}
+	}
+
+	private void renew(String address, String type) {
+		String key = EventSubscribers.deviceKey(address, type);
+		seen.put(key, System.currentTimeMillis());
+		departed.remove(key);
+	}
+
+	/**
+	 * Purges the subscribers of the registry along with those of the others
+	 * when a device leaves.
+	 */
+	void track(EventSubscribers subscribers) {
+		registries.add(subscribers);
+	}
+
+	/**
+	 * @return Whether the subscriber is still worth notifying.
+	 */
+	boolean isLive(EventSubscribers.Subscriber subscriber, long now) {
+		if (subscriber.removed){
+			return false;
+		}
+		String key = subscriber.deviceKey;
+		long renewed = subscriber.renewedAt;
+		Long talked = seen.get(key);
+		if (talked != null && talked > renewed){
+			renewed = talked;
+		}
+		Long left = departed.get(key);
+		if (left != null && left >= renewed){
+			return false;
+		}
+		if (duration <= 0 || now - renewed < duration){
+			return true;
+		}
+		if (talked != null){
+			// not heard of for longer than any lease
+			seen.remove(key, talked);
+		}
+		return false;
+	}
+
+	/**
+	 * Drops the subscriptions of the device from all the registries tracked.
+	 */
+	public void deviceLeft(NetworkDevice device) {
+		if (device == null || device.getNetworkDeviceName() == null || device.getNetworkDeviceType() == null){
+			return;
+		}
+		String key = EventSubscribers.deviceKey(device.getNetworkDeviceName(), device.getNetworkDeviceType());
+		seen.remove(key);
+		departed.put(key, System.currentTimeMillis());
+		List<EventSubscribers> tracked;
+		synchronized (registries) {
+			tracked = new ArrayList<EventSubscribers>(registries);
+		}
+		for (EventSubscribers subscribers : tracked){
+			for (String eventKey : subscribers.events()){
+				for (EventSubscribers.Subscriber subscriber : subscribers.subscribersOf(eventKey)){
+					if (key.equals(subscriber.deviceKey)){
+						subscribers.drop(eventKey, subscriber);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Milliseconds a lease lasts, not limited if not positive.
+	 */
+	long duration() {
+		return duration;
+	}
+}
@@ -23,6 +23,8 @@ public class ApplicationManager {
 	private final ResourceBundle properties;
 
 	private final Gateway gateway;
+	
+	private final ReflectionServiceCaller serviceCaller = new ReflectionServiceCaller(null);
 
 	public ApplicationManager(ResourceBundle properties, Gateway gateway) {
 		this.properties = properties;
@@ -51,6 +53,7 @@ public class ApplicationManager {
 	
 	public void deploy(UosApplication app, String id) {
 		id = assignAName(app, id);
+		serviceCaller.registerApplication(app);
 		initApp(app,id);
 		startApp(app);
 		deployed.put(id, app);
@@ -150,8 +153,7 @@ public class ApplicationManager {
 
 	public ServiceResponse handleServiceCall(ServiceCall serviceCall,
 			UOSMessageContext messageContext) {
-		ReflectionServiceCaller caller = new ReflectionServiceCaller(null);
-		return caller.callServiceOnApp(findApplication(serviceCall.getInstanceId()),serviceCall);
+		return serviceCaller.callServiceOnApp(findApplication(serviceCall.getInstanceId()),serviceCall);
 	}
 
 }
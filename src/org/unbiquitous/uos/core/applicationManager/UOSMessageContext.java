@@ -2,9 +2,14 @@ package org.unbiquitous.uos.core.applicationManager;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
+import org.unbiquitous.uos.core.network.connectionManager.ChannelWriter;
+import org.unbiquitous.uos.core.network.connectionManager.StreamChannels;
 import org.unbiquitous.uos.core.network.exceptions.NetworkException;
 import org.unbiquitous.uos.core.network.model.NetworkDevice;
 
@@ -18,6 +23,11 @@ import org.unbiquitous.uos.core.network.model.NetworkDevice;
  */
 public class UOSMessageContext {
 	
+	/**
+	 * Bytes a {@link ChannelWriter} queues before its writer has to wait.
+	 */
+	public static final int CHANNEL_WINDOW = 64 * 1024;
+	
 	/**
 	 * Device Object representing the caller device of the request. 
 	 */
@@ -26,14 +36,16 @@ public class UOSMessageContext {
 	private List<DataInputStream> dataInputStream;
 	
 	private List<DataOutputStream> dataOutputStream;
+	
+	private Map<Integer, ChannelWriter> writers = new HashMap<Integer, ChannelWriter>();
 
 	/**
 	 * This constructor is defined with a protected visibility level so only it's controller can 
 	 * instantiate it.
 	 */
 	public UOSMessageContext() {
-		this.dataInputStream = new ArrayList<DataInputStream>();
-		this.dataOutputStream = new ArrayList<DataOutputStream>();
+		this.dataInputStream = new CopyOnWriteArrayList<DataInputStream>();
+		this.dataOutputStream = new CopyOnWriteArrayList<DataOutputStream>();
 	}
 
 	/* ************************************************************************************** *
@@ -82,6 +94,74 @@ public class UOSMessageContext {
 		}
 		this.dataInputStream.add(dataInputStream);
 		this.dataOutputStream.add(dataOutputStream);
+		notifyAll();
+	}
+	
+	/**
+	 * Sets the streams of a given channel, since the channels may be opened 
+	 * in any order.
+	 */
+	public synchronized void setDataStreams(int channel, DataInputStream dataInputStream,DataOutputStream dataOutputStream) throws NetworkException{
+		if(dataInputStream == null || dataOutputStream == null){
+			throw new NetworkException("DataInputStream and DataOutputStream can not be null");
+		}
+		while (this.dataInputStream.size() <= channel){
+			this.dataInputStream.add(null);
+			this.dataOutputStream.add(null);
+		}
+		this.dataInputStream.set(channel, dataInputStream);
+		this.dataOutputStream.set(channel, dataOutputStream);
+		notifyAll();
+	}
+	
+	/**
+	 * Waits for the stream channels to be opened, since they are opened 
+	 * concurrently to the service call.
+	 * 
+	 * @param channels Amount of channels expected.
+	 * @return <code>false</code> if the channels were not opened on time.
+	 */
+	public synchronized boolean awaitDataStreams(int channels, long timeout, TimeUnit unit) throws InterruptedException{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!opened(channels)){
+			long left = deadline - System.nanoTime();
+			if (left <= 0){
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return true;
+	}
+	
+	private boolean opened(int channels) {
+		if (dataInputStream.size() < channels){
+			return false;
+		}
+		for (int i = 0; i < channels; i++){
+			if (dataInputStream.get(i) == null){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Writer of the channel which doesn't hold its caller while the bytes go out, 
+	 * only when too many bytes are still queued (giving backpressure to fast writers).
+	 * 
+	 * @return <code>null</code> if the channel is not opened yet.
+	 */
+	public synchronized ChannelWriter getChannelWriter(int channel) {
+		ChannelWriter writer = writers.get(channel);
+		if (writer == null){
+			DataOutputStream out = getDataOutputStream(channel);
+			if (out == null){
+				return null;
+			}
+			writer = new ChannelWriter(out, CHANNEL_WINDOW, StreamChannels.loop());
+			writers.put(channel, writer);
+		}
+		return writer;
 	}
 	
 }
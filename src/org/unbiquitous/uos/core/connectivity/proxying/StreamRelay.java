@@ -0,0 +1,122 @@
+package org.unbiquitous.uos.core.connectivity.proxying;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.UOSLogging;
+
+/**
+ * Relays the bytes of streams to other streams, as the proxies do between the
+ * caller and the real provider of a stream service.
+ *
+ * The connections only offer blocking streams, so each direction is pumped by
+ * a thread blocked on its reads (never polling them). The threads come from
+ * a pool shared by all relays and the bytes are copied through pooled buffers,
+ * as they arrive, with no decoding.
+ */
+public class StreamRelay {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int POOLED_BUFFERS = 64;
+
+	private final ExecutorService pumps;
+	private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(POOLED_BUFFERS);
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong relayed = new AtomicLong();
+
+	public StreamRelay() {
+		this.pumps = Executors.newCachedThreadPool(new DaemonThreadFactory("uos-relay"));
+	}
+
+	/**
+	 * Relays all bytes read from the input to the output, closing the output
+	 * when the input ends (or fails) so the end reaches the other side.
+	 */
+	public void relay(InputStream from, OutputStream to) {
+		try {
+			pumps.execute(new Pump(from, to));
+		} catch (RejectedExecutionException e) {
+			logger.warning("Stream relay is shut down.");
+			close(to);
+		}
+	}
+
+	/**
+	 * @return Directions being relayed.
+	 */
+	public int active() {
+		return active.get();
+	}
+
+	/**
+	 * @return Bytes relayed so far.
+	 */
+	public long relayed() {
+		return relayed.get();
+	}
+
+	public void shutdown() {
+		pumps.shutdownNow();
+	}
+
+	private byte[] borrow() {
+		byte[] buffer = buffers.poll();
+		return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+	}
+
+	private void giveBack(byte[] buffer) {
+		buffers.offer(buffer);
+	}
+
+	private static void close(OutputStream out) {
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Relayed stream already closed.", e);
+		}
+	}
+
+	private class Pump implements Runnable {
+		private final InputStream from;
+		private final OutputStream to;
+
+		Pump(InputStream from, OutputStream to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public void run() {
+			active.incrementAndGet();
+			byte[] buffer = borrow();
+			try {
+				int read;
+				while ((read = from.read(buffer)) >= 0){
+					if (read > 0){
+						to.write(buffer, 0, read);
+						to.flush();
+						relayed.addAndGet(read);
+					}
+				}
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Relayed stream closed.", e);
+			} finally {
+				giveBack(buffer);
+				active.decrementAndGet();
+				close(to);
+			}
+		}
+	}
+}
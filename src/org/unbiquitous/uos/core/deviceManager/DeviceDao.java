@@ -1,107 +1,163 @@
 package org.unbiquitous.uos.core.deviceManager;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
 
-
+/**
+ * Registry of the devices known by the middleware.
+ *
+ * Writes are serialized while reads never lock. Besides the devices by name,
+ * it keeps sets of devices (keyed by their lower case name) by address, by
+ * network type and by interface, so a lookup costs the same no matter how many
+ * devices there are in the smart space.
+ */
 public class DeviceDao {
-	private Map<String,UpDevice>		deviceMap;
-	private Map<String,UpDevice>		interfaceMap;
-	private Map<String,List<UpDevice>> networkTypeMap;
-	private Map<String,List<UpDevice>> addressMap;
-	
+
+	private static final Collection<UpDevice> NONE = Collections.emptyList();
+
+	/** Devices by their lower case name. */
+	private ConcurrentMap<String, UpDevice> byName;
+	/** Device of each interface (address@type). */
+	private ConcurrentMap<String, UpDevice> byInterface;
+	private ConcurrentMap<String, ConcurrentMap<String, UpDevice>> byType;
+	private ConcurrentMap<String, ConcurrentMap<String, UpDevice>> byAddress;
+
 	public DeviceDao(ResourceBundle bundle) {
-		deviceMap		= new HashMap<String, UpDevice>();
-		interfaceMap	= new HashMap<String, UpDevice>();
-		networkTypeMap	= new HashMap<String, List<UpDevice>>();
-		addressMap	= new HashMap<String, List<UpDevice>>();
+		createMaps();
 	}
-	
-	public void save(UpDevice device) {
-//		if (find(device.getName()) != null){
-//			throw new RuntimeException("Atempt to insert a device with same name.");
-//		}
+
+	private synchronized void createMaps() {
+		byName = new ConcurrentHashMap<String, UpDevice>();
+		byInterface = new ConcurrentHashMap<String, UpDevice>();
+		byType = new ConcurrentHashMap<String, ConcurrentMap<String, UpDevice>>();
+		byAddress = new ConcurrentHashMap<String, ConcurrentMap<String, UpDevice>>();
+	}
+
+	/**
+	 * Saves the device, replacing the one with the same name, if any.
+	 */
+	public synchronized void save(UpDevice device) {
+		String name = device.getName().toLowerCase();
+		UpDevice old = byName.get(name);
+		if (old != null){
+			removeFromMaps(name, old);
+		}
 		if (device.getNetworks() != null){
 			for (UpNetworkInterface ni : device.getNetworks()){
-				interfaceMap.put(createInterfaceKey(ni), device);
-				
-				if(!networkTypeMap.containsKey(ni.getNetType())){
-					networkTypeMap.put(ni.getNetType(), new ArrayList<UpDevice>());
-				}
-				networkTypeMap.get(ni.getNetType()).add(device);
-				
-				if(!addressMap.containsKey(ni.getNetworkAddress())){
-					addressMap.put(ni.getNetworkAddress(), new ArrayList<UpDevice>());
-				}
-				addressMap.get(ni.getNetworkAddress()).add(device);
+				byInterface.put(createInterfaceKey(ni), device);
+				add(byType, ni.getNetType(), name, device);
+				add(byAddress, ni.getNetworkAddress(), name, device);
 			}
 		}
-		deviceMap.put(device.getName().toLowerCase(),device);
+		byName.put(name, device);
 	}
 
 	private static String createInterfaceKey(UpNetworkInterface ni) {
 		return ni.getNetworkAddress()+"@"+ni.getNetType();
 	}
 
-	public void update(String oldname, UpDevice device) {
+	public synchronized void update(String oldname, UpDevice device) {
 		delete(oldname);
 		save(device);
 	}
-	
-	public void delete(String name) {
-		UpDevice device = find(name);
+
+	public synchronized void delete(String name) {
+		String key = name.toLowerCase();
+		UpDevice device = byName.get(key);
+		if (device != null){
+			removeFromMaps(key, device);
+		}
+	}
+
+	private void removeFromMaps(String name, UpDevice device) {
 		if (device.getNetworks() != null){
 			for (UpNetworkInterface ni : device.getNetworks()){
-				interfaceMap.remove(createInterfaceKey(ni));
-				networkTypeMap.get(ni.getNetType()).remove(device);
-				addressMap.get(ni.getNetworkAddress()).remove(device);
+				String key = createInterfaceKey(ni);
+				if (byInterface.get(key) == device){
+					byInterface.remove(key);
+				}
+				remove(byType, ni.getNetType(), name, device);
+				remove(byAddress, ni.getNetworkAddress(), name, device);
+			}
+		}
+		byName.remove(name);
+	}
+
+	private static void add(ConcurrentMap<String, ConcurrentMap<String, UpDevice>> index,
+							String key, String name, UpDevice device) {
+		ConcurrentMap<String, UpDevice> devices = index.get(key);
+		if (devices == null){
+			devices = new ConcurrentHashMap<String, UpDevice>();
+			index.put(key, devices);
+		}
+		devices.put(name, device);
+	}
+
+	private static void remove(ConcurrentMap<String, ConcurrentMap<String, UpDevice>> index,
+							String key, String name, UpDevice device) {
+		ConcurrentMap<String, UpDevice> devices = index.get(key);
+		if (devices != null){
+			devices.remove(name, device);
+			if (devices.isEmpty()){
+				index.remove(key);
 			}
 		}
-		deviceMap.remove(name.toLowerCase());
 	}
-	
+
 	public List<UpDevice> list() {
-		return new ArrayList<UpDevice>(deviceMap.values());
+		return new ArrayList<UpDevice>(byName.values());
 	}
-	
+
+	/**
+	 * @return A copy of {@link #devices(String, String)}.
+	 */
 	public List<UpDevice> list(String address, String networktype) {
+		return new ArrayList<UpDevice>(devices(address, networktype));
+	}
+
+	/**
+	 * @return An unmodifiable view of the devices with the informed address
+	 * 			and network type, if informed. Each device shows up only once
+	 * 			even when many of its interfaces match. The view reflects later
+	 * 			changes on the address or type, as long as some device is left
+	 * 			with it.
+	 */
+	public Collection<UpDevice> devices(String address, String networktype) {
 		if (address != null && networktype != null){
 			String key = createInterfaceKey(new UpNetworkInterface(networktype, address));
-			UpDevice upDevice = interfaceMap.get(key);
-			List<UpDevice> ret = new ArrayList<UpDevice>();
+			UpDevice upDevice = byInterface.get(key);
 			if (upDevice != null){
-				ret.add(upDevice);
+				return Collections.singletonList(upDevice);
 			}
-			return ret;
+			return NONE;
 		}else if (address != null ){
-			if(addressMap.containsKey(address)){
-				return new ArrayList<UpDevice>(new HashSet<UpDevice>(addressMap.get(address)));
-			}
+			return view(byAddress.get(address));
 		}else if (networktype != null ){
-			if(networkTypeMap.containsKey(networktype)){
-				return new ArrayList<UpDevice>(new HashSet<UpDevice>(networkTypeMap.get(networktype)));
-			}
-		}else{
-			return list();
+			return view(byType.get(networktype));
 		}
-		return new ArrayList<UpDevice>();
+		return Collections.unmodifiableCollection(byName.values());
+	}
+
+	private static Collection<UpDevice> view(ConcurrentMap<String, UpDevice> devices) {
+		if (devices == null){
+			return NONE;
+		}
+		return Collections.unmodifiableCollection(devices.values());
 	}
 
 	public UpDevice find(String name) {
-		return deviceMap.get(name.toLowerCase());
+		return byName.get(name.toLowerCase());
 	}
-	
+
 	public void clear(){
-		deviceMap.clear();
-		interfaceMap.clear();
-		addressMap.clear();
-		networkTypeMap.clear();
+		createMaps();
 	}
 }
@@ -0,0 +1,210 @@
+package org.unbiquitous.uos.core.deviceManager;
+
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.UOSProperties;
+
+/**
+ * Runs the discovery of the devices entering the smart space, so a slow or
+ * dead device doesn't hold up the discovery of the others.
+ *
+ * A bounded pool of threads runs the attempts, and only one discovery of each
+ * device is in flight at a time. Failed attempts are retried with an
+ * exponential backoff. Without threads the attempts are run by the caller.
+ */
+public class DeviceDiscovery {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private static final String THREADS_KEY = "ubiquitos.discovery.threads";
+	private static final String TIMEOUT_KEY = "ubiquitos.discovery.timeout";
+	private static final String RETRIES_KEY = "ubiquitos.discovery.retries";
+	private static final String BACKOFF_KEY = "ubiquitos.discovery.backoff";
+
+	private static final int DEFAULT_THREADS = 8;
+	private static final long DEFAULT_TIMEOUT = 10000;
+	private static final int DEFAULT_RETRIES = 2;
+	private static final long DEFAULT_BACKOFF = 1000;
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final long timeout;
+	private final int retries;
+	private final long backoff;
+	private final ConcurrentMap<String, Boolean> inFlight = new ConcurrentHashMap<String, Boolean>();
+
+	public DeviceDiscovery(ResourceBundle properties) {
+		this(	UOSProperties.intValue(properties, THREADS_KEY, DEFAULT_THREADS),
+				UOSProperties.longValue(properties, TIMEOUT_KEY, DEFAULT_TIMEOUT),
+				UOSProperties.intValue(properties, RETRIES_KEY, DEFAULT_RETRIES),
+				UOSProperties.longValue(properties, BACKOFF_KEY, DEFAULT_BACKOFF));
+	}
+
+	/**
+	 * @param threads Threads running the attempts. If not positive the attempts
+	 * 			are run by the caller.
+	 * @param timeout Time (in milliseconds) for each call to the device, if not
+	 * 			positive the default response timeout is used.
+	 * @param retries Attempts made after the first one fails.
+	 * @param backoff Time (in milliseconds) before the first retry, doubled on
+	 * 			each following one.
+	 */
+	public DeviceDiscovery(int threads, long timeout, int retries, long backoff) {
+		if (threads > 0){
+			executor = new ScheduledThreadPoolExecutor(threads, new DaemonThreadFactory("uos-discovery"));
+		}else{
+			executor = null;
+		}
+		this.timeout = timeout;
+		this.retries = retries;
+		this.backoff = backoff;
+	}
+
+	/**
+	 * @return A discovery run by the callers, with a single attempt.
+	 */
+	public static DeviceDiscovery synchronous(){
+		return new DeviceDiscovery(0, 0, 0, 0);
+	}
+
+	/**
+	 * @return Time (in milliseconds) for each call to a device, if not positive
+	 * 			the default response timeout must be used.
+	 */
+	public long timeout() {
+		return timeout;
+	}
+
+	/**
+	 * Starts the discovery of a device, unless it's already in flight.
+	 *
+	 * @param key Identifies the device being discovered.
+	 * @param attempt Tries to discover the device, returning <code>false</code>
+	 * 			(or failing) if it must be retried.
+	 * @return <code>false</code> if the device was already being discovered.
+	 */
+	public boolean discover(String key, Callable<Boolean> attempt) {
+		if (inFlight.putIfAbsent(key, Boolean.TRUE) != null){
+			logger.fine("Discovery of '"+key+"' already in flight.");
+			return false;
+		}
+		Attempt first = new Attempt(key, attempt);
+		if (executor == null){
+			first.runInline();
+		}else if (!first.schedule(0)){
+			inFlight.remove(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Runs a single task on the discovery threads, or on the caller if there
+	 * are none. Failures are logged, not retried.
+	 */
+	public void execute(final Runnable task) {
+		if (executor == null){
+			runQuietly(task);
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					runQuietly(task);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.fine("Discovery task rejected.");
+		}
+	}
+
+	private static void runQuietly(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			logger.log(Level.FINE, "Discovery task failed.", e);
+		}
+	}
+
+	/**
+	 * @return Amount of devices being discovered.
+	 */
+	public int inFlight() {
+		return inFlight.size();
+	}
+
+	public void shutdown() {
+		if (executor != null){
+			executor.shutdownNow();
+		}
+		inFlight.clear();
+	}
+
+	private class Attempt implements Runnable {
+		private final String key;
+		private final Callable<Boolean> attempt;
+		private int tries;
+
+		Attempt(String key, Callable<Boolean> attempt) {
+			this.key = key;
+			this.attempt = attempt;
+		}
+
+		public void run() {
+			if (tryOnce() || !schedule(delay())){
+				inFlight.remove(key);
+			}
+		}
+
+		void runInline() {
+			try {
+				while (!tryOnce()){
+					Thread.sleep(delay());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				inFlight.remove(key);
+			}
+		}
+
+		/**
+		 * @return <code>true</code> if there's nothing left to try.
+		 */
+		private boolean tryOnce() {
+			boolean done = false;
+			try {
+				done = Boolean.TRUE.equals(attempt.call());
+			} catch (Exception e) {
+				logger.log(Level.FINE, "Discovery of '"+key+"' failed.", e);
+			}
+			if (!done && tries++ >= retries){
+				logger.warning("Giving up the discovery of '"+key+"' after "+tries+" attempts.");
+				return true;
+			}
+			return done;
+		}
+
+		private long delay() {
+			return backoff << (tries - 1);
+		}
+
+		private boolean schedule(long delay) {
+			try {
+				executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+				return true;
+			} catch (RejectedExecutionException e) {
+				logger.fine("Discovery of '"+key+"' rejected.");
+				return false;
+			}
+		}
+	}
+}
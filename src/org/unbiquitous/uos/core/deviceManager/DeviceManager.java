@@ -1,10 +1,19 @@
 package org.unbiquitous.uos.core.deviceManager;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,9 +22,13 @@ import org.unbiquitous.json.JSONException;
 import org.unbiquitous.json.JSONObject;
 import org.unbiquitous.uos.core.UOSLogging;
 import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SenderAwareEventListener;
 import org.unbiquitous.uos.core.adaptabitilyEngine.ServiceCallException;
 import org.unbiquitous.uos.core.connectivity.ConnectivityManager;
+import org.unbiquitous.uos.core.driverManager.DriverChangeLog;
 import org.unbiquitous.uos.core.driverManager.DriverDao;
+import org.unbiquitous.uos.core.driverManager.DriverInterfaces;
+import org.unbiquitous.uos.core.driverManager.DriverData;
 import org.unbiquitous.uos.core.driverManager.DriverManager;
 import org.unbiquitous.uos.core.driverManager.DriverManagerException;
 import org.unbiquitous.uos.core.driverManager.DriverModel;
@@ -24,8 +37,10 @@ import org.unbiquitous.uos.core.driverManager.InterfaceValidationException;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.DataTypeBinder;
 import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDriver;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
@@ -39,14 +54,38 @@ import org.unbiquitous.uos.core.network.radar.RadarListener;
  * @author Fabricio Nogueira Buzeto
  * 
  */
-public class DeviceManager implements RadarListener {
+public class DeviceManager implements RadarListener, SenderAwareEventListener {
 
 	private static final String DEVICE_DRIVER_NAME = "uos.DeviceDriver";
 
+	private static final String DEVICE_KEY = "device";
+
+	private static final String DRIVER_LIST_KEY = "driverList";
+
 	private static final String DRIVERS_NAME_KEY = "driversName";
 	
 	private static final String INTERFACES_KEY = "interfaces";
 
+	private static final String DRIVERS_VERSION_KEY = "driversVersion";
+
+	private static final String PREVIOUS_VERSION_KEY = "previousVersion";
+
+	private static final String SINCE_KEY = "since";
+
+	private static final String CHANGES_KEY = "changes";
+
+	private static final String INSTANCE_ID_KEY = "id";
+
+	private static final String DRIVER_KEY = "driver";
+
+	private static final String KNOWN_INTERFACES_KEY = "knownInterfaces";
+
+	/** Event of the DeviceDriver pushed to the other devices when the drivers change. */
+	public static final String DRIVERS_CHANGED_EVENT = "driversChanged";
+
+	/** Amount of devices which left whose drivers are remembered. */
+	private static final int DEPARTED_CAPACITY = 256;
+
 	private static final Logger logger = UOSLogging.getLogger();
 
 	private Gateway gateway;
@@ -61,9 +100,39 @@ public class DeviceManager implements RadarListener {
 
 	private DriverManager driverManager;
 	
-	private Set<String> unknownDrivers;
-	
-	private Set<DriverModel> dependents;
+	private DeviceDiscovery discovery;
+
+	/** Version of the drivers of each remote device which informed it, by lower case name. */
+	private ConcurrentMap<String, String> driverVersions = new ConcurrentHashMap<String, String>();
+
+	/** Drivers of the devices which left, by host@type, to be caught up when they're back. */
+	private Map<String, KnownDrivers> departed = Collections.synchronizedMap(
+			new LinkedHashMap<String, KnownDrivers>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				protected boolean removeEldestEntry(Map.Entry<String, KnownDrivers> eldest) {
+					return size() > DEPARTED_CAPACITY;
+				}
+			});
+
+	/** Informed of the devices which left, after their data is removed. */
+	private final List<DepartureListener> departureListeners = new CopyOnWriteArrayList<DepartureListener>();
+
+	/**
+	 * Informed of each device leaving the smart space, after its drivers
+	 * are removed.
+	 */
+	public interface DepartureListener {
+		void deviceLeft(NetworkDevice device);
+	}
+
+	private static class KnownDrivers {
+		final String version;
+		final JSONObject driverList;
+		KnownDrivers(String version, JSONObject driverList) {
+			this.version = version;
+			this.driverList = driverList;
+		}
+	}
 
 	public DeviceManager(UpDevice currentDevice, DeviceDao deviceDao,
 			DriverDao driverDao,
@@ -77,8 +146,30 @@ public class DeviceManager implements RadarListener {
 		this.deviceDao = deviceDao;
 		this.deviceDao.save(currentDevice);
 		this.driverManager = driverManager;
-		this.unknownDrivers = new HashSet<String>();
-		this.dependents = new HashSet<DriverModel>();
+		this.discovery = DeviceDiscovery.synchronous();
+		if (driverManager != null){
+			driverManager.getChangeLog().addListener(new ChangePusher());
+		}
+	}
+
+	/**
+	 * Sets how the devices entering the smart space are discovered. By default
+	 * they're discovered by the thread informing their entrance.
+	 */
+	public void setDiscovery(DeviceDiscovery discovery) {
+		this.discovery = discovery;
+	}
+
+	public void addDepartureListener(DepartureListener listener) {
+		departureListeners.add(listener);
+	}
+
+	public void removeDepartureListener(DepartureListener listener) {
+		departureListeners.remove(listener);
+	}
+
+	public void tearDown() {
+		discovery.shutdown();
 	}
 
 	/**
@@ -150,46 +241,363 @@ public class DeviceManager implements RadarListener {
 		UpDevice upDevice = retrieveDevice(deviceHost,device.getNetworkDeviceType());
 
 		if (upDevice == null){
-			upDevice = doHandshake(device, upDevice);
-			doDriversRegistry(device, upDevice); 
+			discovery.discover(deviceHost+"@"+device.getNetworkDeviceType(), 
+								new Discovery(device, deviceHost));
 		}else{
 			logger.fine("Already known device "+device.getNetworkDeviceName());
 		}
 	}
 
+	/**
+	 * Handshakes with a device and registers its drivers. When retried, only
+	 * the steps which failed are done again.
+	 */
+	private class Discovery implements Callable<Boolean> {
+		private final NetworkDevice device;
+		private final String host;
+		private UpDevice upDevice;
+
+		Discovery(NetworkDevice device, String host) {
+			this.device = device;
+			this.host = host;
+		}
+
+		public Boolean call() throws Exception {
+			if (upDevice == null){
+				if (retrieveDevice(host, device.getNetworkDeviceType()) != null){
+					logger.fine("Device "+device.getNetworkDeviceName()+" was registered meanwhile.");
+					return true;
+				}
+				ServiceResponse response = doHandshakeWithDrivers(device, host);
+				if (response != null){
+					upDevice = retrieveDevice(host, device.getNetworkDeviceType());
+					if (response.getResponseData(DRIVER_LIST_KEY) != null 
+							|| response.getResponseData(CHANGES_KEY) != null){
+						return true;
+					}
+				}
+			}
+			if (upDevice == null){
+				upDevice = doHandshake(device);
+				if (upDevice == null){
+					return false;
+				}
+			}
+			return doDriversRegistry(device, upDevice);
+		}
+	}
+
+	/**
+	 * Handshakes exchanging the devices, their drivers and the interfaces 
+	 * these depend on, all in a single call. If the drivers of the device are 
+	 * remembered from a previous visit, only what changed since then is sent.
+	 * 
+	 * @return The response of the device, <code>null</code> if it doesn't
+	 * 			support the call (older versions) and the handshake must be 
+	 * 			done through the 'handshake' and 'listDrivers' calls.
+	 * @throws Exception When the device couldn't be reached.
+	 */
+	private ServiceResponse doHandshakeWithDrivers(NetworkDevice device, String host) throws Exception {
+		logger.fine("Trying to hanshake with drivers with device : "+device.getNetworkDeviceName());
+		UpDevice dummyDevice = new UpDevice(device.getNetworkDeviceName())
+										.addNetworkInterface(device.getNetworkDeviceName(), device.getNetworkDeviceType());
+		
+		ServiceCall call = new ServiceCall(DEVICE_DRIVER_NAME, "handshakeWithDrivers", null);
+		call.addParameter(DEVICE_KEY, new JSONDevice(currentDevice).toString());
+		for (Map.Entry<String, String> param : describeCurrentDrivers(null, null).entrySet()){
+			call.addParameter(param.getKey(), param.getValue());
+		}
+		KnownDrivers known = departed.get(host+"@"+device.getNetworkDeviceType());
+		if (known != null){
+			call.addParameter(SINCE_KEY, known.version);
+		}
+		addKnownInterfaces(call);
+		
+		ServiceResponse response = call(dummyDevice, call);
+		if (response == null || (response.getError() != null && !response.getError().isEmpty())
+				|| response.getResponseString(DEVICE_KEY) == null){
+			logger.fine("Device '"+device.getNetworkDeviceName()+"' can't handshake with drivers"+
+					(response == null?".": ": "+response.getError()));
+			return null;
+		}
+		UpDevice remoteDevice = DataTypeBinder.deviceFromJSON(response.getResponseString(DEVICE_KEY));
+		registerDevice(remoteDevice);
+		logger.info("Registered device "+remoteDevice.getName());
+		try {
+			if (known != null && response.getResponseData(CHANGES_KEY) != null){
+				logger.fine("Catching up with the drivers of device '"+remoteDevice.getName()+"'.");
+				registerRemoteDrivers(remoteDevice, known.driverList, null);
+			}
+			registerRemoteDrivers(remoteDevice, response.getResponseData());
+		} catch (JSONException e) {
+			logger.log(Level.SEVERE,"Problems ocurred in the registering of drivers from device '"+remoteDevice.getName()+"' .", e);
+		}
+		departed.remove(host+"@"+device.getNetworkDeviceType());
+		return response;
+	}
+
+	/**
+	 * Informs the interfaces of drivers already known, so the other device can 
+	 * send only references to them.
+	 */
+	private void addKnownInterfaces(ServiceCall call) {
+		Set<String> hashes = driverManager.getInterfaces().hashes();
+		if (!hashes.isEmpty()){
+			call.addParameter(KNOWN_INTERFACES_KEY, new JSONArray(hashes).toString());
+		}
+	}
+
+	/**
+	 * @param since Version of the drivers of the current device already known 
+	 * 			by the other device, if any.
+	 * @param knownInterfaces Hashes of the interfaces of drivers known by the 
+	 * 			other device (as a JSON array), if any. Drivers with these are 
+	 * 			sent only as references.
+	 * @return The parameters describing the drivers of the current device to 
+	 * 			another device: the interfaces they depend on, their version and
+	 * 			either the changes since the version informed or, when these 
+	 * 			can't be told, the whole driver list.
+	 */
+	public Map<String, String> describeCurrentDrivers(String since, Object knownInterfaces) throws JSONException {
+		Set<String> known = DriverInterfaces.hashesFrom(knownInterfaces);
+		Map<String, String> description = new HashMap<String, String>();
+		// the version is taken first, so changes after it are never lost
+		String version = currentDriversVersion();
+		List<DriverChangeLog.Change> changes = null;
+		if (version != null){
+			description.put(DRIVERS_VERSION_KEY, version);
+			changes = driverManager.getChangeLog().since(since);
+		}
+		if (changes != null){
+			description.put(CHANGES_KEY, toJSON(changes, known).toString());
+		}else{
+			description.put(DRIVER_LIST_KEY, listCurrentDrivers(known).toString());
+		}
+		description.put(INTERFACES_KEY, currentInterfaces().toString());
+		return description;
+	}
+
+	/**
+	 * @return The version of the drivers of the current device, <code>null</code> 
+	 * 			when it can't be told since they are filtered by the proxying.
+	 */
+	private String currentDriversVersion() {
+		if (connectivityManager != null && connectivityManager.doProxying()){
+			return null;
+		}
+		return driverManager.getChangeLog().version();
+	}
+
+	private JSONArray toJSON(List<DriverChangeLog.Change> changes, Set<String> known) throws JSONException {
+		JSONArray array = new JSONArray();
+		for (DriverChangeLog.Change change : changes){
+			JSONObject json = new JSONObject();
+			json.put(INSTANCE_ID_KEY, change.instanceId());
+			if (change.isDeployed()){
+				json.put(DRIVER_KEY, driverManager.getInterfaces().toJSON(change.driver(), known));
+			}
+			array.put(json);
+		}
+		return array;
+	}
+
+	/**
+	 * Registers the drivers of a remote device as described by 
+	 * {@link #describeCurrentDrivers(String, Object)} on it. A whole driver list replaces 
+	 * the drivers known from the device, while changes are applied over them.
+	 * 
+	 * @param upDevice The device of the drivers.
+	 * @param description The parameters describing the drivers.
+	 */
+	public void registerRemoteDrivers(UpDevice upDevice, Map<String, Object> description) throws JSONException {
+		if (description == null){
+			return;
+		}
+		Object interfaces = description.get(INTERFACES_KEY);
+		Object driverList = description.get(DRIVER_LIST_KEY);
+		Object changes = description.get(CHANGES_KEY);
+		JSONArray interfacesJson = interfaces == null ? null : new JSONArray(interfaces.toString());
+		if (driverList != null){
+			JSONObject drivers = toJSONObject(driverList);
+			for (DriverModel model : driverManager.list(null, upDevice.getName())){
+				if (!drivers.has(model.id())){
+					driverManager.delete(model.id(), model.device());
+				}
+			}
+			registerRemoteDrivers(upDevice, drivers, interfacesJson);
+		}else if (changes != null){
+			applyChanges(upDevice, new JSONArray(changes.toString()), interfacesJson);
+		}
+		Object version = description.get(DRIVERS_VERSION_KEY);
+		if (version != null){
+			driverVersions.put(upDevice.getName().toLowerCase(), version.toString());
+		}
+	}
+
+	private void applyChanges(UpDevice upDevice, JSONArray changes, JSONArray interfaces) throws JSONException {
+		JSONObject deployed = new JSONObject();
+		for (int i = 0; i < changes.length(); i++){
+			JSONObject change = changes.getJSONObject(i);
+			String id = change.getString(INSTANCE_ID_KEY);
+			if (change.has(DRIVER_KEY)){
+				deployed.put(id, change.get(DRIVER_KEY));
+			}else{
+				deployed.remove(id);
+				driverManager.delete(id, upDevice.getName());
+			}
+		}
+		registerRemoteDrivers(upDevice, deployed, interfaces);
+	}
+
+	private static JSONObject toJSONObject(Object value) throws JSONException {
+		if (value instanceof JSONObject){
+			return (JSONObject) value;
+		}
+		return new JSONObject(value.toString());
+	}
+
+	/**
+	 * @param known Hashes of the interfaces known by the other device, sent
+	 * 			only as references.
+	 * @return The drivers of the current device shown to other devices, by
+	 * 			their instance ids.
+	 */
+	public JSONObject listCurrentDrivers(Set<String> known) throws JSONException {
+		JSONObject driversList = new JSONObject();
+		DriverInterfaces interfaces = driverManager.getInterfaces();
+		for (DriverData data : currentDrivers()){
+			driversList.put(data.getInstanceID(), interfaces.toJSON(data.getDriver(), known));
+		}
+		return driversList;
+	}
+
+	/**
+	 * @return The interfaces of the equivalence tree which the drivers of the 
+	 * 			current device depend on, parents first.
+	 */
+	public JSONArray currentInterfaces() throws JSONException {
+		Map<String, UpDriver> interfaces = new LinkedHashMap<String, UpDriver>();
+		for (DriverData data : currentDrivers()){
+			addEquivalentInterfaces(data.getDriver(), interfaces);
+		}
+		JSONArray array = new JSONArray();
+		for (UpDriver driver : interfaces.values()){
+			array.put(new JSONDriver(driver));
+		}
+		return array;
+	}
+
+	private void addEquivalentInterfaces(UpDriver driver, Map<String, UpDriver> interfaces) {
+		if (driver.getEquivalentDrivers() == null){
+			return;
+		}
+		for (String name : driver.getEquivalentDrivers()){
+			UpDriver parent = driverManager.getDriverFromEquivalanceTree(name);
+			if (parent != null && !interfaces.containsKey(name)){
+				addEquivalentInterfaces(parent, interfaces);
+				interfaces.put(name, parent);
+			}
+		}
+	}
+
+	private List<DriverData> currentDrivers() {
+		List<DriverData> drivers = driverManager.listDrivers(null, currentDevice.getName());
+		if (drivers == null){
+			return new ArrayList<DriverData>();
+		}
+		if (connectivityManager != null && connectivityManager.doProxying()){
+			connectivityManager.filterDriversList(drivers);
+		}
+		return drivers;
+	}
+
+	/**
+	 * Registers the drivers of a remote device, adding the interfaces informed 
+	 * to the equivalence tree beforehand. The interfaces still unknown are 
+	 * asked to the device.
+	 * 
+	 * @param upDevice The device of the drivers.
+	 * @param driversList The drivers by their instance ids.
+	 * @param interfaces The interfaces of the equivalence tree which the drivers
+	 * 			depend on, if informed.
+	 */
 	@SuppressWarnings("unchecked")
-	private void doDriversRegistry(NetworkDevice device, UpDevice upDevice) {
+	public void registerRemoteDrivers(UpDevice upDevice, JSONObject driversList, JSONArray interfaces) throws JSONException {
+		if (interfaces != null){
+			List<UpDriver> unknown = new ArrayList<UpDriver>();
+			for (int i = 0; i < interfaces.length(); i++){
+				UpDriver upDriver = DataTypeBinder.driverFromJSON(interfaces.getString(i));
+				if (driverManager.getDriverFromEquivalanceTree(upDriver.getName()) == null){
+					unknown.add(upDriver);
+				}
+			}
+			try {
+				driverManager.addToEquivalenceTree(unknown);
+			} catch (InterfaceValidationException e) {
+				logger.severe("Not possible to add to equivalance tree due to wrong interface specification.");
+			}
+		}
+		List<String> ids = new ArrayList<String>();
+		Iterator<String> it = driversList.keys();
+		while (it.hasNext()) {
+			ids.add(it.next());
+		}
+		registerRemoteDriverInstances(upDevice, driversList, ids.toArray(new String[]{}));
+	}
+
+	/**
+	 * Calls a service of a device during its discovery, waiting for it up to the 
+	 * discovery timeout.
+	 */
+	private ServiceResponse call(UpDevice device, ServiceCall call) throws Exception {
+		long timeout = discovery.timeout();
+		if (timeout <= 0){
+			return gateway.callService(device, call);
+		}
 		try {
-			ServiceResponse response = gateway.callService(upDevice, new ServiceCall(DEVICE_DRIVER_NAME,"listDrivers"));
-			if (response != null && response.getResponseData() != null && response.getResponseData("driverList") != null){
+			return gateway.callServiceAsync(device, call, timeout, null).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception){
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the drivers couldn't be listed.
+	 */
+	private boolean doDriversRegistry(NetworkDevice device, UpDevice upDevice) {
+		try {
+			ServiceResponse response = call(upDevice, new ServiceCall(DEVICE_DRIVER_NAME,"listDrivers"));
+			if (response != null && response.getResponseData() != null && response.getResponseData(DRIVER_LIST_KEY) != null){
 				try {
-					JSONObject driversListMap = null;
-					Object temp = response.getResponseData("driverList");
-					if (temp instanceof JSONObject){
-						driversListMap = (JSONObject)temp; //TODO: Not tested. Why?
-					}else {
-						driversListMap = new JSONObject(temp.toString());
-					}
-					List<String> ids = new ArrayList<String>();
-					Iterator<String> it = driversListMap.keys();
-					while (it.hasNext()) {
-						ids.add(it.next());
-					}
-					
-					registerRemoteDriverInstances(upDevice, driversListMap,ids.toArray(new String[]{}));
+					registerRemoteDrivers(upDevice, toJSONObject(response.getResponseData(DRIVER_LIST_KEY)), null);
 				} catch (JSONException e) {
 					logger.log(Level.SEVERE,"Problems ocurred in the registering of drivers from device '"+upDevice.getName()+"' .", e);
 				}
+				return true;
 			}
 		} catch (Exception e) {
 			logger.severe("Not possible to discover services from device '"+device.getNetworkDeviceName()+"'. Possibly not a uOS Device");
 		}
+		return false;
 	}
 
 	private void registerRemoteDriverInstances(UpDevice upDevice, JSONObject driversListMap, String[] instanceIds)throws JSONException {
+		Set<String> unknownDrivers = new HashSet<String>();
+		Set<DriverModel> dependents = new HashSet<DriverModel>();
 		for (String id : instanceIds){
 			
-			UpDriver upDriver = new JSONDriver(driversListMap.getString(id)).getAsObject();
+			UpDriver upDriver;
+			try {
+				// instances of the same interface share it
+				upDriver = driverManager.getInterfaces().fromJSON(driversListMap.getString(id));
+			} catch (JSONException e) {
+				logger.log(Level.SEVERE,"Problems ocurred in the registering of driver with instanceId '"+id+
+						"' in the device '"+upDevice.getName()+"' and it will not be registered.", e);
+				continue;
+			}
 			DriverModel driverModel = new DriverModel(id, upDriver , upDevice.getName());
 			
 			try {
@@ -211,7 +619,7 @@ public class DeviceManager implements RadarListener {
 			}
 		}
 		if(unknownDrivers.size() > 0) {
-			findDrivers(unknownDrivers, upDevice);
+			findDrivers(unknownDrivers, dependents, upDevice);
 		}
 	}
 	
@@ -222,12 +630,12 @@ public class DeviceManager implements RadarListener {
 	 * @throws JSONException 
 	 * @throws ServiceCallException
 	 */
-	private void findDrivers(Set<String> unknownDrivers, UpDevice upDevice) throws JSONException {
+	private void findDrivers(Set<String> unknownDrivers, Set<DriverModel> dependents, UpDevice upDevice) throws JSONException {
 		ServiceCall call = new ServiceCall(DEVICE_DRIVER_NAME, "tellEquivalentDrivers", null);
 		call.addParameter(DRIVERS_NAME_KEY, new JSONArray(unknownDrivers).toString());
 		
 		try {
-			ServiceResponse equivalentDriverResponse = gateway.callService(upDevice, call);
+			ServiceResponse equivalentDriverResponse = call(upDevice, call);
 			
 			if (equivalentDriverResponse != null && (equivalentDriverResponse.getError() == null || equivalentDriverResponse.getError().isEmpty())){
 				
@@ -239,7 +647,7 @@ public class DeviceManager implements RadarListener {
 					JSONArray interfacesJson = new JSONArray(interfaces);
 					
 					for(int i = 0; i < interfacesJson.length(); i++) {
-						UpDriver upDriver = new JSONDriver(interfacesJson.getString(i)).getAsObject();
+						UpDriver upDriver = DataTypeBinder.driverFromJSON(interfacesJson.getString(i));
 						drivers.add(upDriver);
 					}
 					
@@ -267,12 +675,17 @@ public class DeviceManager implements RadarListener {
 				logger.severe("Not possible to call service on device '"+upDevice.getName()+
 						(equivalentDriverResponse == null ? ": null": "': Cause : "+equivalentDriverResponse.getError()));
 			}
-		} catch (ServiceCallException e) {
+		} catch (JSONException e) {
+			throw e;
+		} catch (Exception e) {
 			logger.severe("Not possible to call service on device '" + upDevice.getName());
-		}
+		}
 	}
 
-	private UpDevice doHandshake(NetworkDevice device, UpDevice upDevice) {
+	/**
+	 * @return The device registered, <code>null</code> if the handshake failed.
+	 */
+	private UpDevice doHandshake(NetworkDevice device) {
 		try {
 			// Create a Dummy device just for calling it
 			logger.fine("Trying to hanshake with device : "+device.getNetworkDeviceName());
@@ -280,16 +693,16 @@ public class DeviceManager implements RadarListener {
 											.addNetworkInterface(device.getNetworkDeviceName(), device.getNetworkDeviceType());
 			
 			ServiceCall call = new ServiceCall(DEVICE_DRIVER_NAME, "handshake", null);
-			call.addParameter("device", new JSONDevice(currentDevice).toString());
+			call.addParameter(DEVICE_KEY, new JSONDevice(currentDevice).toString());
 
-			ServiceResponse response = gateway.callService(dummyDevice, call);
+			ServiceResponse response = call(dummyDevice, call);
 			if (response != null && ( response.getError() == null || response.getError().isEmpty())){
 				// in case of a success greeting process, register the device in the neighborhood database
-				String responseDevice = response.getResponseString("device");
+				String responseDevice = response.getResponseString(DEVICE_KEY);
 				if (responseDevice != null){
-					UpDevice remoteDevice = new JSONDevice(responseDevice).getAsObject();
+					UpDevice remoteDevice = DataTypeBinder.deviceFromJSON(responseDevice);
 					registerDevice(remoteDevice);
-					logger.info("Registered device "+remoteDevice.getName());
+					logger.info("Registered device "+remoteDevice.getName());
 					return remoteDevice;
 				}else{
 					logger.severe("Not possible complete handshake with device '"+device.getNetworkDeviceName()+"' for no device on the handshake response.");
@@ -301,7 +714,7 @@ public class DeviceManager implements RadarListener {
 		} catch (Exception e) {
 			logger.severe("Not possible to handshake with device '"+device.getNetworkDeviceName()+"'. "+e.getMessage());
 		}
-		return upDevice;
+		return null;
 	}
 
 	/**
@@ -310,17 +723,18 @@ public class DeviceManager implements RadarListener {
 	@Override
 	public void deviceLeft(NetworkDevice device) {
 		if (device == null || device.getNetworkDeviceName() == null || device.getNetworkDeviceType() == null) return;
-		// Remove what services this device has.
+		// Remove what services this device has.
 		logger.info("Device "+device.getNetworkDeviceName()+" of type "+device.getNetworkDeviceType()+" leaving.");
 		String host = connectionManagerControlCenter.getHost(device.getNetworkDeviceName());
-		List<UpDevice> devices = deviceDao.list(host,device.getNetworkDeviceType());
+		List<UpDevice> devices = deviceDao.list(host,device.getNetworkDeviceType());
 
 		if (devices != null && !devices.isEmpty()){
 			UpDevice upDevice = devices.get(0);
 			List<DriverModel> returnedDrivers =  driverManager.list(null, upDevice.getName());
+			rememberDrivers(host+"@"+device.getNetworkDeviceType(), upDevice, returnedDrivers);
 			if (returnedDrivers != null && !returnedDrivers.isEmpty()){
 				for (DriverModel rdd : returnedDrivers){
-					driverManager.delete(rdd.id(), rdd.device());
+					driverManager.delete(rdd.id(), rdd.device());
 				}
 			}
 			deviceDao.delete(upDevice.getName());
@@ -328,7 +742,131 @@ public class DeviceManager implements RadarListener {
 		} else {
 			logger.info("Device not found in database.");
 		}
+		for (DepartureListener listener : departureListeners){
+			listener.deviceLeft(device);
+		}
+	}
+
+	/**
+	 * Keeps the drivers of a device leaving, if their version is known, so only
+	 * their changes need to be asked when it comes back.
+	 */
+	private void rememberDrivers(String key, UpDevice upDevice, List<DriverModel> drivers) {
+		String version = driverVersions.remove(upDevice.getName().toLowerCase());
+		if (version == null || drivers == null){
+			return;
+		}
+		try {
+			JSONObject driverList = new JSONObject();
+			for (DriverModel model : drivers){
+				driverList.put(model.id(), driverManager.getInterfaces().reference(model.driver()));
+			}
+			departed.put(key, new KnownDrivers(version, driverList));
+		} catch (JSONException e) {
+			logger.log(Level.FINE, "Not possible to remember the drivers of device '"+upDevice.getName()+"'.", e);
+		}
+	}
+
+	/**
+	 * Pushes each change of the drivers of the current device to the devices 
+	 * which informed the version of their drivers (so they keep track of ours).
+	 */
+	private class ChangePusher implements DriverChangeLog.Listener {
+		public void driverChanged(DriverChangeLog.Change change, String previousVersion) {
+			if (driverVersions.isEmpty() || currentDriversVersion() == null){
+				return;
+			}
+			final Notify notify = new Notify(DRIVERS_CHANGED_EVENT, DEVICE_DRIVER_NAME, null);
+			notify.addParameter(DEVICE_KEY, currentDevice.getName());
+			notify.addParameter(PREVIOUS_VERSION_KEY, previousVersion);
+			notify.addParameter(DRIVERS_VERSION_KEY, change.version());
+			try {
+				notify.addParameter(CHANGES_KEY, toJSON(Collections.singletonList(change), null).toString());
+			} catch (JSONException e) {
+				logger.log(Level.SEVERE, "Not possible to push the change of driver '"+change.instanceId()+"'.", e);
+				return;
+			}
+			for (String name : driverVersions.keySet()){
+				final UpDevice device = deviceDao.find(name);
+				if (device != null){
+					discovery.execute(new Runnable() {
+						public void run() {
+							try {
+								gateway.sendEventNotify(notify, device);
+							} catch (Exception e) {
+								logger.fine("Not possible to push the drivers changes to device '"+device.getName()+"'. "+e.getMessage());
+							}
+						}
+					});
+				}
+			}
+		}
+	}
 
+	/**
+	 * Changes of drivers are only accepted along with the device which 
+	 * sent them.
+	 * 
+	 * @see #handleEvent(Notify, String)
+	 */
+	public void handleEvent(Notify event) {
+		handleEvent(event, null);
+	}
+
+	/**
+	 * Handles the changes of drivers pushed by other devices. Only the 
+	 * changes pushed by the device they belong to are considered. Changes 
+	 * which don't follow the version known of the device are asked to it 
+	 * instead.
+	 */
+	public void handleEvent(Notify event, String sender) {
+		if (event == null || !DRIVERS_CHANGED_EVENT.equals(event.getEventKey()) 
+				|| !DEVICE_DRIVER_NAME.equals(event.getDriver())){
+			return;
+		}
+		Object name = event.getParameter(DEVICE_KEY);
+		final UpDevice device = name == null ? null : deviceDao.find(name.toString());
+		if (device == null){
+			logger.fine("Drivers changes pushed by unknown device '"+name+"'.");
+			return;
+		}
+		if (sender == null || !sender.equalsIgnoreCase(device.getName())){
+			logger.warning("Drivers changes of device '"+device.getName()+"' pushed by device '"+sender+"' were ignored.");
+			return;
+		}
+		final String known = driverVersions.get(device.getName().toLowerCase());
+		try {
+			if (known != null && known.equals(event.getParameter(PREVIOUS_VERSION_KEY))){
+				registerRemoteDrivers(device, event.getParameters());
+				return;
+			}
+		} catch (JSONException e) {
+			logger.log(Level.SEVERE,"Problems ocurred in the registering of drivers from device '"+device.getName()+"' .", e);
+		}
+		discovery.execute(new Runnable() {
+			public void run() {
+				catchUp(device, known);
+			}
+		});
+	}
+
+	/**
+	 * Asks a device for the changes of its drivers since the version informed.
+	 */
+	private void catchUp(UpDevice device, String since) {
+		ServiceCall call = new ServiceCall(DEVICE_DRIVER_NAME, "listDriverChanges", null);
+		if (since != null){
+			call.addParameter(SINCE_KEY, since);
+		}
+		addKnownInterfaces(call);
+		try {
+			ServiceResponse response = call(device, call);
+			if (response != null && (response.getError() == null || response.getError().isEmpty())){
+				registerRemoteDrivers(device, response.getResponseData());
+			}
+		} catch (Exception e) {
+			logger.severe("Not possible to catch up with the drivers of device '"+device.getName()+"'. "+e.getMessage());
+		}
 	}
 
 	public List<UpDevice> listDevices() {
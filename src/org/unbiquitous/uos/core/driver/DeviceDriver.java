@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,12 +18,14 @@ import org.unbiquitous.uos.core.adaptabitilyEngine.SmartSpaceGateway;
 import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
 import org.unbiquitous.uos.core.deviceManager.DeviceManager;
 import org.unbiquitous.uos.core.driverManager.DriverData;
+import org.unbiquitous.uos.core.driverManager.DriverInterfaces;
 import org.unbiquitous.uos.core.driverManager.DriverManager;
 import org.unbiquitous.uos.core.driverManager.DriverModel;
 import org.unbiquitous.uos.core.driverManager.UosDriver;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.DataTypeBinder;
 import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDriver;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
@@ -43,6 +46,10 @@ public class DeviceDriver implements UosDriver {
 	private static final String DRIVER_NAME_KEY = "driverName";
 	private static final String INTERFACES_KEY = "interfaces";
 	private static final String DRIVERS_NAME_KEY = "driversName";
+	private static final String DRIVERS_VERSION_KEY = "driversVersion";
+	private static final String SINCE_KEY = "since";
+	private static final String CHANGES_KEY = "changes";
+	private static final String KNOWN_INTERFACES_KEY = "knownInterfaces";
 
 	private Gateway gateway;
 	private final UpDriver driver;
@@ -51,7 +58,8 @@ public class DeviceDriver implements UosDriver {
 		driver = new UpDriver("uos.DeviceDriver");
 
 		driver.addService("listDrivers")
-			.addParameter(DRIVER_NAME_KEY,UpService.ParameterType.OPTIONAL);
+			.addParameter(DRIVER_NAME_KEY,UpService.ParameterType.OPTIONAL)
+			.addParameter(KNOWN_INTERFACES_KEY,UpService.ParameterType.OPTIONAL);
 
 		driver.addService("authenticate")
 			.addParameter(SECURITY_TYPE_KEY,UpService.ParameterType.MANDATORY);
@@ -61,6 +69,19 @@ public class DeviceDriver implements UosDriver {
 		driver.addService("handshake")
 			.addParameter(DEVICE_KEY,UpService.ParameterType.MANDATORY);
 
+		driver.addService("handshakeWithDrivers")
+			.addParameter(DEVICE_KEY,UpService.ParameterType.MANDATORY)
+			.addParameter(DRIVER_LIST_KEY,UpService.ParameterType.OPTIONAL)
+			.addParameter(INTERFACES_KEY,UpService.ParameterType.OPTIONAL)
+			.addParameter(DRIVERS_VERSION_KEY,UpService.ParameterType.OPTIONAL)
+			.addParameter(CHANGES_KEY,UpService.ParameterType.OPTIONAL)
+			.addParameter(SINCE_KEY,UpService.ParameterType.OPTIONAL)
+			.addParameter(KNOWN_INTERFACES_KEY,UpService.ParameterType.OPTIONAL);
+
+		driver.addService("listDriverChanges")
+			.addParameter(SINCE_KEY,UpService.ParameterType.OPTIONAL)
+			.addParameter(KNOWN_INTERFACES_KEY,UpService.ParameterType.OPTIONAL);
+
 		driver.addService("tellEquivalentDriver")
 			.addParameter(DRIVER_NAME_KEY,UpService.ParameterType.MANDATORY);
 	}
@@ -87,6 +108,8 @@ public class DeviceDriver implements UosDriver {
 	 * Service responsible for retrieving the list of Driver Instances present in the underlying device.
 	 * This listing service can have its result filtered with the use of the parameters 'serviceName' or 'driverName'.
 	 * It responds in a single responseMap within the parameter 'driverList'
+	 * Drivers whose interfaces are informed as 'knownInterfaces' by the caller are 
+	 * sent only as references to them.
 	 */
 	@SuppressWarnings("unchecked")
 	public void listDrivers(ServiceCall serviceCall, ServiceResponse serviceResponse, UOSMessageContext messageContext) {
@@ -114,10 +137,11 @@ public class DeviceDriver implements UosDriver {
 		
 		Map<String, JSONObject> driversList = new HashMap<String, JSONObject>();
 		if (listDrivers != null && !listDrivers.isEmpty()){
+			Set<String> known = knownInterfaces(parameters);
 			for (DriverData driverData : listDrivers) {
 				
 				try {
-					JSONDriver jsonDriver = new JSONDriver(driverData.getDriver());
+					JSONObject jsonDriver = driverManager.getInterfaces().toJSON(driverData.getDriver(), known);
 					
 					driversList.put(driverData.getInstanceID(), jsonDriver);
 				} catch (JSONException e) {
@@ -133,6 +157,15 @@ public class DeviceDriver implements UosDriver {
 		serviceResponse.setResponseData(responseData);
 	}
 	
+	private static Set<String> knownInterfaces(Map<String, Object> parameters) {
+		try {
+			return DriverInterfaces.hashesFrom(parameters == null ? null : parameters.get(KNOWN_INTERFACES_KEY));
+		} catch (JSONException e) {
+			logger.log(Level.FINE,"Ignoring malformed known interfaces.",e);
+			return null;
+		}
+	}
+	
 	/**
 	 * Service responsible for authenticating a device. This Service can be called multiple times for a authentication process
 	 * with multiple steps. 
@@ -171,7 +204,7 @@ public class DeviceDriver implements UosDriver {
 			return;
 		}
 		try {
-			UpDevice device = new JSONDevice(deviceParameter).getAsObject();
+			UpDevice device = DataTypeBinder.deviceFromJSON(deviceParameter);
 			// TODO : DeviceDriver : validate if the device doing the handshake is the same that is in the parameter
 			deviceManager.registerDevice(device);
 			serviceResponse.addParameter(DEVICE_KEY, 
@@ -185,7 +218,7 @@ public class DeviceDriver implements UosDriver {
 				Map<String, Object> driverMap = new JSONObject( driverList.toString()).toMap();
 				// TODO: this is duplicated with DeviceManager.registerRemoteDriverInstances
 				for (String id : driverMap.keySet()){
-					UpDriver upDriver = new JSONDriver(driverMap.get(id).toString()).getAsObject();
+					UpDriver upDriver = gtw.getDriverManager().getInterfaces().fromJSON(driverMap.get(id).toString());
 					DriverModel driverModel = new DriverModel(id, upDriver , device.getName());
 					gtw.getDriverManager().insert(driverModel);
 				}
@@ -196,6 +229,62 @@ public class DeviceDriver implements UosDriver {
 		} 
 	}
 	
+	/**
+	 * Handshake which also exchanges the drivers of both devices in the same call, so 
+	 * none of them needs to list the drivers of the other afterwards.
+	 * Besides the 'device', the caller informs its 'driverList' and the 'interfaces' 
+	 * of the equivalence tree its drivers depend on. The same parameters are returned 
+	 * with the information of the called device.
+	 * Drivers are versioned: the caller may inform the 'driversVersion' of its own and, 
+	 * when it already knew the drivers of the called device, the version it knew as 
+	 * 'since'. In this case only the 'changes' since then are returned, if possible.
+	 */
+	public void handshakeWithDrivers(ServiceCall serviceCall, ServiceResponse serviceResponse, UOSMessageContext messageContext){
+		DeviceManager deviceManager = ((SmartSpaceGateway)this.gateway).getDeviceManager();
+		
+		String deviceParameter = serviceCall.getParameterString(DEVICE_KEY);
+		if (deviceParameter == null){
+			serviceResponse.setError("No 'device' parameter informed.");
+			return;
+		}
+		try {
+			UpDevice device = DataTypeBinder.deviceFromJSON(deviceParameter);
+			deviceManager.registerDevice(device);
+			
+			deviceManager.registerRemoteDrivers(device, serviceCall.getParameters());
+			
+			serviceResponse.addParameter(DEVICE_KEY, new JSONDevice(gateway.getCurrentDevice()).toString());
+			for (Map.Entry<String, String> param : 
+					deviceManager.describeCurrentDrivers(serviceCall.getParameterString(SINCE_KEY), 
+															serviceCall.getParameter(KNOWN_INTERFACES_KEY)).entrySet()){
+				serviceResponse.addParameter(param.getKey(), param.getValue());
+			}
+		} catch (Exception e) {
+			serviceResponse.setError(e.getMessage());
+			logger.log(Level.SEVERE,"Problems on handshake",e);
+		} 
+	}
+	
+	/**
+	 * Lists the drivers of the device changed since the version informed as 'since', 
+	 * so a device can catch up with them without listing all drivers again. 
+	 * Responds with the 'driversVersion', the 'interfaces' and either the 'changes' 
+	 * or, when these can't be told, the whole 'driverList'.
+	 */
+	public void listDriverChanges(ServiceCall serviceCall, ServiceResponse serviceResponse, UOSMessageContext messageContext){
+		DeviceManager deviceManager = ((SmartSpaceGateway)this.gateway).getDeviceManager();
+		try {
+			for (Map.Entry<String, String> param : 
+					deviceManager.describeCurrentDrivers(serviceCall.getParameterString(SINCE_KEY), 
+															serviceCall.getParameter(KNOWN_INTERFACES_KEY)).entrySet()){
+				serviceResponse.addParameter(param.getKey(), param.getValue());
+			}
+		} catch (Exception e) {
+			serviceResponse.setError(e.getMessage());
+			logger.log(Level.SEVERE,"Problems listing the driver changes",e);
+		} 
+	}
+	
 	/**
 	 * This method is responsible for informing that the caller device is leaving the smart-space, so all its data 
 	 * must be removed.
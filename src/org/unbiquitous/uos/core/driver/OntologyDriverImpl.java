@@ -4,25 +4,23 @@
  */
 package org.unbiquitous.uos.core.driver;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.unbiquitous.json.JSONException;
 import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.adaptabitilyEngine.EventSubscribers;
 import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
 import org.unbiquitous.uos.core.adaptabitilyEngine.NotifyException;
 import org.unbiquitous.uos.core.adaptabitilyEngine.SmartSpaceGateway;
 import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
-import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
-import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
-import org.unbiquitous.uos.core.network.model.NetworkDevice;
 import org.unbiquitous.uos.core.ontologyEngine.OntologyInstance;
 import org.unbiquitous.uos.core.ontologyEngine.api.StartReasoner;
 
@@ -32,11 +30,11 @@ import org.unbiquitous.uos.core.ontologyEngine.api.StartReasoner;
  */
 public class OntologyDriverImpl implements OntologyDriver {
 
+    private static final Logger logger = UOSLogging.getLogger();
+
     private StartReasoner reasoner;
     private Gateway gateway;
-    private List<UpNetworkInterface> instanceOfListenerDevices;
-    private List<UpNetworkInterface> dataPropertyListenerDevices;
-    private List<UpNetworkInterface> objectPropertyListenerDevices;
+    private EventSubscribers subscribers;
     private String instanceId;
     private OntologyInstance ontologyInstance;
     public static final String ADD = "add";
@@ -224,9 +222,7 @@ public class OntologyDriverImpl implements OntologyDriver {
                     getOntology().getOntologyInstance();
             ontologyInstance.setOntologyDriver(this);
         }
-        this.instanceOfListenerDevices = new ArrayList<UpNetworkInterface>();
-        this.dataPropertyListenerDevices = new ArrayList<UpNetworkInterface>();
-        this.objectPropertyListenerDevices = new ArrayList<UpNetworkInterface>();
+        this.subscribers = new EventSubscribers();
     }
 
     @Override
@@ -235,42 +231,19 @@ public class OntologyDriverImpl implements OntologyDriver {
 
     @Override
     public void registerListener(ServiceCall serviceCall, ServiceResponse serviceResponse, UOSMessageContext messageContext) {
-        NetworkDevice networkDevice = messageContext.getCallerDevice();
-        UpNetworkInterface networkInterface = new UpNetworkInterface(networkDevice.getNetworkDeviceType(), networkDevice.getNetworkDeviceName());
         String eventKey = (String) serviceCall.getParameter(EVENT_KEY_PARAM);
 
-        if (INSTANCE_OF_EVENT_KEY.equals(eventKey)) {
-            if (!instanceOfListenerDevices.contains(networkInterface)) {
-                instanceOfListenerDevices.add(networkInterface);
-            }
-        } else if (DATA_PROPERTY_EVENT_KEY.equals(eventKey)) {
-            if (!dataPropertyListenerDevices.contains(networkInterface)) {
-                dataPropertyListenerDevices.add(networkInterface);
-            }
-        } else if (OBJECT_PROPERTY_EVENT_KEY.equals(eventKey)) {
-            if (!objectPropertyListenerDevices.contains(networkInterface)) {
-                objectPropertyListenerDevices.add(networkInterface);
-            }
+        if (INSTANCE_OF_EVENT_KEY.equals(eventKey) || DATA_PROPERTY_EVENT_KEY.equals(eventKey)
+                || OBJECT_PROPERTY_EVENT_KEY.equals(eventKey)) {
+            subscribers.add(eventKey, messageContext.getCallerDevice());
         }
     }
 
     @Override
     public void unregisterListener(ServiceCall serviceCall, ServiceResponse serviceResponse, UOSMessageContext messageContext) {
-        NetworkDevice networkDevice = messageContext.getCallerDevice();
-        UpNetworkInterface networkInterface = new UpNetworkInterface(networkDevice.getNetworkDeviceType(), networkDevice.getNetworkDeviceName());
         String eventKey = (String) serviceCall.getParameter(EVENT_KEY_PARAM);
 
-        if (eventKey == null) {
-            instanceOfListenerDevices.remove(networkInterface);
-            dataPropertyListenerDevices.remove(networkInterface);
-            objectPropertyListenerDevices.remove(networkInterface);
-        } else if (INSTANCE_OF_EVENT_KEY.equals(eventKey)) {
-            instanceOfListenerDevices.remove(networkInterface);
-        } else if (DATA_PROPERTY_EVENT_KEY.equals(eventKey)) {
-            dataPropertyListenerDevices.remove(networkInterface);
-        } else if (OBJECT_PROPERTY_EVENT_KEY.equals(eventKey)) {
-            objectPropertyListenerDevices.remove(networkInterface);
-        }
+        subscribers.remove(eventKey, messageContext.getCallerDevice());
     }
 
 	@Override
@@ -340,25 +313,10 @@ public class OntologyDriverImpl implements OntologyDriver {
      * @param notify
      */
     private void notifyRegisteredDevices(Notify notify) {
-        List<UpNetworkInterface> listenerDevices = null;
-
-        if (INSTANCE_OF_EVENT_KEY.equals(notify.getEventKey())) {
-            listenerDevices = instanceOfListenerDevices;
-        } else if (DATA_PROPERTY_EVENT_KEY.equals(notify.getEventKey())) {
-            listenerDevices = dataPropertyListenerDevices;
-        } else if (OBJECT_PROPERTY_EVENT_KEY.equals(notify.getEventKey())) {
-            listenerDevices = objectPropertyListenerDevices;
-        }
-
-        for (UpNetworkInterface networkInterface : listenerDevices) {
-            UpDevice device = new UpDevice("Anonymous");
-            device.addNetworkInterface(networkInterface.getNetworkAddress(), networkInterface.getNetType());
-
-            try {
-                this.gateway.sendEventNotify(notify, device);
-            } catch (NotifyException e) {
-                e.printStackTrace();
-            }
+        try {
+            this.gateway.notifySubscribers(notify, subscribers);
+        } catch (NotifyException e) {
+            logger.log(Level.WARNING, "Failed to notify the listeners of " + notify.getEventKey() + ".", e);
         }
     }
 }
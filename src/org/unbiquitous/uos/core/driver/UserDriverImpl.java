@@ -7,23 +7,25 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.unbiquitous.json.JSONException;
 import org.unbiquitous.json.JSONObject;
 import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.adaptabitilyEngine.EventSubscribers;
 import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
 import org.unbiquitous.uos.core.adaptabitilyEngine.NotifyException;
+import org.unbiquitous.uos.core.adaptabitilyEngine.NotifyPolicy;
 import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
-import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
-import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpService.ParameterType;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
-import org.unbiquitous.uos.core.network.model.NetworkDevice;
+import org.unbiquitous.uos.core.network.connectionManager.StreamChannels;
 
 /**
  * This class represents a user information from the middleware view.
@@ -44,11 +46,12 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 	private volatile Map<String, JSONObject> labels;
 	private Gateway gateway;
 	private String instanceId;
-	private List<UpNetworkInterface> newUserListenerDevices;
-	private List<UpNetworkInterface> changeInformationListenerDevices;
-	private List<UpNetworkInterface> lostUserListenerDevices;
+	private EventSubscribers subscribers;
 
 	private static final int TIME_IN_SLEEP_BEFORE_START = 500;
+	// positions of each user sent per second and how much they must move to be sent again
+	private static final double POSITION_RATE = 10;
+	private static final double POSITION_DELTA = 0.01;
 
 	public UserDriverImpl() {
 		userDriver = this;
@@ -67,9 +70,7 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 	public void init(Gateway gateway, String instanceId) {
 		this.gateway = gateway;
 		this.instanceId = instanceId;
-		this.newUserListenerDevices = new ArrayList<UpNetworkInterface>();
-		this.changeInformationListenerDevices = new ArrayList<UpNetworkInterface>();
-		this.lostUserListenerDevices = new ArrayList<UpNetworkInterface>();
+		this.subscribers = new EventSubscribers();
 		this.labels = new HashMap<String, JSONObject>();
 
 		// starting the TRUE system
@@ -183,7 +184,7 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 
 		ReceiveImageData receiveImageData = new ReceiveImageData(name, email, index, length, messageContext);
 
-		new Thread(receiveImageData).start();
+		StreamChannels.loop().execute(receiveImageData);
 
 		serviceResponse.addParameter(RETURN_PARAM, "Get stream and send frame.");
 	}
@@ -259,23 +260,20 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 	 */
 	@Override
 	public void registerListener(ServiceCall serviceCall, ServiceResponse serviceResponse, UOSMessageContext messageContext) {
-		NetworkDevice networkDevice = messageContext.getCallerDevice();
-		UpNetworkInterface networkInterface = new UpNetworkInterface(networkDevice.getNetworkDeviceType(), networkDevice.getNetworkDeviceName());
-
 		String eventKey = (String) serviceCall.getParameter(EVENT_KEY_PARAM);
 
-		if (NEW_USER_EVENT_KEY.equals(eventKey)) {
-			if (!newUserListenerDevices.contains(networkInterface)) {
-				newUserListenerDevices.add(networkInterface);
-			}
+		if (NEW_USER_EVENT_KEY.equals(eventKey) || LOST_USER_EVENT_KEY.equals(eventKey)) {
+			subscribers.add(eventKey, messageContext.getCallerDevice());
 		} else if (CHANGE_INFORMATION_TO_USER_KEY.equals(eventKey)) {
-			if (!changeInformationListenerDevices.contains(networkInterface)) {
-				changeInformationListenerDevices.add(networkInterface);
-			}
-		} else if (LOST_USER_EVENT_KEY.equals(eventKey)) {
-			if (!lostUserListenerDevices.contains(networkInterface)) {
-				lostUserListenerDevices.add(networkInterface);
-			}
+			// the tracker rechecks the users far more often than listeners can use it
+			NotifyPolicy policy = new NotifyPolicy()
+					.maxRate(POSITION_RATE).coalesceBy(EMAIL_PARAM)
+					.minDelta(POSITION_X_PARAM, POSITION_DELTA)
+					.minDelta(POSITION_Y_PARAM, POSITION_DELTA)
+					.minDelta(POSITION_Z_PARAM, POSITION_DELTA)
+					.urgentWith(LAST_LABEL_EMAIL)
+					.requestedBy(serviceCall);
+			subscribers.add(eventKey, messageContext.getCallerDevice(), policy);
 		}
 	}
 
@@ -284,22 +282,9 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 	 */
 	@Override
 	public void unregisterListener(ServiceCall serviceCall, ServiceResponse serviceResponse, UOSMessageContext messageContext) {
-		NetworkDevice networkDevice = messageContext.getCallerDevice();
-		UpNetworkInterface networkInterface = new UpNetworkInterface(networkDevice.getNetworkDeviceType(), networkDevice.getNetworkDeviceName());
-
 		String eventKey = (String) serviceCall.getParameter(EVENT_KEY_PARAM);
 
-		if (eventKey == null) {
-			newUserListenerDevices.remove(networkInterface);
-			changeInformationListenerDevices.remove(networkInterface);
-			lostUserListenerDevices.remove(networkInterface);
-		} else if (NEW_USER_EVENT_KEY.equals(eventKey)) {
-			newUserListenerDevices.remove(networkInterface);
-		} else if (CHANGE_INFORMATION_TO_USER_KEY.equals(eventKey)) {
-			changeInformationListenerDevices.remove(networkInterface);
-		} else if (LOST_USER_EVENT_KEY.equals(eventKey)) {
-			lostUserListenerDevices.remove(networkInterface);
-		}
+		subscribers.remove(eventKey, messageContext.getCallerDevice());
 	}
 
 	/**
@@ -402,25 +387,10 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 	 * @param notify
 	 */
 	private void notifyAllListerners(Notify notify) {
-		List<UpNetworkInterface> listenerDevices = null;
-
-		if (NEW_USER_EVENT_KEY.equals(notify.getEventKey())) {
-			listenerDevices = newUserListenerDevices;
-		} else if (CHANGE_INFORMATION_TO_USER_KEY.equals(notify.getEventKey())) {
-			listenerDevices = changeInformationListenerDevices;
-		} else if (LOST_USER_EVENT_KEY.equals(notify.getEventKey())) {
-			listenerDevices = lostUserListenerDevices;
-		}
-
-		for (UpNetworkInterface networkInterface : listenerDevices) {
-			UpDevice device = new UpDevice("Anonymous"); // TODO ??
-			device.addNetworkInterface(networkInterface.getNetworkAddress(), networkInterface.getNetType());
-
-			try {
-				this.gateway.sendEventNotify(notify, device);
-			} catch (NotifyException e) {
-				e.printStackTrace();
-			}
+		try {
+			this.gateway.notifySubscribers(notify, subscribers);
+		} catch (NotifyException e) {
+			logger.log(Level.WARNING, "Failed to notify the listeners of " + notify.getEventKey() + ".", e);
 		}
 	}
 
@@ -501,16 +471,17 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 			try {
 				int channel = 0;
 
+				if (!messageContext.awaitDataStreams(channel + 1, StreamChannels.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					logger.severe("The stream channel to receive the image was not opened.");
+					return;
+				}
+
 				DataInputStream in = messageContext.getDataInputStream(channel);
 				DataOutputStream out = messageContext.getDataOutputStream(channel);
 
-				while (in.available() < length) {
-					Thread.sleep(100);
-				}
-
 				byte imageData[] = new byte[length];
 
-				in.read(imageData);
+				in.readFully(imageData);
 
 				String id = name + SPECIAL_CHARACTER_SEPARATOR + email;
 
@@ -520,6 +491,7 @@ public class UserDriverImpl extends UserDriverNativeSupport {
 					out.write("Not possible to save the image of user. Try again.".getBytes());
 				else
 					out.write("Image of user saved.".getBytes());
+				out.flush();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			} catch (InterruptedException e) {
@@ -0,0 +1,234 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.driverManager.ExecutionPolicy.Pool;
+
+/**
+ * Executes the calls to a driver (or to one of its services) as told by its
+ * {@link ExecutionPolicy}, counting how they went.
+ *
+ * A call only starts when there's a free turn. Otherwise it waits, unless the
+ * queue is already full and it's rejected. A call not finished on time is
+ * abandoned (its thread is interrupted) and its turn is only given back when
+ * it actually finishes, so a stuck driver never has more calls than allowed.
+ */
+public class Bulkhead {
+
+	private final String name;
+	private final ExecutionPolicy policy;
+	private final Semaphore turns;
+	private final ExecutorService executor;
+	private final boolean dedicated;
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+
+	/**
+	 * @param name Identifies the bulkhead (on its threads and errors).
+	 * @param shared Threads shared by the drivers, used on the
+	 * 			{@link Pool#SHARED} pool.
+	 */
+	public Bulkhead(String name, ExecutionPolicy policy, ExecutorService shared) {
+		this.name = name;
+		this.policy = policy;
+		this.turns = policy.maxConcurrent() > 0 ? new Semaphore(policy.maxConcurrent(), true) : null;
+		if (policy.pool() == Pool.DEDICATED){
+			this.executor = dedicatedPool(name, policy.maxConcurrent());
+			this.dedicated = true;
+		}else{
+			this.executor = policy.pool() == Pool.SHARED ? shared : null;
+			this.dedicated = false;
+		}
+	}
+
+	private static ExecutorService dedicatedPool(String name, int threads) {
+		ThreadFactory factory = new DaemonThreadFactory("uos-"+name);
+		if (threads <= 0){
+			return Executors.newCachedThreadPool(factory);
+		}
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+												new LinkedBlockingQueue<Runnable>(), factory);
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Executes the task as told by the policy.
+	 *
+	 * @return The result of the task.
+	 * @throws RejectedExecutionException If there were too many calls already.
+	 * @throws TimeoutException If the task didn't finish on time.
+	 * @throws Exception Thrown by the task.
+	 */
+	public <T> T execute(Callable<T> task) throws Exception {
+		long deadline = policy.timeout() > 0 ?
+					System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.timeout()) : 0;
+		Turn turn = acquire(deadline);
+		if (executor == null){
+			try {
+				return run(task);
+			} finally {
+				turn.release();
+			}
+		}
+		Guarded<T> guarded = new Guarded<T>(task, turn);
+		Future<T> future;
+		try {
+			future = executor.submit(guarded);
+		} catch (RejectedExecutionException e) {
+			turn.release();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Calls to '"+name+"' are not being accepted.");
+		}
+		try {
+			if (policy.timeout() <= 0){
+				return future.get();
+			}
+			return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			guarded.abandon(future);
+			timedOut.incrementAndGet();
+			throw new TimeoutException("Call to '"+name+"' didn't finish in "+policy.timeout()+"ms.");
+		} catch (InterruptedException e) {
+			guarded.abandon(future);
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception){
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private Turn acquire(long deadline) throws TimeoutException, InterruptedException {
+		if (turns == null || turns.tryAcquire()){
+			return new Turn();
+		}
+		if (waiting.incrementAndGet() > policy.queue()){
+			waiting.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Too many calls to '"+name+"'.");
+		}
+		try {
+			if (policy.timeout() <= 0){
+				turns.acquire();
+			}else if (!turns.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)){
+				timedOut.incrementAndGet();
+				throw new TimeoutException("Call to '"+name+"' waited more than "+policy.timeout()+"ms.");
+			}
+			return new Turn();
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	private <T> T run(Callable<T> task) throws Exception {
+		active.incrementAndGet();
+		try {
+			T result = task.call();
+			completed.incrementAndGet();
+			return result;
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			throw e;
+		} finally {
+			active.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Stops the threads of the bulkhead, if dedicated.
+	 */
+	public void shutdown() {
+		if (dedicated){
+			executor.shutdownNow();
+		}
+	}
+
+	public String name() {return name;}
+	public ExecutionPolicy policy() {return policy;}
+	/** @return Calls being executed. */
+	public int active() {return active.get();}
+	/** @return Calls waiting for their turn. */
+	public int waiting() {return waiting.get();}
+	/** @return Calls finished without failures. */
+	public long completed() {return completed.get();}
+	/** @return Calls which failed. */
+	public long failed() {return failed.get();}
+	/** @return Calls rejected since there were too many already. */
+	public long rejected() {return rejected.get();}
+	/** @return Calls not finished on time. */
+	public long timedOut() {return timedOut.get();}
+
+	@Override
+	public String toString() {
+		return name+"{"+policy+"} active="+active()+" waiting="+waiting()+" completed="+completed()
+				+" failed="+failed()+" rejected="+rejected()+" timedOut="+timedOut();
+	}
+
+	/**
+	 * A turn to execute, given back only once.
+	 */
+	private class Turn {
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		void release() {
+			if (turns != null && released.compareAndSet(false, true)){
+				turns.release();
+			}
+		}
+	}
+
+	/**
+	 * Task executed on the pool, giving back its turn when done.
+	 */
+	private class Guarded<T> implements Callable<T> {
+		private final Callable<T> task;
+		private final Turn turn;
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		Guarded(Callable<T> task, Turn turn) {
+			this.task = task;
+			this.turn = turn;
+		}
+
+		public T call() throws Exception {
+			started.set(true);
+			try {
+				return run(task);
+			} finally {
+				turn.release();
+			}
+		}
+
+		/**
+		 * Gives up the task, keeping its turn until it finishes if it started.
+		 */
+		void abandon(Future<T> future) {
+			future.cancel(true);
+			if (!started.get()){
+				turn.release();
+			}
+		}
+	}
+}
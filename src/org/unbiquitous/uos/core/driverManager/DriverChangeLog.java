@@ -0,0 +1,151 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+
+/**
+ * Versioned log of the drivers deployed and undeployed on the current device,
+ * so other devices can catch up with only what changed since the version they
+ * know instead of listing all drivers again.
+ *
+ * Versions are only meaningful for the log which issued them: each log has an
+ * epoch of its own, so a version from before a restart (or from another
+ * device) is never mistaken for a known one. Only the latest changes are kept.
+ */
+public class DriverChangeLog {
+
+	/**
+	 * Informed of each change, after it's logged.
+	 */
+	public interface Listener {
+		void driverChanged(Change change, String previousVersion);
+	}
+
+	/**
+	 * A driver instance deployed or undeployed.
+	 */
+	public static class Change {
+		private final long number;
+		private final String version;
+		private final String instanceId;
+		private final UpDriver driver;
+
+		Change(long number, String version, String instanceId, UpDriver driver) {
+			this.number = number;
+			this.version = version;
+			this.instanceId = instanceId;
+			this.driver = driver;
+		}
+
+		/** @return The version of the log after this change. */
+		public String version() {return version;}
+		public String instanceId() {return instanceId;}
+		/** @return The driver deployed, <code>null</code> if it was undeployed. */
+		public UpDriver driver() {return driver;}
+		public boolean isDeployed() {return driver != null;}
+	}
+
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private final String epoch;
+	private final int capacity;
+	private long current;
+	private final LinkedList<Change> changes = new LinkedList<Change>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	public DriverChangeLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Amount of the latest changes kept.
+	 */
+	public DriverChangeLog(int capacity) {
+		this.capacity = capacity;
+		this.epoch = Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return The current version of the drivers.
+	 */
+	public synchronized String version() {
+		return version(current);
+	}
+
+	private String version(long number) {
+		return epoch + ":" + number;
+	}
+
+	public void deployed(String instanceId, UpDriver driver) {
+		record(instanceId, driver);
+	}
+
+	public void undeployed(String instanceId) {
+		record(instanceId, null);
+	}
+
+	private void record(String instanceId, UpDriver driver) {
+		Change change;
+		String previous;
+		synchronized (this) {
+			previous = version(current);
+			current++;
+			change = new Change(current, version(current), instanceId, driver);
+			changes.addLast(change);
+			if (changes.size() > capacity){
+				changes.removeFirst();
+			}
+		}
+		for (Listener listener : listeners){
+			listener.driverChanged(change, previous);
+		}
+	}
+
+	/**
+	 * @param version A version issued by this log.
+	 * @return The changes after the informed version, oldest first.
+	 * 			<code>null</code> if they can't be told, since the version
+	 * 			is unknown or too old.
+	 */
+	public synchronized List<Change> since(String version) {
+		if (version == null || !version.startsWith(epoch + ":")){
+			return null;
+		}
+		long number;
+		try {
+			number = Long.parseLong(version.substring(epoch.length() + 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (number > current || number < 0){
+			return null;
+		}
+		if (number == current){
+			return Collections.emptyList();
+		}
+		if (changes.isEmpty() || changes.getFirst().number > number + 1){
+			return null;
+		}
+		List<Change> after = new ArrayList<Change>();
+		for (Change change : changes){
+			if (change.number > number){
+				after.add(change);
+			}
+		}
+		return after;
+	}
+}
@@ -1,41 +1,60 @@
 package org.unbiquitous.uos.core.driverManager;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
-
+/**
+ * Registry of the drivers known by the middleware, from this and other devices.
+ *
+ * Writes are serialized while reads never lock: every index holds immutable
+ * lists sorted by the driver id, replaced as a whole on each change. The lists
+ * returned are these snapshots, so they must not be modified and they won't
+ * reflect later changes.
+ */
 public class DriverDao {
-	private HashMap<String, UpDriver> driverMap;
-	private HashMap<String, Integer> driverCount;
-	private HashMap<String, List<DriverModel>> driverByDeviceMap;
-	private HashMap<String, List<DriverModel>> driverByTypeMap;
-	private HashMap<Long, DriverModel> modelMap;
-	private HashMap<String, DriverModel> modelByIdMap;
-	
+
+	private static final Comparator<DriverModel> BY_ID = new Comparator<DriverModel>() {
+		public int compare(DriverModel m1, DriverModel m2) {
+			return m1.id().compareTo(m2.id());
+		}
+	};
+
+	private static final List<DriverModel> EMPTY = Collections.emptyList();
+
+	/** All the drivers. */
+	private volatile List<DriverModel> all;
+	/** Drivers by their lower case name. */
+	private ConcurrentMap<String, List<DriverModel>> byName;
+	/** Drivers by their lower case device. */
+	private ConcurrentMap<String, DeviceDrivers> byDevice;
+	/** Last driver inserted with each id, whatever its device. */
+	private ConcurrentMap<String, DriverModel> byId;
+
 	public DriverDao(ResourceBundle bundle) {
 		createMaps();
 	}
 
 	private static long rowid = 0;
-	
+
 	private static synchronized long newId(){ return rowid ++; }
 
-	private void createMaps() {
-		driverMap = new HashMap<String, UpDriver>();
-		driverCount = new HashMap<String, Integer>();
-		driverByDeviceMap = new HashMap<String, List<DriverModel>>();
-		modelMap =  new HashMap<Long, DriverModel>();
-		driverByTypeMap = new HashMap<String, List<DriverModel>>();
-		modelByIdMap = new HashMap<String, DriverModel>();
+	private synchronized void createMaps() {
+		all = EMPTY;
+		byName = new ConcurrentHashMap<String, List<DriverModel>>();
+		byDevice = new ConcurrentHashMap<String, DeviceDrivers>();
+		byId = new ConcurrentHashMap<String, DriverModel>();
 	}
-	
-	
-	public void insert(DriverModel driver) {
+
+
+	public synchronized void insert(DriverModel driver) {
 		DriverModel found = retrieve(driver.id(), driver.device());
 		if (found != null){
 			removeFromMap(found);
@@ -52,128 +71,222 @@ public class DriverDao {
 		return list(name, null);
 	}
 
+	/**
+	 * @return The drivers, sorted by id, with the informed name and device,
+	 * 			if informed.
+	 */
 	public List<DriverModel> list(String name, String device) {
-		List<DriverModel> result = null;
 		if (device == null) {
 			if(name == null) {
-				result =  listAll();
-			}else{
-				List<DriverModel> listByDriver = listByDriver(name);
-				result = listByDriver;
-			}
-		}else{
-			List<DriverModel> listByDevice = listByDevice(device);
-			
-			if (name != null){
-				result =  listByDeviceAndDriver(name, listByDevice);
-			}else{
-				result = listByDevice;
+				return all;
 			}
+			return orEmpty(byName.get(name.toLowerCase()));
 		}
-		
-		Collections.sort(result, new Comparator<DriverModel>() {
-			public int compare(DriverModel m1, DriverModel m2) {
-				return m1.id().compareTo(m2.id());
-			}
-		});
-		
-		return new ArrayList<DriverModel>(result);
-	}
-
-	private ArrayList<DriverModel> listAll() {
-		return new ArrayList<DriverModel>(modelMap.values());
-	}
-	
-	private List<DriverModel> listByDriver(String name) {
-		List<DriverModel> listByDriver = driverByTypeMap.get(name.toLowerCase());
-		if (listByDriver == null) return new ArrayList<DriverModel>();
-		return listByDriver;
-	}
-	
-	private List<DriverModel> listByDevice(String device) {
-		List<DriverModel> listByDevice = driverByDeviceMap.get(device.toLowerCase());
-		if (listByDevice == null) return new ArrayList<DriverModel>();
-		return listByDevice;
+		DeviceDrivers drivers = byDevice.get(device.toLowerCase());
+		if (drivers == null){
+			return EMPTY;
+		}
+		if (name == null){
+			return drivers.all;
+		}
+		return orEmpty(drivers.byName.get(name));
 	}
 
-	private List<DriverModel> listByDeviceAndDriver(String name,
-			List<DriverModel> listByDevice) {
-		List<DriverModel> listByDeviceAndDriver = new ArrayList<DriverModel>();
-		for (DriverModel d: listByDevice){
-			if(name.equalsIgnoreCase((d.driver().getName()))){
-				listByDeviceAndDriver.add(d);
-			}
-		}
-		return listByDeviceAndDriver;
+	private static List<DriverModel> orEmpty(List<DriverModel> list){
+		return list == null ? EMPTY : list;
 	}
 
 	public void clear() {
 		createMaps();
 	}
 
-	public void delete(String id, String device) {
+	public synchronized void delete(String id, String device) {
 		DriverModel driver = retrieve(id, device);
-		removeFromMap(driver);
+		if (driver != null){
+			removeFromMap(driver);
+		}
 	}
 
-
 	private void removeFromMap(DriverModel driver) {
-		modelMap.remove(driver.rowid());
-		modelByIdMap.remove(driver.id());
-		
+		all = without(all, driver);
+
 		String name = driver.driver().getName().toLowerCase();
-		if (driverCount.get(name).equals(0)){
-			driverCount.remove(name);
-			driverMap.remove(name);
+		List<DriverModel> sameName = without(byName.get(name), driver);
+		if (sameName.isEmpty()){
+			byName.remove(name);
+		}else{
+			byName.put(name, sameName);
 		}
-		driverCount.put(name, driverCount.get(name)-1);
-		driverByTypeMap.get(name).remove(driver);
-		
+
 		String deviceName = driver.device().toLowerCase();
-		driverByDeviceMap.get(deviceName).remove(driver);
+		DeviceDrivers drivers = byDevice.get(deviceName).without(driver);
+		if (drivers.all.isEmpty()){
+			byDevice.remove(deviceName);
+		}else{
+			byDevice.put(deviceName, drivers);
+		}
+
+		if (byId.get(driver.id()) == driver){
+			byId.remove(driver.id());
+		}
 	}
-	
+
 	private void insertOnMap(DriverModel driver) {
-		modelMap.put(driver.rowid(), driver);
-		modelByIdMap.put(driver.id(), driver);
-		
+		all = with(all, driver);
+
 		String name = driver.driver().getName().toLowerCase();
-		if (!driverMap.containsKey(name)){
-			driverMap.put(name, driver.driver());
-			driverCount.put(name, 0);
-			driverByTypeMap.put(name, new ArrayList<DriverModel>());
-		}
-		driverCount.put(name, driverCount.get(name)+1);
-		driverByTypeMap.get(name).add(driver);
-		
+		byName.put(name, with(byName.get(name), driver));
+
 		String deviceName = driver.device().toLowerCase();
-		if (!driverByDeviceMap.containsKey(deviceName)){
-			driverByDeviceMap.put(deviceName, new ArrayList<DriverModel>());
+		DeviceDrivers drivers = byDevice.get(deviceName);
+		if (drivers == null){
+			drivers = DeviceDrivers.EMPTY_DEVICE;
 		}
-		driverByDeviceMap.get(deviceName).add(driver);
-		
+		byDevice.put(deviceName, drivers.with(driver));
+
+		byId.put(driver.id(), driver);
 	}
-	
+
+	/**
+	 * @return The driver with the informed id on the device. Without a device,
+	 * 			the last driver inserted with the id. Without an id, the first
+	 * 			driver inserted on the device.
+	 */
 	public DriverModel retrieve(String id, String device) {
 		// find by id
 		if (id != null && device == null){
-			return modelByIdMap.get(id);
-		}else if (device != null){ 
-			List<DriverModel> drivers = driverByDeviceMap.get(device.toLowerCase());
-			if (drivers != null && !drivers.isEmpty()){
+			return byId.get(id);
+		}else if (device != null){
+			DeviceDrivers drivers = byDevice.get(device.toLowerCase());
+			if (drivers != null){
 				// find by driver
 				if (id == null){
-					return drivers.get(0);
+					return drivers.first;
 				}
 				// find by driver and id
-				for (DriverModel d : drivers){
-					if (id.equals(d.id())){
-						return d;
-					}
-				}
+				return drivers.byId.get(id);
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * @return A copy of the sorted list with the driver, after the ones with
+	 * 			the same id.
+	 */
+	private static List<DriverModel> with(List<DriverModel> list, DriverModel driver){
+		if (list == null) list = EMPTY;
+		int size = list.size();
+		int low = 0;
+		int high = size - 1;
+		while (low <= high){
+			int middle = (low + high) >>> 1;
+			if (BY_ID.compare(list.get(middle), driver) <= 0){
+				low = middle + 1;
+			}else{
+				high = middle - 1;
+			}
+		}
+		int position = low;
+		DriverModel[] copy = new DriverModel[size + 1];
+		for (int i = 0; i < position; i++){
+			copy[i] = list.get(i);
+		}
+		copy[position] = driver;
+		for (int i = position; i < size; i++){
+			copy[i + 1] = list.get(i);
+		}
+		return Collections.unmodifiableList(Arrays.asList(copy));
+	}
+
+	/**
+	 * @return A copy of the list without the driver.
+	 */
+	private static List<DriverModel> without(List<DriverModel> list, DriverModel driver){
+		if (list == null) return EMPTY;
+		int size = list.size();
+		int position = -1;
+		for (int i = 0; i < size && position < 0; i++){
+			if (list.get(i) == driver) position = i;
+		}
+		if (position < 0) return list;
+		if (size == 1) return EMPTY;
+		DriverModel[] copy = new DriverModel[size - 1];
+		for (int i = 0, j = 0; i < size; i++){
+			if (i != position) copy[j++] = list.get(i);
+		}
+		return Collections.unmodifiableList(Arrays.asList(copy));
+	}
+
+	/**
+	 * Immutable indexes of the drivers of a single device.
+	 */
+	private static class DeviceDrivers {
+
+		static final DeviceDrivers EMPTY_DEVICE = new DeviceDrivers(EMPTY, null,
+					new HashMap<String, DriverModel>(),
+					new TreeMap<String, List<DriverModel>>(String.CASE_INSENSITIVE_ORDER));
+
+		final List<DriverModel> all;
+		final DriverModel first;
+		final Map<String, DriverModel> byId;
+		/** Case insensitive, so lookups don't need to lower the name. */
+		final Map<String, List<DriverModel>> byName;
+
+		DeviceDrivers(List<DriverModel> all, DriverModel first,
+				Map<String, DriverModel> byId, Map<String, List<DriverModel>> byName) {
+			this.all = all;
+			this.first = first;
+			this.byId = byId;
+			this.byName = byName;
+		}
+
+		DeviceDrivers with(DriverModel driver){
+			Map<String, DriverModel> ids = new HashMap<String, DriverModel>(byId);
+			ids.put(driver.id(), driver);
+			Map<String, List<DriverModel>> names = copy(byName);
+			String name = driver.driver().getName();
+			names.put(name, DriverDao.with(names.get(name), driver));
+			return new DeviceDrivers(DriverDao.with(all, driver),
+										first == null ? driver : first,
+										ids, names);
+		}
+
+		DeviceDrivers without(DriverModel driver){
+			List<DriverModel> remaining = DriverDao.without(all, driver);
+			Map<String, DriverModel> ids = new HashMap<String, DriverModel>(byId);
+			if (ids.get(driver.id()) == driver){
+				ids.remove(driver.id());
+			}
+			Map<String, List<DriverModel>> names = copy(byName);
+			String name = driver.driver().getName();
+			List<DriverModel> sameName = DriverDao.without(names.get(name), driver);
+			if (sameName.isEmpty()){
+				names.remove(name);
+			}else{
+				names.put(name, sameName);
+			}
+			DriverModel newFirst = first;
+			if (first == driver){
+				newFirst = firstInserted(remaining);
+			}
+			return new DeviceDrivers(remaining, newFirst, ids, names);
+		}
+
+		private static Map<String, List<DriverModel>> copy(Map<String, List<DriverModel>> byName){
+			Map<String, List<DriverModel>> names = new TreeMap<String, List<DriverModel>>(String.CASE_INSENSITIVE_ORDER);
+			names.putAll(byName);
+			return names;
+		}
+
+		private static DriverModel firstInserted(List<DriverModel> drivers){
+			DriverModel oldest = null;
+			for (DriverModel d : drivers){
+				if (oldest == null || d.rowid() < oldest.rowid()){
+					oldest = d;
+				}
+			}
+			return oldest;
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package org.unbiquitous.uos.core.driverManager;
 
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,6 +36,10 @@ public class DriverDeployer {
 	private static String INSTANCE_ID_INDICATOR_BEGIN = "(";
 	
 	private static String INSTANCE_ID_INDICATOR_END = ")";
+	
+	private static String POLICY_INDICATOR_BEGIN = "{";
+	
+	private static String POLICY_INDICATOR_END = "}";
 
 	private DriverManager driverManager;
 	
@@ -100,7 +105,8 @@ public class DriverDeployer {
 	/**
 	 * Method responsible for deploying a single driver based on the property description of it
 	 * 
-	 * @param driverData The property line configuration of the driver to be deployed
+	 * @param driverData The property line configuration of the driver to be deployed, 
+	 * 			optionally followed by its execution policies between braces.
 	 * @return the Class of the informed driver.
 	 * @throws DriverManagerException
 	 * @throws DriverNotFoundException 
@@ -109,6 +115,24 @@ public class DriverDeployer {
 			throws DriverManagerException, InterfaceValidationException {
 		String driverClass;
 		String instanceId = null;
+		Map<String, ExecutionPolicy> policies = null;
+		driverData = driverData.trim();
+		if (driverData.contains(POLICY_INDICATOR_BEGIN)){
+			if (!driverData.endsWith(POLICY_INDICATOR_END)){
+				String erroMessage = "DriverData '"+driverData+"' in "+DRIVER_LIST_RESOURCE_KEY+" is malformed.";
+				logger.log(Level.SEVERE,erroMessage);
+				throw new DriverManagerException(erroMessage);
+			}
+			int begin = driverData.indexOf(POLICY_INDICATOR_BEGIN);
+			try {
+				policies = ExecutionPolicy.parse(driverData.substring(begin+1, driverData.length()-1));
+			} catch (IllegalArgumentException e) {
+				String erroMessage = "DriverData '"+driverData+"' in "+DRIVER_LIST_RESOURCE_KEY+" has malformed policies.";
+				logger.log(Level.SEVERE,erroMessage,e);
+				throw new DriverManagerException(erroMessage,e);
+			}
+			driverData = driverData.substring(0, begin).trim();
+		}
 		if (driverData.contains(INSTANCE_ID_INDICATOR_BEGIN) &&
 				driverData.contains(INSTANCE_ID_INDICATOR_END)){
 			// Driver data with specified instanceID
@@ -133,7 +157,7 @@ public class DriverDeployer {
 			}
 		}		
 
-		deployDriver(driverClass, instanceId);
+		deployDriver(driverClass, instanceId, policies);
 
 		return driverClass;
 	}
@@ -144,10 +168,11 @@ public class DriverDeployer {
 	 * 
 	 * @param driverClass Name of the driver <code>Class</code> to be instantiated.
 	 * @param instanceId Name of the InstanceID of the Driver do be Deployed (optional).
+	 * @param policies Execution policies of the Driver (optional).
 	 * @throws DriverManagerException
 	 * @throws DriverNotFoundException 
 	 */
-	private void deployDriver(String driverClass, String instanceId)
+	private void deployDriver(String driverClass, String instanceId, Map<String, ExecutionPolicy> policies)
 			throws DriverManagerException, InterfaceValidationException {
 		try {
 			DRIVER_PATH = resourceBundle.getString(DRIVER_PATH_RESOURCE_KEY);
@@ -161,11 +186,11 @@ public class DriverDeployer {
 			Class<?> clazz = classLoader.loadClass(driverClass);
 			UosDriver driver = (UosDriver) clazz.newInstance();
 			try {
-				driverManager.deployDriver(driver.getDriver(), driver, instanceId);
+				driverManager.deployDriver(driver.getDriver(), driver, instanceId, policies);
 			} catch (DriverNotFoundException e) {
 				try {
 					driverManager.addToEquivalenceTree(driver.getParent());
-					driverManager.deployDriver(driver.getDriver(), driver, instanceId);
+					driverManager.deployDriver(driver.getDriver(), driver, instanceId, policies);
 				} catch (DriverNotFoundException ex) {
 					logger.log(Level.SEVERE,"Problems ocurred in the registering of driver '"+driver.getDriver().getName()+
 							"' and it will not be registered.", ex);
@@ -0,0 +1,322 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.unbiquitous.json.JSONArray;
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService.ParameterType;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.DataTypeBinder;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDriver;
+
+/**
+ * Content addressed store of driver interfaces, so all instances of the same
+ * interface (whatever the device) share a single {@link UpDriver}.
+ *
+ * Each interface is identified by a hash of its canonical form: its name, its
+ * services and events (sorted, with their parameters) and its equivalent
+ * drivers. The interned drivers are immutable, any attempt to change them
+ * fails.
+ *
+ * When serialized, a driver whose interface is known by the receiver can be
+ * sent as a reference to its hash instead of the whole interface.
+ */
+public class DriverInterfaces {
+
+	/** Key of the hash on a driver sent as a reference. */
+	public static final String REFERENCE_KEY = "interface";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** Bytes of the digest kept on the hash. */
+	private static final int HASH_BYTES = 16;
+
+	private static final Comparator<UpService> BY_NAME = new Comparator<UpService>() {
+		public int compare(UpService s1, UpService s2) {
+			return String.valueOf(s1.getName()).compareTo(String.valueOf(s2.getName()));
+		}
+	};
+
+	private final ConcurrentMap<String, Interned> byHash = new ConcurrentHashMap<String, Interned>();
+
+	/**
+	 * @return The shared driver with the same interface as the informed one,
+	 * 			which becomes the shared one if there is none yet.
+	 */
+	public UpDriver intern(UpDriver driver) {
+		if (driver == null || driver instanceof Interned){
+			return driver;
+		}
+		String hash = hash(driver);
+		Interned interned = byHash.get(hash);
+		if (interned == null){
+			interned = new Interned(driver, hash);
+			Interned previous = byHash.putIfAbsent(hash, interned);
+			if (previous != null){
+				interned = previous;
+			}
+		}
+		return interned;
+	}
+
+	/**
+	 * @return The interned driver with the informed hash, <code>null</code>
+	 * 			if unknown.
+	 */
+	public UpDriver get(String hash) {
+		return byHash.get(hash);
+	}
+
+	/**
+	 * @return The hash of the interface of the driver.
+	 */
+	public String hashOf(UpDriver driver) {
+		if (driver instanceof Interned){
+			return ((Interned) driver).hash;
+		}
+		return hash(driver);
+	}
+
+	/**
+	 * @return An unmodifiable view of the hashes of the known interfaces.
+	 */
+	public Set<String> hashes() {
+		return Collections.unmodifiableSet(byHash.keySet());
+	}
+
+	public int size() {
+		return byHash.size();
+	}
+
+	/**
+	 * @param known Hashes of the interfaces known by the receiver.
+	 * @return The driver as JSON, or as a reference to its interface if
+	 * 			the receiver knows it.
+	 */
+	public JSONObject toJSON(UpDriver driver, Set<String> known) throws JSONException {
+		if (known != null && !known.isEmpty()){
+			String hash = hashOf(driver);
+			if (known.contains(hash)){
+				return reference(hash);
+			}
+		}
+		return new JSONDriver(driver);
+	}
+
+	/**
+	 * @return The driver as a reference to its interface, which is interned.
+	 */
+	public JSONObject reference(UpDriver driver) throws JSONException {
+		return reference(hashOf(intern(driver)));
+	}
+
+	private static JSONObject reference(String hash) throws JSONException {
+		JSONObject reference = new JSONObject();
+		reference.put(REFERENCE_KEY, hash);
+		return reference;
+	}
+
+	/**
+	 * @return The interned driver from its JSON or from a reference to it.
+	 * @throws JSONException If the JSON is malformed or references an unknown
+	 * 			interface.
+	 */
+	public UpDriver fromJSON(String source) throws JSONException {
+		if (source.indexOf(REFERENCE_KEY) >= 0){
+			JSONObject json = new JSONObject(source);
+			if (json.has(REFERENCE_KEY) && !json.has("name")){
+				String hash = json.getString(REFERENCE_KEY);
+				UpDriver driver = get(hash);
+				if (driver == null){
+					throw new JSONException("Unknown driver interface '"+hash+"'.");
+				}
+				return driver;
+			}
+		}
+		return intern(DataTypeBinder.driverFromJSON(source));
+	}
+
+	/**
+	 * @return The hashes informed as a JSON array (as sent by the receiver),
+	 * 			empty if none.
+	 */
+	public static Set<String> hashesFrom(Object known) throws JSONException {
+		if (known == null){
+			return Collections.emptySet();
+		}
+		JSONArray array = known instanceof JSONArray ? (JSONArray) known : new JSONArray(known.toString());
+		Set<String> hashes = new HashSet<String>();
+		for (int i = 0; i < array.length(); i++){
+			hashes.add(array.getString(i));
+		}
+		return hashes;
+	}
+
+	private static String hash(UpDriver driver) {
+		StringBuilder canonical = new StringBuilder();
+		append(canonical, driver.getName());
+		append(canonical, driver.getServices());
+		append(canonical, driver.getEvents());
+		List<String> equivalents = driver.getEquivalentDrivers() == null ?
+				new ArrayList<String>() : new ArrayList<String>(driver.getEquivalentDrivers());
+		Collections.sort(equivalents);
+		canonical.append(equivalents.size()).append('[');
+		for (String equivalent : equivalents){
+			append(canonical, equivalent);
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+										.digest(canonical.toString().getBytes("UTF-8"));
+			char[] hex = new char[HASH_BYTES * 2];
+			for (int i = 0; i < HASH_BYTES; i++){
+				hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+				hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void append(StringBuilder canonical, String value) {
+		if (value == null){
+			canonical.append('-');
+		}else{
+			canonical.append(value.length()).append(':').append(value);
+		}
+	}
+
+	private static void append(StringBuilder canonical, List<UpService> services) {
+		List<UpService> sorted = services == null ?
+				new ArrayList<UpService>() : new ArrayList<UpService>(services);
+		Collections.sort(sorted, BY_NAME);
+		canonical.append(sorted.size()).append('[');
+		for (UpService service : sorted){
+			append(canonical, service.getName());
+			List<String> names = service.getParameters() == null ?
+					new ArrayList<String>() : new ArrayList<String>(service.getParameters().keySet());
+			Collections.sort(names);
+			canonical.append(names.size()).append('(');
+			for (String name : names){
+				append(canonical, name);
+				ParameterType type = service.getParameters().get(name);
+				canonical.append(type == null ? "-" : type.name());
+			}
+		}
+	}
+
+	/**
+	 * Immutable copy of a driver interface.
+	 */
+	private static class Interned extends UpDriver {
+
+		private final String hash;
+
+		Interned(UpDriver driver, String hash) {
+			super(driver.getName());
+			this.hash = hash;
+			super.setServices(freeze(driver.getServices()));
+			super.setEvents(freeze(driver.getEvents()));
+			if (driver.getEquivalentDrivers() != null){
+				super.setEquivalentDrivers(Collections.unmodifiableList(
+						new ArrayList<String>(driver.getEquivalentDrivers())));
+			}
+		}
+
+		private static List<UpService> freeze(List<UpService> services) {
+			if (services == null){
+				return null;
+			}
+			List<UpService> copy = new ArrayList<UpService>(services.size());
+			for (UpService service : services){
+				copy.add(new InternedService(service));
+			}
+			return Collections.unmodifiableList(copy);
+		}
+
+		@Override
+		public void setName(String name) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public void setServices(List<UpService> services) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public void setEvents(List<UpService> events) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public void setEquivalentDrivers(List<String> equivalentDrivers) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public UpService addService(UpService service) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public List<String> addEquivalentDrivers(String driver) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public UpDriver addEvent(UpService event) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public UpService addEvent(String event) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+	}
+
+	/**
+	 * Immutable copy of a service of an interned driver.
+	 */
+	private static class InternedService extends UpService {
+
+		InternedService(UpService service) {
+			super(service.getName());
+			if (service.getParameters() != null){
+				super.setParameters(Collections.unmodifiableMap(
+						new HashMap<String, ParameterType>(service.getParameters())));
+			}
+		}
+
+		@Override
+		public void setName(String name) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public void setParameters(Map<String, ParameterType> parameters) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+
+		@Override
+		public UpService addParameter(String paramName, ParameterType paramType) {
+			throw new UnsupportedOperationException("Interned drivers can't be changed.");
+		}
+	}
+}
@@ -4,10 +4,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.unbiquitous.uos.core.UOSLogging;
@@ -45,6 +45,12 @@ public class DriverManager {
 	private List<String> toInitialize;
 	private Map<String, TreeNode> driverHash;
 	private List<TreeNode> tree;
+	private DriverChangeLog changeLog;
+	private DriverInterfaces interfaces;
+	private EquivalenceIndex equivalence;
+	private InstanceStats stats;
+	private volatile InstanceSelector selector;
+	private Map<String, InstanceSelector> selectors;
 	
 	public DriverManager(UpDevice currentDevice, DriverDao driverDao, DeviceDao deviceDao,  ReflectionServiceCaller serviceCaller) {
 		this.driverDao = driverDao;
@@ -54,6 +60,12 @@ public class DriverManager {
 		this.instances = new HashMap<Long, UosDriver>();
 		this.toInitialize = new ArrayList<String>();
 		this.driverHash = new HashMap<String, TreeNode>();
+		this.changeLog = new DriverChangeLog();
+		this.interfaces = new DriverInterfaces();
+		this.equivalence = new EquivalenceIndex(driverDao);
+		this.stats = new InstanceStats();
+		this.selector = InstanceSelectors.roundRobin();
+		this.selectors = new ConcurrentHashMap<String, InstanceSelector>();
 		this.treeInit();
 	}
 	
@@ -62,22 +74,7 @@ public class DriverManager {
 		TreeNode pointer = new TreeNode(DefaultDrivers.POINTER.getDriver());
 		tree.add(pointer);
 		driverHash.put(Pointer.DRIVER_NAME, pointer);
-	}
-	
-	private List<DriverModel> findEquivalentDriver(List<TreeNode> equivalentDrivers) {
-		List<DriverModel> list;
-		
-		for (TreeNode treeNode : equivalentDrivers) {
-			list = driverDao.list(treeNode.getUpDriver().getName(),currentDevice.getName());
-			if(list != null && !list.isEmpty())
-				return list;
-		}
-		
-		for (TreeNode treeNode : equivalentDrivers) {
-			return findEquivalentDriver(treeNode.getChildren());
-		}
-		
-		return null;
+		equivalence.addInterface(pointer.getUpDriver());
 	}
 	
 	/**
@@ -97,27 +94,38 @@ public class DriverManager {
 			//Handle non-named InstanceCall
 			List<DriverModel> list = driverDao.list(serviceCall.getDriver(),currentDevice.getName());
 			if(list == null || list.isEmpty()){ //Try to find an equivalent driver
-
-				TreeNode driverNode = driverHash.get(serviceCall.getDriver());
-				
-				if(driverNode == null) {
-					logger.fine("No instance found for handling driver '"+serviceCall.getDriver()+"'");
-					throw new DriverManagerException("No instance found for handling driver '"+serviceCall.getDriver()+"'");
-				}
 				
-				list = findEquivalentDriver(driverNode.getChildren());
+				list = equivalence.instances(serviceCall.getDriver(), currentDevice.getName());
 				
-				if(list == null || list.isEmpty()) {
+				if(list.isEmpty()) {
 					logger.fine("No instance found for handling driver '"+serviceCall.getDriver()+"'");
 					throw new DriverManagerException("No instance found for handling driver '"+serviceCall.getDriver()+"'");
 				}
 				
 			}
-			// Select the first driver found (since no specific instance was informed)
-			model = list.iterator().next();
+			// Select one of the drivers found (since no specific instance was informed)
+			model = list.size() == 1 ? list.get(0) : select(serviceCall.getDriver(), list, messageContext);
 		}
 		
-		return callServiceOnDriver(serviceCall, instances.get(model.rowid()), messageContext);
+		stats.started(model);
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			ServiceResponse response = callServiceOnDriver(serviceCall, instances.get(model.rowid()), messageContext);
+			failed = response != null && response.getError() != null;
+			return response;
+		} finally {
+			stats.finished(model, System.nanoTime() - start, failed);
+		}
+	}
+	
+	private DriverModel select(String driver, List<DriverModel> candidates, UOSMessageContext messageContext){
+		InstanceSelector chosen = selectors.get(driver);
+		if (chosen == null){
+			chosen = selector;
+		}
+		DriverModel model = chosen.select(driver, candidates, messageContext, stats);
+		return model == null ? candidates.get(0) : model;
 	}
 	
 	/**
@@ -159,6 +167,21 @@ public class DriverManager {
 	 * @throws DriverNotFoundException 
 	 */
 	public void deployDriver(UpDriver driver, Object instance, String instanceId) throws DriverManagerException, DriverNotFoundException {
+		deployDriver(driver, instance, instanceId, null);
+	}
+	
+	/**
+	 * Method responsible for deploying a driver into the context.
+	 * 
+	 * @param driver Object representing the interface of the Driver to be deployed.
+	 * @param instance Instance of the object implementing the informed Driver. 
+	 * @param instanceId Optional instanceId which to call this instance of the driver.
+	 * @param policies Optional execution policies of the driver, by lower case service 
+	 * 			name ({@link ExecutionPolicy#DRIVER} for the whole driver).
+	 * @throws DriverManagerException
+	 * @throws DriverNotFoundException 
+	 */
+	public void deployDriver(UpDriver driver, Object instance, String instanceId, Map<String, ExecutionPolicy> policies) throws DriverManagerException, DriverNotFoundException {
 		if (instance instanceof UosDriver){      
 			
 			if(instanceId == null)
@@ -178,9 +201,17 @@ public class DriverManager {
 				}
 			}
 			
+			if (serviceCaller != null){
+				serviceCaller.registerDriver(uDriver, policies);
+			}
+			
 			driverDao.insert(model);
+			equivalence.changed(model);
 			instances.put(model.rowid(), uDriver);
 			toInitialize.add(instanceId);
+			// so other devices may reference it
+			interfaces.intern(model.driver());
+			changeLog.deployed(instanceId, model.driver());
 			logger.fine(	"Deployed Driver : "+model.driver().getName()+
 							" with id "+instanceId);
 		}else{
@@ -240,6 +271,7 @@ public class DriverManager {
 		}
 		
 		driverHash.put(driver.getName(), node);
+		equivalence.addInterface(driver);
 	}
 	
 	private void validateInterfaces(List<UpService> parentServices, List<UpService> driverServices) throws InterfaceValidationException {
@@ -294,8 +326,14 @@ public class DriverManager {
 			UosDriver uDriver = instances.get(model.rowid());
 			if (!toInitialize.contains(model.id()))
 				uDriver.destroy();
+			if (serviceCaller != null){
+				serviceCaller.unregisterDriver(uDriver);
+			}
 			driverDao.delete(model.id(), currentDevice.getName());
+			equivalence.changed(model);
+			stats.remove(model);
 			toInitialize.remove(model.id());
+			changeLog.undeployed(model.id());
 		}else{
 			logger.severe("Undeploying driver with InstanceId : '"+instanceId+"' was not possible, since it's not present in the current database.");
 		}
@@ -318,26 +356,6 @@ public class DriverManager {
 		return ret;
 	}
 	
-	private List<DriverModel> findAllEquivalentDrivers(List<TreeNode> equivalentDrivers) {
-		List<DriverModel> list = new ArrayList<DriverModel>();
-		
-		if(equivalentDrivers == null || equivalentDrivers.isEmpty())
-			return list;
-		
-		for (TreeNode treeNode : equivalentDrivers) {
-			list.addAll(driverDao.list(treeNode.getUpDriver().getName(), null));//TODO: [B&M] Should we filter the device?!
-			
-			List<DriverModel> temp = findAllEquivalentDrivers(treeNode.getChildren());
-			for (DriverModel driverModel : temp) {
-				if(!list.contains(driverModel)) {
-					list.add(driverModel);
-				}
-			}
-		}
-		
-		return list;
-	}
-	
 	public UpDriver getDriverFromEquivalanceTree(String driverName) {
 		TreeNode driver = driverHash.get(driverName);
 		return (driver == null) ? null : driver.getUpDriver();
@@ -350,21 +368,21 @@ public class DriverManager {
 	 * @param driverName Driver Name used to filter results.
 	 * @param deviceName Device Name used to filter results.
 	 * @return A list of Drivers according to the composition of the parameters.
+	 * 			With a driver name, its equivalent drivers are listed after it.
 	 */
 	public List<DriverData> listDrivers(String driverName, String deviceName) {
-		List<DriverModel> list = driverDao.list(driverName, deviceName);
-		Set<DriverModel> baseSet = new LinkedHashSet<DriverModel>(list);
-
-		TreeNode driverNode = driverHash.get(driverName);
-		if(driverNode != null) {
-			List<TreeNode> equivalentDrivers = driverNode.getChildren();
-			baseSet.addAll(findAllEquivalentDrivers(equivalentDrivers));
+		List<DriverModel> list = null;
+		if (driverName != null){
+			list = equivalence.instances(driverName, deviceName);
 		}
-		if (baseSet == null || baseSet.isEmpty()){
+		if (list == null || list.isEmpty()){
+			list = driverDao.list(driverName, deviceName);
+		}
+		if (list == null || list.isEmpty()){
 			return null;
 		}
-		List<DriverData> ret = new ArrayList<DriverData>();
-		for (DriverModel dm : baseSet) {
+		List<DriverData> ret = new ArrayList<DriverData>(list.size());
+		for (DriverModel dm : list) {
 			ret.add(new DriverData(dm.driver(), deviceDao.find(dm.device()), dm.id()));
 		}
 
@@ -421,13 +439,22 @@ public class DriverManager {
 	}
 
 	public void delete(String id, String device) {
-		driverDao.delete(id, device);
+		DriverModel model = driverDao.retrieve(id, device);
+		if (model != null){
+			driverDao.delete(id, device);
+			equivalence.changed(model);
+		}
 	}
 
 	public void insert(DriverModel driverModel) throws DriverManagerException, DriverNotFoundException {
 		try {
 			addToEquivalenceTree(driverModel.driver());
+			DriverModel replaced = driverDao.retrieve(driverModel.id(), driverModel.device());
 			driverDao.insert(driverModel);
+			equivalence.changed(driverModel);
+			if (replaced != null){
+				equivalence.changed(replaced);
+			}
 		} catch(InterfaceValidationException e) {
 			throw new DriverManagerException(e);
 		}
@@ -436,4 +463,54 @@ public class DriverManager {
 	public DriverDao getDriverDao() {
 		return driverDao;
 	}
+
+	/**
+	 * @return The log of the drivers deployed and undeployed on the current device.
+	 */
+	public DriverChangeLog getChangeLog() {
+		return changeLog;
+	}
+
+	/**
+	 * @return The interfaces of the drivers known, shared by their instances.
+	 */
+	public DriverInterfaces getInterfaces() {
+		return interfaces;
+	}
+
+	/**
+	 * @param selector Chooses the instance handling the calls which don't name
+	 * 			one, unless the driver has a selector of its own.
+	 */
+	public void setSelector(InstanceSelector selector) {
+		this.selector = selector;
+	}
+
+	/**
+	 * @param driver Name of the driver called.
+	 * @param selector Chooses the instance handling the calls to the driver
+	 * 			which don't name one.
+	 */
+	public void setSelector(String driver, InstanceSelector selector) {
+		selectors.put(driver, selector);
+	}
+
+	/**
+	 * @return Load and latency of the driver instances of the current device.
+	 */
+	public InstanceStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return The bulkhead executing the calls to the service of the instance,
+	 * 			<code>null</code> if they are executed by the caller.
+	 */
+	public Bulkhead getBulkhead(String instanceId, String service) {
+		DriverModel model = driverDao.retrieve(instanceId, currentDevice.getName());
+		if (model == null || serviceCaller == null){
+			return null;
+		}
+		return serviceCaller.bulkhead(instances.get(model.rowid()), service);
+	}
 }
@@ -0,0 +1,196 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+
+/**
+ * Resolution of each driver name to the instances able to serve it: the
+ * instances of the driver itself followed by the ones of its equivalent
+ * drivers, walking the equivalence tree depth first (each driver only once).
+ *
+ * The resolution is kept precomputed, by driver and by device, and updated
+ * as interfaces join the tree and instances come and go. So resolving a
+ * driver costs a single lookup, whatever the size of the tree. Writes are
+ * serialized while reads never lock: the lists are immutable snapshots.
+ */
+class EquivalenceIndex {
+
+	private static final List<DriverModel> NONE = Collections.emptyList();
+
+	private final DriverDao driverDao;
+
+	/** Equivalent drivers of each driver, in the order they joined. */
+	private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+	/** Drivers each driver is equivalent to. */
+	private final Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+	/** Drivers able to serve each driver, in resolution order. */
+	private final Map<String, List<String>> order = new HashMap<String, List<String>>();
+
+	/** Instances able to serve each driver, from all devices. */
+	private final ConcurrentMap<String, List<DriverModel>> resolved = new ConcurrentHashMap<String, List<DriverModel>>();
+	/** Instances able to serve each driver, by lower case device. */
+	private final ConcurrentMap<String, ConcurrentMap<String, List<DriverModel>>> byDevice =
+							new ConcurrentHashMap<String, ConcurrentMap<String, List<DriverModel>>>();
+
+	EquivalenceIndex(DriverDao driverDao) {
+		this.driverDao = driverDao;
+	}
+
+	/**
+	 * Adds a driver interface (already validated) to the tree.
+	 */
+	synchronized void addInterface(UpDriver driver) {
+		String name = driver.getName();
+		if (!order.containsKey(name)){
+			order.put(name, Collections.singletonList(name));
+		}
+		if (driver.getEquivalentDrivers() == null){
+			return;
+		}
+		boolean changed = false;
+		for (String parent : driver.getEquivalentDrivers()){
+			changed |= edges(children, parent).add(name);
+			edges(parents, name).add(parent);
+		}
+		if (changed){
+			Set<String> ancestors = ancestors(name);
+			for (String ancestor : ancestors){
+				order.put(ancestor, walk(ancestor));
+			}
+			for (String ancestor : ancestors){
+				rebuild(ancestor);
+			}
+		}
+	}
+
+	private static Set<String> edges(Map<String, Set<String>> edges, String name) {
+		Set<String> set = edges.get(name);
+		if (set == null){
+			set = new LinkedHashSet<String>();
+			edges.put(name, set);
+		}
+		return set;
+	}
+
+	/**
+	 * @return The drivers the informed one is (transitively) equivalent to.
+	 */
+	private Set<String> ancestors(String name) {
+		Set<String> ancestors = new LinkedHashSet<String>();
+		List<String> pending = new ArrayList<String>();
+		pending.add(name);
+		while (!pending.isEmpty()){
+			Set<String> up = parents.get(pending.remove(pending.size() - 1));
+			if (up != null){
+				for (String parent : up){
+					if (ancestors.add(parent)){
+						pending.add(parent);
+					}
+				}
+			}
+		}
+		return ancestors;
+	}
+
+	/**
+	 * @return The driver and its equivalent drivers, depth first.
+	 */
+	private List<String> walk(String name) {
+		List<String> walked = new ArrayList<String>();
+		walk(name, walked, new HashSet<String>());
+		return Collections.unmodifiableList(walked);
+	}
+
+	private void walk(String name, List<String> walked, Set<String> visited) {
+		if (!visited.add(name)){
+			return;
+		}
+		walked.add(name);
+		Set<String> below = children.get(name);
+		if (below != null){
+			for (String child : below){
+				walk(child, walked, visited);
+			}
+		}
+	}
+
+	/**
+	 * Updates the resolution of the drivers the instance is able to serve.
+	 */
+	synchronized void changed(DriverModel model) {
+		String name = model.driver().getName();
+		Set<String> served = ancestors(name);
+		served.add(name);
+		for (String each : served){
+			resolved.put(each, resolve(each, null));
+			rebuild(each, model.device().toLowerCase());
+		}
+	}
+
+	private void rebuild(String name) {
+		resolved.put(name, resolve(name, null));
+		for (String device : byDevice.keySet()){
+			rebuild(name, device);
+		}
+	}
+
+	private void rebuild(String name, String device) {
+		List<DriverModel> models = resolve(name, device);
+		ConcurrentMap<String, List<DriverModel>> drivers = byDevice.get(device);
+		if (models.isEmpty()){
+			if (drivers != null){
+				drivers.remove(name);
+				if (drivers.isEmpty()){
+					byDevice.remove(device);
+				}
+			}
+			return;
+		}
+		if (drivers == null){
+			drivers = new ConcurrentHashMap<String, List<DriverModel>>();
+			byDevice.put(device, drivers);
+		}
+		drivers.put(name, models);
+	}
+
+	private List<DriverModel> resolve(String name, String device) {
+		List<String> names = order.get(name);
+		if (names == null){
+			names = Collections.singletonList(name);
+		}
+		List<DriverModel> models = new ArrayList<DriverModel>();
+		for (String each : names){
+			models.addAll(driverDao.list(each, device));
+		}
+		return models.isEmpty() ? NONE : Collections.unmodifiableList(models);
+	}
+
+	/**
+	 * @param device The device of the instances, all devices if <code>null</code>.
+	 * @return The instances able to serve the driver, in resolution order.
+	 * 			The list is a snapshot which must not be modified.
+	 */
+	List<DriverModel> instances(String name, String device) {
+		if (device == null){
+			List<DriverModel> models = resolved.get(name);
+			return models == null ? NONE : models;
+		}
+		ConcurrentMap<String, List<DriverModel>> drivers = byDevice.get(device.toLowerCase());
+		if (drivers == null){
+			return NONE;
+		}
+		List<DriverModel> models = drivers.get(name);
+		return models == null ? NONE : models;
+	}
+
+}
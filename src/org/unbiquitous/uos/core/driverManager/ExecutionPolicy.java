@@ -0,0 +1,171 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How the calls to a driver (or to one of its services) are executed, so a
+ * slow or overloaded driver can't starve the others:
+ *
+ * <ul>
+ * <li>maxConcurrent : calls executed at once, unlimited if not positive.</li>
+ * <li>queue : calls waiting for their turn, beyond them calls are rejected.</li>
+ * <li>timeout : time (in milliseconds) for a call, unlimited if not positive.
+ * 		On the {@link Pool#CALLER} it bounds only the wait for a turn.</li>
+ * <li>pool : threads executing the calls.</li>
+ * </ul>
+ *
+ * @see ServicePolicy
+ * @see Bulkhead
+ */
+public class ExecutionPolicy {
+
+	/**
+	 * Threads executing the calls.
+	 */
+	public enum Pool {
+		/** The thread handling the connection, as without a policy. */
+		CALLER,
+		/** Threads shared by all drivers. */
+		SHARED,
+		/** Threads of the driver (or service) alone. */
+		DEDICATED
+	}
+
+	/** Key of the policy of the whole driver on a map of policies. */
+	public static final String DRIVER = "";
+
+	private static final String SEPARATOR = ",";
+
+	private final int maxConcurrent;
+	private final int queue;
+	private final long timeout;
+	private final Pool pool;
+
+	public ExecutionPolicy(int maxConcurrent, int queue, long timeout, Pool pool) {
+		this.maxConcurrent = maxConcurrent;
+		this.queue = queue;
+		this.timeout = timeout;
+		this.pool = pool == null ? Pool.CALLER : pool;
+	}
+
+	public ExecutionPolicy(ServicePolicy annotation) {
+		this(annotation.maxConcurrent(), annotation.queue(), annotation.timeout(), annotation.pool());
+	}
+
+	public int maxConcurrent() {return maxConcurrent;}
+	public int queue() {return queue;}
+	public long timeout() {return timeout;}
+	public Pool pool() {return pool;}
+
+	/**
+	 * @return The policies declared by {@link ServicePolicy} annotations on the
+	 * 			class and its service methods, by lower case service name
+	 * 			({@link #DRIVER} for the whole driver).
+	 */
+	public static Map<String, ExecutionPolicy> declaredBy(Class<?> clazz) {
+		Map<String, ExecutionPolicy> policies = new HashMap<String, ExecutionPolicy>();
+		ServicePolicy annotation = clazz.getAnnotation(ServicePolicy.class);
+		if (annotation != null){
+			policies.put(DRIVER, new ExecutionPolicy(annotation));
+		}
+		for (Method method : clazz.getMethods()){
+			annotation = method.getAnnotation(ServicePolicy.class);
+			if (annotation != null){
+				policies.put(method.getName().toLowerCase(Locale.ENGLISH), new ExecutionPolicy(annotation));
+			}
+		}
+		return policies;
+	}
+
+	/**
+	 * Parses the policies as informed on the deploy list, like
+	 * <code>maxConcurrent=4,queue=16,timeout=2000,pool=dedicated,render.maxConcurrent=1</code>,
+	 * where the keys prefixed by a service name are of that service alone.
+	 *
+	 * @return The policies by lower case service name ({@link #DRIVER} for
+	 * 			the whole driver).
+	 * @throws IllegalArgumentException If the policies are malformed or
+	 * 			a timeout is informed for the {@link Pool#CALLER}.
+	 */
+	public static Map<String, ExecutionPolicy> parse(String spec) {
+		Map<String, Map<String, String>> values = new HashMap<String, Map<String, String>>();
+		for (String entry : spec.split(SEPARATOR)){
+			if (entry.trim().isEmpty()){
+				continue;
+			}
+			int equals = entry.indexOf('=');
+			if (equals < 0){
+				throw new IllegalArgumentException("Malformed policy '"+entry.trim()+"'.");
+			}
+			String key = entry.substring(0, equals).trim();
+			String value = entry.substring(equals + 1).trim();
+			int dot = key.lastIndexOf('.');
+			String service = dot < 0 ? DRIVER : key.substring(0, dot).toLowerCase(Locale.ENGLISH);
+			Map<String, String> of = values.get(service);
+			if (of == null){
+				of = new HashMap<String, String>();
+				values.put(service, of);
+			}
+			of.put(key.substring(dot + 1), value);
+		}
+		Map<String, ExecutionPolicy> policies = new HashMap<String, ExecutionPolicy>();
+		for (Map.Entry<String, Map<String, String>> entry : values.entrySet()){
+			policies.put(entry.getKey(), from(entry.getValue()));
+		}
+		return policies;
+	}
+
+	private static ExecutionPolicy from(Map<String, String> values) {
+		int maxConcurrent = 0;
+		int queue = 0;
+		long timeout = 0;
+		Pool pool = Pool.CALLER;
+		try {
+			for (Map.Entry<String, String> entry : values.entrySet()){
+				String key = entry.getKey();
+				if ("maxConcurrent".equalsIgnoreCase(key)){
+					maxConcurrent = Integer.parseInt(entry.getValue());
+				}else if ("queue".equalsIgnoreCase(key)){
+					queue = Integer.parseInt(entry.getValue());
+				}else if ("timeout".equalsIgnoreCase(key)){
+					timeout = Long.parseLong(entry.getValue());
+				}else if ("pool".equalsIgnoreCase(key)){
+					pool = Pool.valueOf(entry.getValue().toUpperCase(Locale.ENGLISH));
+				}else{
+					throw new IllegalArgumentException("Unknown policy '"+key+"'.");
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed policy: "+e.getMessage(), e);
+		}
+		if (timeout > 0 && pool == Pool.CALLER){
+			throw new IllegalArgumentException("A timeout needs a shared or dedicated pool, "
+												+"calls on the caller pool can't be abandoned.");
+		}
+		return new ExecutionPolicy(maxConcurrent, queue, timeout, pool);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ExecutionPolicy)){
+			return false;
+		}
+		ExecutionPolicy other = (ExecutionPolicy) obj;
+		return maxConcurrent == other.maxConcurrent && queue == other.queue
+				&& timeout == other.timeout && pool == other.pool;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((maxConcurrent * 31 + queue) * 31 + (int) timeout) * 31 + pool.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "maxConcurrent="+maxConcurrent+",queue="+queue+",timeout="+timeout
+				+",pool="+pool.name().toLowerCase(Locale.ENGLISH);
+	}
+}
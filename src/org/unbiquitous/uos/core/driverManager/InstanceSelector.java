@@ -0,0 +1,26 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.List;
+
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+
+/**
+ * Chooses which instance of a driver handles a service call that didn't name
+ * one. Implementations must be thread safe, since calls are handled
+ * concurrently.
+ * 
+ * @see InstanceSelectors
+ */
+public interface InstanceSelector {
+
+	/**
+	 * @param driver Name of the driver called.
+	 * @param candidates Instances able to handle the call (at least two), in
+	 * 			resolution order. Must not be modified.
+	 * @param messageContext Context of the call, may be <code>null</code>.
+	 * @param stats Load and latency of the instances.
+	 * @return One of the candidates.
+	 */
+	DriverModel select(String driver, List<DriverModel> candidates, 
+						UOSMessageContext messageContext, InstanceStats stats);
+}
@@ -0,0 +1,238 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.Enumeration;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+
+/**
+ * The {@link InstanceSelector}s available, configured through the properties:
+ *
+ * <ul>
+ * <li><code>ubiquitos.driver.selector</code> : for all drivers.</li>
+ * <li><code>ubiquitos.driver.selector.&lt;driver name&gt;</code> : for a single driver.</li>
+ * </ul>
+ *
+ * The values are 'first', 'roundRobin', 'leastInFlight', 'latency', 'affinity'
+ * or the name of a class implementing {@link InstanceSelector}. Without them
+ * the calls are spread round robin.
+ */
+public final class InstanceSelectors {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private static final String SELECTOR_KEY = "ubiquitos.driver.selector";
+
+	private InstanceSelectors() {}
+
+	/**
+	 * Always the first instance, by resolution order.
+	 */
+	public static InstanceSelector first() {
+		return new InstanceSelector() {
+			public DriverModel select(String driver, List<DriverModel> candidates,
+									UOSMessageContext messageContext, InstanceStats stats) {
+				return candidates.get(0);
+			}
+		};
+	}
+
+	/**
+	 * Each instance in turn.
+	 */
+	public static InstanceSelector roundRobin() {
+		return new RoundRobin();
+	}
+
+	/**
+	 * The instance with less calls in flight, in turns when tied.
+	 */
+	public static InstanceSelector leastInFlight() {
+		return new LeastInFlight();
+	}
+
+	/**
+	 * The instance with the least average latency weighted by its calls in
+	 * flight. Instances not called yet are tried first, those with calls in 
+	 * flight but none finished count as slow as the slowest instance.
+	 */
+	public static InstanceSelector latency() {
+		return new Latency();
+	}
+
+	/**
+	 * The same instance for each calling device, as long as it's available
+	 * (rendezvous hashing, so instances coming and going move only the devices
+	 * they served). Calls without a calling device are spread round robin.
+	 */
+	public static InstanceSelector affinity() {
+		return new Affinity();
+	}
+
+	/**
+	 * @param name One of the names of the selectors or the name of a class
+	 * 			implementing {@link InstanceSelector}.
+	 * @throws IllegalArgumentException If the selector is unknown.
+	 */
+	public static InstanceSelector named(String name) {
+		String trimmed = name.trim();
+		if ("first".equalsIgnoreCase(trimmed)) return first();
+		if ("roundRobin".equalsIgnoreCase(trimmed)) return roundRobin();
+		if ("leastInFlight".equalsIgnoreCase(trimmed)) return leastInFlight();
+		if ("latency".equalsIgnoreCase(trimmed)) return latency();
+		if ("affinity".equalsIgnoreCase(trimmed)) return affinity();
+		try {
+			return (InstanceSelector) Class.forName(trimmed).newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unknown instance selector '"+trimmed+"'.", e);
+		}
+	}
+
+	/**
+	 * Sets the selectors of the driver manager as informed by the properties.
+	 */
+	public static void configure(DriverManager driverManager, ResourceBundle properties) {
+		if (properties == null){
+			return;
+		}
+		Enumeration<String> keys = properties.getKeys();
+		while (keys.hasMoreElements()){
+			String key = keys.nextElement();
+			if (!key.startsWith(SELECTOR_KEY)){
+				continue;
+			}
+			try {
+				InstanceSelector selector = named(properties.getString(key));
+				if (key.equals(SELECTOR_KEY)){
+					driverManager.setSelector(selector);
+				}else if (key.charAt(SELECTOR_KEY.length()) == '.'){
+					driverManager.setSelector(key.substring(SELECTOR_KEY.length() + 1), selector);
+				}
+			} catch (IllegalArgumentException e) {
+				logger.severe("Ignoring '"+key+"': "+e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Turns kept by driver, so each driver is spread on its own.
+	 */
+	private static class Turns {
+		private final ConcurrentMap<String, AtomicInteger> turns = new ConcurrentHashMap<String, AtomicInteger>();
+
+		int next(String driver, int size) {
+			AtomicInteger turn = turns.get(driver);
+			if (turn == null){
+				AtomicInteger created = new AtomicInteger();
+				turn = turns.putIfAbsent(driver, created);
+				if (turn == null){
+					turn = created;
+				}
+			}
+			return (turn.getAndIncrement() & Integer.MAX_VALUE) % size;
+		}
+	}
+
+	private static class RoundRobin implements InstanceSelector {
+		private final Turns turns = new Turns();
+
+		public DriverModel select(String driver, List<DriverModel> candidates,
+								UOSMessageContext messageContext, InstanceStats stats) {
+			return candidates.get(turns.next(driver, candidates.size()));
+		}
+	}
+
+	private static class LeastInFlight implements InstanceSelector {
+		private final Turns turns = new Turns();
+
+		public DriverModel select(String driver, List<DriverModel> candidates,
+								UOSMessageContext messageContext, InstanceStats stats) {
+			int size = candidates.size();
+			int start = turns.next(driver, size);
+			DriverModel best = null;
+			int least = Integer.MAX_VALUE;
+			for (int i = 0; i < size; i++){
+				DriverModel candidate = candidates.get((start + i) % size);
+				int inFlight = stats.of(candidate).inFlight();
+				if (inFlight < least){
+					least = inFlight;
+					best = candidate;
+				}
+			}
+			return best;
+		}
+	}
+
+	private static class Latency implements InstanceSelector {
+		private final Turns turns = new Turns();
+
+		public DriverModel select(String driver, List<DriverModel> candidates,
+								UOSMessageContext messageContext, InstanceStats stats) {
+			int size = candidates.size();
+			int start = turns.next(driver, size);
+			// instances still waiting for their first call are taken as the slowest one
+			double slowest = 1;
+			for (int i = 0; i < size; i++){
+				slowest = Math.max(slowest, stats.of(candidates.get(i)).latency());
+			}
+			DriverModel best = null;
+			double lowest = Double.MAX_VALUE;
+			for (int i = 0; i < size; i++){
+				DriverModel candidate = candidates.get((start + i) % size);
+				InstanceStats.Stat stat = stats.of(candidate);
+				int inFlight = stat.inFlight();
+				double latency = stat.latency();
+				if (latency == 0 && inFlight > 0){
+					latency = slowest;
+				}
+				double cost = latency * (inFlight + 1);
+				if (cost < lowest){
+					lowest = cost;
+					best = candidate;
+				}
+			}
+			return best;
+		}
+	}
+
+	private static class Affinity implements InstanceSelector {
+		private final RoundRobin fallback = new RoundRobin();
+
+		public DriverModel select(String driver, List<DriverModel> candidates,
+								UOSMessageContext messageContext, InstanceStats stats) {
+			if (messageContext == null || messageContext.getCallerDevice() == null
+					|| messageContext.getCallerDevice().getNetworkDeviceName() == null){
+				return fallback.select(driver, candidates, messageContext, stats);
+			}
+			String caller = messageContext.getCallerDevice().getNetworkDeviceName();
+			DriverModel best = null;
+			int highest = 0;
+			for (DriverModel candidate : candidates){
+				int weight = mix(caller.hashCode() * 31 + candidate.id().hashCode());
+				if (best == null || weight > highest){
+					highest = weight;
+					best = candidate;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Spreads the bits of the hash (murmur3 finalizer).
+		 */
+		private static int mix(int h) {
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			h ^= h >>> 16;
+			return h;
+		}
+	}
+}
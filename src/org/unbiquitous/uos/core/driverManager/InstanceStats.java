@@ -0,0 +1,112 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load and latency of each driver instance of the current device: the calls
+ * in flight and an exponentially weighted moving average (EWMA) of the time
+ * taken by each call.
+ */
+public class InstanceStats {
+
+	/** Weight of each new sample on the average latency. */
+	private static final double ALPHA = 0.2;
+
+	/**
+	 * Counters of a single instance.
+	 */
+	public static class Stat {
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		/** Bits of the average latency (in nanoseconds), 0 before any sample. */
+		private final AtomicLong latency = new AtomicLong();
+
+		public int inFlight() {return inFlight.get();}
+		public long calls() {return calls.get();}
+		public long failures() {return failures.get();}
+
+		/**
+		 * @return The average latency (in nanoseconds), 0 if no call finished yet.
+		 */
+		public double latency() {
+			return Double.longBitsToDouble(latency.get());
+		}
+
+		void sample(long nanos) {
+			while (true){
+				long bits = latency.get();
+				double current = Double.longBitsToDouble(bits);
+				double next = calls.get() <= 1 || current == 0 ? nanos : current + ALPHA * (nanos - current);
+				if (latency.compareAndSet(bits, Double.doubleToLongBits(next))){
+					return;
+				}
+			}
+		}
+	}
+
+	private static final Stat NONE = new Stat();
+
+	/** Counters by the rowid of the instance. */
+	private final ConcurrentMap<Long, Stat> stats = new ConcurrentHashMap<Long, Stat>();
+
+	/**
+	 * @return The counters of the instance, empty ones if it was never called.
+	 */
+	public Stat of(DriverModel model) {
+		if (model.rowid() == null){
+			return NONE;
+		}
+		Stat stat = stats.get(model.rowid());
+		return stat == null ? NONE : stat;
+	}
+
+	/**
+	 * A call to the instance started.
+	 */
+	public void started(DriverModel model) {
+		if (model.rowid() == null){
+			return;
+		}
+		Stat stat = stats.get(model.rowid());
+		if (stat == null){
+			Stat created = new Stat();
+			stat = stats.putIfAbsent(model.rowid(), created);
+			if (stat == null){
+				stat = created;
+			}
+		}
+		stat.inFlight.incrementAndGet();
+	}
+
+	/**
+	 * A call to the instance, started before, finished.
+	 * 
+	 * @param nanos Time the call took.
+	 * @param failed If the call failed.
+	 */
+	public void finished(DriverModel model, long nanos, boolean failed) {
+		Stat stat = model.rowid() == null ? null : stats.get(model.rowid());
+		if (stat == null){
+			return;
+		}
+		stat.inFlight.decrementAndGet();
+		stat.calls.incrementAndGet();
+		if (failed){
+			stat.failures.incrementAndGet();
+		}
+		stat.sample(nanos);
+	}
+
+	/**
+	 * Forgets the instance, since it was undeployed.
+	 */
+	public void remove(DriverModel model) {
+		if (model.rowid() != null){
+			stats.remove(model.rowid());
+		}
+	}
+}
@@ -1,26 +1,47 @@
 package org.unbiquitous.uos.core.driverManager;
 
-import java.io.IOException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.unbiquitous.uos.core.DaemonThreadFactory;
 import org.unbiquitous.uos.core.UOSLogging;
 import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
 import org.unbiquitous.uos.core.applicationManager.UosApplication;
 import org.unbiquitous.uos.core.connectivity.proxying.ProxyDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
+import org.unbiquitous.uos.core.network.connectionManager.StreamChannels;
 import org.unbiquitous.uos.core.network.exceptions.NetworkException;
 import org.unbiquitous.uos.core.network.model.NetworkDevice;
-import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
 
 /**
  * Utilitary class responsible for calling services using reflection methods. 
  * 
+ * The service methods of each class are looked up only once, building a dispatch 
+ * table from the lower case name of the service to its method. Tables are built 
+ * when a driver or application is registered, or on its first call otherwise.
+ * 
+ * Drivers with an {@link ExecutionPolicy} (declared by {@link ServicePolicy} or 
+ * informed when registered) have their calls executed through {@link Bulkhead}s, 
+ * one for the whole driver and one for each service with a policy of its own. 
+ * The calls to other drivers are executed by the caller.
  * 
  * @author Fabricio Nogueira Buzeto
  *
@@ -29,11 +50,132 @@ public class ReflectionServiceCaller {
 	
 	private static Logger logger = UOSLogging.getLogger();
 	
+	private static final String FORWARD_SERVICE = "forwardservicecall";
+	
 	ConnectionManagerControlCenter connectionManagerControlCenter;
 	
+	/** Service methods of the driver classes by their lower case name. */
+	private ConcurrentMap<Class<?>, Map<String, Method>> driverTables = new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+	/** Service methods of the application classes by their name. */
+	private ConcurrentMap<Class<?>, Map<String, Method>> appTables = new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+	/** Bulkheads of the drivers with execution policies. */
+	private ConcurrentMap<Object, Bulkheads> bulkheads = new ConcurrentHashMap<Object, Bulkheads>();
+	/** Threads shared by the drivers, created on demand. */
+	private ExecutorService sharedPool;
+	
 	public ReflectionServiceCaller(ConnectionManagerControlCenter connectionManagerControlCenter) {
 		this.connectionManagerControlCenter = connectionManagerControlCenter;
 	}
+	
+	/**
+	 * Builds the dispatch table of the driver, warning about the services it 
+	 * declares but which have no compliant method 
+	 * <code>service(ServiceCall, ServiceResponse, UOSMessageContext)</code>.
+	 * 
+	 * @param instanceDriver Driver being deployed.
+	 */
+	public void registerDriver(UosDriver instanceDriver){
+		registerDriver(instanceDriver, null);
+	}
+	
+	/**
+	 * Builds the dispatch table of the driver and the bulkheads of its execution
+	 * policies.
+	 * 
+	 * @param instanceDriver Driver being deployed.
+	 * @param policies Execution policies by lower case service name 
+	 * 			({@link ExecutionPolicy#DRIVER} for the whole driver), which take 
+	 * 			precedence over the declared ones. May be <code>null</code>.
+	 */
+	public void registerDriver(UosDriver instanceDriver, Map<String, ExecutionPolicy> policies){
+		Map<String, Method> table = driverTable(instanceDriver.getClass());
+		registerPolicies(instanceDriver, policies);
+		UpDriver driver = instanceDriver.getDriver();
+		if (instanceDriver instanceof ProxyDriver || driver == null || driver.getServices() == null){
+			return;
+		}
+		for (UpService service : driver.getServices()){
+			if (service.getName() != null && !table.containsKey(service.getName().toLowerCase(Locale.ENGLISH))){
+				logger.warning("Driver '"+driver.getName()+"' ("+instanceDriver.getClass().getName()
+								+") has no compliant method for its service '"+service.getName()+"'.");
+			}
+		}
+	}
+	
+	private void registerPolicies(UosDriver instanceDriver, Map<String, ExecutionPolicy> informed){
+		Map<String, ExecutionPolicy> policies = ExecutionPolicy.declaredBy(instanceDriver.getClass());
+		if (informed != null){
+			policies.putAll(informed);
+		}
+		if (policies.isEmpty()){
+			return;
+		}
+		String name = instanceDriver.getDriver() == null ? 
+						instanceDriver.getClass().getSimpleName() : instanceDriver.getDriver().getName();
+		Bulkheads created = new Bulkheads();
+		for (Map.Entry<String, ExecutionPolicy> entry : policies.entrySet()){
+			if (ExecutionPolicy.DRIVER.equals(entry.getKey())){
+				created.driver = new Bulkhead(name, entry.getValue(), sharedPool(entry.getValue()));
+			}else{
+				created.services.put(entry.getKey(), new Bulkhead(name+"."+entry.getKey(), 
+										entry.getValue(), sharedPool(entry.getValue())));
+			}
+		}
+		Bulkheads previous = bulkheads.put(instanceDriver, created);
+		if (previous != null){
+			previous.shutdown();
+		}
+		logger.fine("Driver '"+name+"' executed with policies "+policies+".");
+	}
+	
+	private synchronized ExecutorService sharedPool(ExecutionPolicy policy){
+		if (policy.pool() != ExecutionPolicy.Pool.SHARED){
+			return null;
+		}
+		if (sharedPool == null){
+			sharedPool = Executors.newCachedThreadPool(new DaemonThreadFactory("uos-services"));
+		}
+		return sharedPool;
+	}
+	
+	/**
+	 * Forgets the bulkheads of the driver, stopping their dedicated threads.
+	 * 
+	 * @param instanceDriver Driver being undeployed.
+	 */
+	public void unregisterDriver(Object instanceDriver){
+		Bulkheads removed = bulkheads.remove(instanceDriver);
+		if (removed != null){
+			removed.shutdown();
+		}
+	}
+	
+	/**
+	 * @return The bulkhead executing the calls to the service of the driver, 
+	 * 			<code>null</code> if they are executed by the caller.
+	 */
+	public Bulkhead bulkhead(Object instanceDriver, String service){
+		Bulkheads of = bulkheads.get(instanceDriver);
+		if (of == null){
+			return null;
+		}
+		if (service != null){
+			Bulkhead bulkhead = of.services.get(service.toLowerCase(Locale.ENGLISH));
+			if (bulkhead != null){
+				return bulkhead;
+			}
+		}
+		return of.driver;
+	}
+	
+	/**
+	 * Builds the dispatch table of the application.
+	 * 
+	 * @param app Application being deployed.
+	 */
+	public void registerApplication(UosApplication app){
+		appTable(app.getClass());
+	}
 
 	/**
 	 * Method responsible to call a service on a driver instance object based on reflection methods
@@ -52,12 +194,17 @@ public class ReflectionServiceCaller {
 					logger.info("Calling service ("+ serviceCall.getService()+ ") on Driver (" + serviceCall.getDriver()
 								+ ") in instance ("+ serviceCall.getInstanceId() + ")");
 					
-					handleStreamCall(serviceCall, messageContext);
-					ServiceResponse response = new ServiceResponse();
-					serviceMethod.invoke(instanceDriver,serviceCall,response,messageContext);
-					
-					logger.info("Finished service call.");
-					return response;
+					Bulkhead bulkhead = bulkhead(instanceDriver, serviceCall.getService());
+					if (bulkhead == null){
+						return invoke(serviceMethod, serviceCall, instanceDriver, messageContext);
+					}
+					try {
+						return bulkhead.execute(new Invocation(serviceMethod, serviceCall, instanceDriver, messageContext));
+					} catch (RejectedExecutionException e) {
+						return refused(e);
+					} catch (TimeoutException e) {
+						return refused(e);
+					}
 				}else{
 					String msg = String.format(
 							"No Service Implementation found " +
@@ -84,29 +231,119 @@ public class ReflectionServiceCaller {
 		}
 	}
 
+	private ServiceResponse invoke(Method serviceMethod, ServiceCall serviceCall, Object instanceDriver, 
+										UOSMessageContext messageContext) throws Exception{
+		handleStreamCall(serviceCall, messageContext);
+		ServiceResponse response = new ServiceResponse();
+		serviceMethod.invoke(instanceDriver,serviceCall,response,messageContext);
+		
+		logger.info("Finished service call.");
+		return response;
+	}
+	
+	private static ServiceResponse refused(Exception e){
+		logger.warning(e.getMessage());
+		ServiceResponse response = new ServiceResponse();
+		response.setError(e.getMessage());
+		return response;
+	}
+	
+	private class Invocation implements Callable<ServiceResponse> {
+		private final Method serviceMethod;
+		private final ServiceCall serviceCall;
+		private final Object instanceDriver;
+		private final UOSMessageContext messageContext;
+		
+		Invocation(Method serviceMethod, ServiceCall serviceCall, Object instanceDriver, 
+					UOSMessageContext messageContext){
+			this.serviceMethod = serviceMethod;
+			this.serviceCall = serviceCall;
+			this.instanceDriver = instanceDriver;
+			this.messageContext = messageContext;
+		}
+		
+		public ServiceResponse call() throws Exception {
+			return invoke(serviceMethod, serviceCall, instanceDriver, messageContext);
+		}
+	}
+	
+	/**
+	 * Bulkheads of a single driver.
+	 */
+	private static class Bulkheads {
+		private Bulkhead driver;
+		private Map<String, Bulkhead> services = new HashMap<String, Bulkhead>();
+		
+		void shutdown(){
+			if (driver != null){
+				driver.shutdown();
+			}
+			for (Bulkhead bulkhead : services.values()){
+				bulkhead.shutdown();
+			}
+		}
+	}
+	
 	private void handleStreamCall(ServiceCall serviceCall,
 			UOSMessageContext messageContext) throws NetworkException,
-			IOException {
+			InterruptedException {
 		if(serviceCall.getServiceType().equals(ServiceType.STREAM)){
 			NetworkDevice networkDevice = messageContext.getCallerDevice();
 			
 			String host = connectionManagerControlCenter.getHost(networkDevice.getNetworkDeviceName());
-			for(int i = 0; i < serviceCall.getChannels(); i++){
-				ClientConnection con = connectionManagerControlCenter.openActiveConnection(host+":"+serviceCall.getChannelIDs()[i], serviceCall.getChannelType());
-				messageContext.addDataStreams(con.getDataInputStream(), con.getDataOutputStream());
-			}
+			new StreamChannels(connectionManagerControlCenter).connect(host, serviceCall.getChannelIDs(), 
+						serviceCall.getChannelType(), messageContext, StreamChannels.DEFAULT_TIMEOUT);
 		}
 	}
 
 	private Method findMethod(ServiceCall serviceCall, Object instanceDriver) {
-		String serviceName = serviceCall.getService();;
+		String serviceName = serviceCall.getService();
+		
+		if(instanceDriver instanceof ProxyDriver)	serviceName = FORWARD_SERVICE;
 		
-		if(instanceDriver instanceof ProxyDriver)	serviceName = "forwardServiceCall";
+		if (serviceName == null) return null;
 		
-		for (Method m : instanceDriver.getClass().getMethods()){
-			if (m.getName().equalsIgnoreCase(serviceName))	return m;
+		return driverTable(instanceDriver.getClass()).get(serviceName.toLowerCase(Locale.ENGLISH));
+	}
+	
+	private Map<String, Method> driverTable(Class<?> clazz){
+		Map<String, Method> table = driverTables.get(clazz);
+		if (table == null){
+			table = new HashMap<String, Method>();
+			for (Method m : clazz.getMethods()){
+				Class<?>[] types = m.getParameterTypes();
+				if (!Modifier.isStatic(m.getModifiers()) && types.length == 3 
+						&& types[0] == ServiceCall.class
+						&& types[1] == ServiceResponse.class
+						&& types[2] == UOSMessageContext.class){
+					String name = m.getName().toLowerCase(Locale.ENGLISH);
+					if (!table.containsKey(name)){
+						table.put(name, m);
+					}
+				}
+			}
+			table = Collections.unmodifiableMap(table);
+			Map<String, Method> other = driverTables.putIfAbsent(clazz, table);
+			if (other != null) table = other;
+		}
+		return table;
+	}
+	
+	private Map<String, Method> appTable(Class<?> clazz){
+		Map<String, Method> table = appTables.get(clazz);
+		if (table == null){
+			table = new HashMap<String, Method>();
+			for (Method m : clazz.getMethods()){
+				Class<?>[] types = m.getParameterTypes();
+				if (!Modifier.isStatic(m.getModifiers()) && types.length == 1 && types[0] == Map.class){
+					table.put(m.getName(), m);
+				}
+			}
+			table = Collections.unmodifiableMap(table);
+			Map<String, Method> other = appTables.putIfAbsent(clazz, table);
+			if (other != null) table = other;
 		}
-		return null;
+		return table;
 	}
 	
 	/**
@@ -129,7 +366,11 @@ public class ReflectionServiceCaller {
 	public ServiceResponse callServiceOnApp(UosApplication app,ServiceCall call) {
 		ServiceResponse response = new ServiceResponse();
 		try {
-			Method method = app.getClass().getMethod(call.getService(), Map.class);
+			Method method = appTable(app.getClass()).get(call.getService());
+			if (method == null){
+				// fails with the same message of an uncached lookup
+				method = app.getClass().getMethod(call.getService(), Map.class);
+			}
 			Map responseMap = (Map) method.invoke(app, call.getParameters());
 			response.setResponseData(responseMap);
 			return response;
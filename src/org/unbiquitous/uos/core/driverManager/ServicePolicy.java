@@ -0,0 +1,44 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.unbiquitous.uos.core.driverManager.ExecutionPolicy.Pool;
+
+/**
+ * Declares the {@link ExecutionPolicy} of a driver, when on its class, or of
+ * a single service, when on its method. Policies informed on the deploy list
+ * take precedence.
+ *
+ * <pre>
+ * &#064;ServicePolicy(maxConcurrent=4, queue=16, timeout=2000, pool=Pool.DEDICATED)
+ * public class MyDriver implements UosDriver {
+ * 	&#064;ServicePolicy(maxConcurrent=1)
+ * 	public void render(ServiceCall call, ServiceResponse response, UOSMessageContext context){...}
+ * }
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface ServicePolicy {
+
+	/** Calls executed at once, unlimited if not positive. */
+	int maxConcurrent() default 0;
+
+	/** Calls waiting for their turn, beyond them calls are rejected. */
+	int queue() default 0;
+
+	/**
+	 * Time (in milliseconds) for a call, unlimited if not positive. On the 
+	 * {@link Pool#CALLER} it bounds only the wait for a turn, since a call 
+	 * on the caller's thread can't be abandoned.
+	 */
+	long timeout() default 0;
+
+	/** Threads executing the calls. */
+	Pool pool() default Pool.CALLER;
+}
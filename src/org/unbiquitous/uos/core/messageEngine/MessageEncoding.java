@@ -0,0 +1,116 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONStreamReader;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.messages.Message;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+import org.unbiquitous.uos.core.messageEngine.messages.binary.BinaryMessageBinder;
+import org.unbiquitous.uos.core.messageEngine.messages.json.MessageBinder;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+
+/**
+ * Negotiation of the encoding of the messages exchanged between two devices.
+ *
+ * Each device advertises the encodings it understands in the
+ * {@link #DEVICE_PROPERTY} meta property of its {@link UpDevice}, exchanged
+ * during the <code>uos.DeviceDriver.handshake</code> call (which is always
+ * JSON, since the other side is not known yet). Binary messages are sent only
+ * to devices advertising them and reached through a length delimited
+ * {@link WireProtocol} codec, since they may contain line breaks.
+ * Receivers tell the encoding of each message by its first byte and answer
+ * with the same encoding.
+ */
+public final class MessageEncoding {
+
+	/** Meta property of the UpDevice listing the supported encodings. */
+	public static final String DEVICE_PROPERTY = "messageEncodings";
+
+	public static final String JSON = "JSON";
+	public static final String BINARY = "BINARY";
+
+	private MessageEncoding() {}
+
+	/**
+	 * @return The value to be advertised in the {@link #DEVICE_PROPERTY} of the current device.
+	 */
+	public static String supported(){
+		return BINARY+","+JSON;
+	}
+
+	/**
+	 * Chooses the encoding to be used to send messages to the informed device.
+	 */
+	public static String negotiate(UpDevice peer){
+		if (peer == null || WireProtocol.negotiate(peer) == WireProtocol.LINE){
+			return JSON;
+		}
+		Object advertised = peer.getProperty(DEVICE_PROPERTY);
+		if (advertised != null && Arrays.asList(advertised.toString().split(",")).contains(BINARY)){
+			return BINARY;
+		}
+		return JSON;
+	}
+
+	/**
+	 * Encodes the message to be sent to the informed device.
+	 */
+	public static byte[] encode(Message message, UpDevice peer) throws JSONException{
+		return encode(message, negotiate(peer));
+	}
+
+	/**
+	 * Encodes the message with the informed encoding.
+	 */
+	public static byte[] encode(Message message, String encoding) throws JSONException{
+		if (BINARY.equals(encoding)){
+			return BinaryMessageBinder.toBinary(message);
+		}
+		return WireProtocol.encode(MessageBinder.toJSON(message));
+	}
+
+	/**
+	 * @return The encoding of the received payload.
+	 */
+	public static String detect(byte[] payload){
+		return BinaryMessageBinder.isBinary(payload) ? BINARY : JSON;
+	}
+
+	/**
+	 * Reads the message in whichever encoding it was sent.
+	 *
+	 * @return The message read or <code>null</code> if its type is unknown.
+	 * @throws JSONException If the payload can't be read.
+	 */
+	public static Message decode(byte[] payload) throws JSONException{
+		if (BinaryMessageBinder.isBinary(payload)){
+			try {
+				return BinaryMessageBinder.fromBinary(payload);
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+		}
+		return MessageBinder.read(new JSONStreamReader(new ByteArrayInputStream(payload)));
+	}
+
+	/**
+	 * Reads the response of a service call in whichever encoding it was sent.
+	 * As for JSON, a message of other type is read for its error.
+	 */
+	public static ServiceResponse decodeResponse(byte[] payload) throws JSONException{
+		if (BinaryMessageBinder.isBinary(payload)){
+			Message message = decode(payload);
+			if (message instanceof ServiceResponse){
+				return (ServiceResponse) message;
+			}
+			ServiceResponse response = new ServiceResponse();
+			response.setError(message == null ? "Unknown response." : message.getError());
+			return response;
+		}
+		return MessageBinder.readServiceResponse(new JSONStreamReader(new ByteArrayInputStream(payload)));
+	}
+}
@@ -1,11 +1,12 @@
 package org.unbiquitous.uos.core.messageEngine;
 
+import java.util.Collection;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.unbiquitous.json.JSONException;
-import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.json.JSONStreamReader;
 import org.unbiquitous.uos.core.SecurityManager;
 import org.unbiquitous.uos.core.UOSComponent;
 import org.unbiquitous.uos.core.UOSComponentFactory;
@@ -20,12 +21,9 @@ import org.unbiquitous.uos.core.messageEngine.messages.Message;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONEncapsulatedMessage;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONNotify;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONServiceCall;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONServiceResponse;
+import org.unbiquitous.uos.core.messageEngine.messages.json.MessageBinder;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
-import org.unbiquitous.uos.core.network.connectionManager.MessageListener;
+import org.unbiquitous.uos.core.network.connectionManager.RawMessageListener;
 import org.unbiquitous.uos.core.network.exceptions.NetworkException;
 import org.unbiquitous.uos.core.network.model.NetworkDevice;
 
@@ -36,7 +34,7 @@ import org.unbiquitous.uos.core.network.model.NetworkDevice;
  * @author Fabricio Nogueira Buzeto
  *
  */
-public class MessageEngine implements MessageListener , UOSComponent{
+public class MessageEngine implements RawMessageListener , UOSComponent{
 
 	Logger logger = UOSLogging.getLogger();
 	
@@ -46,6 +44,7 @@ public class MessageEngine implements MessageListener , UOSComponent{
 	private DeviceManager deviceManager;	
 	private ConnectionManagerControlCenter connectionManagerControlCenter;
 	private MessageHandler messageHandler;
+	private ServiceCallExecutor serviceCallExecutor;
 
 	private ResourceBundle properties;
 	
@@ -56,64 +55,83 @@ public class MessageEngine implements MessageListener , UOSComponent{
 			return null;
 		
 		try {
-			//TODO: This JSON Conversion can be done only once
-			JSONObject json = new JSONObject(message);
-			Message.Type messageType = retrieveMessageType(json);
-			if (messageType != null){
-				if (messageType == Message.Type.SERVICE_CALL_REQUEST){
-					logger.info("Incoming Service Call");
-					UOSMessageContext messageContext = new UOSMessageContext();
-					messageContext.setCallerDevice(clientDevice);
-					return handleServiceCall(message, messageContext);
-				}else if (messageType == Message.Type.NOTIFY){
-					logger.info("Incoming Notify");
-					handleNotify(message,clientDevice);
-					return null;
-				}else if (messageType == Message.Type.ENCAPSULATED_MESSAGE){
-					logger.info("Incoming Encapsulated Message");
-					return handleEncapsulatedMessage(message,clientDevice);
-				}
-			}
+			// The message is read only once, straight into its own class
+			Message response = handle(MessageBinder.read(new JSONStreamReader(message)), clientDevice);
+			return response == null ? null : MessageBinder.toJSON(response);
 		} catch (JSONException e) {
 			logger.log(Level.INFO,"Failure to handle the incoming message",e);
-			Notify event = new Notify();
-			event.setError("Failure to handle the incoming message");
-			try {return new JSONNotify(event).toString();} 
+			try {return MessageBinder.toJSON(failureNotify());} 
 			catch (JSONException z) {logger.severe("Never Happens");}
 		}
 		return null;
 	}
+	
+	/**
+	 * Handles a message in any of the {@link MessageEncoding}s, 
+	 * answering it with the same encoding.
+	 */
+	@Override
+	public byte[] handleIncomingBytes(byte[] message, NetworkDevice clientDevice) throws NetworkException {
+		
+		if (message == null || clientDevice == null)
+			return null;
+		
+		String encoding = MessageEncoding.detect(message);
+		try {
+			Message response = handle(MessageEncoding.decode(message), clientDevice);
+			return response == null ? null : MessageEncoding.encode(response, encoding);
+		} catch (JSONException e) {
+			logger.log(Level.INFO,"Failure to handle the incoming message",e);
+			try {return MessageEncoding.encode(failureNotify(), encoding);} 
+			catch (JSONException z) {logger.severe("Never Happens");}
+		}
+		return null;
+	}
+	
+	private Notify failureNotify(){
+		Notify event = new Notify();
+		event.setError("Failure to handle the incoming message");
+		return event;
+	}
+	
+	/**
+	 * @return The message to be answered, if any.
+	 */
+	private Message handle(Message incoming, NetworkDevice clientDevice) throws MessageEngineException{
+		if (incoming instanceof ServiceCall){
+			logger.info("Incoming Service Call");
+			UOSMessageContext messageContext = new UOSMessageContext();
+			messageContext.setCallerDevice(clientDevice);
+			return handleServiceCall((ServiceCall) incoming, messageContext);
+		}else if (incoming instanceof Notify){
+			logger.info("Incoming Notify");
+			handleNotify((Notify) incoming,clientDevice);
+		}else if (incoming instanceof EncapsulatedMessage){
+			logger.info("Incoming Encapsulated Message");
+			return handleEncapsulatedMessage((EncapsulatedMessage) incoming,clientDevice);
+		}
+		return null;
+	}
 
 	/**
 	 * Redirect ServiceCalls to the adequate responsible entity.
 	 */
-	private String handleServiceCall(String message, UOSMessageContext messageContext) throws MessageEngineException{
+	private ServiceResponse handleServiceCall(ServiceCall serviceCall, UOSMessageContext messageContext) throws MessageEngineException{
 		try {
-			JSONServiceCall jsonServiceCall = new JSONServiceCall(message);
-			ServiceCall serviceCall = jsonServiceCall.getAsObject();
 			ServiceResponse response = serviceCallHandler.handleServiceCall(serviceCall, messageContext);
 			logger.info("Returning service response");
 			
-			JSONServiceResponse jsonResponse = new JSONServiceResponse(response);
-			return jsonResponse.toString();
+			return response;
 		} catch (Exception e) {
 			logger.log(Level.SEVERE,"Internal Failure", e);
 			ServiceResponse errorResponse = new ServiceResponse();
 			errorResponse.setError(e.getMessage() == null ?"Internal Error":e.getMessage());
-			try {
-				JSONServiceResponse jsonResponse = new JSONServiceResponse(errorResponse);
-				return jsonResponse.toString();
-			} catch (JSONException e1) {
-				// Never Should Happens
-				throw new MessageEngineException("Unexpected Error",e1);
-			}
+			return errorResponse;
 		}
 	}
 	
-	private void handleNotify(String message,NetworkDevice clientDevice) throws MessageEngineException{
+	private void handleNotify(Notify notify,NetworkDevice clientDevice) throws MessageEngineException{
 		try {
-			Notify notify = new JSONNotify(message).getAsObject();
-			
 			notifyHandler.handleNofify(notify,
 					deviceManager.retrieveDevice(
 							connectionManagerControlCenter.getHost(
@@ -126,11 +144,8 @@ public class MessageEngine implements MessageListener , UOSComponent{
 		} 
 	}
 	
-	private String handleEncapsulatedMessage(String message,NetworkDevice clientDevice) throws MessageEngineException{
+	private EncapsulatedMessage handleEncapsulatedMessage(EncapsulatedMessage encapsulatedMessage,NetworkDevice clientDevice) throws MessageEngineException{
 		try {
-			JSONEncapsulatedMessage jsonEncapsulatedMessage = new JSONEncapsulatedMessage(message);
-			EncapsulatedMessage encapsulatedMessage = jsonEncapsulatedMessage.getAsObject();
-			
 			String securityType = encapsulatedMessage.getSecurityType();
 			
 			TranslationHandler tHandler = securityManager.getTranslationHandler(securityType);
@@ -159,9 +174,7 @@ public class MessageEngine implements MessageListener , UOSComponent{
 				encapsulatedResponse.setInnerMessage(encodedMessage);
 				encapsulatedResponse.setSecurityType(securityType);
 				 
-				JSONEncapsulatedMessage jsonEncapsulatedResponse = new JSONEncapsulatedMessage(encapsulatedResponse);
-				
-				return jsonEncapsulatedResponse.toString();
+				return encapsulatedResponse;
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE,"Problems handling EncapsulatedMessage: ",e);
@@ -170,29 +183,28 @@ public class MessageEngine implements MessageListener , UOSComponent{
 	}
 	
 	/**
-	 * Retrieve the message type for the message informed
+	 * Sends a notify message to the device informed.
 	 * 
-	 * @param json JSONObject representing the message received.
-	 * @return Message.Type Object of the type for the message informed.
+	 * @param notify Notify message to be sent.
+	 * @param device Device which is going to receive the notofy event
+	 * @throws MessageEngineException
 	 */
-	private Message.Type retrieveMessageType(JSONObject json) {
-		try {
-			return Message.Type.valueOf(json.optString("type"));
-		} catch (IllegalArgumentException e) {
-			return null;
-		}
+	public void notifyEvent(Notify notify, UpDevice device) throws MessageEngineException{
+		messageHandler.notifyEvent(notify, device);
 	}
 	
 	/**
-	 * Sends a notify message to the device informed.
+	 * Sends a notify message to all the devices informed at once.
 	 * 
 	 * @param notify Notify message to be sent.
-	 * @param device Device which is going to receive the notofy event
+	 * @param devices Devices which are going to receive the notify event
+	 * @return The amount of devices the notify is being sent to.
 	 * @throws MessageEngineException
 	 */
-	public void notifyEvent(Notify notify, UpDevice device) throws MessageEngineException{
-		messageHandler.notifyEvent(notify, device);
+	public int multicastEvent(Notify notify, Collection<UpDevice> devices) throws MessageEngineException{
+		return messageHandler.multicastEvent(notify, devices);
 	}
+	
 	/**
 	 * Method responsible for calling a service according to the ServiceCall informed.
 	 * 
@@ -204,6 +216,19 @@ public class MessageEngine implements MessageListener , UOSComponent{
 	public ServiceResponse callService(UpDevice device,ServiceCall serviceCall) throws MessageEngineException{
 		return messageHandler.callService(device, serviceCall);
 	}
+	
+	/**
+	 * Method responsible for calling a service without blocking the caller.
+	 * 
+	 * @param device Device providing the service to be called.
+	 * @param serviceCall Object representing the service call to be placed.
+	 * @param timeout Time (in milliseconds) to wait for the response, if not positive 
+	 * 			the default response timeout is used.
+	 * @return The future response for the called service.
+	 */
+	public ServiceFuture callServiceAsync(UpDevice device,ServiceCall serviceCall, long timeout){
+		return messageHandler.callServiceAsync(device, serviceCall, timeout);
+	}
 
 	/************************ USO COmpoment ***************************/
 	
@@ -220,11 +245,13 @@ public class MessageEngine implements MessageListener , UOSComponent{
 		this.securityManager = factory.get(SecurityManager.class);
 		this.connectionManagerControlCenter = factory.get(ConnectionManagerControlCenter.class);
 		this.connectionManagerControlCenter.setListener(this);
+		this.serviceCallExecutor = factory.get(ServiceCallExecutor.class);
 				
 		MessageHandler messageHandler = new MessageHandler(properties, 
 										connectionManagerControlCenter,
 										securityManager,
-										factory.get(ConnectivityManager.class)
+										factory.get(ConnectivityManager.class),
+										serviceCallExecutor
 													);
 		this.messageHandler = messageHandler;
 	}
@@ -233,7 +260,12 @@ public class MessageEngine implements MessageListener , UOSComponent{
 	public void start() {}
 	
 	@Override
-	public void stop() {}
+	public void stop() {
+		if (messageHandler != null){
+			messageHandler.tearDown();
+			serviceCallExecutor.shutdown();
+		}
+	}
 
 	
 	//FIXME: remove this method
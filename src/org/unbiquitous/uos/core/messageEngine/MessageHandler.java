@@ -1,16 +1,15 @@
 package org.unbiquitous.uos.core.messageEngine;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.util.Collection;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
-import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.json.JSONStreamReader;
 import org.unbiquitous.uos.core.AuthenticationHandler;
 import org.unbiquitous.uos.core.SecurityManager;
 import org.unbiquitous.uos.core.UOSLogging;
@@ -22,10 +21,16 @@ import org.unbiquitous.uos.core.messageEngine.messages.EncapsulatedMessage;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONEncapsulatedMessage;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONNotify;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONServiceCall;
-import org.unbiquitous.uos.core.messageEngine.messages.json.JSONServiceResponse;
+import org.unbiquitous.uos.core.messageEngine.messages.json.MessageBinder;
+import org.unbiquitous.uos.core.network.cache.ConnectionPool;
+import org.unbiquitous.uos.core.network.cache.MultiplexedConnection;
+import org.unbiquitous.uos.core.network.cache.MultiplexedConnection.PendingResponse;
+import org.unbiquitous.uos.core.network.cache.MultiplexedConnection.ResponseListener;
+import org.unbiquitous.uos.core.network.codec.Frame;
+import org.unbiquitous.uos.core.network.codec.FrameCodec;
+import org.unbiquitous.uos.core.network.codec.FrameReader;
+import org.unbiquitous.uos.core.network.codec.ReadTimeout;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
 import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
 
@@ -42,6 +47,7 @@ public class MessageHandler {
 	//TODO: must be parameters (or not even be here)
 	private int maxRetries = 30;
 	private int waitTime = 100;
+	private int connectionIdleTimeout = 5*60*1000;
 	
 	/*************************************
 	 * ATTRIBUTES
@@ -50,6 +56,9 @@ public class MessageHandler {
 	private ConnectionManagerControlCenter connectionManagerControlCenter;
 	private SecurityManager securityManager;
 	private ConnectivityManager connectivityManager;
+	private ConnectionPool connectionPool;
+	private ServiceCallExecutor executor;
+	private NotifyFanout fanout;
 	
 	
 	/*************************************
@@ -62,6 +71,18 @@ public class MessageHandler {
 				SecurityManager securityManager,
 				ConnectivityManager connectivityManager
 			){
+		this(bundle, connectionManagerControlCenter, securityManager, connectivityManager, 
+				new ServiceCallExecutor(bundle));
+	}
+	
+	public MessageHandler(
+				ResourceBundle bundle,
+				ConnectionManagerControlCenter connectionManagerControlCenter,
+				SecurityManager securityManager,
+				ConnectivityManager connectivityManager,
+				ServiceCallExecutor executor
+			){
+		this.executor = executor;
 		this.connectionManagerControlCenter = connectionManagerControlCenter;
 		this.securityManager = securityManager;
 		this.connectivityManager = connectivityManager;
@@ -75,6 +96,11 @@ public class MessageHandler {
 		}else{
 			waitTime = 100;
 		}
+		if (bundle != null && bundle.containsKey("ubiquitos.message.connection.timeout")){
+			connectionIdleTimeout = Integer.parseInt(bundle.getString("ubiquitos.message.connection.timeout"));
+		}
+		connectionPool = new ConnectionPool(connectionManagerControlCenter, connectionIdleTimeout);
+		fanout = new NotifyFanout(bundle, connectivityManager, connectionManagerControlCenter, connectionPool, executor);
 	}
 	
 	/**
@@ -86,26 +112,105 @@ public class MessageHandler {
 	 * @throws ServiceCallException
 	 */
 	public ServiceResponse callService(UpDevice device,ServiceCall serviceCall) throws MessageEngineException{
-		if (	device == null || serviceCall == null ||
-				serviceCall.getDriver() == null || serviceCall.getDriver().isEmpty() ||
-				serviceCall.getService() == null || serviceCall.getService().isEmpty()){
-			throw new IllegalArgumentException("Either the Device or Service is invalid.");
-		}
+		validate(device, serviceCall);
 		
 		try {
-			JSONObject  jsonCall = new JSONServiceCall(serviceCall);
 			if (serviceCall.getSecurityType() != null ){
-				return (new JSONServiceResponse(sendEncapsulated(jsonCall.toString(), serviceCall.getSecurityType(), device))).getAsObject();
+				String jsonCall = MessageBinder.toJSON(serviceCall);
+				return MessageBinder.readServiceResponse(new JSONStreamReader(sendEncapsulated(jsonCall, serviceCall.getSecurityType(), device)));
 			}
-			String returnedMessage = send(jsonCall.toString(), device,true);
+			byte[] returnedMessage = send(MessageEncoding.encode(serviceCall, device), device,true);
 			if (returnedMessage != null)
-				return (new JSONServiceResponse(returnedMessage)).getAsObject();
+				return MessageEncoding.decodeResponse(returnedMessage);
 		} catch (Exception e) {
 			throw new MessageEngineException(e);
 		} 
 		return null;
 	}
 
+	/**
+	 * Method responsible for calling a service without blocking the caller.
+	 * 
+	 * For devices reached through multiplexed connections no thread is kept 
+	 * waiting for the response. Other devices are called by the threads of the 
+	 * {@link ServiceCallExecutor}.
+	 * 
+	 * @param device Device providing the service to be called.
+	 * @param serviceCall Object representing the service call to be placed.
+	 * @param timeout Time (in milliseconds) to wait for the response, if not positive 
+	 * 			the default response timeout is used.
+	 * @return The future response for the called service.
+	 */
+	public ServiceFuture callServiceAsync(final UpDevice device, final ServiceCall serviceCall, long timeout){
+		validate(device, serviceCall);
+		if (timeout <= 0){
+			timeout = responseTimeout();
+		}
+		if (serviceCall.getSecurityType() == null && WireProtocol.negotiate(device) == WireProtocol.MUX){
+			return callMultiplexedAsync(device, serviceCall, timeout);
+		}
+		return executor.submit(new Callable<ServiceResponse>() {
+			public ServiceResponse call() throws Exception {
+				return callService(device, serviceCall);
+			}
+		}, timeout);
+	}
+
+	private ServiceFuture callMultiplexedAsync(final UpDevice device, final ServiceCall serviceCall, long timeout) {
+		final ServiceFuture future = executor.newFuture(timeout);
+		try {
+			// opening and writing to the connection may block, waiting for the response won't
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						UpNetworkInterface netInt = connectivityManager.getAppropriateInterface(device);
+						byte[] message = MessageEncoding.encode(serviceCall, device);
+						final PendingResponse response = writeMultiplexed(message, netInt, true);
+						if (response == null){
+							future.complete(null);
+							return;
+						}
+						future.addCallback(new ServiceCallback() {
+							public void onResponse(ServiceResponse r) {}
+							public void onFailure(Exception cause) {
+								response.cancel();
+							}
+						});
+						response.listen(new ResponseListener() {
+							public void arrived(byte[] payload) {
+								if (payload.length == 0){
+									future.complete(null);
+									return;
+								}
+								try {
+									future.complete(MessageEncoding.decodeResponse(payload));
+								} catch (Exception e) {
+									future.fail(new MessageEngineException(e));
+								}
+							}
+							public void failed(IOException cause) {
+								future.fail(new MessageEngineException(cause));
+							}
+						});
+					} catch (Exception e) {
+						future.fail(new MessageEngineException(e));
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+	
+	private void validate(UpDevice device, ServiceCall serviceCall) {
+		if (	device == null || serviceCall == null ||
+				serviceCall.getDriver() == null || serviceCall.getDriver().isEmpty() ||
+				serviceCall.getService() == null || serviceCall.getService().isEmpty()){
+			throw new IllegalArgumentException("Either the Device or Service is invalid.");
+		}
+	}
+
 	private String sendEncapsulated(String message, String securityType, UpDevice target) throws Exception{
 		logger.fine("Authentication needed for type : '"+securityType+"'");
 		
@@ -121,10 +226,11 @@ public class MessageHandler {
 		logger.fine("Proceed to encode original message");
 
 		message = tHandler.encode(message, target.getName());
-		message = new JSONEncapsulatedMessage(new EncapsulatedMessage(securityType,message)).toString();
-		message = send(message, target,true);
+		message = MessageBinder.toJSON(new EncapsulatedMessage(securityType,message));
+		byte[] response = send(WireProtocol.encode(message), target,true);
+		message = response == null ? null : WireProtocol.decode(response);
 			
-		return tHandler.decode(new JSONEncapsulatedMessage(message).getAsObject().getInnerMessage(), target.getName());
+		return tHandler.decode(MessageBinder.readEncapsulatedMessage(new JSONStreamReader(message)).getInnerMessage(), target.getName());
 	}
 	
 	/**
@@ -141,17 +247,46 @@ public class MessageHandler {
 			throw new IllegalArgumentException("Either the Device or Service is invalid.");
 		}
 		try {
-			String message = new JSONNotify(notify).toString();
-			send(message, device,false);
+			send(MessageEncoding.encode(notify, device), device,false);
 		} catch (Exception e) {
 			throw new MessageEngineException(e);
 		} 
 		
 	}
 	
+	/**
+	 * Sends a notify message to all the devices informed, encoding it only 
+	 * once and reaching the devices in parallel. The notify is sent in 
+	 * background, so failures are only logged.
+	 * 
+	 * @param notify Notify message to be sent.
+	 * @param devices Devices which are going to receive the notify event
+	 * @return The amount of devices the notify is being sent to.
+	 * @throws MessageEngineException If the notify couldn't be encoded.
+	 */
+	public int multicastEvent(Notify notify, Collection<UpDevice> devices) throws MessageEngineException{
+		if (	devices == null || notify == null ||
+				notify.getDriver() == null || notify.getDriver().isEmpty() ||
+				notify.getEventKey() == null || notify.getEventKey().isEmpty()){
+			throw new IllegalArgumentException("Either the Devices or Service is invalid.");
+		}
+		if (devices.isEmpty()){
+			return 0;
+		}
+		try {
+			return fanout.send(notify, devices);
+		} catch (Exception e) {
+			throw new MessageEngineException(e);
+		}
+	}
+	
 	//TODO: refactor this
-	private String send(String message, UpDevice target, boolean waitForResponse) throws Exception{
+	private byte[] send(byte[] message, UpDevice target, boolean waitForResponse) throws Exception{
 		UpNetworkInterface netInt = connectivityManager.getAppropriateInterface(target);
+		FrameCodec codec = WireProtocol.negotiate(target);
+		if (codec == WireProtocol.MUX){
+			return sendMultiplexed(message, netInt, waitForResponse);
+		}
 		ClientConnection connection = connectionManagerControlCenter.openActiveConnection(netInt.getNetworkAddress(), netInt.getNetType());
 		if (connection == null){
 			return null;
@@ -163,51 +298,109 @@ public class MessageHandler {
 			return null;
 		}
 		
-		String response = sendReceive(message, outputStream,inputStream,waitForResponse);
+		byte[] response = sendReceive(message, codec, connection, outputStream,inputStream,waitForResponse);
 		
 		connection.closeConnection();
 		
-		if (!waitForResponse || response.isEmpty()){
+		if (!waitForResponse || response == null || response.length == 0){
 			return null;
 		}
 		return response;
 	}
 	
 	/**
-	 * Method responsible for handling the sending of a request and the receiving of its response
+	 * Sends the message through the pooled connection to the device, so it can 
+	 * be shared with other messages sent to it at the same time.
+	 */
+	private byte[] sendMultiplexed(byte[] message, UpNetworkInterface netInt, boolean waitForResponse) throws Exception{
+		PendingResponse response = writeMultiplexed(message, netInt, waitForResponse);
+		if (response == null){
+			return null;
+		}
+		byte[] received = response.await(responseTimeout());
+		if (received == null || received.length == 0){
+			logger.fine("No response received.");
+			return null;
+		}
+		logger.fine("Received message of " + received.length + " bytes");
+		return received;
+	}
+	
+	/**
+	 * Writes the message to the pooled connection of the device.
 	 * 
-	 * @param jsonCall JSON Object of the service call to be sent
+	 * @return The response to be waited for, <code>null</code> if none is expected 
+	 * 			or no connection could be opened.
+	 */
+	private PendingResponse writeMultiplexed(byte[] payload, UpNetworkInterface netInt, boolean waitForResponse) throws Exception{
+		for (int attempt = 0; ; attempt++){
+			MultiplexedConnection connection = connectionPool.connection(netInt.getNetworkAddress(), netInt.getNetType());
+			if (connection == null){
+				return null;
+			}
+			try {
+				if (waitForResponse){
+					return connection.request(payload);
+				}
+				connection.post(payload);
+				return null;
+			} catch (IOException e) {
+				// the pooled connection may have been closed by the other side in the meantime
+				connectionPool.discard(connection);
+				if (attempt > 0){
+					throw e;
+				}
+			}
+		}
+	}
+	
+	private long responseTimeout(){
+		return (long)maxRetries * waitTime;
+	}
+	
+	/**
+	 * Closes all connections kept to other devices.
+	 */
+	public void tearDown(){
+		connectionPool.clear();
+	}
+	
+	/**
+	 * Method responsible for handling the sending of a request and the receiving of its response.
+	 * The response is awaited for at most <code>maxRetries * waitTime</code> milliseconds.
+	 * 
+	 * @param call Message to be sent
+	 * @param codec Framing negotiated with the target device
+	 * @param connection Connection used, closed if the response takes too long
 	 * @param outputStream OutputStream Object to write into 
 	 * @param inputStream InputStream Object to read from
-	 * @return String of the response read
+	 * @return Content of the response read or <code>null</code> if none arrived in time
 	 * @throws IOException
-	 * @throws InterruptedException
 	 */
 	//FIXME: This is NetworkLayer work
-	private String sendReceive(String call,OutputStream outputStream, InputStream inputStream, boolean waitForResponse)
-			throws IOException, InterruptedException {
-		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-		
-		writer.write(call);
-		writer.write('\n');
-		writer.flush();
+	private byte[] sendReceive(byte[] call, FrameCodec codec, ClientConnection connection,
+			OutputStream outputStream, InputStream inputStream, boolean waitForResponse)
+			throws IOException {
+		codec.write(outputStream, call);
 		
 		if (waitForResponse){
-			BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-			
-			StringBuilder builder = new StringBuilder();
-			for(int i = 0; i < maxRetries; i++){
-				if (reader.ready()){
-					for(Character c = (char)reader.read();c != '\n';c = (char)reader.read()){
-						builder.append(c);
-					}
-					break;
+			ReadTimeout timeout = ReadTimeout.start(connection, responseTimeout());
+			Frame response = null;
+			try{
+				response = new FrameReader(inputStream).read();
+			} catch (IOException e) {
+				if (!timeout.finish()){
+					throw e;
 				}
-				Thread.sleep(waitTime);
+			} finally {
+				timeout.finish();
 			}
-			
-			logger.fine("Received message : " + builder);
-			return builder.toString();
+			if (response == null){
+				logger.fine("No response received.");
+				return null;
+			}
+			logger.fine("Received message of " + response.payload().length + " bytes");
+			return response.payload();
 		}
 		return null;
 	}
@@ -0,0 +1,307 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.UOSProperties;
+import org.unbiquitous.uos.core.connectivity.ConnectivityManager;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.network.cache.ConnectionPool;
+import org.unbiquitous.uos.core.network.cache.MultiplexedConnection;
+import org.unbiquitous.uos.core.network.codec.FrameCodec;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+/**
+ * Sends a notify to many devices at once.
+ *
+ * The notify is encoded only once for each encoding negotiated with the
+ * devices and queued in an outbox for each of them. Each outbox is written
+ * by a task of its own, so the devices are reached in parallel and a slow
+ * one doesn't hold the others. Notifies queued for a device while its
+ * previous ones are being written are sent together in the next write, as
+ * frames written back to back (up to <code>ubiquitos.events.fanout.batch</code>
+ * of them), so a burst of events takes a single write for each device
+ * instead of one connection each.
+ *
+ * Devices reached through multiplexed connections use the pooled ones,
+ * the others get a connection for each write. Notifies expect no response,
+ * so failures are only logged and counted.
+ */
+class NotifyFanout {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private static final String BATCH_KEY = "ubiquitos.events.fanout.batch";
+
+	private static final int DEFAULT_BATCH = 64;
+
+	private final ConnectivityManager connectivityManager;
+	private final ConnectionManagerControlCenter connectionManagerControlCenter;
+	private final ConnectionPool connectionPool;
+	private final Executor executor;
+	private final int batch;
+
+	private final ConcurrentMap<String, Outbox> outboxes = new ConcurrentHashMap<String, Outbox>();
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	NotifyFanout(ResourceBundle properties, ConnectivityManager connectivityManager,
+					ConnectionManagerControlCenter connectionManagerControlCenter,
+					ConnectionPool connectionPool, Executor executor) {
+		this(connectivityManager, connectionManagerControlCenter, connectionPool, executor, batch(properties));
+	}
+
+	NotifyFanout(ConnectivityManager connectivityManager,
+					ConnectionManagerControlCenter connectionManagerControlCenter,
+					ConnectionPool connectionPool, Executor executor, int batch) {
+		this.connectivityManager = connectivityManager;
+		this.connectionManagerControlCenter = connectionManagerControlCenter;
+		this.connectionPool = connectionPool;
+		this.executor = executor;
+		this.batch = batch;
+	}
+
+	private static int batch(ResourceBundle properties){
+		return Math.max(1, UOSProperties.intValue(properties, BATCH_KEY, DEFAULT_BATCH));
+	}
+
+	/**
+	 * Queues the notify to be sent to each of the devices.
+	 *
+	 * @return The amount of devices it was queued to, those with no
+	 * 			interface to be reached through are skipped.
+	 * @throws JSONException If the notify couldn't be encoded.
+	 */
+	int send(Notify notify, Collection<UpDevice> devices) throws JSONException{
+		Map<String, byte[]> encoded = new HashMap<String, byte[]>(2);
+		int queued = 0;
+		for (UpDevice device : devices){
+			UpNetworkInterface netInt = interfaceOf(device);
+			if (netInt == null){
+				logger.fine("No interface to notify '"+device.getName()+"'.");
+				failed.incrementAndGet();
+				continue;
+			}
+			String encoding = MessageEncoding.negotiate(device);
+			byte[] payload = encoded.get(encoding);
+			if (payload == null){
+				payload = MessageEncoding.encode(notify, encoding);
+				encoded.put(encoding, payload);
+			}
+			post(netInt, WireProtocol.negotiate(device), payload);
+			queued++;
+		}
+		return queued;
+	}
+
+	private UpNetworkInterface interfaceOf(UpDevice device){
+		try {
+			return connectivityManager.getAppropriateInterface(device);
+		} catch (NetworkException e) {
+			return null;
+		}
+	}
+
+	private void post(UpNetworkInterface netInt, FrameCodec codec, byte[] payload){
+		String key = netInt.getNetType()+"@"+netInt.getNetworkAddress()+"#"+codec.name();
+		while (true){
+			Outbox outbox = outboxes.get(key);
+			if (outbox == null){
+				Outbox created = new Outbox(key, netInt, codec);
+				outbox = outboxes.putIfAbsent(key, created);
+				if (outbox == null){
+					outbox = created;
+				}
+			}
+			if (outbox.add(payload)){
+				return;
+			}
+			// it was retired while we got it, so a new one takes its place
+		}
+	}
+
+	/**
+	 * @return Notifies sent.
+	 */
+	long sent(){
+		return sent.get();
+	}
+
+	/**
+	 * @return Writes made to send them, each with one or more notifies.
+	 */
+	long writes(){
+		return writes.get();
+	}
+
+	/**
+	 * @return Notifies which couldn't be sent.
+	 */
+	long failed(){
+		return failed.get();
+	}
+
+	/**
+	 * The notifies waiting to be written to a device. Only one task writes
+	 * it at a time, and the outbox is retired once it has nothing left, so
+	 * only devices being notified keep one.
+	 */
+	private final class Outbox implements Runnable {
+		private final String key;
+		private final UpNetworkInterface netInt;
+		private final FrameCodec codec;
+		private List<byte[]> queued = new ArrayList<byte[]>();
+		private boolean scheduled;
+		private boolean retired;
+
+		Outbox(String key, UpNetworkInterface netInt, FrameCodec codec) {
+			this.key = key;
+			this.netInt = netInt;
+			this.codec = codec;
+		}
+
+		/**
+		 * @return <code>false</code> if the outbox is retired.
+		 */
+		boolean add(byte[] payload){
+			synchronized (this) {
+				if (retired){
+					return false;
+				}
+				queued.add(payload);
+				if (scheduled){
+					return true;
+				}
+				scheduled = true;
+			}
+			schedule();
+			return true;
+		}
+
+		private void schedule(){
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				int discarded;
+				synchronized (this) {
+					discarded = queued.size();
+					queued = new ArrayList<byte[]>();
+					retire();
+				}
+				logger.warning("Discarded "+discarded+" notifies to '"+netInt.getNetworkAddress()+"', too many tasks queued.");
+				failed.addAndGet(discarded);
+			}
+		}
+
+		public void run() {
+			List<byte[]> frames = next(batch);
+			try {
+				write(frames);
+				sent.addAndGet(frames.size());
+				writes.incrementAndGet();
+			} catch (Exception e) {
+				failed.addAndGet(frames.size());
+				logger.log(Level.WARNING, "Failed to notify '"+netInt.getNetworkAddress()+"'.", e);
+			}
+			synchronized (this) {
+				if (queued.isEmpty()){
+					retire();
+					return;
+				}
+			}
+			schedule();
+		}
+
+		/**
+		 * Takes at most the informed amount of notifies, in the order they
+		 * were queued.
+		 */
+		private synchronized List<byte[]> next(int max){
+			if (queued.size() <= max){
+				List<byte[]> taken = queued;
+				queued = new ArrayList<byte[]>();
+				return taken;
+			}
+			List<byte[]> head = queued.subList(0, max);
+			List<byte[]> taken = new ArrayList<byte[]>(head);
+			head.clear();
+			return taken;
+		}
+
+		/**
+		 * Takes the outbox out of use, so the next notify to the device
+		 * gets a new one. Must be called holding the outbox.
+		 */
+		private void retire(){
+			scheduled = false;
+			retired = true;
+			outboxes.remove(key, this);
+		}
+
+		private void write(List<byte[]> frames) throws Exception{
+			if (codec == WireProtocol.MUX){
+				writeMultiplexed(frames);
+				return;
+			}
+			ClientConnection connection = connectionManagerControlCenter.openActiveConnection(
+										netInt.getNetworkAddress(), netInt.getNetType());
+			if (connection == null){
+				throw new IOException("Couldn't connect to '"+netInt.getNetworkAddress()+"'.");
+			}
+			try {
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				for (byte[] payload : frames){
+					codec.write(buffer, payload);
+				}
+				OutputStream out = connection.getDataOutputStream();
+				buffer.writeTo(out);
+				out.flush();
+			} finally {
+				connection.closeConnection();
+			}
+		}
+
+		private void writeMultiplexed(List<byte[]> frames) throws Exception{
+			for (int attempt = 0; ; attempt++){
+				MultiplexedConnection connection = connectionPool.connection(
+										netInt.getNetworkAddress(), netInt.getNetType());
+				if (connection == null){
+					throw new IOException("Couldn't connect to '"+netInt.getNetworkAddress()+"'.");
+				}
+				try {
+					connection.postAll(frames);
+					return;
+				} catch (IOException e) {
+					// the pooled connection may have been closed by the other side in the meantime
+					connectionPool.discard(connection);
+					if (attempt > 0){
+						throw e;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import java.util.ResourceBundle;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.UOSProperties;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+/**
+ * Bounded pool of threads shared by all asynchronous service calls of an instance. 
+ * 
+ * Only the blocking parts of a call (like opening a connection or calling a local 
+ * driver) take a thread from the pool, waiting for a remote response doesn't. 
+ * When both the threads and the queue are exhausted new calls fail right away 
+ * with a {@link RejectedExecutionException}.
+ */
+public class ServiceCallExecutor implements Executor {
+
+	private static final String THREADS_KEY = "ubiquitos.message.async.threads";
+	private static final String QUEUE_KEY = "ubiquitos.message.async.queue";
+	
+	private static final int DEFAULT_THREADS = 16;
+	private static final int DEFAULT_QUEUE = 1024;
+	
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService timer;
+	
+	public ServiceCallExecutor(ResourceBundle properties) {
+		int threads = UOSProperties.intValue(properties, THREADS_KEY, DEFAULT_THREADS);
+		int queue = UOSProperties.intValue(properties, QUEUE_KEY, DEFAULT_QUEUE);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+							new ArrayBlockingQueue<Runnable>(queue), new DaemonThreadFactory("uos-async"));
+		executor.allowCoreThreadTimeOut(true);
+		timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("uos-async-timeout"));
+	}
+	
+	/**
+	 * Creates a future to be completed by the caller.
+	 * 
+	 * @param timeoutMillis Time for the call to be done, if not positive the call never expires.
+	 */
+	public ServiceFuture newFuture(long timeoutMillis){
+		ServiceFuture future = new ServiceFuture(this);
+		if (timeoutMillis > 0){
+			future.expireAfter(timeoutMillis, timer);
+		}
+		return future;
+	}
+	
+	/**
+	 * Runs a blocking call in the pool.
+	 * 
+	 * @param call The call to be run.
+	 * @param timeoutMillis Time for the call to be done, if not positive the call never expires.
+	 * @return The future of the call.
+	 */
+	public ServiceFuture submit(final Callable<ServiceResponse> call, long timeoutMillis){
+		final ServiceFuture future = newFuture(timeoutMillis);
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					if (future.isDone()){
+						return;
+					}
+					try {
+						future.complete(call.call());
+					} catch (Exception e) {
+						future.fail(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+	
+	public void execute(Runnable command) {
+		executor.execute(command);
+	}
+	
+	/**
+	 * @return Amount of tasks waiting for a thread.
+	 */
+	public int queued(){
+		return executor.getQueue().size();
+	}
+	
+	public void shutdown(){
+		executor.shutdown();
+		timer.shutdownNow();
+	}
+}
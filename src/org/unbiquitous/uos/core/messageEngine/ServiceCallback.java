@@ -0,0 +1,27 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+/**
+ * Receives the outcome of an asynchronous service call.
+ * 
+ * Callbacks are run by the threads of the {@link ServiceCallExecutor}, so they 
+ * must not block for long.
+ */
+public interface ServiceCallback {
+
+	/**
+	 * Called when the response of the call arrives.
+	 * 
+	 * @param response The response received, <code>null</code> if the called device answered nothing.
+	 */
+	public void onResponse(ServiceResponse response);
+	
+	/**
+	 * Called when the call couldn't be completed.
+	 * 
+	 * @param cause Reason of the failure. A {@link java.util.concurrent.TimeoutException} 
+	 * 				if no response arrived in time.
+	 */
+	public void onFailure(Exception cause);
+}
@@ -0,0 +1,171 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+/**
+ * Result of an asynchronous service call. 
+ * 
+ * Besides being waited for, as any {@link Future}, {@link ServiceCallback}s can be 
+ * attached to be informed once the response arrives (or the call fails).
+ */
+public class ServiceFuture implements Future<ServiceResponse> {
+
+	private final Executor callbackExecutor;
+	private final CountDownLatch done = new CountDownLatch(1);
+	
+	private boolean completed = false;
+	private boolean cancelled = false;
+	private ServiceResponse response;
+	private Exception failure;
+	private List<ServiceCallback> callbacks = new ArrayList<ServiceCallback>();
+	private ScheduledFuture<?> timeout;
+	
+	/**
+	 * @param callbackExecutor Executor where the callbacks will be run.
+	 */
+	public ServiceFuture(Executor callbackExecutor) {
+		this.callbackExecutor = callbackExecutor;
+	}
+	
+	/**
+	 * Completes the call with its response.
+	 * 
+	 * @return <code>false</code> if the call was already done.
+	 */
+	public boolean complete(ServiceResponse response){
+		return finish(response, null, false);
+	}
+	
+	/**
+	 * Completes the call with a failure.
+	 * 
+	 * @return <code>false</code> if the call was already done.
+	 */
+	public boolean fail(Exception cause){
+		return finish(null, cause, false);
+	}
+	
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(null, new CancellationException("Service call cancelled."), true);
+	}
+	
+	/**
+	 * Fails the call with a {@link TimeoutException} if it isn't done in the informed time.
+	 */
+	void expireAfter(long timeoutMillis, ScheduledExecutorService timer){
+		synchronized (this) {
+			if (completed){
+				return;
+			}
+			timeout = timer.schedule(new Runnable() {
+				public void run() {
+					fail(new TimeoutException("No response received in time."));
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private boolean finish(ServiceResponse response, Exception failure, boolean cancelled){
+		List<ServiceCallback> toNotify;
+		ScheduledFuture<?> toCancel;
+		synchronized (this) {
+			if (completed){
+				return false;
+			}
+			this.completed = true;
+			this.response = response;
+			this.failure = failure;
+			this.cancelled = cancelled;
+			toNotify = callbacks;
+			callbacks = null;
+			toCancel = timeout;
+		}
+		done.countDown();
+		if (toCancel != null){
+			toCancel.cancel(false);
+		}
+		for (ServiceCallback callback : toNotify){
+			dispatch(callback);
+		}
+		return true;
+	}
+	
+	/**
+	 * Attaches a callback to be informed of the outcome of the call. 
+	 * If the call is already done the callback is informed right away.
+	 * 
+	 * @return This same future.
+	 */
+	public ServiceFuture addCallback(ServiceCallback callback){
+		synchronized (this) {
+			if (!completed){
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		dispatch(callback);
+		return this;
+	}
+	
+	private void dispatch(final ServiceCallback callback){
+		Runnable notification = new Runnable() {
+			public void run() {
+				if (failure != null){
+					callback.onFailure(failure);
+				}else{
+					callback.onResponse(response);
+				}
+			}
+		};
+		try {
+			callbackExecutor.execute(notification);
+		} catch (RejectedExecutionException e) {
+			// a saturated executor must not make the outcome get lost
+			notification.run();
+		}
+	}
+	
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public synchronized boolean isDone() {
+		return completed;
+	}
+	
+	public ServiceResponse get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+	
+	public ServiceResponse get(long timeout, TimeUnit unit) throws InterruptedException, 
+			ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)){
+			throw new TimeoutException();
+		}
+		return result();
+	}
+	
+	private synchronized ServiceResponse result() throws ExecutionException{
+		if (cancelled){
+			throw new CancellationException("Service call cancelled.");
+		}
+		if (failure != null){
+			throw new ExecutionException(failure);
+		}
+		return response;
+	}
+}
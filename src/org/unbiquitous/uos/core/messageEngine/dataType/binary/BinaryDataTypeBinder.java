@@ -0,0 +1,178 @@
+package org.unbiquitous.uos.core.messageEngine.dataType.binary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService.ParameterType;
+import org.unbiquitous.uos.core.messageEngine.messages.binary.BinaryInput;
+import org.unbiquitous.uos.core.messageEngine.messages.binary.BinaryOutput;
+
+/**
+ * Compact binary encoding of devices and drivers, written with the same
+ * {@link BinaryOutput} used by the binary messages.
+ *
+ * Lists and maps are written with their size plus one, zero telling they are null.
+ */
+public final class BinaryDataTypeBinder {
+
+	private BinaryDataTypeBinder() {}
+
+	/* *****************************
+	 *   	Writing
+	 * *****************************/
+
+	public static void write(UpDevice device, BinaryOutput out){
+		out.writeString(device.getName());
+		List<UpNetworkInterface> networks = device.getNetworks();
+		if (networks == null){
+			out.writeVarInt(0);
+		}else{
+			out.writeVarInt(networks.size() + 1);
+			for (UpNetworkInterface ni : networks){
+				out.writeString(ni.getNetworkAddress()).writeString(ni.getNetType());
+			}
+		}
+		Map<String, String> meta = device.getMeta();
+		if (meta == null){
+			out.writeVarInt(0);
+		}else{
+			out.writeVarInt(meta.size() + 1);
+			for (Map.Entry<String, String> entry : meta.entrySet()){
+				out.writeString(entry.getKey()).writeString(entry.getValue());
+			}
+		}
+	}
+
+	public static void write(UpDriver driver, BinaryOutput out){
+		out.writeString(driver.getName());
+		writeServices(driver.getServices(), out);
+		writeServices(driver.getEvents(), out);
+		List<String> equivalentDrivers = driver.getEquivalentDrivers();
+		if (equivalentDrivers == null){
+			out.writeVarInt(0);
+		}else{
+			out.writeVarInt(equivalentDrivers.size() + 1);
+			for (String equivalent : equivalentDrivers){
+				out.writeString(equivalent);
+			}
+		}
+	}
+
+	private static void writeServices(List<UpService> services, BinaryOutput out){
+		if (services == null){
+			out.writeVarInt(0);
+			return;
+		}
+		out.writeVarInt(services.size() + 1);
+		for (UpService service : services){
+			out.writeString(service.getName());
+			Map<String, ParameterType> parameters = service.getParameters();
+			if (parameters == null){
+				out.writeVarInt(0);
+			}else{
+				out.writeVarInt(parameters.size() + 1);
+				for (Map.Entry<String, ParameterType> entry : parameters.entrySet()){
+					out.writeString(entry.getKey()).writeByte(entry.getValue().ordinal());
+				}
+			}
+		}
+	}
+
+	public static byte[] toBinary(UpDevice device){
+		BinaryOutput out = new BinaryOutput();
+		write(device, out);
+		return out.toByteArray();
+	}
+
+	public static byte[] toBinary(UpDriver driver){
+		BinaryOutput out = new BinaryOutput();
+		write(driver, out);
+		return out.toByteArray();
+	}
+
+	/* *****************************
+	 *   	Reading
+	 * *****************************/
+
+	public static UpDevice readDevice(BinaryInput in) throws IOException{
+		UpDevice device = new UpDevice(in.readString());
+		int networks = in.readCount(1);
+		if (networks >= 0){
+			List<UpNetworkInterface> list = new ArrayList<UpNetworkInterface>(networks);
+			for (int i = 0; i < networks; i++){
+				UpNetworkInterface ni = new UpNetworkInterface();
+				ni.setNetworkAddress(in.readString());
+				ni.setNetType(in.readString());
+				list.add(ni);
+			}
+			device.setNetworks(list);
+		}
+		int meta = in.readCount(1);
+		if (meta >= 0){
+			Map<String, String> map = new HashMap<String, String>(meta * 2);
+			for (int i = 0; i < meta; i++){
+				String key = in.readString();
+				map.put(key, in.readString());
+			}
+			device.setMeta(map);
+		}
+		return device;
+	}
+
+	public static UpDriver readDriver(BinaryInput in) throws IOException{
+		UpDriver driver = new UpDriver(in.readString());
+		driver.setServices(readServices(in));
+		driver.setEvents(readServices(in));
+		int equivalents = in.readCount(1);
+		if (equivalents >= 0){
+			List<String> list = new ArrayList<String>(equivalents);
+			for (int i = 0; i < equivalents; i++){
+				list.add(in.readString());
+			}
+			driver.setEquivalentDrivers(list);
+		}
+		return driver;
+	}
+
+	private static List<UpService> readServices(BinaryInput in) throws IOException{
+		int size = in.readCount(1);
+		if (size < 0){
+			return null;
+		}
+		List<UpService> services = new ArrayList<UpService>(size);
+		ParameterType[] types = ParameterType.values();
+		for (int i = 0; i < size; i++){
+			UpService service = new UpService(in.readString());
+			int parameters = in.readCount(1);
+			if (parameters >= 0){
+				Map<String, ParameterType> map = new HashMap<String, ParameterType>(parameters * 2);
+				for (int j = 0; j < parameters; j++){
+					String name = in.readString();
+					int type = in.readByte();
+					if (type >= types.length){
+						throw new IOException("Unknown parameter type "+type+".");
+					}
+					map.put(name, types[type]);
+				}
+				service.setParameters(map);
+			}
+			services.add(service);
+		}
+		return services;
+	}
+
+	public static UpDevice deviceFromBinary(byte[] bytes) throws IOException{
+		return readDevice(new BinaryInput(bytes));
+	}
+
+	public static UpDriver driverFromBinary(byte[] bytes) throws IOException{
+		return readDriver(new BinaryInput(bytes));
+	}
+}
@@ -0,0 +1,255 @@
+package org.unbiquitous.uos.core.messageEngine.dataType.json;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONStreamReader;
+import org.unbiquitous.json.JSONStreamReader.Token;
+import org.unbiquitous.json.JSONStreamWriter;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
+
+/**
+ * Reads and writes devices and drivers straight from and to JSON text, without
+ * building a JSONObject for them.
+ *
+ * The text is the same produced and accepted by {@link JSONDevice} and
+ * {@link JSONDriver}.
+ */
+public final class DataTypeBinder {
+
+	private static final String PROP_NAME = "name";
+	private static final String PROP_NETWORKS = "networks";
+	private static final String PROP_META = "meta";
+	private static final String PROP_NET_TYPE = "netType";
+	private static final String PROP_NETWORK_ADDRESS = "networkAddress";
+	private static final String PROP_SERVICES = "services";
+	private static final String PROP_EVENTS = "events";
+	private static final String PROP_EQUIVALENT_DRIVERS = "equivalent_drivers";
+	private static final String PROP_PARAMETERS = "parameters";
+
+	private DataTypeBinder() {}
+
+	/* *****************************
+	 *   	Writing
+	 * *****************************/
+
+	public static void write(UpDevice device, JSONStreamWriter writer) throws JSONException{
+		writer.beginObject();
+		writeOptional(PROP_NAME, device.getName(), writer);
+		if (device.getNetworks() != null && !device.getNetworks().isEmpty()){
+			writer.name(PROP_NETWORKS).beginArray();
+			for (UpNetworkInterface ni : device.getNetworks()){
+				writer.beginObject();
+				writeOptional(PROP_NETWORK_ADDRESS, ni.getNetworkAddress(), writer);
+				writeOptional(PROP_NET_TYPE, ni.getNetType(), writer);
+				writer.endObject();
+			}
+			writer.endArray();
+		}
+		writeMap(PROP_META, device.getMeta(), writer);
+		writer.endObject();
+	}
+
+	public static void write(UpDriver driver, JSONStreamWriter writer) throws JSONException{
+		writer.beginObject();
+		writeOptional(PROP_NAME, driver.getName(), writer);
+		writeServices(PROP_SERVICES, driver.getServices(), writer);
+		writeServices(PROP_EVENTS, driver.getEvents(), writer);
+		if (driver.getEquivalentDrivers() != null && !driver.getEquivalentDrivers().isEmpty()){
+			writer.name(PROP_EQUIVALENT_DRIVERS).value(driver.getEquivalentDrivers());
+		}
+		writer.endObject();
+	}
+
+	private static void writeServices(String name, List<UpService> services, JSONStreamWriter writer) throws JSONException{
+		if (services == null || services.isEmpty()){
+			return;
+		}
+		writer.name(name).beginArray();
+		for (UpService s : services){
+			writer.beginObject();
+			writeOptional(PROP_NAME, s.getName(), writer);
+			writeMap(PROP_PARAMETERS, s.getParameters(), writer);
+			writer.endObject();
+		}
+		writer.endArray();
+	}
+
+	/** As in a JSONObject, a null map is written as an empty object. */
+	private static void writeMap(String name, Map<String, ?> value, JSONStreamWriter writer) throws JSONException{
+		writer.name(name);
+		if (value == null){
+			writer.beginObject().endObject();
+		}else{
+			writer.value(value);
+		}
+	}
+
+	/** As in a JSONObject, null properties are left out. */
+	private static void writeOptional(String name, Object value, JSONStreamWriter writer) throws JSONException{
+		if (value != null){
+			writer.name(name).value(value);
+		}
+	}
+
+	/**
+	 * @return The JSON text of the device.
+	 */
+	public static String toJSON(UpDevice device) throws JSONException{
+		JSONStreamWriter writer = new JSONStreamWriter();
+		write(device, writer);
+		return writer.toString();
+	}
+
+	/**
+	 * @return The JSON text of the driver.
+	 */
+	public static String toJSON(UpDriver driver) throws JSONException{
+		JSONStreamWriter writer = new JSONStreamWriter();
+		write(driver, writer);
+		return writer.toString();
+	}
+
+	/* *****************************
+	 *   	Reading
+	 * *****************************/
+
+	public static UpDevice readDevice(JSONStreamReader reader) throws JSONException{
+		UpDevice device = new UpDevice();
+		reader.beginObject();
+		while (reader.hasNext()){
+			String name = reader.nextName();
+			if (reader.peek() == Token.NULL){
+				reader.nextNull();
+			}else if (PROP_NAME.equals(name)){
+				device.setName(readString(reader));
+			}else if (PROP_NETWORKS.equals(name) && reader.peek() == Token.BEGIN_ARRAY){
+				List<UpNetworkInterface> networks = new ArrayList<UpNetworkInterface>();
+				reader.beginArray();
+				while (reader.hasNext()){
+					networks.add(readNetworkInterface(reader));
+				}
+				reader.endArray();
+				device.setNetworks(networks);
+			}else if (PROP_META.equals(name) && reader.peek() == Token.BEGIN_OBJECT){
+				reader.beginObject();
+				while (reader.hasNext()){
+					String key = reader.nextName();
+					device.addProperty(key, readString(reader));
+				}
+				reader.endObject();
+			}else{
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (device.getName() == null){
+			throw new JSONException("JSONObject[\""+PROP_NAME+"\"] not found.");
+		}
+		return device;
+	}
+
+	private static UpNetworkInterface readNetworkInterface(JSONStreamReader reader) throws JSONException{
+		UpNetworkInterface ni = new UpNetworkInterface();
+		reader.beginObject();
+		while (reader.hasNext()){
+			String name = reader.nextName();
+			if (PROP_NETWORK_ADDRESS.equals(name)){
+				ni.setNetworkAddress(readString(reader));
+			}else if (PROP_NET_TYPE.equals(name)){
+				ni.setNetType(readString(reader));
+			}else{
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return ni;
+	}
+
+	public static UpDriver readDriver(JSONStreamReader reader) throws JSONException{
+		UpDriver driver = new UpDriver();
+		reader.beginObject();
+		while (reader.hasNext()){
+			String name = reader.nextName();
+			if (reader.peek() == Token.NULL){
+				reader.nextNull();
+			}else if (PROP_NAME.equals(name)){
+				driver.setName(readString(reader));
+			}else if (PROP_SERVICES.equals(name) && reader.peek() == Token.BEGIN_ARRAY){
+				driver.setServices(readServices(reader));
+			}else if (PROP_EVENTS.equals(name) && reader.peek() == Token.BEGIN_ARRAY){
+				driver.setEvents(readServices(reader));
+			}else if (PROP_EQUIVALENT_DRIVERS.equals(name) && reader.peek() == Token.BEGIN_ARRAY){
+				List<String> equivalentDrivers = new ArrayList<String>();
+				reader.beginArray();
+				while (reader.hasNext()){
+					equivalentDrivers.add(readString(reader));
+				}
+				reader.endArray();
+				driver.setEquivalentDrivers(equivalentDrivers);
+			}else{
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (driver.getName() == null){
+			throw new JSONException("JSONObject[\""+PROP_NAME+"\"] not found.");
+		}
+		return driver;
+	}
+
+	private static List<UpService> readServices(JSONStreamReader reader) throws JSONException{
+		List<UpService> services = new ArrayList<UpService>();
+		reader.beginArray();
+		while (reader.hasNext()){
+			UpService service = new UpService();
+			reader.beginObject();
+			while (reader.hasNext()){
+				String name = reader.nextName();
+				if (reader.peek() == Token.NULL){
+					reader.nextNull();
+				}else if (PROP_NAME.equals(name)){
+					service.setName(readString(reader));
+				}else if (PROP_PARAMETERS.equals(name) && reader.peek() == Token.BEGIN_OBJECT){
+					Map<String,UpService.ParameterType> parameters = new HashMap<String,UpService.ParameterType>();
+					reader.beginObject();
+					while (reader.hasNext()){
+						String parameter = reader.nextName();
+						parameters.put(parameter, UpService.ParameterType.valueOf(readString(reader)));
+					}
+					reader.endObject();
+					service.setParameters(parameters);
+				}else{
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			services.add(service);
+		}
+		reader.endArray();
+		return services;
+	}
+
+	/** Reads any value as the text a JSONObject would return on getString. */
+	private static String readString(JSONStreamReader reader) throws JSONException{
+		Token token = reader.peek();
+		if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY || token == Token.NULL){
+			return reader.nextValue().toString();
+		}
+		return reader.nextString();
+	}
+
+	public static UpDevice deviceFromJSON(String source) throws JSONException{
+		return readDevice(new JSONStreamReader(source));
+	}
+
+	public static UpDriver driverFromJSON(String source) throws JSONException{
+		return readDriver(new JSONStreamReader(source));
+	}
+}
@@ -0,0 +1,181 @@
+package org.unbiquitous.uos.core.messageEngine.messages.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.unbiquitous.json.JSONArray;
+import org.unbiquitous.json.JSONObject;
+
+/**
+ * Reads the values written by a {@link BinaryOutput} from a byte array.
+ *
+ * It is not thread-safe.
+ */
+public final class BinaryInput {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	public BinaryInput(byte[] buffer) {
+		reset(buffer, 0, buffer.length);
+	}
+
+	public BinaryInput(byte[] buffer, int offset, int length) {
+		reset(buffer, offset, length);
+	}
+
+	/**
+	 * Starts reading another content.
+	 */
+	public BinaryInput reset(byte[] buffer, int offset, int length){
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+		return this;
+	}
+
+	public int readByte() throws IOException{
+		require(1);
+		return buffer[position++] & 0xFF;
+	}
+
+	public int readVarInt() throws IOException{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7){
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length int.");
+	}
+
+	public long readVarLong() throws IOException{
+		long zigzag = 0;
+		for (int shift = 0; shift < 70; shift += 7){
+			int b = readByte();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0){
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		throw new IOException("Malformed variable length long.");
+	}
+
+	public double readDouble() throws IOException{
+		require(8);
+		long bits = 0;
+		for (int i = 0; i < 8; i++){
+			bits = (bits << 8) | (buffer[position++] & 0xFF);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	public byte[] readBytes() throws IOException{
+		int length = readLength(0);
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, position, bytes, 0, length);
+		position += length;
+		return bytes;
+	}
+
+	public String readString() throws IOException{
+		int length = readLength(1);
+		if (length < 0){
+			return null;
+		}
+		String value = new String(buffer, position, length, UTF8);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * Reads a tagged value.
+	 * Maps are read as {@link JSONObject}s, lists as {@link JSONArray}s and
+	 * nulls as {@link JSONObject#NULL}, as values of the JSON messages are.
+	 */
+	public Object readValue() throws IOException{
+		int tag = readByte();
+		switch (tag) {
+			case BinaryOutput.NULL:		return JSONObject.NULL;
+			case BinaryOutput.STRING:	return readString();
+			case BinaryOutput.INT:		return (int) readVarLong();
+			case BinaryOutput.LONG:		return readVarLong();
+			case BinaryOutput.DOUBLE:	return readDouble();
+			case BinaryOutput.TRUE:		return Boolean.TRUE;
+			case BinaryOutput.FALSE:	return Boolean.FALSE;
+			case BinaryOutput.BYTES:	return readBytes();
+			case BinaryOutput.MAP:{
+				return new JSONObject(readEntries(readCount(0)));
+			}
+			case BinaryOutput.LIST:{
+				int size = readCount(0);
+				JSONArray array = new JSONArray();
+				for (int i = 0; i < size; i++){
+					array.put(readValue());
+				}
+				return array;
+			}
+			default:
+				throw new IOException("Unknown value type "+tag+".");
+		}
+	}
+
+	/**
+	 * Reads a map written by {@link BinaryOutput#writeMap(Map)}.
+	 */
+	public Map<String, Object> readMap() throws IOException{
+		int size = readCount(1);
+		if (size < 0){
+			return null;
+		}
+		return readEntries(size);
+	}
+
+	private Map<String, Object> readEntries(int size) throws IOException{
+		Map<String, Object> map = new HashMap<String, Object>(size * 2);
+		for (int i = 0; i < size; i++){
+			String key = readString();
+			map.put(key, readValue());
+		}
+		return map;
+	}
+
+	/**
+	 * Reads the number of elements of a list or a map, written plus the
+	 * offset informed (a negative result then tells it is null).
+	 * Each element takes at least a byte, so a corrupted count is noticed
+	 * before anything is allocated for it.
+	 */
+	public int readCount(int offset) throws IOException{
+		return readLength(offset);
+	}
+
+	/**
+	 * @return If there is still content to be read.
+	 */
+	public boolean hasRemaining(){
+		return position < limit;
+	}
+
+	private int readLength(int offset) throws IOException{
+		int length = readVarInt() - offset;
+		if (length < -offset || length > limit - position){
+			throw new EOFException();
+		}
+		return length;
+	}
+
+	private void require(int bytes) throws EOFException{
+		if (position + bytes > limit){
+			throw new EOFException();
+		}
+	}
+}
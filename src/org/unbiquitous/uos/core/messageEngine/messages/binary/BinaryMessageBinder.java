@@ -0,0 +1,209 @@
+package org.unbiquitous.uos.core.messageEngine.messages.binary;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.uos.core.messageEngine.messages.EncapsulatedMessage;
+import org.unbiquitous.uos.core.messageEngine.messages.Message;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+/**
+ * Compact binary encoding of the messages, an alternative to the JSON text
+ * for devices which agreed on it during the handshake.
+ *
+ * A binary message starts with {@link #MAGIC}, which is never the first byte
+ * of a JSON text (nor of any UTF-8 character), so each side can tell the
+ * encoding of a message by its first byte. It is followed by a version, the
+ * type of the message and its fields in a fixed order.
+ *
+ * Parameter values keep their types, including <code>byte[]</code>, so binary
+ * content doesn't need to be turned into text. Nested maps and lists are read
+ * as JSONObjects and JSONArrays, as the JSON messages do. The values of a
+ * {@link ServiceResponse} are read as strings (except byte arrays), as
+ * {@link ServiceResponse#getResponseString(String)} expects.
+ */
+public final class BinaryMessageBinder {
+
+	public static final int MAGIC = 0xB5;
+	public static final int VERSION = 1;
+
+	private static final int SERVICE_CALL_REQUEST = 1;
+	private static final int SERVICE_CALL_RESPONSE = 2;
+	private static final int NOTIFY = 3;
+	private static final int ENCAPSULATED_MESSAGE = 4;
+
+	private BinaryMessageBinder() {}
+
+	/**
+	 * @return If the payload is a binary message.
+	 */
+	public static boolean isBinary(byte[] payload){
+		return payload != null && payload.length > 0 && (payload[0] & 0xFF) == MAGIC;
+	}
+
+	/* *****************************
+	 *   	Writing
+	 * *****************************/
+
+	public static void write(Message message, BinaryOutput out){
+		out.writeByte(MAGIC).writeByte(VERSION);
+		if (message instanceof ServiceCall){
+			out.writeByte(SERVICE_CALL_REQUEST).writeString(message.getError());
+			ServiceCall call = (ServiceCall) message;
+			out.writeString(call.getDriver())
+				.writeString(call.getService())
+				.writeString(call.getInstanceId())
+				.writeByte(call.getServiceType() == null ? 0 : call.getServiceType().ordinal() + 1)
+				.writeVarInt(call.getChannels());
+			String[] channelIDs = call.getChannelIDs();
+			if (channelIDs == null){
+				out.writeVarInt(0);
+			}else{
+				out.writeVarInt(channelIDs.length + 1);
+				for (String id : channelIDs){
+					out.writeString(id);
+				}
+			}
+			out.writeString(call.getChannelType())
+				.writeString(call.getSecurityType())
+				.writeMap(call.getParameters());
+		}else if (message instanceof ServiceResponse){
+			out.writeByte(SERVICE_CALL_RESPONSE).writeString(message.getError());
+			out.writeMap(((ServiceResponse) message).getResponseData());
+		}else if (message instanceof Notify){
+			out.writeByte(NOTIFY).writeString(message.getError());
+			Notify notify = (Notify) message;
+			out.writeString(notify.getEventKey())
+				.writeString(notify.getDriver())
+				.writeString(notify.getInstanceId())
+				.writeMap(notify.getParameters());
+		}else if (message instanceof EncapsulatedMessage){
+			out.writeByte(ENCAPSULATED_MESSAGE).writeString(message.getError());
+			EncapsulatedMessage encapsulated = (EncapsulatedMessage) message;
+			out.writeString(encapsulated.getSecurityType())
+				.writeString(encapsulated.getInnerMessage());
+		}else{
+			throw new IllegalArgumentException("Unknown message "+message);
+		}
+	}
+
+	/**
+	 * @return The bytes of the message.
+	 */
+	public static byte[] toBinary(Message message){
+		BinaryOutput out = new BinaryOutput();
+		write(message, out);
+		return out.toByteArray();
+	}
+
+	/* *****************************
+	 *   	Reading
+	 * *****************************/
+
+	/**
+	 * @return The message read or <code>null</code> if its type is unknown.
+	 * @throws IOException If the content is not a binary message.
+	 */
+	public static Message read(BinaryInput in) throws IOException{
+		if (in.readByte() != MAGIC){
+			throw new IOException("Not a binary message.");
+		}
+		int version = in.readByte();
+		if (version != VERSION){
+			throw new IOException("Unsupported binary message version "+version+".");
+		}
+		int type = in.readByte();
+		String error = in.readString();
+		Message message;
+		switch (type) {
+			case SERVICE_CALL_REQUEST:	message = readServiceCall(in); break;
+			case SERVICE_CALL_RESPONSE:	message = readServiceResponse(in); break;
+			case NOTIFY:				message = readNotify(in); break;
+			case ENCAPSULATED_MESSAGE:	message = readEncapsulatedMessage(in); break;
+			default:					return null;
+		}
+		message.setError(error);
+		return message;
+	}
+
+	public static Message fromBinary(byte[] payload) throws IOException{
+		return read(new BinaryInput(payload));
+	}
+
+	private static ServiceCall readServiceCall(BinaryInput in) throws IOException{
+		ServiceCall call = new ServiceCall();
+		call.setDriver(in.readString());
+		call.setService(in.readString());
+		call.setInstanceId(in.readString());
+		int serviceType = in.readByte();
+		if (serviceType > ServiceType.values().length){
+			throw new IOException("Unknown serviceType "+serviceType+".");
+		}
+		if (serviceType > 0){
+			call.setServiceType(ServiceType.values()[serviceType - 1]);
+		}
+		call.setChannels(in.readVarInt());
+		int channelIDs = in.readCount(1);
+		if (channelIDs >= 0){
+			String[] ids = new String[channelIDs];
+			for (int i = 0; i < channelIDs; i++){
+				ids[i] = in.readString();
+			}
+			call.setChannelIDs(ids);
+		}
+		call.setChannelType(in.readString());
+		call.setSecurityType(in.readString());
+		call.setParameters(in.readMap());
+		return call;
+	}
+
+	private static ServiceResponse readServiceResponse(BinaryInput in) throws IOException{
+		ServiceResponse response = new ServiceResponse();
+		Map<String, Object> data = in.readMap();
+		if (data != null){
+			Map<String, Object> responseData = new HashMap<String, Object>(data.size() * 2);
+			for (Map.Entry<String, Object> entry : data.entrySet()){
+				responseData.put(entry.getKey(), asResponseValue(entry.getValue()));
+			}
+			response.setResponseData(responseData);
+		}
+		return response;
+	}
+
+	/** Turns the value into the text the JSON response would have. */
+	private static Object asResponseValue(Object value) throws IOException{
+		if (value instanceof String || value instanceof byte[]){
+			return value;
+		}
+		if (value instanceof Number){
+			try {
+				return JSONObject.numberToString((Number) value);
+			} catch (JSONException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+		return String.valueOf(value);
+	}
+
+	private static Notify readNotify(BinaryInput in) throws IOException{
+		Notify notify = new Notify();
+		notify.setEventKey(in.readString());
+		notify.setDriver(in.readString());
+		notify.setInstanceId(in.readString());
+		notify.setParameters(in.readMap());
+		return notify;
+	}
+
+	private static EncapsulatedMessage readEncapsulatedMessage(BinaryInput in) throws IOException{
+		EncapsulatedMessage message = new EncapsulatedMessage();
+		message.setSecurityType(in.readString());
+		message.setInnerMessage(in.readString());
+		return message;
+	}
+}
@@ -0,0 +1,274 @@
+package org.unbiquitous.uos.core.messageEngine.messages.binary;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.unbiquitous.json.JSONArray;
+import org.unbiquitous.json.JSONObject;
+
+/**
+ * Writes the values of a binary message into a growing buffer, which can be
+ * reused through {@link #reset()}.
+ *
+ * Integers and lengths are written as variable length quantities (7 bits per byte),
+ * strings as their UTF-8 bytes preceded by their length. Parameter values are
+ * tagged with their type, see {@link #writeValue(Object)}.
+ *
+ * It is not thread-safe.
+ */
+public final class BinaryOutput {
+
+	static final int NULL = 0;
+	static final int STRING = 1;
+	static final int INT = 2;
+	static final int LONG = 3;
+	static final int DOUBLE = 4;
+	static final int TRUE = 5;
+	static final int FALSE = 6;
+	static final int BYTES = 7;
+	static final int MAP = 8;
+	static final int LIST = 9;
+
+	private byte[] buffer;
+	private int count;
+
+	public BinaryOutput() {
+		this(256);
+	}
+
+	public BinaryOutput(int initialSize) {
+		buffer = new byte[Math.max(initialSize, 16)];
+	}
+
+	/**
+	 * Discards the written content, keeping the buffer.
+	 */
+	public BinaryOutput reset(){
+		count = 0;
+		return this;
+	}
+
+	public BinaryOutput writeByte(int b){
+		ensure(1);
+		buffer[count++] = (byte) b;
+		return this;
+	}
+
+	/**
+	 * Writes a non negative int using 1 to 5 bytes.
+	 */
+	public BinaryOutput writeVarInt(int value){
+		ensure(5);
+		while ((value & ~0x7F) != 0){
+			buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[count++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Writes any long, small absolute values using less bytes.
+	 */
+	public BinaryOutput writeVarLong(long value){
+		ensure(10);
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0){
+			buffer[count++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		buffer[count++] = (byte) zigzag;
+		return this;
+	}
+
+	public BinaryOutput writeDouble(double value){
+		long bits = Double.doubleToLongBits(value);
+		ensure(8);
+		for (int shift = 56; shift >= 0; shift -= 8){
+			buffer[count++] = (byte) (bits >>> shift);
+		}
+		return this;
+	}
+
+	public BinaryOutput writeBytes(byte[] bytes){
+		writeVarInt(bytes.length);
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+		return this;
+	}
+
+	/**
+	 * Writes a string which may be null.
+	 * The length is written plus one, zero telling it is null.
+	 */
+	public BinaryOutput writeString(String value){
+		if (value == null){
+			return writeVarInt(0);
+		}
+		int length = value.length();
+		// the UTF-8 length is known only after encoding, so the worst case is reserved
+		ensure(5 + length * 3);
+		int lengthAt = count;
+		int start = lengthAt + lengthSize(length * 3 + 1);
+		int position = start;
+		for (int i = 0; i < length; i++){
+			char c = value.charAt(i);
+			if (c < 0x80){
+				buffer[position++] = (byte) c;
+			}else if (c < 0x800){
+				buffer[position++] = (byte) (0xC0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			}else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))){
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+			}else{
+				buffer[position++] = (byte) (0xE0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		int encoded = position - start;
+		int needed = lengthSize(encoded + 1);
+		if (needed != start - lengthAt){
+			System.arraycopy(buffer, start, buffer, lengthAt + needed, encoded);
+		}
+		count = lengthAt;
+		writeVarInt(encoded + 1);
+		count += encoded;
+		return this;
+	}
+
+	/**
+	 * Writes a value tagged with its type.
+	 * Byte arrays are kept as they are, maps (and JSONObjects) and
+	 * collections (arrays and JSONArrays) have their contents written
+	 * and anything else unknown is written as the string of its
+	 * <code>toString()</code>, as the JSON messages do.
+	 */
+	@SuppressWarnings("rawtypes")
+	public BinaryOutput writeValue(Object value){
+		if (value == null || value == JSONObject.NULL){
+			return writeByte(NULL);
+		}
+		if (value instanceof String){
+			return writeByte(STRING).writeString((String) value);
+		}
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte){
+			return writeByte(INT).writeVarLong(((Number) value).intValue());
+		}
+		if (value instanceof Long){
+			return writeByte(LONG).writeVarLong((Long) value);
+		}
+		if (value instanceof Double || value instanceof Float){
+			return writeByte(DOUBLE).writeDouble(((Number) value).doubleValue());
+		}
+		if (value instanceof Boolean){
+			return writeByte(((Boolean) value) ? TRUE : FALSE);
+		}
+		if (value instanceof byte[]){
+			return writeByte(BYTES).writeBytes((byte[]) value);
+		}
+		if (value instanceof Map){
+			Map map = (Map) value;
+			writeByte(MAP).writeVarInt(map.size());
+			for (Object o : map.entrySet()){
+				Map.Entry entry = (Map.Entry) o;
+				writeString(String.valueOf(entry.getKey()));
+				writeValue(entry.getValue());
+			}
+			return this;
+		}
+		if (value instanceof JSONObject){
+			JSONObject json = (JSONObject) value;
+			writeByte(MAP).writeVarInt(json.length());
+			Iterator keys = json.keys();
+			while (keys.hasNext()){
+				String key = (String) keys.next();
+				writeString(key);
+				writeValue(json.opt(key));
+			}
+			return this;
+		}
+		if (value instanceof JSONArray){
+			JSONArray array = (JSONArray) value;
+			writeByte(LIST).writeVarInt(array.length());
+			for (int i = 0; i < array.length(); i++){
+				writeValue(array.opt(i));
+			}
+			return this;
+		}
+		if (value instanceof Collection){
+			Collection collection = (Collection) value;
+			writeByte(LIST).writeVarInt(collection.size());
+			for (Object o : collection){
+				writeValue(o);
+			}
+			return this;
+		}
+		if (value.getClass().isArray()){
+			int length = Array.getLength(value);
+			writeByte(LIST).writeVarInt(length);
+			for (int i = 0; i < length; i++){
+				writeValue(Array.get(value, i));
+			}
+			return this;
+		}
+		return writeByte(STRING).writeString(value.toString());
+	}
+
+	/**
+	 * Writes a map of values which may be null.
+	 * The size is written plus one, zero telling it is null.
+	 */
+	public BinaryOutput writeMap(Map<String, ?> map){
+		if (map == null){
+			return writeVarInt(0);
+		}
+		writeVarInt(map.size() + 1);
+		for (Map.Entry<String, ?> entry : map.entrySet()){
+			writeString(entry.getKey());
+			writeValue(entry.getValue());
+		}
+		return this;
+	}
+
+	/**
+	 * @return Number of bytes written so far.
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @return A copy of the bytes written so far.
+	 */
+	public byte[] toByteArray(){
+		byte[] bytes = new byte[count];
+		System.arraycopy(buffer, 0, bytes, 0, count);
+		return bytes;
+	}
+
+	private static int lengthSize(int value){
+		int size = 1;
+		while ((value & ~0x7F) != 0){
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private void ensure(int more){
+		if (count + more > buffer.length){
+			byte[] bigger = new byte[Math.max(buffer.length * 2, count + more)];
+			System.arraycopy(buffer, 0, bigger, 0, count);
+			buffer = bigger;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package org.unbiquitous.uos.core.messageEngine.messages.json;
 
 import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONObject;
 import org.unbiquitous.uos.core.messageEngine.messages.EncapsulatedMessage;
 import org.unbiquitous.uos.core.messageEngine.messages.Message;
 
@@ -24,11 +25,18 @@ public class JSONEncapsulatedMessage extends JSONMessage {
 	}
 	
 	public EncapsulatedMessage getAsObject() throws JSONException{
+		return fromJSON(this);
+	}
+	
+	/**
+	 * Reads the message from an already parsed one, so it is not parsed again.
+	 */
+	public static EncapsulatedMessage fromJSON(JSONObject json) throws JSONException{
 		EncapsulatedMessage message = new EncapsulatedMessage();
 		
-		message.setError(this.optString(PROP_ERROR,null));
-		message.setInnerMessage(this.optString(PROP_INNER_MESSAGE));
-		message.setSecurityType(this.optString(PROP_SECURITY_TYPE));
+		message.setError(json.optString(PROP_ERROR,null));
+		message.setInnerMessage(json.optString(PROP_INNER_MESSAGE));
+		message.setSecurityType(json.optString(PROP_SECURITY_TYPE));
 		
 		return message;
 	}
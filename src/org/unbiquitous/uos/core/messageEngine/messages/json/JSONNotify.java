@@ -31,17 +31,24 @@ public class JSONNotify extends JSONMessage {
 		this.put(PROP_INSTANCE_ID,bean.getInstanceId());
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public Notify getAsObject() throws JSONException{
+		return fromJSON(this);
+	}
+	
+	/**
+	 * Reads the notify from an already parsed message, so it is not parsed again.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static Notify fromJSON(JSONObject json) throws JSONException{
 		Notify notify = new Notify();
 		
-		notify.setEventKey(this.getString(PROP_EVENT_KEY));
-		notify.setDriver(this.optString(PROP_DRIVER));
-		notify.setInstanceId(this.optString(PROP_INSTANCE_ID));
+		notify.setEventKey(json.getString(PROP_EVENT_KEY));
+		notify.setDriver(json.optString(PROP_DRIVER));
+		notify.setInstanceId(json.optString(PROP_INSTANCE_ID));
 		
-		if (!this.isNull(PROP_PARAMETERS)){
+		if (!json.isNull(PROP_PARAMETERS)){
 			Map map = new HashMap();
-			JSONObject obj = (JSONObject)this.get(PROP_PARAMETERS);
+			JSONObject obj = (JSONObject)json.get(PROP_PARAMETERS);
 			if (obj != null){
 				Iterator<String>it = obj.sortedKeys();
 				while (it.hasNext() ){
@@ -51,19 +51,26 @@ public class JSONServiceCall extends JSONMessage  {
 		return s;
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public ServiceCall getAsObject() throws JSONException{
+		return fromJSON(this);
+	}
+	
+	/**
+	 * Reads the call from an already parsed message, so it is not parsed again.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static ServiceCall fromJSON(JSONObject json) throws JSONException{
 		ServiceCall serviceCall = new ServiceCall();
 		
-		serviceCall.setDriver(this.getString(PROP_DRIVER));
-		serviceCall.setService(this.getString(PROP_SERVICE));
-		serviceCall.setInstanceId(this.optString(PROP_INSTANCE_ID,null));
-		String strServiceType = this.optString(PROP_SERVICE_TYPE);
+		serviceCall.setDriver(json.getString(PROP_DRIVER));
+		serviceCall.setService(json.getString(PROP_SERVICE));
+		serviceCall.setInstanceId(json.optString(PROP_INSTANCE_ID,null));
+		String strServiceType = json.optString(PROP_SERVICE_TYPE);
 		if (strServiceType != null && !strServiceType.isEmpty()){
 			serviceCall.setServiceType(ServiceType.valueOf(strServiceType));
 		}
-		serviceCall.setChannels(this.optInt(PROP_CHANNELS));
-		JSONArray jsonCIDs = this.optJSONArray(PROP_CHANNEL_IDS);
+		serviceCall.setChannels(json.optInt(PROP_CHANNELS));
+		JSONArray jsonCIDs = json.optJSONArray(PROP_CHANNEL_IDS);
 		if(jsonCIDs != null){
 			String[] cIDs = new String[jsonCIDs.length()];
 			for (int i = 0; i < jsonCIDs.length(); i++) {
@@ -71,15 +78,15 @@ public class JSONServiceCall extends JSONMessage  {
 			}
 			serviceCall.setChannelIDs(cIDs);
 		}
-		serviceCall.setChannelType(this.optString(PROP_CHANNEL_TYPE));
+		serviceCall.setChannelType(json.optString(PROP_CHANNEL_TYPE));
 		
-		if (!this.isNull(PROP_PARAMETERS)){
+		if (!json.isNull(PROP_PARAMETERS)){
 			Map map ;
-			if (this.get(PROP_PARAMETERS) instanceof Map){
-				map = (Map) this.get(PROP_PARAMETERS);
+			if (json.get(PROP_PARAMETERS) instanceof Map){
+				map = (Map) json.get(PROP_PARAMETERS);
 			}else{
 				map = new HashMap();
-				JSONObject obj = (JSONObject)this.get(PROP_PARAMETERS);
+				JSONObject obj = (JSONObject)json.get(PROP_PARAMETERS);
 				if (obj != null){
 					Iterator<String>it = obj.sortedKeys();
 					while (it.hasNext() ){
@@ -91,8 +98,8 @@ public class JSONServiceCall extends JSONMessage  {
 			serviceCall.setParameters(map);
 		}
 		
-		//serviceCall.setType(Message.Type.valueOf((this.getString(PROP_TYPE))));
-		serviceCall.setError(this.optString(PROP_ERROR));
+		//serviceCall.setType(Message.Type.valueOf((json.getString(PROP_TYPE))));
+		serviceCall.setError(json.optString(PROP_ERROR));
 		
 		return serviceCall;
 	}
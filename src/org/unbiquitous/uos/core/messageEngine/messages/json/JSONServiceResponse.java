@@ -23,14 +23,21 @@ public class JSONServiceResponse extends JSONMessage  {
 		this.put(PROP_RESPONSE_DATA,bean.getResponseData());
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public ServiceResponse getAsObject() throws JSONException{
+		return fromJSON(this);
+	}
+	
+	/**
+	 * Reads the response from an already parsed message, so it is not parsed again.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static ServiceResponse fromJSON(JSONObject json) throws JSONException{
 		ServiceResponse serviceResponse = new ServiceResponse();
 		
 		
-		if (!this.isNull(PROP_RESPONSE_DATA)){
+		if (!json.isNull(PROP_RESPONSE_DATA)){
 			Map map = new HashMap();
-			JSONObject obj = (JSONObject)this.get(PROP_RESPONSE_DATA);
+			JSONObject obj = (JSONObject)json.get(PROP_RESPONSE_DATA);
 			if (obj != null){
 				Iterator<String>it = obj.sortedKeys();
 				while (it.hasNext() ){
@@ -40,8 +47,8 @@ public class JSONServiceResponse extends JSONMessage  {
 			}
 			serviceResponse.setResponseData(map);
 		}
-		//serviceResponse.setType(Message.Type.valueOf((this.getString(PROP_TYPE))));
-		serviceResponse.setError(this.optString(PROP_ERROR));
+		//serviceResponse.setType(Message.Type.valueOf((json.getString(PROP_TYPE))));
+		serviceResponse.setError(json.optString(PROP_ERROR));
 		
 		return serviceResponse;
 	}
@@ -0,0 +1,359 @@
+package org.unbiquitous.uos.core.messageEngine.messages.json;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONStreamReader;
+import org.unbiquitous.json.JSONStreamReader.Token;
+import org.unbiquitous.json.JSONStreamWriter;
+import org.unbiquitous.uos.core.messageEngine.messages.EncapsulatedMessage;
+import org.unbiquitous.uos.core.messageEngine.messages.Message;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+/**
+ * Reads and writes messages straight from and to JSON text, without building
+ * a JSONObject for them.
+ *
+ * The text is the same produced and accepted by {@link JSONServiceCall},
+ * {@link JSONServiceResponse}, {@link JSONNotify} and {@link JSONEncapsulatedMessage},
+ * so both can be used by each side of a connection. Values of parameters which are
+ * objects or arrays are still read as JSONObjects and JSONArrays, as drivers
+ * expect them this way.
+ */
+public final class MessageBinder {
+
+	private static final String PROP_TYPE = JSONMessage.PROP_TYPE;
+	private static final String PROP_ERROR = JSONMessage.PROP_ERROR;
+	private static final String PROP_DRIVER = JSONServiceCall.PROP_DRIVER;
+	private static final String PROP_SERVICE = JSONServiceCall.PROP_SERVICE;
+	private static final String PROP_PARAMETERS = JSONServiceCall.PROP_PARAMETERS;
+	private static final String PROP_INSTANCE_ID = JSONServiceCall.PROP_INSTANCE_ID;
+	private static final String PROP_SERVICE_TYPE = JSONServiceCall.PROP_SERVICE_TYPE;
+	private static final String PROP_CHANNELS = JSONServiceCall.PROP_CHANNELS;
+	private static final String PROP_CHANNEL_IDS = JSONServiceCall.PROP_CHANNEL_IDS;
+	private static final String PROP_CHANNEL_TYPE = JSONServiceCall.PROP_CHANNEL_TYPE;
+	private static final String PROP_RESPONSE_DATA = JSONServiceResponse.PROP_RESPONSE_DATA;
+	private static final String PROP_EVENT_KEY = JSONNotify.PROP_EVENT_KEY;
+	private static final String PROP_INNER_MESSAGE = JSONEncapsulatedMessage.PROP_INNER_MESSAGE;
+	private static final String PROP_SECURITY_TYPE = JSONEncapsulatedMessage.PROP_SECURITY_TYPE;
+
+	private MessageBinder() {}
+
+	/* *****************************
+	 *   	Writing
+	 * *****************************/
+
+	public static void write(ServiceCall call, JSONStreamWriter writer) throws JSONException{
+		writer.beginObject();
+		writeHeader(call, writer);
+		writer.name(PROP_DRIVER).value(call.getDriver() == null ? "" : call.getDriver());
+		writer.name(PROP_SERVICE).value(call.getService() == null ? "" : call.getService());
+		writeOptional(PROP_PARAMETERS, call.getParameters(), writer);
+		writeOptional(PROP_INSTANCE_ID, call.getInstanceId(), writer);
+		writeOptional(PROP_SERVICE_TYPE, call.getServiceType(), writer);
+		writer.name(PROP_CHANNELS).value(call.getChannels());
+		writeOptional(PROP_CHANNEL_IDS, call.getChannelIDs(), writer);
+		writeOptional(PROP_CHANNEL_TYPE, call.getChannelType(), writer);
+		writer.endObject();
+	}
+
+	public static void write(ServiceResponse response, JSONStreamWriter writer) throws JSONException{
+		writer.beginObject();
+		writeHeader(response, writer);
+		writeOptional(PROP_RESPONSE_DATA, response.getResponseData(), writer);
+		writer.endObject();
+	}
+
+	public static void write(Notify notify, JSONStreamWriter writer) throws JSONException{
+		writer.beginObject();
+		writeHeader(notify, writer);
+		writeOptional(PROP_EVENT_KEY, notify.getEventKey(), writer);
+		writeOptional(PROP_PARAMETERS, notify.getParameters(), writer);
+		writeOptional(PROP_DRIVER, notify.getDriver(), writer);
+		writeOptional(PROP_INSTANCE_ID, notify.getInstanceId(), writer);
+		writer.endObject();
+	}
+
+	public static void write(EncapsulatedMessage message, JSONStreamWriter writer) throws JSONException{
+		writer.beginObject();
+		writeHeader(message, writer);
+		writeOptional(PROP_INNER_MESSAGE, message.getInnerMessage(), writer);
+		writeOptional(PROP_SECURITY_TYPE, message.getSecurityType(), writer);
+		writer.endObject();
+	}
+
+	/**
+	 * @return The JSON text of the message.
+	 */
+	public static String toJSON(Message message) throws JSONException{
+		JSONStreamWriter writer = new JSONStreamWriter();
+		if (message instanceof ServiceCall){
+			write((ServiceCall) message, writer);
+		}else if (message instanceof ServiceResponse){
+			write((ServiceResponse) message, writer);
+		}else if (message instanceof Notify){
+			write((Notify) message, writer);
+		}else if (message instanceof EncapsulatedMessage){
+			write((EncapsulatedMessage) message, writer);
+		}else{
+			writer.beginObject();
+			writeHeader(message, writer);
+			writer.endObject();
+		}
+		return writer.toString();
+	}
+
+	private static void writeHeader(Message message, JSONStreamWriter writer) throws JSONException{
+		writeOptional(PROP_TYPE, message.getType(), writer);
+		writeOptional(PROP_ERROR, message.getError(), writer);
+	}
+
+	/** As in a JSONObject, null properties are left out. */
+	private static void writeOptional(String name, Object value, JSONStreamWriter writer) throws JSONException{
+		if (value != null){
+			writer.name(name).value(value);
+		}
+	}
+
+	/* *****************************
+	 *   	Reading
+	 * *****************************/
+
+	/**
+	 * Reads a message of any type.
+	 *
+	 * @return The message in its own class or <code>null</code> if its type is unknown.
+	 * @throws JSONException If the text is not a valid message.
+	 */
+	public static Message read(JSONStreamReader reader) throws JSONException{
+		Fields fields = readFields(reader);
+		Message.Type type;
+		try {
+			type = Message.Type.valueOf(fields.type);
+		} catch (RuntimeException e) {
+			return null;
+		}
+		switch (type) {
+			case SERVICE_CALL_REQUEST:	return fields.asServiceCall();
+			case SERVICE_CALL_RESPONSE:	return fields.asServiceResponse();
+			case NOTIFY:				return fields.asNotify();
+			default:					return fields.asEncapsulatedMessage();
+		}
+	}
+
+	/**
+	 * Reads a message of any type from its text.
+	 *
+	 * @see #read(JSONStreamReader)
+	 */
+	public static Message fromJSON(String source) throws JSONException{
+		return read(new JSONStreamReader(source));
+	}
+
+	public static ServiceCall readServiceCall(JSONStreamReader reader) throws JSONException{
+		return readFields(reader).asServiceCall();
+	}
+
+	public static ServiceResponse readServiceResponse(JSONStreamReader reader) throws JSONException{
+		return readFields(reader).asServiceResponse();
+	}
+
+	public static Notify readNotify(JSONStreamReader reader) throws JSONException{
+		return readFields(reader).asNotify();
+	}
+
+	public static EncapsulatedMessage readEncapsulatedMessage(JSONStreamReader reader) throws JSONException{
+		return readFields(reader).asEncapsulatedMessage();
+	}
+
+	/**
+	 * The type of a message can come after its other properties, so they are
+	 * all read before the message is created.
+	 */
+	private static Fields readFields(JSONStreamReader reader) throws JSONException{
+		if (reader.peek() != Token.BEGIN_OBJECT){
+			throw new JSONException("A JSONObject text must begin with '{'");
+		}
+		Fields fields = new Fields();
+		reader.beginObject();
+		while (reader.hasNext()){
+			String name = reader.nextName();
+			if (reader.peek() == Token.NULL){
+				reader.nextNull();
+				fields.nulls.add(name);
+			}else if (PROP_TYPE.equals(name)){
+				fields.type = readString(reader);
+			}else if (PROP_ERROR.equals(name)){
+				fields.error = readString(reader);
+			}else if (PROP_DRIVER.equals(name)){
+				fields.driver = readString(reader);
+			}else if (PROP_SERVICE.equals(name)){
+				fields.service = readString(reader);
+			}else if (PROP_INSTANCE_ID.equals(name)){
+				fields.instanceId = readString(reader);
+			}else if (PROP_SERVICE_TYPE.equals(name)){
+				fields.serviceType = readString(reader);
+			}else if (PROP_CHANNELS.equals(name)){
+				fields.channels = reader.peek() == Token.NUMBER ? reader.nextInt() : optInt(readString(reader));
+			}else if (PROP_CHANNEL_IDS.equals(name)){
+				fields.channelIDs = readStrings(reader);
+			}else if (PROP_CHANNEL_TYPE.equals(name)){
+				fields.channelType = readString(reader);
+			}else if (PROP_PARAMETERS.equals(name)){
+				fields.parameters = readValues(reader);
+			}else if (PROP_RESPONSE_DATA.equals(name)){
+				fields.responseData = readTexts(reader);
+			}else if (PROP_EVENT_KEY.equals(name)){
+				fields.eventKey = readString(reader);
+			}else if (PROP_INNER_MESSAGE.equals(name)){
+				fields.innerMessage = readString(reader);
+			}else if (PROP_SECURITY_TYPE.equals(name)){
+				fields.securityType = readString(reader);
+			}else{
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return fields;
+	}
+
+	/** Reads any value as the text a JSONObject would return on getString. */
+	private static String readString(JSONStreamReader reader) throws JSONException{
+		Token token = reader.peek();
+		if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY || token == Token.NULL){
+			return reader.nextValue().toString();
+		}
+		return reader.nextString();
+	}
+
+	private static int optInt(String value){
+		try {
+			return (int) Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String[] readStrings(JSONStreamReader reader) throws JSONException{
+		if (reader.peek() != Token.BEGIN_ARRAY){
+			reader.skipValue();
+			return null;
+		}
+		List<String> values = new ArrayList<String>();
+		reader.beginArray();
+		while (reader.hasNext()){
+			values.add(readString(reader));
+		}
+		reader.endArray();
+		return values.toArray(new String[values.size()]);
+	}
+
+	private static Map<String, Object> readValues(JSONStreamReader reader) throws JSONException{
+		if (reader.peek() != Token.BEGIN_OBJECT){
+			throw new JSONException("Expected an object of parameters");
+		}
+		Map<String, Object> values = new HashMap<String, Object>();
+		reader.beginObject();
+		while (reader.hasNext()){
+			String name = reader.nextName();
+			values.put(name, reader.nextValue());
+		}
+		reader.endObject();
+		return values;
+	}
+
+	private static Map<String, Object> readTexts(JSONStreamReader reader) throws JSONException{
+		if (reader.peek() != Token.BEGIN_OBJECT){
+			throw new JSONException("Expected an object of response data");
+		}
+		Map<String, Object> values = new HashMap<String, Object>();
+		reader.beginObject();
+		while (reader.hasNext()){
+			String name = reader.nextName();
+			values.put(name, readString(reader));
+		}
+		reader.endObject();
+		return values;
+	}
+
+	/**
+	 * Properties of any kind of message, with the same defaults used
+	 * by the JSON messages when they are absent.
+	 */
+	private static class Fields {
+		String type;
+		String error;
+		String driver;
+		String service;
+		String instanceId;
+		String serviceType;
+		int channels;
+		String[] channelIDs;
+		String channelType;
+		Map<String, Object> parameters;
+		Map<String, Object> responseData;
+		String eventKey;
+		String innerMessage;
+		String securityType;
+		/** Properties informed as null, which some messages read as "null". */
+		List<String> nulls = new ArrayList<String>(0);
+
+		ServiceCall asServiceCall() throws JSONException{
+			ServiceCall call = new ServiceCall();
+			call.setDriver(driver);
+			call.setService(service);
+			call.setInstanceId(instanceId);
+			if (serviceType != null && !serviceType.isEmpty()){
+				try {
+					call.setServiceType(ServiceType.valueOf(serviceType));
+				} catch (IllegalArgumentException e) {
+					throw new JSONException("Unknown serviceType "+serviceType+".");
+				}
+			}
+			call.setChannels(channels);
+			call.setChannelIDs(channelIDs);
+			call.setChannelType(optString(PROP_CHANNEL_TYPE, channelType));
+			call.setParameters(parameters);
+			call.setError(optString(PROP_ERROR, error));
+			return call;
+		}
+
+		ServiceResponse asServiceResponse(){
+			ServiceResponse response = new ServiceResponse();
+			response.setResponseData(responseData);
+			response.setError(optString(PROP_ERROR, error));
+			return response;
+		}
+
+		Notify asNotify(){
+			Notify notify = new Notify();
+			notify.setEventKey(eventKey);
+			notify.setDriver(optString(PROP_DRIVER, driver));
+			notify.setInstanceId(optString(PROP_INSTANCE_ID, instanceId));
+			notify.setParameters(parameters);
+			return notify;
+		}
+
+		EncapsulatedMessage asEncapsulatedMessage(){
+			EncapsulatedMessage message = new EncapsulatedMessage();
+			message.setError(error);
+			message.setInnerMessage(optString(PROP_INNER_MESSAGE, innerMessage));
+			message.setSecurityType(optString(PROP_SECURITY_TYPE, securityType));
+			return message;
+		}
+
+		/** Same as JSONObject.optString: empty when absent, "null" when null. */
+		private String optString(String name, String value){
+			if (value != null){
+				return value;
+			}
+			return nulls.contains(name) ? "null" : "";
+		}
+	}
+}
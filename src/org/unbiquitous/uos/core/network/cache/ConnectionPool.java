@@ -0,0 +1,177 @@
+package org.unbiquitous.uos.core.network.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+/**
+ * Keeps the {@link MultiplexedConnection}s opened to other devices so they 
+ * can be shared by all messages sent to them. 
+ * 
+ * Connections are kept by network type and address and are closed once 
+ * they stay idle for longer than the informed timeout. They are checked 
+ * by a single daemon timer, started with the first connection.
+ */
+public class ConnectionPool {
+
+	private static final Logger logger = UOSLogging.getLogger();
+	
+	private ConnectionManagerControlCenter connectionManagerControlCenter;
+	private int idleTimeout;
+	private Map<String, MultiplexedConnection> connections = new HashMap<String, MultiplexedConnection>();
+	private Timer idleChecker;
+	
+	public ConnectionPool(ConnectionManagerControlCenter connectionManagerControlCenter, int idleTimeout) {
+		this.connectionManagerControlCenter = connectionManagerControlCenter;
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * Retrieves the connection to the informed address, opening one if needed.
+	 * 
+	 * @return The connection or <code>null</code> if none could be opened.
+	 * @throws NetworkException
+	 * @throws IOException
+	 */
+	public MultiplexedConnection connection(String networkAddress, String networkType) 
+			throws NetworkException, IOException{
+		MultiplexedConnection cached = cached(networkAddress, networkType);
+		if (cached != null){
+			return cached;
+		}
+		// opening a connection may take long, so it's done without holding the pool
+		ClientConnection opened = connectionManagerControlCenter.openActiveConnection(networkAddress, networkType);
+		if (opened == null){
+			return null;
+		}
+		MultiplexedConnection connection = new MultiplexedConnection(new PooledDevice(networkAddress, networkType), opened);
+		synchronized (this) {
+			cached = cached(networkAddress, networkType);
+			if (cached == null){
+				connections.put(key(networkAddress, networkType), connection);
+				connection.start();
+				checkIdle();
+				return connection;
+			}
+		}
+		// another thread opened a connection to the same device first
+		connection.tearDown();
+		return cached;
+	}
+	
+	/**
+	 * Closes a connection which must not be used anymore.
+	 */
+	public synchronized void discard(MultiplexedConnection connection){
+		NetworkDevice device = connection.getClientDevice();
+		String key = key(device.getNetworkDeviceName(), device.getNetworkDeviceType());
+		if (connections.get(key) == connection){
+			connections.remove(key);
+		}
+		close(connection);
+	}
+	
+	/**
+	 * Closes all the pooled connections.
+	 */
+	public synchronized void clear(){
+		for (MultiplexedConnection connection : new ArrayList<MultiplexedConnection>(connections.values())){
+			close(connection);
+		}
+		connections.clear();
+		if (idleChecker != null){
+			idleChecker.cancel();
+			idleChecker = null;
+		}
+	}
+	
+	private synchronized MultiplexedConnection cached(String networkAddress, String networkType){
+		String key = key(networkAddress, networkType);
+		MultiplexedConnection cached = connections.get(key);
+		if (cached == null){
+			return null;
+		}
+		if (!isAlive(cached, System.currentTimeMillis())){
+			connections.remove(key);
+			close(cached);
+			return null;
+		}
+		return cached;
+	}
+	
+	/**
+	 * Closes the connections which stayed idle for too long.
+	 */
+	private synchronized void closeIdle(){
+		long now = System.currentTimeMillis();
+		for (Iterator<MultiplexedConnection> it = connections.values().iterator(); it.hasNext();){
+			MultiplexedConnection connection = it.next();
+			if (!isAlive(connection, now)){
+				it.remove();
+				close(connection);
+			}
+		}
+	}
+	
+	private boolean isAlive(MultiplexedConnection connection, long now){
+		return connection.isConnected() && (idleTimeout <= 0 || !connection.isIdle(idleTimeout, now));
+	}
+	
+	private void checkIdle(){
+		if (idleChecker != null || idleTimeout <= 0){
+			return;
+		}
+		idleChecker = new Timer("uos-connection-pool", true);
+		long period = Math.max(idleTimeout / 2, 1);
+		idleChecker.schedule(new TimerTask() {
+			public void run() {
+				closeIdle();
+			}
+		}, period, period);
+	}
+	
+	private static void close(MultiplexedConnection connection){
+		try {
+			connection.tearDown();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failure closing pooled connection.", e);
+		}
+	}
+	
+	private static String key(String networkAddress, String networkType){
+		return networkType + "@" + networkAddress;
+	}
+	
+	/**
+	 * Identifies the device a pooled connection was opened to.
+	 */
+	private static class PooledDevice extends NetworkDevice{
+		private String name;
+		private String type;
+		
+		PooledDevice(String name, String type) {
+			this.name = name;
+			this.type = type;
+		}
+		
+		public String getNetworkDeviceName() {
+			return name;
+		}
+		
+		public String getNetworkDeviceType() {
+			return type;
+		}
+	}
+}
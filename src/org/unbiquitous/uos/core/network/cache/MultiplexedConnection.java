@@ -0,0 +1,306 @@
+package org.unbiquitous.uos.core.network.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.network.codec.Frame;
+import org.unbiquitous.uos.core.network.codec.FrameReader;
+import org.unbiquitous.uos.core.network.codec.MultiplexedFrameCodec;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+/**
+ * A long-lived connection to a device which carries many requests at once. 
+ * 
+ * Every request is tagged with an id (see {@link MultiplexedFrameCodec}) and 
+ * a single reader thread delivers each response to the request waiting for it, 
+ * in whatever order they arrive. 
+ * 
+ * Its streams are shared by all the requests, so it is not a 
+ * {@link ClientConnection} and it is only reached through {@link #request(byte[])} 
+ * and {@link #post(byte[])}. It is meant to be kept by a {@link ConnectionPool}, 
+ * the underlying connection is only closed on {@link #tearDown()}.
+ */
+public class MultiplexedConnection implements CachableConnection, Runnable{
+
+	private static final Logger logger = UOSLogging.getLogger();
+	
+	private final NetworkDevice device;
+	private final ClientConnection connection;
+	private final OutputStream out;
+	private final FrameReader reader;
+	
+	private final AtomicInteger lastRequestId = new AtomicInteger();
+	private final ConcurrentMap<Integer, PendingResponse> pending = new ConcurrentHashMap<Integer, PendingResponse>();
+	private volatile boolean open = true;
+	private volatile long lastAccess = System.currentTimeMillis();
+	
+	public MultiplexedConnection(NetworkDevice device, ClientConnection connection) throws IOException {
+		this.device = device;
+		this.connection = connection;
+		this.out = connection.getDataOutputStream();
+		this.reader = new FrameReader(connection.getDataInputStream());
+	}
+	
+	/**
+	 * Starts the thread responsible for reading the responses.
+	 */
+	void start(){
+		Thread t = new Thread(this, "uos-mux-" + getClientDevice().getNetworkDeviceName());
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/**
+	 * Sends a message which expects a response.
+	 * 
+	 * @return The handle to wait for the response.
+	 * @throws IOException If the message couldn't be sent.
+	 */
+	public PendingResponse request(byte[] payload) throws IOException{
+		int id = lastRequestId.incrementAndGet();
+		if (id == MultiplexedFrameCodec.NO_RESPONSE){
+			id = lastRequestId.incrementAndGet();
+		}
+		PendingResponse response = new PendingResponse(id);
+		pending.put(id, response);
+		try {
+			write(id, payload);
+		} catch (IOException e) {
+			pending.remove(id);
+			throw e;
+		}
+		return response;
+	}
+	
+	/**
+	 * Sends a message which expects no response.
+	 * 
+	 * @throws IOException If the message couldn't be sent.
+	 */
+	public void post(byte[] payload) throws IOException{
+		write(MultiplexedFrameCodec.NO_RESPONSE, payload);
+	}
+
+	/**
+	 * Sends many messages which expect no response with a single write,
+	 * each in its own frame, so the other side reads them as if they were
+	 * posted one by one.
+	 *
+	 * @throws IOException If the messages couldn't be sent.
+	 */
+	public void postAll(List<byte[]> payloads) throws IOException{
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		for (byte[] payload : payloads){
+			WireProtocol.MUX.write(frames, MultiplexedFrameCodec.NO_RESPONSE, payload);
+		}
+		checkOpen();
+		touch();
+		synchronized (out) {
+			frames.writeTo(out);
+			out.flush();
+		}
+	}
+
+	private void checkOpen() throws IOException{
+		if (!open){
+			throw new IOException("Connection to '"+getClientDevice().getNetworkDeviceName()+"' is closed.");
+		}
+	}
+
+	private void write(int id, byte[] payload) throws IOException{
+		checkOpen();
+		touch();
+		synchronized (out) {
+			WireProtocol.MUX.write(out, id, payload);
+		}
+	}
+	
+	public void run() {
+		try {
+			for (Frame frame = reader.read(); frame != null; frame = reader.read()){
+				touch();
+				PendingResponse response = pending.get(frame.requestId());
+				if (response != null){
+					response.complete(frame.payload());
+				}else{
+					logger.fine("Discarding response for unknown request "+frame.requestId());
+				}
+			}
+		} catch (IOException e) {
+			if (open){
+				logger.log(Level.FINE, "Connection to '"+getClientDevice().getNetworkDeviceName()+"' was broken.", e);
+			}
+		} finally {
+			try {
+				tearDown();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failure closing connection.", e);
+			}
+		}
+	}
+	
+	private void touch(){
+		lastAccess = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @return The device the connection was opened to.
+	 */
+	public NetworkDevice getClientDevice() {
+		return device;
+	}
+	
+	public boolean isConnected() {
+		return open && connection.isConnected();
+	}
+
+	/**
+	 * @return Whether no response is awaited and nothing was sent nor 
+	 * 			received for longer than the timeout.
+	 */
+	boolean isIdle(long timeoutMillis, long now) {
+		return pending.isEmpty() && now - lastAccess > timeoutMillis;
+	}
+
+	public void tearDown() throws IOException {
+		if (!open){
+			return;
+		}
+		open = false;
+		try{
+			connection.closeConnection();
+		}finally{
+			List<PendingResponse> failed = new ArrayList<PendingResponse>(pending.values());
+			for (PendingResponse response : failed){
+				response.fail();
+			}
+		}
+	}
+	
+	/**
+	 * Informed of the arrival of a response, so no thread needs to be 
+	 * blocked waiting for it. Listeners are called by the reader thread 
+	 * of the connection and must return quickly.
+	 */
+	public interface ResponseListener {
+		public void arrived(byte[] payload);
+		public void failed(IOException cause);
+	}
+	
+	/**
+	 * Handle for a response still to arrive through a {@link MultiplexedConnection}.
+	 */
+	public class PendingResponse {
+		private final int requestId;
+		private final CountDownLatch arrived = new CountDownLatch(1);
+		private byte[] payload;
+		private boolean failed = false;
+		private ResponseListener listener;
+		
+		private PendingResponse(int requestId) {
+			this.requestId = requestId;
+		}
+		
+		private void complete(byte[] payload){
+			ResponseListener toInform;
+			synchronized (this) {
+				if (isArrived()){
+					return;
+				}
+				this.payload = payload;
+				arrived.countDown();
+				toInform = listener;
+			}
+			pending.remove(requestId);
+			if (toInform != null){
+				toInform.arrived(payload);
+			}
+		}
+		
+		private void fail(){
+			ResponseListener toInform;
+			synchronized (this) {
+				if (isArrived()){
+					return;
+				}
+				failed = true;
+				arrived.countDown();
+				toInform = listener;
+			}
+			pending.remove(requestId);
+			if (toInform != null){
+				toInform.failed(closedException());
+			}
+		}
+		
+		private boolean isArrived(){
+			return arrived.getCount() == 0;
+		}
+		
+		private IOException closedException(){
+			return new IOException("Connection to '"+getClientDevice().getNetworkDeviceName()+
+					"' closed while waiting for a response.");
+		}
+		
+		/**
+		 * Sets the listener to be informed once the response arrives. 
+		 * If it has already arrived the listener is informed right away.
+		 */
+		public void listen(ResponseListener listener){
+			synchronized (this) {
+				if (!isArrived()){
+					this.listener = listener;
+					return;
+				}
+			}
+			if (failed){
+				listener.failed(closedException());
+			}else{
+				listener.arrived(payload);
+			}
+		}
+		
+		/**
+		 * Gives up on the response, which will be discarded if it arrives.
+		 */
+		public void cancel(){
+			pending.remove(requestId);
+		}
+		
+		/**
+		 * Waits for the response to arrive.
+		 * 
+		 * @return The content of the response or <code>null</code> if it didn't arrive in time.
+		 * @throws IOException If the connection was closed before the response arrived.
+		 * @throws InterruptedException
+		 */
+		public byte[] await(long timeoutMillis) throws IOException, InterruptedException{
+			try {
+				if (!arrived.await(timeoutMillis, TimeUnit.MILLISECONDS)){
+					return null;
+				}
+				synchronized (this) {
+					if (failed){
+						throw closedException();
+					}
+					return payload;
+				}
+			} finally {
+				cancel();
+			}
+		}
+	}
+}
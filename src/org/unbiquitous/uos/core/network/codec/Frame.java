@@ -0,0 +1,43 @@
+package org.unbiquitous.uos.core.network.codec;
+
+/**
+ * A message read from the wire along with the codec it was framed with, 
+ * so the response can be framed the same way (and tagged with the same 
+ * request id on multiplexed connections).
+ */
+public class Frame {
+
+	private final FrameCodec codec;
+	private final int requestId;
+	private final byte[] payload;
+	
+	public Frame(FrameCodec codec, byte[] payload) {
+		this(codec, MultiplexedFrameCodec.NO_RESPONSE, payload);
+	}
+	
+	public Frame(FrameCodec codec, int requestId, byte[] payload) {
+		this.codec = codec;
+		this.requestId = requestId;
+		this.payload = payload;
+	}
+	
+	public FrameCodec codec() {
+		return codec;
+	}
+	
+	/**
+	 * @return The id which tags the frame on multiplexed connections, 
+	 * 			{@link MultiplexedFrameCodec#NO_RESPONSE} otherwise.
+	 */
+	public int requestId() {
+		return requestId;
+	}
+	
+	public byte[] payload() {
+		return payload;
+	}
+	
+	public String text() {
+		return WireProtocol.decode(payload);
+	}
+}
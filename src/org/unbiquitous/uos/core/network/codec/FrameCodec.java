@@ -0,0 +1,37 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Defines how a message is delimited on the wire. 
+ * A codec knows how to write a single payload as a frame and how to read it back 
+ * from a blocking stream.
+ */
+public interface FrameCodec {
+
+	/**
+	 * @return Name of the codec as advertised to other devices.
+	 */
+	public String name();
+	
+	/**
+	 * Writes (and flushes) the payload as a single frame.
+	 * 
+	 * @param out Stream to write into.
+	 * @param payload Content of the frame.
+	 * @throws IOException
+	 */
+	public void write(OutputStream out, byte[] payload) throws IOException;
+	
+	/**
+	 * Blocks until a whole frame is read.
+	 * 
+	 * @param in Stream to read from.
+	 * @return The payload of the frame or <code>null</code> if the stream has ended.
+	 * @throws IOException
+	 */
+	public byte[] read(InputStream in) throws IOException;
+	
+}
@@ -0,0 +1,47 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Blocking reader of frames from a connection stream. 
+ * Each frame has its codec detected from its first byte, so a single 
+ * connection can be served for both new and legacy peers.
+ * 
+ * The reader buffers the stream, so it must be kept for as long as the 
+ * connection is being read.
+ */
+public class FrameReader {
+
+	private final PushbackInputStream in;
+	
+	public FrameReader(InputStream in) {
+		this.in = new PushbackInputStream(new BufferedInputStream(in), 1);
+	}
+	
+	/**
+	 * Blocks until a whole frame is available.
+	 * 
+	 * @return The frame read or <code>null</code> if the stream has ended.
+	 * @throws IOException
+	 */
+	public Frame read() throws IOException {
+		int first = in.read();
+		if (first == -1){
+			return null;
+		}
+		in.unread(first);
+		FrameCodec codec = WireProtocol.detect(first);
+		if (codec == WireProtocol.MUX){
+			return WireProtocol.MUX.readFrame(in);
+		}
+		byte[] payload = codec.read(in);
+		if (payload == null){
+			return null;
+		}
+		return new Frame(codec, payload);
+	}
+	
+}
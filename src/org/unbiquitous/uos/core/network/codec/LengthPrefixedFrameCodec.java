@@ -0,0 +1,94 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Framing where each message is preceded by a marker byte and its length 
+ * (4 bytes, big-endian). Reading a frame needs no scanning and no 
+ * polling: the reader blocks until the declared amount of bytes arrives.
+ * 
+ * <pre>
+ * +--------+----------------+-----------------+
+ * | 0x02   | length (int32) | payload         |
+ * +--------+----------------+-----------------+
+ * </pre>
+ * 
+ * The marker allows a receiver to tell this framing apart from the 
+ * {@link LineFrameCodec} one, since JSON messages never start with it.
+ */
+public class LengthPrefixedFrameCodec implements FrameCodec {
+
+	public static final String NAME = "FRAMED";
+	
+	public static final int MARKER = 0x02;
+	
+	static final int HEADER_SIZE = 5;
+	
+	/** Upper bound for a single frame, avoids allocating garbage lengths. */
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	
+	public String name() {
+		return NAME;
+	}
+	
+	public void write(OutputStream out, byte[] payload) throws IOException {
+		byte[] frame = new byte[HEADER_SIZE + payload.length];
+		frame[0] = MARKER;
+		writeInt(frame, 1, payload.length);
+		System.arraycopy(payload, 0, frame, HEADER_SIZE, payload.length);
+		out.write(frame);
+		out.flush();
+	}
+
+	public byte[] read(InputStream in) throws IOException {
+		int marker = in.read();
+		if (marker == -1){
+			return null;
+		}
+		if (marker != MARKER){
+			throw new StreamCorruptedException("Unexpected frame marker: "+marker);
+		}
+		byte[] header = new byte[4];
+		readFully(in, header);
+		int length = readInt(header, 0);
+		checkLength(length);
+		byte[] payload = new byte[length];
+		readFully(in, payload);
+		return payload;
+	}
+	
+	static void checkLength(int length) throws StreamCorruptedException{
+		if (length < 0 || length > MAX_FRAME_SIZE){
+			throw new StreamCorruptedException("Invalid frame length: "+length);
+		}
+	}
+	
+	static void writeInt(byte[] buffer, int offset, int value){
+		buffer[offset]		= (byte) (value >>> 24);
+		buffer[offset + 1]	= (byte) (value >>> 16);
+		buffer[offset + 2]	= (byte) (value >>> 8);
+		buffer[offset + 3]	= (byte) value;
+	}
+	
+	static int readInt(byte[] buffer, int offset){
+		return	((buffer[offset] & 0xFF) << 24) | 
+				((buffer[offset + 1] & 0xFF) << 16) |
+				((buffer[offset + 2] & 0xFF) << 8) | 
+				(buffer[offset + 3] & 0xFF);
+	}
+	
+	static void readFully(InputStream in, byte[] buffer) throws IOException{
+		int read = 0;
+		while (read < buffer.length){
+			int count = in.read(buffer, read, buffer.length - read);
+			if (count < 0){
+				throw new EOFException("Stream ended in the middle of a frame.");
+			}
+			read += count;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Legacy framing where each message is terminated by a new line character. 
+ * This is the only framing understood by older uOS versions.
+ */
+public class LineFrameCodec implements FrameCodec {
+
+	public static final String NAME = "LINE";
+	
+	static final int SEPARATOR = '\n';
+	
+	public String name() {
+		return NAME;
+	}
+	
+	public void write(OutputStream out, byte[] payload) throws IOException {
+		byte[] frame = new byte[payload.length + 1];
+		System.arraycopy(payload, 0, frame, 0, payload.length);
+		frame[payload.length] = SEPARATOR;
+		out.write(frame);
+		out.flush();
+	}
+
+	public byte[] read(InputStream in) throws IOException {
+		int c = in.read();
+		if (c == -1){
+			return null;
+		}
+		ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		while (c != SEPARATOR){
+			if (c == -1){
+				throw new EOFException("Stream ended in the middle of a message.");
+			}
+			frame.write(c);
+			c = in.read();
+		}
+		return frame.toByteArray();
+	}
+	
+}
@@ -0,0 +1,89 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Framing used by long-lived connections that carry many requests at once. 
+ * Each frame is tagged with a request id, so responses can be sent back 
+ * in any order and be matched with their requests.
+ * 
+ * <pre>
+ * +--------+------------------+----------------+-----------------+
+ * | 0x03   | request id (int) | length (int32) | payload         |
+ * +--------+------------------+----------------+-----------------+
+ * </pre>
+ * 
+ * A request id equal to {@link #NO_RESPONSE} marks messages that expect 
+ * no response (like notifies). Any other id must be answered with a frame 
+ * carrying the same id, even if its payload is empty.
+ */
+public class MultiplexedFrameCodec implements FrameCodec {
+
+	public static final String NAME = "MUX";
+	
+	public static final int MARKER = 0x03;
+	
+	static final int HEADER_SIZE = 9;
+	
+	/** Request id of messages which must not be answered. */
+	public static final int NO_RESPONSE = 0;
+	
+	public String name() {
+		return NAME;
+	}
+	
+	/**
+	 * Writes the payload as a message which expects no response.
+	 */
+	public void write(OutputStream out, byte[] payload) throws IOException {
+		write(out, NO_RESPONSE, payload);
+	}
+	
+	/**
+	 * Writes (and flushes) the payload as a single frame tagged with the request id.
+	 */
+	public void write(OutputStream out, int requestId, byte[] payload) throws IOException {
+		byte[] frame = new byte[HEADER_SIZE + payload.length];
+		frame[0] = MARKER;
+		LengthPrefixedFrameCodec.writeInt(frame, 1, requestId);
+		LengthPrefixedFrameCodec.writeInt(frame, 5, payload.length);
+		System.arraycopy(payload, 0, frame, HEADER_SIZE, payload.length);
+		out.write(frame);
+		out.flush();
+	}
+
+	public byte[] read(InputStream in) throws IOException {
+		Frame frame = readFrame(in);
+		if (frame == null){
+			return null;
+		}
+		return frame.payload();
+	}
+	
+	/**
+	 * Blocks until a whole frame is read.
+	 * 
+	 * @return The frame read (with its request id) or <code>null</code> if the stream has ended.
+	 * @throws IOException
+	 */
+	public Frame readFrame(InputStream in) throws IOException {
+		int marker = in.read();
+		if (marker == -1){
+			return null;
+		}
+		if (marker != MARKER){
+			throw new StreamCorruptedException("Unexpected frame marker: "+marker);
+		}
+		byte[] header = new byte[HEADER_SIZE - 1];
+		LengthPrefixedFrameCodec.readFully(in, header);
+		int requestId = LengthPrefixedFrameCodec.readInt(header, 0);
+		int length = LengthPrefixedFrameCodec.readInt(header, 4);
+		LengthPrefixedFrameCodec.checkLength(length);
+		byte[] payload = new byte[length];
+		LengthPrefixedFrameCodec.readFully(in, payload);
+		return new Frame(this, requestId, payload);
+	}
+}
@@ -0,0 +1,86 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+/**
+ * Bounds the time a thread can stay blocked reading a response. 
+ * 
+ * Since the connection streams don't expose a read timeout, when the 
+ * deadline is reached the reading thread is interrupted and the 
+ * connection is closed, which unblocks the read on both piped and 
+ * socket based streams. A single timer thread is shared by all reads.
+ */
+public class ReadTimeout implements Runnable {
+
+	private static final Logger logger = UOSLogging.getLogger();
+	
+	private static final ScheduledExecutorService timer = 
+			Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("uos-read-timeout"));
+	
+	private final Thread reader;
+	private final ClientConnection connection;
+	private ScheduledFuture<?> task;
+	private boolean done = false;
+	private boolean expired = false;
+	/** Whether the reader was already interrupted, for other reasons, when the timeout fired. */
+	private boolean interruptedBefore = false;
+	
+	private ReadTimeout(ClientConnection connection) {
+		this.reader = Thread.currentThread();
+		this.connection = connection;
+	}
+	
+	/**
+	 * Starts counting the time for the current thread to read from the connection.
+	 */
+	public static ReadTimeout start(ClientConnection connection, long timeoutMillis){
+		ReadTimeout timeout = new ReadTimeout(connection);
+		timeout.task = timer.schedule(timeout, timeoutMillis, TimeUnit.MILLISECONDS);
+		return timeout;
+	}
+	
+	public synchronized void run() {
+		if (done){
+			return;
+		}
+		expired = true;
+		interruptedBefore = reader.isInterrupted();
+		reader.interrupt();
+		try {
+			connection.closeConnection();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failure closing timed out connection.", e);
+		}
+	}
+	
+	/**
+	 * Must be called by the reading thread once the read is over. 
+	 * 
+	 * @return <code>true</code> if the read was aborted by the timeout.
+	 */
+	public boolean finish(){
+		boolean fired;
+		boolean keepInterrupted;
+		synchronized (this) {
+			done = true;
+			fired = expired;
+			keepInterrupted = interruptedBefore;
+		}
+		task.cancel(false);
+		if (fired && !keepInterrupted){
+			// clears only the interruption flag set by the timeout
+			Thread.interrupted();
+		}
+		return fired;
+	}
+}
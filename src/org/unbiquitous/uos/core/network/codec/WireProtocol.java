@@ -0,0 +1,92 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+
+/**
+ * Negotiation of the framing used between two devices. 
+ * 
+ * Each device advertises the codecs it understands in the 
+ * {@link #DEVICE_PROPERTY} meta property of its {@link UpDevice}, which is 
+ * exchanged during the <code>uos.DeviceDriver.handshake</code> call. 
+ * A sender uses the best codec the receiver advertised, falling back to the 
+ * {@link LineFrameCodec} for peers that advertise nothing (older versions). 
+ * Receivers detect the codec of each incoming frame on their own. 
+ * 
+ * Peers supporting the {@link MultiplexedFrameCodec} are reached through 
+ * pooled long-lived connections, all others through a connection per message.
+ */
+public final class WireProtocol {
+
+	/** Meta property of the UpDevice listing the supported codecs. */
+	public static final String DEVICE_PROPERTY = "wireProtocols";
+	
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	public static final MultiplexedFrameCodec MUX = new MultiplexedFrameCodec();
+	public static final FrameCodec FRAMED = new LengthPrefixedFrameCodec();
+	public static final FrameCodec LINE = new LineFrameCodec();
+	
+	/** Supported codecs in order of preference. */
+	private static final List<FrameCodec> SUPPORTED = Arrays.<FrameCodec>asList(MUX, FRAMED, LINE);
+	
+	private WireProtocol() {}
+	
+	/**
+	 * @return The value to be advertised in the {@link #DEVICE_PROPERTY} of the current device.
+	 */
+	public static String supported(){
+		StringBuilder names = new StringBuilder();
+		for (FrameCodec codec : SUPPORTED){
+			if (names.length() > 0){
+				names.append(',');
+			}
+			names.append(codec.name());
+		}
+		return names.toString();
+	}
+	
+	/**
+	 * Chooses the codec to be used to send messages to the informed device.
+	 */
+	public static FrameCodec negotiate(UpDevice peer){
+		if (peer == null){
+			return LINE;
+		}
+		Object advertised = peer.getProperty(DEVICE_PROPERTY);
+		if (advertised == null){
+			return LINE;
+		}
+		List<String> names = Arrays.asList(advertised.toString().split(","));
+		for (FrameCodec codec : SUPPORTED){
+			if (names.contains(codec.name())){
+				return codec;
+			}
+		}
+		return LINE;
+	}
+	
+	/**
+	 * Tells the codec of a frame based on its first byte.
+	 */
+	public static FrameCodec detect(int firstByte){
+		if (firstByte == MultiplexedFrameCodec.MARKER){
+			return MUX;
+		}
+		if (firstByte == LengthPrefixedFrameCodec.MARKER){
+			return FRAMED;
+		}
+		return LINE;
+	}
+	
+	public static byte[] encode(String message){
+		return message.getBytes(CHARSET);
+	}
+	
+	public static String decode(byte[] payload){
+		return new String(payload, CHARSET);
+	}
+}
@@ -0,0 +1,211 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes to a stream channel without holding the writer while the bytes go
+ * out: they are queued and written by the stream loop.
+ *
+ * The bytes queued are bounded by a window, giving backpressure: once it's
+ * full {@link #write(byte[])} waits for the channel to catch up, while
+ * {@link #offer(byte[])} refuses the bytes, so the writer can drop or
+ * coalesce them. A failure of the channel is thrown on the next write.
+ *
+ * The bytes are copied when queued, so the writer may reuse its buffer.
+ */
+public class ChannelWriter {
+
+	private final OutputStream out;
+	private final int window;
+	private final Executor loop;
+
+	private final LinkedList<byte[]> queue = new LinkedList<byte[]>();
+	private int pending;
+	private boolean draining;
+	private boolean closed;
+	private IOException failure;
+
+	/**
+	 * @param window Bytes queued at most. A single write larger than it is
+	 * 			accepted when nothing else is queued.
+	 * @param loop Threads writing to the channel.
+	 */
+	public ChannelWriter(OutputStream out, int window, Executor loop) {
+		this.out = out;
+		this.window = window;
+		this.loop = loop;
+	}
+
+	/**
+	 * Queues the bytes, waiting for room on the window if needed.
+	 */
+	public synchronized void write(byte[] data) throws IOException, InterruptedException {
+		while (!fits(data)){
+			wait();
+		}
+		enqueue(data);
+	}
+
+	/**
+	 * Queues the bytes, waiting at most the informed time for room on the window.
+	 *
+	 * @return <code>false</code> if there was no room on time.
+	 */
+	public synchronized boolean write(byte[] data, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!fits(data)){
+			long left = deadline - System.nanoTime();
+			if (left <= 0){
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		enqueue(data);
+		return true;
+	}
+
+	/**
+	 * Queues the bytes only if there's room on the window.
+	 *
+	 * @return <code>false</code> if there was no room.
+	 */
+	public synchronized boolean offer(byte[] data) throws IOException {
+		if (!fits(data)){
+			return false;
+		}
+		enqueue(data);
+		return true;
+	}
+
+	/**
+	 * Waits for all queued bytes to be written.
+	 *
+	 * @return <code>false</code> if they weren't written on time.
+	 */
+	public synchronized boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (pending > 0 && failure == null){
+			long left = deadline - System.nanoTime();
+			if (left <= 0){
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		check();
+		return true;
+	}
+
+	/**
+	 * @return Bytes queued and not written yet.
+	 */
+	public synchronized int pending() {
+		return pending;
+	}
+
+	/**
+	 * @return Bytes which can be queued without waiting.
+	 */
+	public synchronized int available() {
+		return Math.max(0, window - pending);
+	}
+
+	/**
+	 * Closes the channel once all queued bytes are written.
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (!draining){
+			closeQuietly();
+		}
+	}
+
+	private boolean fits(byte[] data) throws IOException {
+		check();
+		return pending == 0 || pending + data.length <= window;
+	}
+
+	private void check() throws IOException {
+		if (failure != null){
+			throw failure;
+		}
+		if (closed){
+			throw new IOException("Channel closed.");
+		}
+	}
+
+	private void enqueue(byte[] data) throws IOException {
+		if (data.length == 0){
+			return;
+		}
+		queue.addLast(Arrays.copyOf(data, data.length));
+		pending += data.length;
+		if (!draining){
+			draining = true;
+			try {
+				loop.execute(new Drain());
+			} catch (RejectedExecutionException e) {
+				draining = false;
+				queue.clear();
+				pending = 0;
+				failure = new IOException("Stream loop is shut down.");
+				throw failure;
+			}
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	/**
+	 * Writes the queued bytes, until there's none left.
+	 */
+	private class Drain implements Runnable {
+		public void run() {
+			while (true){
+				byte[] data;
+				boolean last;
+				synchronized (ChannelWriter.this) {
+					data = queue.pollFirst();
+					if (data == null){
+						draining = false;
+						if (closed){
+							closeQuietly();
+						}
+						return;
+					}
+					last = queue.isEmpty();
+				}
+				try {
+					out.write(data);
+					if (last){
+						out.flush();
+					}
+				} catch (IOException e) {
+					synchronized (ChannelWriter.this) {
+						failure = e;
+						queue.clear();
+						pending = 0;
+						draining = false;
+						ChannelWriter.this.notifyAll();
+					}
+					return;
+				}
+				synchronized (ChannelWriter.this) {
+					pending -= data.length;
+					ChannelWriter.this.notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import java.io.IOException;
+import java.util.ResourceBundle;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.UOSProperties;
+import org.unbiquitous.uos.core.network.codec.Frame;
+import org.unbiquitous.uos.core.network.codec.FrameReader;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+/**
+ * Serves the connections received from other devices, handling their 
+ * messages with a fixed amount of threads.
+ *
+ * Each connection is read by a blocking reader of its own, which only 
+ * splits its frames. Readers aren't limited unless configured, beyond 
+ * the limit new connections are closed right away. The messages are 
+ * handled by a fixed pool of workers, so a connection only holds a thread 
+ * while it is open, not while its messages are handled.
+ *
+ * Each connection can have only a limited amount of messages waiting to be
+ * handled. When this limit is reached its reader waits for room, so a 
+ * flooding device is slowed down instead of exhausting the memory. Readers 
+ * which wait too long discard the message.
+ */
+public class ConnectionDispatcher {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private static final String WORKERS_KEY = "ubiquitos.connection.dispatcher.workers";
+	private static final String QUEUE_KEY = "ubiquitos.connection.dispatcher.queue";
+	private static final String OFFER_TIMEOUT_KEY = "ubiquitos.connection.dispatcher.offerTimeout";
+	private static final String READERS_KEY = "ubiquitos.connection.dispatcher.readers";
+
+	private static final int DEFAULT_WORKERS = 16;
+	private static final int DEFAULT_QUEUE = 64;
+	private static final int DEFAULT_OFFER_TIMEOUT = 5000;
+	/** Readers aren't limited by default. */
+	private static final int DEFAULT_READERS = 0;
+
+	private final int queueSize;
+	private final long offerTimeout;
+
+	private final ThreadPoolExecutor workers;
+	private final ThreadPoolExecutor readers;
+
+	private volatile boolean running = true;
+
+	private final AtomicInteger queuedMessages = new AtomicInteger();
+	private final AtomicLong handledMessages = new AtomicLong();
+	private final AtomicLong rejectedMessages = new AtomicLong();
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicLong rejectedConnections = new AtomicLong();
+
+	public ConnectionDispatcher(ResourceBundle properties) {
+		int workerCount = UOSProperties.intValue(properties, WORKERS_KEY, DEFAULT_WORKERS);
+		queueSize = UOSProperties.intValue(properties, QUEUE_KEY, DEFAULT_QUEUE);
+		offerTimeout = UOSProperties.intValue(properties, OFFER_TIMEOUT_KEY, DEFAULT_OFFER_TIMEOUT);
+		// The queue is bounded by the amount of messages each connection can have
+		workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+							new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("uos-request"));
+		workers.allowCoreThreadTimeOut(true);
+		int readerCount = UOSProperties.intValue(properties, READERS_KEY, DEFAULT_READERS);
+		readers = new ThreadPoolExecutor(0, readerCount > 0 ? readerCount : Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+							new SynchronousQueue<Runnable>(), new DaemonThreadFactory("uos-connection"));
+	}
+
+	/**
+	 * Starts serving a connection received from another device.
+	 * The connection is closed once the other side stops sending messages
+	 * and all of them were handled.
+	 */
+	public void dispatch(ClientConnection connection, MessageListener messageListener){
+		logger.fine("Connection received from an ubiquitos-client device :'"+connection.getClientDevice().getNetworkDeviceName()+"' on '"+connection.getClientDevice().getNetworkDeviceType()+"'.");
+		openConnections.incrementAndGet();
+		try {
+			final InboundConnection inbound = new InboundConnection(connection, messageListener,
+														this, connection.getDataOutputStream(), queueSize);
+			readers.execute(new Runnable() {
+				public void run() {
+					read(inbound);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (running){
+				rejectedConnections.incrementAndGet();
+				logger.warning("Rejected connection from '"+connection.getClientDevice().getNetworkDeviceName()+"', too many connections open.");
+			}else{
+				logger.warning("Rejected connection from '"+connection.getClientDevice().getNetworkDeviceName()+"', dispatcher is stopped.");
+			}
+			close(connection);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE,"Failed to handle ubiquitos-smartspace connection.", e);
+			close(connection);
+		}
+	}
+
+	private void close(ClientConnection connection) {
+		openConnections.decrementAndGet();
+		try {
+			connection.closeConnection();
+		} catch (IOException ex) {
+			logger.log(Level.SEVERE,"Failed to close ubiquitos-smartspace connection.", ex);
+		}
+	}
+
+	/**
+	 * The reader blocks until a whole frame arrives, so there is no need
+	 * to poll the stream. One connection can handle multiple messages,
+	 * so we keep reading until the stream ends.
+	 */
+	private void read(InboundConnection inbound){
+		try {
+			FrameReader reader = new FrameReader(inbound.connection().getDataInputStream());
+			for (Frame frame = reader.read(); frame != null && running; frame = reader.read()){
+				if (!inbound.offer(frame, offerTimeout)){
+					inbound.reject(frame);
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.fine("Stopped reading connection.");
+		} catch (Exception e) {
+			if (running){
+				logger.log(Level.SEVERE,"Failed to handle ubiquitos-smartspace connection.", e);
+			}
+		} finally {
+			inbound.inputEnded();
+		}
+	}
+
+	/* *****************************
+	 *   	Callbacks from connections
+	 * *****************************/
+
+	void execute(Runnable task){
+		try {
+			workers.execute(task);
+		} catch (RejectedExecutionException e) {
+			logger.warning("Message discarded, dispatcher is stopped.");
+		}
+	}
+
+	void queued(int delta){
+		queuedMessages.addAndGet(delta);
+	}
+
+	void handled(){
+		handledMessages.incrementAndGet();
+	}
+
+	void rejected(){
+		rejectedMessages.incrementAndGet();
+	}
+
+	void closed(InboundConnection inbound){
+		openConnections.decrementAndGet();
+	}
+
+	/* *****************************
+	 *   	Metrics
+	 * *****************************/
+
+	/**
+	 * @return Amount of messages received but not yet handled.
+	 */
+	public int queuedMessages(){
+		return queuedMessages.get();
+	}
+
+	/**
+	 * @return Amount of messages handled since the dispatcher started.
+	 */
+	public long handledMessages(){
+		return handledMessages.get();
+	}
+
+	/**
+	 * @return Amount of messages discarded for lack of room in their connection queue.
+	 */
+	public long rejectedMessages(){
+		return rejectedMessages.get();
+	}
+
+	/**
+	 * @return Amount of connections being served.
+	 */
+	public int openConnections(){
+		return openConnections.get();
+	}
+
+	/**
+	 * @return Amount of connections closed right away for lack of readers.
+	 */
+	public long rejectedConnections(){
+		return rejectedConnections.get();
+	}
+
+	public void tearDown(){
+		running = false;
+		readers.shutdownNow();
+		workers.shutdown();
+	}
+}
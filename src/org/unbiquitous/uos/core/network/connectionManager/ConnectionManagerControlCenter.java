@@ -55,6 +55,9 @@ public class ConnectionManagerControlCenter implements ConnectionManagerListener
 
 	private RadarControlCenter radarControlCenter;
 	
+	/** Serves the connections received from other devices. */
+	private ConnectionDispatcher dispatcher;
+	
     /* *****************************
 	 *   	PUBLIC METHODS
 	 * *****************************/
@@ -65,10 +68,9 @@ public class ConnectionManagerControlCenter implements ConnectionManagerListener
      * @throws UbiquitOSException
      */
     public void handleClientConnection(ClientConnection clientConnection) {
-    	// Creates a threaded ConnectionHandlingNotifier to handle the connection
-    	// The connection handling must be done in a separated thread so it can handle multiple connections.
-    	ThreadedConnectionHandler threadedConnectionHandling = new ThreadedConnectionHandler(clientConnection,messageListener);
-    	threadedConnectionHandling.start();
+    	// The dispatcher reads each connection on its own thread and handles their 
+    	// messages with a fixed amount of threads, so it can handle multiple connections.
+    	dispatcher.dispatch(clientConnection, messageListener);
 	}
     
     /**
@@ -301,6 +303,7 @@ public class ConnectionManagerControlCenter implements ConnectionManagerListener
     
     @Override
     public void init(UOSComponentFactory factory) {
+        dispatcher = new ConnectionDispatcher(resource);
         loadAndStartConnectionManagers();
         radarControlCenter = new RadarControlCenter(resource, this);
     }
@@ -325,6 +328,7 @@ public class ConnectionManagerControlCenter implements ConnectionManagerListener
 				logger.log(Level.SEVERE,"Problems tearing down.",e);
 			}
     	}
+    	dispatcher.tearDown();
 	}
     
 }
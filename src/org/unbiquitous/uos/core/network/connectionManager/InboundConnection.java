@@ -0,0 +1,217 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.network.codec.Frame;
+import org.unbiquitous.uos.core.network.codec.MultiplexedFrameCodec;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+/**
+ * State of a connection received from another device while it is served
+ * by the {@link ConnectionDispatcher}.
+ *
+ * Each connection can have at most a fixed amount of messages queued or
+ * being handled. Messages are handled in the order they arrive, except for
+ * requests tagged with an id (multiplexed connections) which are handled
+ * concurrently and answered as soon as they are done.
+ */
+class InboundConnection {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	private static final byte[] NO_CONTENT = new byte[0];
+	private static final byte[] NULL_LINE = WireProtocol.encode("null");
+
+	private final ClientConnection connection;
+	private final NetworkDevice clientDevice;
+	private final MessageListener messageListener;
+	private final ConnectionDispatcher dispatcher;
+	private final OutputStream writer;
+
+	/** Messages which can still be accepted before the connection is held. */
+	private final Semaphore capacity;
+	/** Messages accepted but not yet handled. */
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Queue<Frame> inbox = new ConcurrentLinkedQueue<Frame>();
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile boolean inputEnded = false;
+
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	InboundConnection(ClientConnection connection, MessageListener messageListener,
+						ConnectionDispatcher dispatcher, OutputStream writer, int queueSize) {
+		this.connection = connection;
+		this.clientDevice = connection.getClientDevice();
+		this.messageListener = messageListener;
+		this.dispatcher = dispatcher;
+		this.writer = writer;
+		this.capacity = new Semaphore(queueSize);
+	}
+
+	ClientConnection connection(){
+		return connection;
+	}
+
+	/**
+	 * Waits for room for the message in the connection queue.
+	 *
+	 * @return <code>false</code> if there was no room in the informed time.
+	 */
+	boolean offer(Frame frame, long timeoutMillis) throws InterruptedException{
+		if (!capacity.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)){
+			return false;
+		}
+		accept(frame);
+		return true;
+	}
+
+	private void accept(Frame frame){
+		pending.incrementAndGet();
+		dispatcher.queued(1);
+		if (isTagged(frame)){
+			dispatcher.execute(new TaggedRequest(frame));
+		}else{
+			inbox.add(frame);
+			if (draining.compareAndSet(false, true)){
+				dispatcher.execute(drain);
+			}
+		}
+	}
+
+	private boolean isTagged(Frame frame){
+		return frame.requestId() != MultiplexedFrameCodec.NO_RESPONSE;
+	}
+
+	private void drain(){
+		while (true){
+			Frame frame = inbox.poll();
+			if (frame != null){
+				process(frame);
+				continue;
+			}
+			draining.set(false);
+			// a message may have arrived after the poll, but before the flag was cleared
+			if (inbox.isEmpty() || !draining.compareAndSet(false, true)){
+				return;
+			}
+		}
+	}
+
+	private void process(Frame frame){
+		dispatcher.queued(-1);
+		try {
+			handle(frame);
+			dispatcher.handled();
+		} finally {
+			capacity.release();
+			pending.decrementAndGet();
+			closeIfFinished();
+		}
+	}
+
+	/**
+	 * Discards a message for which there was no room, answering it when the
+	 * other side is waiting for an answer.
+	 */
+	void reject(Frame frame){
+		dispatcher.rejected();
+		logger.warning("Rejected message from '"+clientDevice.getNetworkDeviceName()+"', too many messages queued.");
+		if (isTagged(frame)){
+			reply(frame, null);
+		}
+	}
+
+	private void handle(Frame frame){
+		try {
+			byte[] returnedMessage;
+			if (messageListener instanceof RawMessageListener){
+				logger.info("Received Message of "+frame.payload().length+" bytes");
+				returnedMessage = ((RawMessageListener)messageListener).handleIncomingBytes(frame.payload(),clientDevice);
+			}else{
+				String message = frame.text();
+				logger.info("Received Message: "+message);
+				String returned = messageListener.handleIncomingMessage(message,clientDevice);
+				returnedMessage = returned == null ? null : WireProtocol.encode(returned);
+			}
+			reply(frame, returnedMessage);
+			logger.fine("Message Handled");
+		} catch (Exception e) {
+			logger.log(Level.SEVERE,"Failed to handle ubiquitos-smartspace connection.", e);
+		}
+	}
+
+	private void reply(Frame frame, byte[] returnedMessage){
+		try {
+			synchronized (writer) {
+				if (frame.codec() == WireProtocol.MUX){
+					if (isTagged(frame)){
+						// the client is waiting for this id, so it is answered even without content
+						byte[] response = returnedMessage == null ? NO_CONTENT : returnedMessage;
+						WireProtocol.MUX.write(writer, frame.requestId(), response);
+					}
+				}else if (returnedMessage != null){
+					frame.codec().write(writer, returnedMessage);
+				}else if (frame.codec() == WireProtocol.LINE){
+					// legacy clients always expect an answer line, even if it is "null"
+					frame.codec().write(writer, NULL_LINE);
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.SEVERE,"Failed to answer ubiquitos-smartspace connection.", e);
+		}
+	}
+
+	/**
+	 * Informs that nothing else will be read from the connection,
+	 * which is closed once all its messages are handled.
+	 */
+	void inputEnded(){
+		inputEnded = true;
+		closeIfFinished();
+	}
+
+	private void closeIfFinished(){
+		if (inputEnded && pending.get() == 0 && closed.compareAndSet(false, true)){
+			// accounted before closing, so whoever sees it closed sees it gone
+			dispatcher.closed(this);
+			try {
+				connection.closeConnection();
+				logger.log(Level.INFO,"Closing Connection !!!");
+			} catch (IOException ex) {
+				logger.log(Level.SEVERE,"Failed to close ubiquitos-smartspace connection.", ex);
+			}
+		}
+	}
+
+	/**
+	 * Handles a request received through a multiplexed connection.
+	 */
+	private class TaggedRequest implements Runnable{
+		private Frame frame;
+
+		TaggedRequest(Frame frame) {
+			this.frame = frame;
+		}
+
+		public void run() {
+			process(frame);
+		}
+	}
+}
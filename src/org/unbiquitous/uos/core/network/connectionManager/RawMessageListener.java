@@ -0,0 +1,21 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+
+/**
+ * A {@link MessageListener} which receives the messages as they were read from 
+ * the wire, so they don't need to be text.
+ */
+public interface RawMessageListener extends MessageListener {
+
+	/**
+	 * Method called by the Connection Manager when a new message is received 
+	 * 
+	 * @param message Content of the message received by the Connection Manager 
+	 * @param clientDevice Device object representing the client device responsible for the message
+	 * @return Content to be returned as a response, or null if not needed.
+	 */
+	public byte[] handleIncomingBytes(byte[] message, NetworkDevice clientDevice) throws NetworkException ;
+	
+}
@@ -0,0 +1,218 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.DaemonThreadFactory;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+/**
+ * Opens the channels of stream service calls, all of them at once, on the
+ * threads of the stream loop (shared by all channels, instead of a thread of
+ * their own).
+ *
+ * The caller listens on its channels while the call goes out and the provider
+ * connects to them before running the service. Since the provider may connect
+ * before the caller is listening, the provider retries each channel until it's
+ * ready. Each channel is handed to its {@link UOSMessageContext} as soon as it's
+ * open, so whoever uses it can wait for it through
+ * {@link UOSMessageContext#awaitDataStreams(int, long, TimeUnit)}.
+ */
+public class StreamChannels {
+
+	private static final Logger logger = UOSLogging.getLogger();
+
+	/** Time (in milliseconds) for the channels to be open. */
+	public static final long DEFAULT_TIMEOUT = 10000;
+
+	private static final long FIRST_RETRY = 10;
+	private static final long MAX_RETRY = 200;
+
+	private static ExecutorService loop;
+
+	private final ConnectionManagerControlCenter connections;
+
+	public StreamChannels(ConnectionManagerControlCenter connections) {
+		this.connections = connections;
+	}
+
+	/**
+	 * @return The threads serving the stream channels.
+	 */
+	public static synchronized ExecutorService loop() {
+		if (loop == null){
+			loop = Executors.newCachedThreadPool(new DaemonThreadFactory("uos-streams"));
+		}
+		return loop;
+	}
+
+	/**
+	 * Listens on the channels of a call about to be made.
+	 *
+	 * @param netType Type of the network of the channels.
+	 * @param channels Amount of channels.
+	 * @param context Context receiving the channels, by their order, as they
+	 * 			are open.
+	 * @return The channels being listened.
+	 */
+	public Listening listen(String netType, int channels, final UOSMessageContext context) throws NetworkException {
+		String[] channelIDs = new String[channels];
+		Future<?>[] accepts = new Future<?>[channels];
+		try {
+			for (int i = 0; i < channels; i++){
+				final NetworkDevice device = connections.getAvailableNetworkDevice(netType);
+				final int channel = i;
+				channelIDs[i] = connections.getChannelID(device.getNetworkDeviceName());
+				accepts[i] = loop().submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						ClientConnection con = connections.openPassiveConnection(
+										device.getNetworkDeviceName(), device.getNetworkDeviceType());
+						context.setDataStreams(channel, con.getDataInputStream(), con.getDataOutputStream());
+						return null;
+					}
+				});
+			}
+		} catch (NetworkException e) {
+			cancel(accepts);
+			throw e;
+		}
+		return new Listening(channelIDs, accepts);
+	}
+
+	/**
+	 * Connects to all the channels of a call at once, waiting for them.
+	 *
+	 * @param host Host listening on the channels.
+	 * @param channelIDs Channels, by their order.
+	 * @param netType Type of the network of the channels.
+	 * @param context Context receiving the channels, by their order.
+	 * @param timeout Time (in milliseconds) for the channels to be ready.
+	 * @throws NetworkException If some channel couldn't be opened on time.
+	 */
+	public void connect(String host, String[] channelIDs, String netType,
+							UOSMessageContext context, long timeout) throws NetworkException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		if (channelIDs.length == 1){
+			open(host+":"+channelIDs[0], netType, deadline, context, 0);
+			return;
+		}
+		Future<?>[] connects = new Future<?>[channelIDs.length];
+		for (int i = 0; i < channelIDs.length; i++){
+			connects[i] = loop().submit(new Connect(host+":"+channelIDs[i], netType, deadline, context, i));
+		}
+		try {
+			for (Future<?> connect : connects){
+				connect.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+		} catch (ExecutionException e) {
+			cancel(connects);
+			if (e.getCause() instanceof NetworkException){
+				throw (NetworkException) e.getCause();
+			}
+			throw new NetworkException("Could not open the stream channels.", e.getCause());
+		} catch (TimeoutException e) {
+			cancel(connects);
+			throw new NetworkException("Stream channels not ready in "+timeout+"ms.");
+		} catch (InterruptedException e) {
+			cancel(connects);
+			throw e;
+		}
+	}
+
+	private void open(String networkDeviceName, String netType, long deadline,
+						UOSMessageContext context, int channel) throws NetworkException, InterruptedException {
+		ClientConnection con = connectWhenReady(networkDeviceName, netType, deadline);
+		try {
+			context.setDataStreams(channel, con.getDataInputStream(), con.getDataOutputStream());
+		} catch (IOException e) {
+			throw new NetworkException("Could not open the channel '"+networkDeviceName+"'.", e);
+		}
+	}
+
+	/**
+	 * Opens the channel, retrying while the other side isn't listening yet.
+	 */
+	private ClientConnection connectWhenReady(String networkDeviceName, String netType, long deadline)
+												throws NetworkException, InterruptedException {
+		long retry = FIRST_RETRY;
+		while (true){
+			try {
+				return connections.openActiveConnection(networkDeviceName, netType);
+			} catch (NetworkException e) {
+				long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (left <= 0){
+					throw e;
+				}
+				logger.log(Level.FINE, "Channel '"+networkDeviceName+"' not ready yet.", e);
+				Thread.sleep(Math.min(retry, left));
+				retry = Math.min(retry * 2, MAX_RETRY);
+			}
+		}
+	}
+
+	private static void cancel(Future<?>[] futures) {
+		for (Future<?> future : futures){
+			if (future != null){
+				future.cancel(true);
+			}
+		}
+	}
+
+	private class Connect implements Callable<Object> {
+		private final String networkDeviceName;
+		private final String netType;
+		private final long deadline;
+		private final UOSMessageContext context;
+		private final int channel;
+
+		Connect(String networkDeviceName, String netType, long deadline, UOSMessageContext context, int channel) {
+			this.networkDeviceName = networkDeviceName;
+			this.netType = netType;
+			this.deadline = deadline;
+			this.context = context;
+			this.channel = channel;
+		}
+
+		public Object call() throws Exception {
+			open(networkDeviceName, netType, deadline, context, channel);
+			return null;
+		}
+	}
+
+	/**
+	 * Channels being listened for a call.
+	 */
+	public static class Listening {
+		private final String[] channelIDs;
+		private final Future<?>[] accepts;
+
+		Listening(String[] channelIDs, Future<?>[] accepts) {
+			this.channelIDs = channelIDs;
+			this.accepts = accepts;
+		}
+
+		/** @return The IDs of the channels, by their order. */
+		public String[] channelIDs() {
+			return channelIDs;
+		}
+
+		/**
+		 * Stops listening on the channels not open yet.
+		 */
+		public void cancel() {
+			StreamChannels.cancel(accepts);
+		}
+	}
+}
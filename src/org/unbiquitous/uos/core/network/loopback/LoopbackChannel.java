@@ -35,6 +35,8 @@ public class LoopbackChannel {
 	/** The ID of the devices */
 	private long clientSideClientId;
 	private long serverSideClientId;
+	/** Tells the streams of the channel that there is nothing more to be read */
+	private volatile boolean closed;
 	
 	
 	/**
@@ -44,7 +46,9 @@ public class LoopbackChannel {
 	 * @param serverConnection The server that will be waiting for new connections.
 	 */
 	public synchronized static void addWaitingServer(LoopbackServerConnection serverConnection){
-		waitingServers.add(serverConnection);
+		if (!waitingServers.contains(serverConnection)){
+			waitingServers.add(serverConnection);
+		}
 	}
 	
 	/**
@@ -63,8 +67,8 @@ public class LoopbackChannel {
 		}
 		openedChannels.clear();
 		
-		//Clears the connections
-		for(LoopbackServerConnection server : waitingServers){
+		//Clears the connections. Closing a server removes it from the vector, so a copy is iterated
+		for(LoopbackServerConnection server : new Vector<LoopbackServerConnection>(waitingServers)){
 			try{
 				server.closeConnection();
 			}catch(IOException e){}
@@ -96,8 +100,8 @@ public class LoopbackChannel {
 		
 				for( LoopbackServerConnection server : waitingServers){
 			if(server.getDeviceId() == serverId){
+				//The server keeps listening, as a server socket does, until it's closed
 				serverConnection = server;
-				waitingServers.remove(server);
 				break;
 			}
 		}
@@ -140,7 +144,7 @@ public class LoopbackChannel {
 		
 		//Searches for the given server on the set
 		for(LoopbackServerConnection waitingServer : waitingServers){
-			if(waitingServer.getDeviceId() == server.getDeviceId()){
+			if(waitingServer == server){
 				
 				synchronized(waitingServer){
 					//Removes from the set
@@ -195,9 +199,9 @@ public class LoopbackChannel {
 		
 		//The buffer of one's input is the other's output
 		if(clientId == this.clientSideClientId){
-			return new LoopbackInputStream(this.input);
+			return new LoopbackInputStream(this.input, this);
 		}else if (clientId == this.serverSideClientId){
-			return new LoopbackInputStream(this.output);
+			return new LoopbackInputStream(this.output, this);
 		}else{
 			throw new RuntimeException("Invalid clientId");
 		}
@@ -232,6 +236,13 @@ public class LoopbackChannel {
 		return this.channelId;
 	}
 
+	/**
+	 * @return If the channel was closed by any of its sides.
+	 */
+	public boolean isClosed(){
+		return this.closed;
+	}
+	
 	/**
 	 * Closes the channel of the established connection.
 	 */
@@ -247,10 +258,15 @@ public class LoopbackChannel {
 			}
 		}
 		
-		//Clears the buffers
-		this.input.clear();
-		this.output.clear();
-
+		//Wakes up any thread waiting to read from the buffers. What was already written 
+		//can still be read, as on a socket.
+		this.closed = true;
+		synchronized(this.input){
+			this.input.notifyAll();
+		}
+		synchronized(this.output){
+			this.output.notifyAll();
+		}
 	}
 	
 }
@@ -2,33 +2,49 @@ package org.unbiquitous.uos.core.network.loopback;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.Vector;
 
 /**
- * 
+ *
  * This class represents a loopback input stream. It contains a reference of a memory buffer in which the communication will be done.
- * 
+ *
+ * Reads block until the other side writes on the buffer, as they would on a socket,
+ * and the end of the stream is reached when the stream or its channel is closed.
+ *
  * @author Lucas Paranhos Quintella
  * @author Tales Porto
- * 
+ *
  */
 public class LoopbackInputStream extends InputStream {
 
 	/** The reference for the buffer of the channel */
 	private Vector<Byte> vector;
-	volatile int counter = 0;
-	private byte[] buffer = new byte[0];
+	/** The channel of the buffer, if any */
+	private LoopbackChannel channel;
+	private volatile boolean closed;
 
 	/**
 	 * Constructor.
-	 * 
+	 *
 	 * @param buffer
 	 *            Reference for the input buffer of the channel
 	 */
 	public LoopbackInputStream(Vector<Byte> buffer) {
+		this(buffer, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buffer
+	 *            Reference for the input buffer of the channel
+	 * @param channel
+	 *            The channel which owns the buffer, whose closing ends this stream.
+	 */
+	public LoopbackInputStream(Vector<Byte> buffer, LoopbackChannel channel) {
 		this.vector = buffer;
-		this.buffer = toByteArray(buffer);
-		new Thread(new LookupGarbageCollector(this));
+		this.channel = channel;
 	}
 
 	public int read(byte b[], int off, int len) throws IOException {
@@ -40,93 +56,73 @@ public class LoopbackInputStream extends InputStream {
             return 0;
         }
 
-        int c = read();
-        b[off] = (byte)c;
-
-        int i = 1;
-        try {
-            for (; i < len ; i++) {
-                c = read();
-                b[off + i] = (byte)c;
+        synchronized (vector) {
+            if (!awaitData()){
+                return -1;
+            }
+            int i = 0;
+            while (i < len && !vector.isEmpty()) {
+                b[off + i++] = vector.remove(0);
             }
-        } catch (IOException ee) {
+            return i;
         }
-        return i;
     }
-	
+
 	/**
-	 * Reads a byte from the buffer, if buffer's size is greater than 0.
-	 * 
-	 * @return A byte from the buffer. -1 if buffer's size is 0 or less.
+	 * Reads a byte from the buffer, waiting for it to be written if the buffer is empty.
+	 *
+	 * @return A byte from the buffer. -1 if the stream was closed.
 	 */
 	public int read() throws IOException {
-		synchronized (this.buffer) {
-			refreshByteArray();
-			if (buffer.length > 0) {
-				return buffer[counter++];
-			} else {
+		synchronized (vector) {
+			if (!awaitData()){
 				return -1;
 			}
+			return vector.remove(0) & 0xFF;
 		}
 	}
 
-	private void refreshByteArray() {
-		synchronized (this.buffer) {
-			synchronized (this.vector) {
-				if (this.vector.size() != this.buffer.length)
-					this.buffer = toByteArray(vector);
+	/**
+	 * Must be called holding the lock of the buffer.
+	 *
+	 * @return <code>false</code> if the stream ended before any data arrived.
+	 */
+	private boolean awaitData() throws IOException {
+		while (vector.isEmpty()) {
+			if (isClosed()) {
+				return false;
+			}
+			try {
+				vector.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
 			}
 		}
+		return true;
 	}
 
-	private byte[] toByteArray(Vector<Byte> buffer) {
-		synchronized (this.buffer) {
-			synchronized (this.vector) {
-				int size = buffer.size();
-				byte[] byteArray = new byte[size];
-				for (int i = 0; i < size; i++) {
-					byteArray[i] = buffer.get(i);
-
-				}
-				return byteArray;
-			}
-		}
+	private boolean isClosed() {
+		return closed || (channel != null && channel.isClosed());
 	}
 
 	/**
 	 * Returns the number of bytes that can be read (or skipped over) from this input stream without blocking by the next caller of a method for this input stream.
-	 * 
+	 *
 	 * @throws IOException
 	 * @return Numbers of bytes that can be read.
 	 */
 	public int available() throws IOException {
-		synchronized (this.buffer) {
-			refreshByteArray();
-			return buffer.length;
-		}
+		return vector.size();
 	}
 
-	private class LookupGarbageCollector implements Runnable {
-		
-		private LoopbackInputStream in;
-		
-		public LookupGarbageCollector(LoopbackInputStream in) {
-			this.in = in;
-		}
-		
-		@Override
-		public void run() {
-			while (vector.size() > 0) {
-				synchronized (buffer) {
-					synchronized (vector) {
-						if (counter != 0) {
-							vector.removeElementAt(0);
-							counter--;
-							in.toByteArray(vector);
-						}
-					}
-				}
-			}
+	/**
+	 * Ends the stream, waking up any thread waiting to read from it.
+	 */
+	public void close() throws IOException {
+		synchronized (vector) {
+			closed = true;
+			vector.notifyAll();
 		}
 	}
 }
@@ -32,6 +32,22 @@ public class LoopbackOutputStream extends OutputStream{
 	public void write(int b) throws IOException {
 		synchronized(buffer){
 			buffer.add(new Byte((byte) b));
+			buffer.notifyAll();
+		}
+	}
+	
+	/**
+	 * Writes the bytes on the buffer at once, waking its reader a single time.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		synchronized(buffer){
+			for (int i = off; i < off + len; i++){
+				buffer.add(b[i]);
+			}
+			buffer.notifyAll();
 		}
 	}
 	
@@ -62,7 +62,12 @@ public class LoopbackChannelManager implements ChannelManager{
 		//Starts a new server with the given ID
 		LoopbackServerConnection serverConnection = new LoopbackServerConnection(new LoopbackDevice(Long.parseLong(address[1])));
 
-		return serverConnection.accept();
+		try{
+			return serverConnection.accept();
+		}finally{
+			//Only one connection is expected, so the server stops listening
+			serverConnection.closeConnection();
+		}
 	}
 
 	/**
@@ -1,6 +1,7 @@
 package org.unbiquitous.uos.core.network.loopback.connection;
 
 import java.io.IOException;
+import java.util.LinkedList;
 
 import org.unbiquitous.uos.core.network.loopback.LoopbackChannel;
 import org.unbiquitous.uos.core.network.loopback.LoopbackDevice;
@@ -19,8 +20,9 @@ import org.unbiquitous.uos.core.network.model.connection.ServerConnection;
  */
 public class LoopbackServerConnection extends ServerConnection{
 
-	/** The client with whom the connection has been established */
-	private LoopbackClientConnection connectedClient;
+	/** The clients with whom a connection has been established and that were not accepted yet */
+	private LinkedList<LoopbackClientConnection> connectedClients = new LinkedList<LoopbackClientConnection>();
+
 	
 	/** If some other thread tries to close the server, this is set as true */
 	private boolean isClosed;
@@ -39,7 +41,7 @@ public class LoopbackServerConnection extends ServerConnection{
 	 * @param client The server side client that has been connected to.
 	 */
 	public synchronized void setConnectedClient(LoopbackClientConnection client){
-		this.connectedClient = client;
+		this.connectedClients.add(client);
 	}
 
 	/**
@@ -52,17 +54,17 @@ public class LoopbackServerConnection extends ServerConnection{
 	 */
 	public synchronized LoopbackClientConnection accept() throws IOException {
 			
-		//No client is connected to us
-		this.connectedClient = null;
-		
-		//Adds the server to the waiting server vector
-		LoopbackChannel.addWaitingServer(this);
-		
-		//We are opened and waiting
-		this.isClosed = false;
+		//Adds the server to the waiting server vector, where it stays until closed so 
+		//clients connecting between two accepts wait for the next one, as in a backlog
+		if(this.isClosed){
+			LoopbackChannel.addWaitingServer(this);
+			
+			//We are opened and waiting
+			this.isClosed = false;
+		}
 		
 		//Waits until we got a client connected to us
-		while(this.connectedClient == null){
+		while(this.connectedClients.isEmpty()){
 			try {		
 				//block until someone wakes us up
 				wait();
@@ -76,7 +78,7 @@ public class LoopbackServerConnection extends ServerConnection{
 			}
 		}
 
-		return this.connectedClient;
+		return this.connectedClients.removeFirst();
 	}
 
 
@@ -0,0 +1,79 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+
+/**
+ * Cost of the {@link EventManager} delivering a {@link Notify} to its
+ * listeners, with as many other events being listened as there are
+ * listeners for the notified one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventManagerBenchmark {
+
+	@Param({"1", "100", "1000"})
+	public int listeners;
+
+	private EventManager manager;
+	private Notify notify;
+	private UpDevice device;
+	private CountingListener counter;
+
+	@Setup
+	public void setUp() throws Exception {
+		UOSLogging.getLogger().setLevel(Level.SEVERE);
+		manager = new EventManager(null);
+		counter = new CountingListener();
+		for (int i = 0; i < listeners; i++){
+			// listeners registered without a device don't need to tell the driver
+			manager.registerForEvent(new ForwardingListener(counter), null, "bench.Driver", null, "change");
+			manager.registerForEvent(new ForwardingListener(counter), null, "bench.Driver", null, "other"+i);
+		}
+		device = new UpDevice("other.device").addNetworkInterface("10.0.0.2", "Ethernet:TCP");
+		notify = new Notify("change", "bench.Driver", "instance");
+		notify.addParameter("value", "10");
+	}
+
+	@Benchmark
+	public int handleNotify() {
+		manager.handleNofify(notify, device);
+		return counter.count;
+	}
+
+	static class CountingListener implements UosEventListener {
+		int count;
+		public void handleEvent(Notify event) {
+			count++;
+		}
+	}
+
+	static class ForwardingListener implements UosEventListener {
+		private CountingListener counter;
+		ForwardingListener(CountingListener counter) {
+			this.counter = counter;
+		}
+		public void handleEvent(Notify event) {
+			counter.handleEvent(event);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SubscriptionIndex.Subscription;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SubscriptionIndex.Visitor;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+
+/**
+ * Cost of the {@link SubscriptionIndex} matching a notify among many
+ * subscriptions, spread over drivers, events and devices (plus some
+ * listening to any device or instance), and of subscribing and
+ * unsubscribing among them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionIndexBenchmark {
+
+	private static final int DRIVERS = 100;
+	private static final int EVENTS = 100;
+
+	@Param({"1000", "100000"})
+	public int subscriptions;
+
+	private SubscriptionIndex index;
+	private Subscription churn;
+	private Counter counter;
+
+	private static final Visitor<Counter> COUNT = new Visitor<Counter>() {
+		public void visit(Subscription subscription, Counter counter) {
+			counter.count++;
+		}
+	};
+
+	@Setup
+	public void setUp() {
+		index = new SubscriptionIndex();
+		counter = new Counter();
+		for (int driver = 0; driver < DRIVERS; driver++){
+			// listening to the events of any device
+			index.add(new Subscription(new Listener(), null, "driver"+driver, null, "event"+(driver % EVENTS)));
+		}
+		for (int i = 0; index.size() < subscriptions; i++){
+			int device = i / (DRIVERS * EVENTS);
+			int driver = (i / EVENTS) % DRIVERS;
+			int event = i % EVENTS;
+			// one in ten listens to any instance of the driver
+			String instance = event % 10 == 0 ? null : "id"+device;
+			index.add(new Subscription(new Listener(), new UpDevice("device"+device), "driver"+driver, instance, "event"+event));
+		}
+		churn = new Subscription(new Listener(), new UpDevice("device0"), "driver0", "id", "event0");
+	}
+
+	@Benchmark
+	public int matchNotify() {
+		return index.match("driver7", "event10", "device0", "id0", COUNT, counter);
+	}
+
+	@Benchmark
+	public int matchUnknownEvent() {
+		return index.match("driver7", "unknown", "device0", "id0", COUNT, counter);
+	}
+
+	@Benchmark
+	public boolean subscribeAndUnsubscribe() {
+		index.add(churn);
+		return index.remove(churn);
+	}
+
+	static class Counter {
+		int count;
+	}
+
+	static class Listener implements UosEventListener {
+		public void handleEvent(Notify event) {}
+	}
+}
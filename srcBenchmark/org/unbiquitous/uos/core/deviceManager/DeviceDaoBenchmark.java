@@ -0,0 +1,100 @@
+package org.unbiquitous.uos.core.deviceManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+
+/**
+ * Cost of the lookups the middleware does on the {@link DeviceDao} for every
+ * incoming message and handshake, in a crowded smart-space.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceDaoBenchmark {
+
+	static final String[] NET_TYPES = {"Ethernet:TCP", "Ethernet:UDP", "Bluetooth"};
+
+	@Param({"10000", "50000"})
+	public int devices;
+
+	private DeviceDao dao;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		dao = new DeviceDao(null);
+		for (int i = 0; i < devices; i++){
+			dao.save(device(i));
+		}
+	}
+
+	static UpDevice device(int i){
+		UpDevice device = new UpDevice("Device."+i);
+		device.addNetworkInterface(address(i), NET_TYPES[i % NET_TYPES.length]);
+		device.addNetworkInterface(address(i), NET_TYPES[(i + 1) % NET_TYPES.length]);
+		return device;
+	}
+
+	static String address(int i){
+		return "10."+(i >> 16 & 0xFF)+"."+(i >> 8 & 0xFF)+"."+(i & 0xFF);
+	}
+
+	private int nextIndex(){
+		if (++next == devices) next = 0;
+		return next;
+	}
+
+	@Benchmark
+	public UpDevice findByName() {
+		return dao.find("Device."+nextIndex());
+	}
+
+	@Benchmark
+	public List<UpDevice> listByAddressAndType() {
+		int i = nextIndex();
+		return dao.list(address(i), NET_TYPES[i % NET_TYPES.length]);
+	}
+
+	@Benchmark
+	public List<UpDevice> listByAddress() {
+		return dao.list(address(nextIndex()), null);
+	}
+
+	@Benchmark
+	public List<UpDevice> listByType() {
+		return dao.list(null, NET_TYPES[nextIndex() % NET_TYPES.length]);
+	}
+
+	@Benchmark
+	public Collection<UpDevice> devicesByAddress() {
+		return dao.devices(address(nextIndex()), null);
+	}
+
+	@Benchmark
+	public Collection<UpDevice> devicesByType() {
+		return dao.devices(null, NET_TYPES[nextIndex() % NET_TYPES.length]);
+	}
+
+	@Benchmark
+	public void update() {
+		int i = nextIndex();
+		dao.update("Device."+i, device(i));
+	}
+}
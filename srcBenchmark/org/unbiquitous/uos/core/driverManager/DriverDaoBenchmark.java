@@ -0,0 +1,81 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+
+/**
+ * Cost of the lookups done on the {@link DriverDao} when calling services and
+ * listing the drivers of the smart-space, with every device in it having the
+ * same few drivers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverDaoBenchmark {
+
+	static final String[] DRIVERS = {"uos.DeviceDriver", "uos.Camera", "uos.Keyboard"};
+
+	@Param({"10000"})
+	public int devices;
+
+	private DriverDao dao;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		dao = new DriverDao(null);
+		UpDriver[] drivers = new UpDriver[DRIVERS.length];
+		for (int d = 0; d < DRIVERS.length; d++){
+			drivers[d] = new UpDriver(DRIVERS[d]);
+			drivers[d].addService("service");
+		}
+		for (int i = 0; i < devices; i++){
+			for (int d = 0; d < DRIVERS.length; d++){
+				dao.insert(new DriverModel("instance."+d, drivers[d], "Device."+i));
+			}
+		}
+	}
+
+	private int nextIndex(){
+		if (++next == devices) next = 0;
+		return next;
+	}
+
+	@Benchmark
+	public DriverModel retrieveByIdAndDevice() {
+		int i = nextIndex();
+		return dao.retrieve("instance."+(i % DRIVERS.length), "Device."+i);
+	}
+
+	@Benchmark
+	public List<DriverModel> listByNameAndDevice() {
+		int i = nextIndex();
+		return dao.list(DRIVERS[i % DRIVERS.length], "Device."+i);
+	}
+
+	@Benchmark
+	public List<DriverModel> listByDevice() {
+		return dao.list(null, "Device."+nextIndex());
+	}
+
+	@Benchmark
+	public List<DriverModel> listByName() {
+		return dao.list(DRIVERS[nextIndex() % DRIVERS.length], null);
+	}
+}
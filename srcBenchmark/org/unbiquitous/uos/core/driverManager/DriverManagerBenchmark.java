@@ -0,0 +1,137 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.deviceManager.DeviceDao;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+/**
+ * Cost of the {@link DriverManager} finding the driver instance of a
+ * {@link ServiceCall} and invoking its service through the
+ * {@link ReflectionServiceCaller}. The instance is found by its id, by
+ * the driver name and through the equivalence tree. Also the cost of
+ * listing the instances of a driver along its equivalent ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverManagerBenchmark {
+
+	/** Other drivers deployed besides the one being called. */
+	@Param({"1", "100"})
+	public int drivers;
+
+	private DriverManager manager;
+	private UOSMessageContext context;
+	private ServiceCall byInstanceId;
+	private ServiceCall byDriverName;
+	private ServiceCall byEquivalentDriver;
+
+	@Setup
+	public void setUp() throws Exception {
+		UOSLogging.getLogger().setLevel(Level.SEVERE);
+		UpDevice currentDevice = new UpDevice("my.device");
+		DeviceDao deviceDao = new DeviceDao(null);
+		deviceDao.save(currentDevice);
+		manager = new DriverManager(currentDevice, new DriverDao(null), deviceDao,
+									new ReflectionServiceCaller(null));
+		for (int i = 0; i < drivers; i++){
+			UpDriver other = new UpDriver("bench.OtherDriver"+(i % 10));
+			other.addService("echo");
+			manager.deployDriver(other, new EchoDriver(other, null), "other"+i);
+		}
+		EchoDriver echo = new EchoDriver();
+		manager.deployDriver(echo.getDriver(), echo, "echo");
+		context = new UOSMessageContext();
+
+		byInstanceId = new ServiceCall(EchoDriver.NAME, "echo", "echo").addParameter("text", "hello");
+		byDriverName = new ServiceCall(EchoDriver.NAME, "echo").addParameter("text", "hello");
+		byEquivalentDriver = new ServiceCall(EchoDriver.PARENT_NAME, "echo").addParameter("text", "hello");
+	}
+
+	@Benchmark
+	public ServiceResponse callByInstanceId() throws Exception {
+		return manager.handleServiceCall(byInstanceId, context);
+	}
+
+	@Benchmark
+	public ServiceResponse callByDriverName() throws Exception {
+		return manager.handleServiceCall(byDriverName, context);
+	}
+
+	@Benchmark
+	public ServiceResponse callByEquivalentDriver() throws Exception {
+		return manager.handleServiceCall(byEquivalentDriver, context);
+	}
+
+	@Benchmark
+	public List<DriverData> listEquivalentDrivers() throws Exception {
+		return manager.listDrivers(EchoDriver.PARENT_NAME, null);
+	}
+
+	public static class EchoDriver implements UosDriver {
+
+		static final String NAME = "bench.EchoDriver";
+		static final String PARENT_NAME = "bench.Echo";
+
+		private UpDriver driver;
+		private List<UpDriver> parent;
+
+		public EchoDriver() {
+			UpDriver parentDriver = new UpDriver(PARENT_NAME);
+			parentDriver.addService("echo");
+			driver = new UpDriver(NAME);
+			driver.addService("echo");
+			driver.addService("upper");
+			driver.addService("lower");
+			driver.addEquivalentDrivers(PARENT_NAME);
+			parent = new ArrayList<UpDriver>();
+			parent.add(parentDriver);
+		}
+
+		EchoDriver(UpDriver driver, List<UpDriver> parent) {
+			this.driver = driver;
+			this.parent = parent;
+		}
+
+		public UpDriver getDriver() {return driver;}
+		public List<UpDriver> getParent() {return parent;}
+		public void init(Gateway gateway, String instanceId) {}
+		public void destroy() {}
+
+		public void upper(ServiceCall call, ServiceResponse response, UOSMessageContext ctx){
+			response.addParameter("text", String.valueOf(call.getParameter("text")).toUpperCase());
+		}
+
+		public void lower(ServiceCall call, ServiceResponse response, UOSMessageContext ctx){
+			response.addParameter("text", String.valueOf(call.getParameter("text")).toLowerCase());
+		}
+
+		public void echo(ServiceCall call, ServiceResponse response, UOSMessageContext ctx){
+			response.addParameter("text", call.getParameter("text"));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import java.util.ListResourceBundle;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.UOSComponentFactory;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.adaptabitilyEngine.AdaptabilityEngine;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.deviceManager.DeviceDao;
+import org.unbiquitous.uos.core.deviceManager.DeviceManager;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+import org.unbiquitous.uos.core.messageEngine.messages.binary.BinaryMessageBinder;
+import org.unbiquitous.uos.core.messageEngine.messages.json.MessageBinder;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+
+/**
+ * Cost of the {@link MessageEngine} reading an incoming message, handing it to
+ * its handler and writing the response, with handlers which do nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEngineBenchmark {
+
+	private MessageEngine engine;
+	private NetworkDevice caller;
+	private String jsonCall;
+	private String jsonNotify;
+	private byte[] binaryCall;
+
+	@Setup
+	public void setUp() throws Exception {
+		UOSLogging.getLogger().setLevel(Level.SEVERE);
+		final ServiceResponse response = new ServiceResponse().addParameter("result", "ok");
+		AdaptabilityEngine handler = new AdaptabilityEngine(){
+			public ServiceResponse handleServiceCall(ServiceCall serviceCall, UOSMessageContext messageContext) {
+				return response;
+			}
+			public void handleNofify(Notify notify, UpDevice device) {}
+		};
+		ResourceBundle properties = new ListResourceBundle() {
+			protected Object[][] getContents() {
+				return new Object[0][];
+			}
+		};
+		UOSComponentFactory factory = new UOSComponentFactory(properties);
+		factory.set(AdaptabilityEngine.class, handler);
+		engine = new MessageEngine();
+		engine.create(properties);
+		engine.init(factory);
+		UpDevice callerDevice = new UpDevice("caller").addNetworkInterface("10.0.0.2", "Ethernet:TCP");
+		engine.setDeviceManager(new DeviceManager(callerDevice, new DeviceDao(null), 
+												null, null, null, null, null));
+
+		caller = new NetworkDevice() {
+			public String getNetworkDeviceName() {return "10.0.0.2:14984";}
+			public String getNetworkDeviceType() {return "Ethernet:TCP";}
+		};
+
+		ServiceCall call = new ServiceCall("my.driver", "my.service", "my.instance");
+		call.addParameter("name", "value");
+		call.addParameter("count", 10);
+		jsonCall = MessageBinder.toJSON(call);
+		binaryCall = BinaryMessageBinder.toBinary(call);
+
+		Notify notify = new Notify("my.event", "my.driver", "my.instance");
+		notify.addParameter("name", "value");
+		jsonNotify = MessageBinder.toJSON(notify);
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.stop();
+	}
+
+	@Benchmark
+	public String handleServiceCall() throws Exception {
+		return engine.handleIncomingMessage(jsonCall, caller);
+	}
+
+	@Benchmark
+	public byte[] handleBinaryServiceCall() throws Exception {
+		return engine.handleIncomingBytes(binaryCall, caller);
+	}
+
+	@Benchmark
+	public String handleNotify() throws Exception {
+		return engine.handleIncomingMessage(jsonNotify, caller);
+	}
+}
@@ -0,0 +1,76 @@
+package org.unbiquitous.uos.core.messageEngine.messages;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
+import org.unbiquitous.uos.core.messageEngine.messages.binary.BinaryMessageBinder;
+import org.unbiquitous.uos.core.messageEngine.messages.json.JSONServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.json.MessageBinder;
+
+/**
+ * Cost of turning a {@link ServiceCall} into its wire format and back,
+ * for each of the available encodings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceCallCodecBenchmark {
+
+	private ServiceCall call;
+	private String json;
+	private byte[] binary;
+
+	@Setup
+	public void setUp() throws Exception {
+		call = new ServiceCall("uos.DeviceDriver", "handshake", "deviceDriverInstance");
+		call.addParameter("device", "{\"name\":\"my.pc\",\"networks\":[{\"netType\":\"Ethernet:TCP\",\"networkAddress\":\"10.0.0.1\"}]}");
+		call.addParameter("eventKey", "newUser");
+		call.addParameter("index", 10);
+		call.setServiceType(ServiceType.DISCRETE);
+		json = MessageBinder.toJSON(call);
+		binary = BinaryMessageBinder.toBinary(call);
+	}
+
+	@Benchmark
+	public String encodeJSONServiceCall() throws Exception {
+		return new JSONServiceCall(call).toString();
+	}
+
+	@Benchmark
+	public ServiceCall decodeJSONServiceCall() throws Exception {
+		return new JSONServiceCall(json).getAsObject();
+	}
+
+	@Benchmark
+	public String encodeStreaming() throws Exception {
+		return MessageBinder.toJSON(call);
+	}
+
+	@Benchmark
+	public Message decodeStreaming() throws Exception {
+		return MessageBinder.fromJSON(json);
+	}
+
+	@Benchmark
+	public byte[] encodeBinary() {
+		return BinaryMessageBinder.toBinary(call);
+	}
+
+	@Benchmark
+	public Message decodeBinary() throws Exception {
+		return BinaryMessageBinder.fromBinary(binary);
+	}
+}
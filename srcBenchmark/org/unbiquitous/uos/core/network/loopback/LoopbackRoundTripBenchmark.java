@@ -0,0 +1,156 @@
+package org.unbiquitous.uos.core.network.loopback;
+
+import java.io.File;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.uos.core.UOS;
+import org.unbiquitous.uos.core.UOSLogging;
+import org.unbiquitous.uos.core.adaptabitilyEngine.AdaptabilityEngine;
+import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.driver.DeviceDriver;
+import org.unbiquitous.uos.core.driverManager.UosDriver;
+import org.unbiquitous.uos.core.messageEngine.MessageEncoding;
+import org.unbiquitous.uos.core.messageEngine.MessageEngine;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+import org.unbiquitous.uos.core.network.loopback.connectionManager.LoopbackConnectionManager;
+
+/**
+ * Cost of a whole service call, from the caller's {@link MessageEngine} to a
+ * driver and back, through the {@link LoopbackConnectionManager} so no real
+ * network is involved. The device being called advertises the informed wire
+ * protocol and message encoding, as it would in its handshake.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackRoundTripBenchmark {
+
+	static final String OWL_FILE = "resources/owl/uoscontext.owl";
+
+	@Param({"LINE", "FRAMED", "MUX"})
+	public String wireProtocol;
+
+	@Param({"JSON", "BINARY"})
+	public String messageEncoding;
+
+	private UOS uos;
+	private MessageEngine engine;
+	private UpDevice peer;
+	private ServiceCall call;
+	private boolean createdOwl;
+
+	@Setup
+	public void setUp() throws Exception {
+		UOSLogging.getLogger().setLevel(Level.SEVERE);
+		createdOwl = new File(OWL_FILE).createNewFile();
+		ResourceBundle bundle = new ListResourceBundle() {
+			protected Object[][] getContents() {
+				return new Object[][] {
+					{"ubiquitos.message.response.timeout", "1000"},
+					{"ubiquitos.message.response.retry", "30"},
+					{"ubiquitos.connectionManager", LoopbackConnectionManager.class.getName()},
+					{"ubiquitos.uos.deviceName", "loopback.device"},
+					{"ubiquitos.driver.deploylist", DeviceDriver.class.getName()},
+				};
+			}
+		};
+		uos = new UOS();
+		uos.init(bundle);
+		EchoDriver echo = new EchoDriver();
+		uos.getFactory().get(AdaptabilityEngine.class).driverManager().deployDriver(echo.getDriver(), echo, "echo");
+		engine = uos.getFactory().get(MessageEngine.class);
+
+		peer = new UpDevice("loopback.peer")
+					.addNetworkInterface("This Device:"+LoopbackConnectionManager.DEFAULT_ID, "Loopback");
+		peer.addProperty(WireProtocol.DEVICE_PROPERTY, codecName(wireProtocol));
+		peer.addProperty(MessageEncoding.DEVICE_PROPERTY, messageEncoding);
+
+		call = new ServiceCall(EchoDriver.NAME, "echo", "echo");
+		call.addParameter("text", "hello");
+		awaitListening();
+	}
+
+	/** The connection manager starts listening in its own thread, after the init. */
+	private void awaitListening() throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (true){
+			try {
+				roundTrip();
+				return;
+			} catch (Exception e) {
+				if (System.currentTimeMillis() > deadline){
+					throw e;
+				}
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	private static String codecName(String wireProtocol){
+		if ("MUX".equals(wireProtocol))		return WireProtocol.MUX.name();
+		if ("FRAMED".equals(wireProtocol))	return WireProtocol.FRAMED.name();
+		return WireProtocol.LINE.name();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		uos.tearDown();
+		if (createdOwl){
+			new File(OWL_FILE).delete();
+		}
+	}
+
+	@Benchmark
+	public ServiceResponse roundTrip() throws Exception {
+		ServiceResponse response = engine.callService(peer, call);
+		if (response == null || (response.getError() != null && !response.getError().isEmpty())){
+			throw new IllegalStateException("Call failed: "+(response == null ? null : response.getError()));
+		}
+		return response;
+	}
+
+	public static class EchoDriver implements UosDriver {
+
+		static final String NAME = "bench.EchoDriver";
+
+		private UpDriver driver;
+
+		public EchoDriver() {
+			driver = new UpDriver(NAME);
+			driver.addService("echo");
+		}
+
+		public UpDriver getDriver() {return driver;}
+		public List<UpDriver> getParent() {return null;}
+		public void init(Gateway gateway, String instanceId) {}
+		public void destroy() {}
+
+		public void echo(ServiceCall call, ServiceResponse response, UOSMessageContext ctx){
+			response.addParameter("text", call.getParameter("text"));
+		}
+	}
+}
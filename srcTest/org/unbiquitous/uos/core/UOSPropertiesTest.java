@@ -0,0 +1,35 @@
+package org.unbiquitous.uos.core;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ListResourceBundle;
+import java.util.ResourceBundle;
+
+import org.junit.Test;
+
+public class UOSPropertiesTest {
+
+	private final ResourceBundle properties = new ListResourceBundle() {
+		protected Object[][] getContents() {
+			return new Object[][] {
+				{"informed", " 42 "},
+				{"malformed", "many"},
+			};
+		}
+	};
+
+	@Test public void readsTheValuesInformed(){
+		assertThat(UOSProperties.intValue(properties, "informed", 1)).isEqualTo(42);
+		assertThat(UOSProperties.longValue(properties, "informed", 1)).isEqualTo(42);
+	}
+
+	@Test public void fallsBackToTheDefaultWhenNotInformed(){
+		assertThat(UOSProperties.intValue(properties, "missing", 1)).isEqualTo(1);
+		assertThat(UOSProperties.longValue(null, "missing", 2)).isEqualTo(2);
+	}
+
+	@Test public void fallsBackToTheDefaultOnMalformedValues(){
+		assertThat(UOSProperties.intValue(properties, "malformed", 1)).isEqualTo(1);
+		assertThat(UOSProperties.longValue(properties, "malformed", 2)).isEqualTo(2);
+	}
+}
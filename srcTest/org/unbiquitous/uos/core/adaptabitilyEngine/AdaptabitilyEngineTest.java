@@ -3,29 +3,45 @@ package org.unbiquitous.uos.core.adaptabitilyEngine;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.ListResourceBundle;
 import java.util.ResourceBundle;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.unbiquitous.uos.core.applicationManager.ApplicationManager;
 import org.unbiquitous.uos.core.applicationManager.DummyApp;
 import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
 import org.unbiquitous.uos.core.driverManager.DriverManager;
 import org.unbiquitous.uos.core.messageEngine.MessageEngine;
+import org.unbiquitous.uos.core.messageEngine.ServiceCallExecutor;
+import org.unbiquitous.uos.core.messageEngine.ServiceCallback;
+import org.unbiquitous.uos.core.messageEngine.ServiceFuture;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+import org.unbiquitous.uos.core.network.loopback.LoopbackDevice;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
 
 
 
@@ -101,6 +117,36 @@ public class AdaptabitilyEngineTest {
 	}
 	
 
+	@Test public void callServiceAsync_shouldRunLocalCallsInTheBackground() throws Exception {
+		final DriverManager _driverManager = mock(DriverManager.class);
+		ServiceResponse response = new ServiceResponse();
+		when(_driverManager.handleServiceCall((ServiceCall)anyObject(), (UOSMessageContext)anyObject())).thenReturn(response);
+		
+		engine = new AdaptabilityEngine(){
+			public void init(org.unbiquitous.uos.core.UOSComponentFactory factory) {
+				this.driverManager = _driverManager;
+				this.serviceCallExecutor = new ServiceCallExecutor(null);
+			}
+		};
+		engine.init(null);
+		
+		final List<ServiceResponse> received = new ArrayList<ServiceResponse>();
+		final CountDownLatch done = new CountDownLatch(1);
+		ServiceCall call = new ServiceCall("my.driver","myService");
+		ServiceFuture future = engine.callServiceAsync(null, call, 0, new ServiceCallback() {
+			public void onResponse(ServiceResponse r) {
+				received.add(r);
+				done.countDown();
+			}
+			public void onFailure(Exception cause) {
+				done.countDown();
+			}
+		});
+		assertEquals(response,future.get(1, TimeUnit.SECONDS));
+		assertThat(done.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(received).containsOnly(response);
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Test public void callService_shouldCallMethodOnAppWhenDriverIsApp() throws Exception{
 		final ApplicationManager manager = new ApplicationManager(properties, null);
@@ -196,6 +242,110 @@ public class AdaptabitilyEngineTest {
 		verify(_eventManager).sendEventNotify(notify, device);
 	}
 	
+	@Test public void notifySubscribers_shouldSendTheNotifyToAllSubscribersAtOnce() throws Exception{
+		final MessageEngine _messageEngine = mock(MessageEngine.class);
+		
+		engine = new AdaptabilityEngine(){
+			public void init(org.unbiquitous.uos.core.UOSComponentFactory factory) {
+				this.messageEngine = _messageEngine;
+			}
+		};
+		engine.init(null);
+		
+		EventSubscribers subscribers = new EventSubscribers();
+		subscribers.add("e", tcpDevice("10.0.0.1:14984"));
+		subscribers.add("e", tcpDevice("10.0.0.2:14984"));
+		subscribers.add("other", tcpDevice("10.0.0.3:14984"));
+		Notify notify = new Notify("e", "d");
+		engine.notifySubscribers(notify, subscribers);
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		ArgumentCaptor<Collection<UpDevice>> targets = (ArgumentCaptor) ArgumentCaptor.forClass(Collection.class);
+		verify(_messageEngine).multicastEvent(eq(notify), targets.capture());
+		assertThat(targets.getValue()).hasSize(2);
+		for (UpDevice target : targets.getValue()){
+			assertThat(target.getNetworks()).hasSize(1);
+		}
+	}
+	
+	@Test public void notifySubscribers_shouldSendTheNotifiesHeldByThePolicyLater() throws Exception{
+		final MessageEngine _messageEngine = mock(MessageEngine.class);
+		
+		engine = new AdaptabilityEngine(){
+			public void init(org.unbiquitous.uos.core.UOSComponentFactory factory) {
+				this.messageEngine = _messageEngine;
+			}
+		};
+		engine.init(null);
+		
+		EventSubscribers subscribers = new EventSubscribers();
+		subscribers.add("e", new LoopbackDevice(1), new NotifyPolicy().maxRate(20));
+		Notify first = new Notify("e", "d");
+		first.addParameter("value", "1");
+		Notify second = new Notify("e", "d");
+		second.addParameter("value", "2");
+		Notify third = new Notify("e", "d");
+		third.addParameter("value", "3");
+		engine.notifySubscribers(first, subscribers);
+		engine.notifySubscribers(second, subscribers);
+		engine.notifySubscribers(third, subscribers);
+		
+		verify(_messageEngine).multicastEvent(eq(first), anyCollectionOf(UpDevice.class));
+		verify(_messageEngine, timeout(1000)).multicastEvent(eq(third), anyCollectionOf(UpDevice.class));
+		verify(_messageEngine, never()).multicastEvent(eq(second), anyCollectionOf(UpDevice.class));
+	}
+	
+	@Test public void notifySubscribers_shouldDropTheSubscribersWhichLeftOrExpired() throws Exception{
+		final MessageEngine _messageEngine = mock(MessageEngine.class);
+		final SubscriptionLeases _leases = new SubscriptionLeases(60000);
+		
+		engine = new AdaptabilityEngine(){
+			public void init(org.unbiquitous.uos.core.UOSComponentFactory factory) {
+				this.messageEngine = _messageEngine;
+				this.leases = _leases;
+			}
+		};
+		engine.init(null);
+		
+		EventSubscribers subscribers = new EventSubscribers();
+		subscribers.add("e", tcpDevice("10.0.0.1:14984"));
+		subscribers.add("e", tcpDevice("10.0.0.2:14984"));
+		subscribers.add("e", tcpDevice("10.0.0.3:14984"));
+		subscribers.subscribersOf("e")[2].renewedAt -= 60000;
+		_leases.deviceLeft(tcpDevice("10.0.0.1"));
+		Notify notify = new Notify("e", "d");
+		engine.notifySubscribers(notify, subscribers);
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		ArgumentCaptor<Collection<UpDevice>> targets = (ArgumentCaptor) ArgumentCaptor.forClass(Collection.class);
+		verify(_messageEngine).multicastEvent(eq(notify), targets.capture());
+		assertThat(targets.getValue()).hasSize(1);
+		assertThat(targets.getValue().iterator().next().getNetworks().get(0).getNetworkAddress())
+				.isEqualTo("10.0.0.2:14984");
+		assertThat(subscribers.of("e")).hasSize(1);
+	}
+	
+	private static NetworkDevice tcpDevice(String address){
+		NetworkDevice device = mock(NetworkDevice.class);
+		when(device.getNetworkDeviceName()).thenReturn(address);
+		when(device.getNetworkDeviceType()).thenReturn("Ethernet:TCP");
+		return device;
+	}
+	
+	@Test public void notifySubscribers_shouldSendNothingWithoutSubscribers() throws Exception{
+		final MessageEngine _messageEngine = mock(MessageEngine.class);
+		
+		engine = new AdaptabilityEngine(){
+			public void init(org.unbiquitous.uos.core.UOSComponentFactory factory) {
+				this.messageEngine = _messageEngine;
+			}
+		};
+		engine.init(null);
+		
+		engine.notifySubscribers(new Notify("e", "d"), new EventSubscribers());
+		verifyZeroInteractions(_messageEngine);
+	}
+	
 	@Test public void registerForEvent_shouldDelagateToEventManager() throws Exception{
 		final EventManager _eventManager = mock(EventManager.class);
 		engine = new AdaptabilityEngine(){
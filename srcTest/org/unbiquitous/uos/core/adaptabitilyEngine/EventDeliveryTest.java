@@ -0,0 +1,259 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.adaptabitilyEngine.EventDelivery.Overflow;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+
+public class EventDeliveryTest {
+
+	private ExecutorService executor;
+	private EventDelivery delivery;
+
+	@Before public void setUp(){
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After public void tearDown(){
+		executor.shutdownNow();
+	}
+
+	@Test public void aSlowListenerDoesntHoldTheOthers() throws Exception{
+		delivery = new EventDelivery(executor, 8, Overflow.BLOCK);
+		Recorder slow = new Recorder(1);
+		Recorder fast = new Recorder(1);
+		slow.hold();
+
+		delivery.deliver(slow, event("key", "1"), "device");
+		delivery.deliver(fast, event("key", "1"), "device");
+
+		assertThat(fast.received.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(slow.values()).isEmpty();
+		slow.release();
+		assertThat(slow.received.await(1, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test public void keepsTheOrderOfTheEvents() throws Exception{
+		delivery = new EventDelivery(executor, 1000, Overflow.BLOCK);
+		Recorder listener = new Recorder(500);
+
+		for (int i = 0; i < 500; i++){
+			delivery.deliver(listener, event("key", String.valueOf(i)), "device");
+		}
+
+		assertThat(listener.received.await(1, TimeUnit.SECONDS)).isTrue();
+		for (int i = 0; i < 500; i++){
+			assertThat(listener.values().get(i)).isEqualTo(String.valueOf(i));
+		}
+		assertThat(delivery.delivered()).isEqualTo(500);
+	}
+
+	@Test public void dropsTheOldestEventsBeyondTheQueue() throws Exception{
+		delivery = new EventDelivery(executor, 2, Overflow.DROP_OLDEST);
+		Recorder listener = new Recorder(3);
+		listener.hold();
+
+		delivery.deliver(listener, event("key", "1"), "device");
+		listener.awaitHandling();
+		delivery.deliver(listener, event("key", "2"), "device");
+		delivery.deliver(listener, event("key", "3"), "device");
+		delivery.deliver(listener, event("key", "4"), "device");
+		assertThat(delivery.stats(listener).queued()).isEqualTo(2);
+		listener.release();
+
+		assertThat(listener.received.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(listener.values()).containsExactly("1", "3", "4");
+		assertThat(delivery.dropped()).isEqualTo(1);
+		assertThat(delivery.stats(listener).dropped()).isEqualTo(1);
+	}
+
+	@Test public void dropsTheOldestEventsByDefault() throws Exception{
+		delivery = new EventDelivery(new ListResourceBundle() {
+			protected Object[][] getContents() {
+				return new Object[][] {
+					{"ubiquitos.events.threads", "1"},
+					{"ubiquitos.events.queue", "1"},
+				};
+			}
+		});
+		Recorder listener = new Recorder(2);
+		listener.hold();
+
+		try {
+			delivery.deliver(listener, event("key", "1"), "device");
+			listener.awaitHandling();
+			delivery.deliver(listener, event("key", "2"), "device");
+			delivery.deliver(listener, event("key", "3"), "device");
+			listener.release();
+
+			assertThat(listener.received.await(1, TimeUnit.SECONDS)).isTrue();
+			assertThat(listener.values()).containsExactly("1", "3");
+			assertThat(delivery.dropped()).isEqualTo(1);
+		} finally {
+			delivery.shutdown();
+		}
+	}
+
+	@Test public void coalescesTheEventsOfTheSameKey() throws Exception{
+		delivery = new EventDelivery(executor, 8, Overflow.COALESCE);
+		Recorder listener = new Recorder(3);
+		listener.hold();
+
+		delivery.deliver(listener, event("position", "1"), "device");
+		listener.awaitHandling();
+		delivery.deliver(listener, event("position", "2"), "device");
+		delivery.deliver(listener, event("other", "a"), "device");
+		delivery.deliver(listener, event("position", "3"), "device");
+		listener.release();
+
+		assertThat(listener.received.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(listener.values()).containsExactly("1", "3", "a");
+		assertThat(delivery.coalesced()).isEqualTo(1);
+	}
+
+	@Test public void blocksTheSenderUntilThereIsRoom() throws Exception{
+		delivery = new EventDelivery(executor, 1, Overflow.BLOCK);
+		final Recorder listener = new Recorder(3);
+		listener.hold();
+		delivery.deliver(listener, event("key", "1"), "device");
+		listener.awaitHandling();
+		delivery.deliver(listener, event("key", "2"), "device");
+
+		final CountDownLatch sent = new CountDownLatch(1);
+		new Thread(){
+			public void run() {
+				delivery.deliver(listener, event("key", "3"), "device");
+				sent.countDown();
+			}
+		}.start();
+
+		assertThat(sent.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		listener.release();
+		assertThat(sent.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(listener.received.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(listener.values()).containsExactly("1", "2", "3");
+		assertThat(delivery.dropped()).isZero();
+	}
+
+	@Test public void informsTheLagOfTheListener() throws Exception{
+		delivery = new EventDelivery(executor, 8, Overflow.BLOCK);
+		Recorder listener = new Recorder(2);
+		listener.hold();
+		delivery.deliver(listener, event("key", "1"), "device");
+		listener.awaitHandling();
+		delivery.deliver(listener, event("key", "2"), "device");
+		Thread.sleep(50);
+
+		EventDelivery.Stats stats = delivery.stats(listener);
+		assertThat(stats.queued()).isEqualTo(1);
+		assertThat(stats.lag()).isGreaterThanOrEqualTo(40);
+		listener.release();
+	}
+
+	@Test public void usesThePolicyDeclaredByTheListener() throws Exception{
+		delivery = new EventDelivery(executor, 8, Overflow.BLOCK);
+		Recorder listener = new CoalescedRecorder(2);
+		listener.hold();
+
+		delivery.deliver(listener, event("position", "1"), "device");
+		listener.awaitHandling();
+		delivery.deliver(listener, event("position", "2"), "device");
+		delivery.deliver(listener, event("position", "3"), "device");
+		listener.release();
+
+		assertThat(listener.received.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(listener.values()).containsExactly("1", "3");
+	}
+
+	@Test public void inlineDeliveryUsesTheCallerThread() throws Exception{
+		delivery = EventDelivery.inline();
+		Recorder listener = new Recorder(1);
+
+		delivery.deliver(listener, event("key", "1"), "device");
+
+		assertThat(listener.values()).containsExactly("1");
+		assertThat(delivery.stats(listener)).isNull();
+	}
+
+	@Test public void informsTheSenderToTheListenersWhichWantIt() throws Exception{
+		delivery = new EventDelivery(executor, 8, Overflow.BLOCK);
+		SenderRecorder listener = new SenderRecorder(2);
+
+		delivery.deliver(listener, event("key", "1"), "device");
+		delivery.deliver(listener, event("key", "2"), null);
+
+		assertThat(listener.received.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(listener.values()).containsExactly("1@device", "2@null");
+	}
+
+	private static Notify event(String key, String value) {
+		Notify notify = new Notify(key, "driver", "id");
+		notify.addParameter("value", value);
+		return notify;
+	}
+
+	static class Recorder implements UosEventListener {
+		final CountDownLatch received;
+		private final List<String> values = Collections.synchronizedList(new ArrayList<String>());
+		private final CountDownLatch handling = new CountDownLatch(1);
+		private volatile CountDownLatch gate = new CountDownLatch(0);
+
+		Recorder(int expected) {
+			received = new CountDownLatch(expected);
+		}
+
+		void hold() {gate = new CountDownLatch(1);}
+		void release() {gate.countDown();}
+
+		void awaitHandling() throws InterruptedException {
+			assertThat(handling.await(1, TimeUnit.SECONDS)).isTrue();
+		}
+
+		List<String> values() {
+			synchronized (values) {
+				return new ArrayList<String>(values);
+			}
+		}
+
+		public void handleEvent(Notify event) {
+			handling.countDown();
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			values.add((String) event.getParameter("value"));
+			received.countDown();
+		}
+	}
+
+	@EventPolicy(queue=4, overflow=Overflow.COALESCE)
+	static class CoalescedRecorder extends Recorder {
+		CoalescedRecorder(int expected) {
+			super(expected);
+		}
+	}
+
+	static class SenderRecorder extends Recorder implements SenderAwareEventListener {
+		SenderRecorder(int expected) {
+			super(expected);
+		}
+
+		public void handleEvent(Notify event, String sender) {
+			event.addParameter("value", event.getParameter("value")+"@"+sender);
+			handleEvent(event);
+		}
+	}
+}
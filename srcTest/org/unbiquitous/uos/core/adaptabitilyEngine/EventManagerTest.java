@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.unbiquitous.uos.core.deviceManager.DeviceManager;
 import org.unbiquitous.uos.core.messageEngine.MessageEngine;
 import org.unbiquitous.uos.core.messageEngine.MessageEngineException;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
@@ -54,6 +55,45 @@ public class EventManagerTest {
 		verify(engine,never()).callService((UpDevice)any(),(ServiceCall)any());
 	}
 	
+	@Test
+	public void registeringWithoutAListenerOnlyDelegatesToMessageEngine() throws Exception{
+		UpDevice device = new UpDevice("the_device");
+		
+		manager.registerForEvent(null, device, "driver", "id", "key");
+		manager.handleNofify(new Notify("key","driver","id"), device);
+		
+		verify(engine).callService(eq(device), call.capture());
+		verify(listener, never()).handleEvent((Notify)any());
+	}
+	
+	@Test
+	public void unregisteringWithoutAListenerDelegatesToMessageEngine() throws Exception{
+		UpDevice device = new UpDevice("the_device");
+		
+		manager.registerForEvent(null, device, "driver", "id", "key");
+		manager.registerForEvent(null, device, "driver", "id", "key");
+		manager.unregisterForEvent(null, device, "driver", "id", "key");
+		manager.unregisterForEvent(null, device, "driver", "id", "key");
+		
+		verify(engine,times(2)).callService(eq(device), call.capture());
+		assertThat(call.getAllValues().get(0).getService()).isEqualTo("registerListener");
+		assertThat(call.getAllValues().get(1).getService()).isEqualTo("unregisterListener");
+	}
+	
+	@Test
+	public void renewsTheSubscriptionsWithoutAListener() throws Exception{
+		UpDevice device = new UpDevice("the_device");
+		manager.registerForEvent(null, device, "driver", "id", "key");
+		
+		assertThat(manager.renewLeases(null)).isEqualTo(1);
+		
+		verify(engine,times(2)).callService(eq(device), call.capture());
+		assertThat(call.getValue().getService()).isEqualTo("registerListener");
+		
+		manager.unregisterForEvent(null, device, "driver", "id", "key");
+		assertThat(manager.renewLeases(null)).isZero();
+	}
+	
 	@Test
 	public void notifyDelegatesToMessageEngine() throws Exception{
 		UpDevice device = new UpDevice("the_device");
@@ -74,7 +114,63 @@ public class EventManagerTest {
 		verify(listener).handleEvent(eq(notify));
 	}
 	
-	//TODO: test other combinations of driver/id/key
+	@Test
+	public void notifiesTheListenersOfTheDeviceAndOfAnyDevice() throws Exception{
+		UpDevice device = new UpDevice("the_device");
+		UosEventListener ofAnyDevice = mock(UosEventListener.class);
+		UosEventListener ofOtherDevice = mock(UosEventListener.class);
+		manager.registerForEvent(listener, device, "driver", null, "key");
+		manager.registerForEvent(ofAnyDevice, null, "driver", null, "key");
+		manager.registerForEvent(ofOtherDevice, new UpDevice("other_device"), "driver", null, "key");
+		
+		Notify notify = new Notify("key","driver","id");
+		manager.handleNofify(notify, device);
+		
+		verify(listener).handleEvent(eq(notify));
+		verify(ofAnyDevice).handleEvent(eq(notify));
+		verify(ofOtherDevice,never()).handleEvent((Notify)any());
+	}
+	
+	@Test
+	public void dontNotifyTheListenersOfOtherEvents() throws Exception{
+		manager.registerForEvent(listener, null, "driver", null, "key");
+		
+		manager.handleNofify(new Notify("other","driver","id"), null);
+		manager.handleNofify(new Notify("key","other","id"), null);
+		
+		verify(listener,never()).handleEvent((Notify)any());
+	}
+	
+	@Test
+	public void registeringTwiceNotifiesOnlyOnce() throws Exception{
+		UpDevice device = new UpDevice("the_device");
+		manager.registerForEvent(listener, device, "driver", "id", "key");
+		manager.registerForEvent(listener, device, "driver", "id", "key");
+		
+		Notify notify = new Notify("key","driver","id");
+		manager.handleNofify(notify, device);
+		
+		verify(engine,times(1)).callService(eq(device), (ServiceCall)any());
+		verify(listener,times(1)).handleEvent(eq(notify));
+	}
+	
+	@Test
+	public void unregisteringWithoutEventKeyRemovesAllEventsOfTheListener() throws Exception{
+		UosEventListener other = mock(UosEventListener.class);
+		manager.registerForEvent(listener, null, "driver", null, "key");
+		manager.registerForEvent(listener, null, "driver", null, "another");
+		manager.registerForEvent(listener, null, "otherDriver", null, "key");
+		manager.registerForEvent(other, null, "driver", null, "key");
+		
+		manager.unregisterForEvent(listener, null, "driver", null, null);
+		
+		manager.handleNofify(new Notify("key","driver","id"), null);
+		manager.handleNofify(new Notify("another","driver","id"), null);
+		manager.handleNofify(new Notify("key","otherDriver","id"), null);
+		
+		verify(listener,times(1)).handleEvent((Notify)any());
+		verify(other,times(1)).handleEvent((Notify)any());
+	}
 
 	@Test
 	public void unregisteringDelegatesToMessageEngine() throws Exception{
@@ -99,6 +195,25 @@ public class EventManagerTest {
 		verify(listener,never()).handleEvent((Notify)any());
 	}
 	
+	@Test
+	public void renewsEachSubscriptionToTheDevicesStillKnown() throws Exception{
+		UpDevice known = new UpDevice("known");
+		UpDevice gone = new UpDevice("gone");
+		manager.registerForEvent(listener, known, "driver", "id", "key");
+		manager.registerForEvent(mock(UosEventListener.class), known, "driver", "id", "key");
+		manager.registerForEvent(listener, gone, "driver", "id", "key");
+		manager.registerForEvent(listener, null, "driver", "id", "other");
+		DeviceManager devices = mock(DeviceManager.class);
+		when(devices.retrieveDevice("known")).thenReturn(known);
+		
+		assertThat(manager.renewLeases(devices)).isEqualTo(1);
+		
+		verify(engine,times(3)).callService(eq(known), call.capture());
+		assertThat(call.getValue().getService()).isEqualTo("registerListener");
+		assertThat(call.getValue().getParameter("eventKey")).isEqualTo("key");
+		verify(engine,times(1)).callService(eq(gone), (ServiceCall)any());
+	}
+	
 	@Test
 	public void dontFailWehnUnregisteringWithoutRegistering() throws Exception{
 		manager.unregisterForEvent(	listener, new UpDevice("the_device"), 
@@ -0,0 +1,111 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+
+public class EventSubscribersTest {
+
+	private EventSubscribers subscribers;
+
+	@Before public void setUp(){
+		subscribers = new EventSubscribers();
+	}
+
+	@Test public void subscribesEachDeviceOnlyOnce(){
+		assertThat(subscribers.add("newUser", device("10.0.0.1:14984"))).isTrue();
+		assertThat(subscribers.add("newUser", device("10.0.0.1:14984"))).isFalse();
+		subscribers.add("newUser", device("10.0.0.2:14984"));
+
+		assertThat(subscribers.of("newUser")).hasSize(2);
+		UpNetworkInterface first = subscribers.of("newUser").get(0);
+		assertThat(first.getNetType()).isEqualTo(device("10.0.0.1:14984").getNetworkDeviceType());
+		assertThat(first.getNetworkAddress()).isEqualTo(device("10.0.0.1:14984").getNetworkDeviceName());
+	}
+
+	@Test public void subscribesTheDeviceOnceWhenItRegistersFromAnotherPort(){
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		EventSubscribers.Subscriber subscriber = subscribers.subscribersOf("newUser")[0];
+
+		assertThat(subscribers.add("newUser", device("10.0.0.1:50123"))).isFalse();
+
+		assertThat(subscribers.subscribersOf("newUser")).containsOnly(subscriber);
+		assertThat(subscriber.networkInterface.getNetworkAddress()).isEqualTo("10.0.0.1:50123");
+		assertThat(subscriber.target().getNetworks().get(0).getNetworkAddress()).isEqualTo("10.0.0.1:50123");
+		assertThat(subscribers.remove("newUser", device("10.0.0.1:14984"))).isTrue();
+		assertThat(subscribers.isEmpty("newUser")).isTrue();
+	}
+
+	@Test public void keepsTheSubscribersOfEachEventApart(){
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		subscribers.add("lostUser", device("10.0.0.2:14984"));
+
+		assertThat(subscribers.of("newUser")).hasSize(1);
+		assertThat(subscribers.of("lostUser")).hasSize(1);
+		assertThat(subscribers.isEmpty("other")).isTrue();
+		assertThat(subscribers.of(null)).isEmpty();
+	}
+
+	@Test public void unsubscribesFromTheEvent(){
+		NetworkDevice device = device("10.0.0.1:14984");
+		subscribers.add("newUser", device);
+		subscribers.add("lostUser", device);
+
+		assertThat(subscribers.remove("newUser", device)).isTrue();
+		assertThat(subscribers.remove("newUser", device)).isFalse();
+
+		assertThat(subscribers.isEmpty("newUser")).isTrue();
+		assertThat(subscribers.of("lostUser")).hasSize(1);
+	}
+
+	@Test public void unsubscribesFromAllEventsWhenNoneIsInformed(){
+		NetworkDevice device = device("10.0.0.1:14984");
+		subscribers.add("newUser", device);
+		subscribers.add("lostUser", device);
+		subscribers.add("lostUser", device("10.0.0.2:14984"));
+
+		assertThat(subscribers.remove(null, device)).isTrue();
+
+		assertThat(subscribers.isEmpty("newUser")).isTrue();
+		assertThat(subscribers.of("lostUser")).hasSize(1);
+	}
+
+	@Test public void marksTheSubscribersDropped(){
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		subscribers.add("newUser", device("10.0.0.2:14984"));
+		EventSubscribers.Subscriber first = subscribers.subscribersOf("newUser")[0];
+
+		subscribers.drop("newUser", first);
+
+		assertThat(first.removed).isTrue();
+		assertThat(subscribers.subscribersOf("newUser")).hasSize(1);
+		assertThat(subscribers.subscribersOf("newUser")[0].removed).isFalse();
+	}
+
+	@Test public void targetsTheSameDeviceUntilItIsResolved(){
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		EventSubscribers.Subscriber subscriber = subscribers.subscribersOf("newUser")[0];
+		UpDevice anonymous = subscriber.target();
+
+		assertThat(anonymous.getNetworks().get(0).getNetworkAddress())
+			.isEqualTo(device("10.0.0.1:14984").getNetworkDeviceName());
+		assertThat(subscriber.target()).isSameAs(anonymous);
+
+		UpDevice resolved = new UpDevice("known");
+		subscriber.resolvedTo(resolved);
+		assertThat(subscriber.target()).isSameAs(resolved);
+	}
+
+	private static NetworkDevice device(String address){
+		NetworkDevice device = mock(NetworkDevice.class);
+		when(device.getNetworkDeviceName()).thenReturn(address);
+		when(device.getNetworkDeviceType()).thenReturn("Ethernet:TCP");
+		return device;
+	}
+}
@@ -0,0 +1,104 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+
+public class NotifyGateTest {
+
+	@Test public void holdsTheNotifiesBeyondTheRateKeepingTheLatest(){
+		NotifyGate gate = new NotifyGate(new NotifyPolicy().maxRate(10));
+
+		assertThat(gate.admit(position("a", 1), 1000)).isEqualTo(NotifyGate.SEND);
+		assertThat(gate.admit(position("a", 2), 1020)).isEqualTo(80);
+		assertThat(gate.admit(position("a", 3), 1050)).isEqualTo(NotifyGate.SKIP);
+
+		Notify held = gate.release("", 1100);
+		assertThat(held.getParameter("x")).isEqualTo("3.0");
+		assertThat(gate.release("", 1100)).isNull();
+		assertThat(gate.admit(position("a", 4), 1150)).isEqualTo(50);
+	}
+
+	@Test public void sendsAfterTheIntervalWithoutHolding(){
+		NotifyGate gate = new NotifyGate(new NotifyPolicy().maxRate(10));
+
+		assertThat(gate.admit(position("a", 1), 1000)).isEqualTo(NotifyGate.SEND);
+		assertThat(gate.admit(position("a", 2), 1100)).isEqualTo(NotifyGate.SEND);
+	}
+
+	@Test public void appliesTheRateToEachKeyApart(){
+		NotifyGate gate = new NotifyGate(new NotifyPolicy().maxRate(10).coalesceBy("email"));
+
+		assertThat(gate.admit(position("a", 1), 1000)).isEqualTo(NotifyGate.SEND);
+		assertThat(gate.admit(position("b", 1), 1010)).isEqualTo(NotifyGate.SEND);
+		assertThat(gate.admit(position("a", 2), 1020)).isEqualTo(80);
+		assertThat(gate.admit(position("b", 2), 1030)).isEqualTo(80);
+
+		assertThat(gate.release("a", 1100).getParameter("email")).isEqualTo("a");
+		assertThat(gate.release("b", 1110).getParameter("email")).isEqualTo("b");
+	}
+
+	@Test public void discardsTheNotifiesWhichBarelyMoved(){
+		NotifyGate gate = new NotifyGate(new NotifyPolicy().minDelta("x", 0.5));
+
+		assertThat(gate.admit(position("a", 1), 1000)).isEqualTo(NotifyGate.SEND);
+		assertThat(gate.admit(position("a", 1.2), 1001)).isEqualTo(NotifyGate.SKIP);
+		assertThat(gate.admit(position("a", 1.4), 1002)).isEqualTo(NotifyGate.SKIP);
+		assertThat(gate.admit(position("a", 1.6), 1003)).isEqualTo(NotifyGate.SEND);
+	}
+
+	@Test public void dropsTheHeldNotifyWhenTheLatestIsBackToTheOneSent(){
+		NotifyGate gate = new NotifyGate(new NotifyPolicy().maxRate(10).minDelta("x", 0.5));
+
+		gate.admit(position("a", 1), 1000);
+		assertThat(gate.admit(position("a", 2), 1010)).isEqualTo(90);
+		assertThat(gate.admit(position("a", 1.1), 1020)).isEqualTo(NotifyGate.SKIP);
+
+		assertThat(gate.release("", 1100)).isNull();
+	}
+
+	@Test public void sendsUrgentNotifiesRightAway(){
+		NotifyGate gate = new NotifyGate(new NotifyPolicy().maxRate(1).minDelta("x", 0.5).urgentWith("lastlabel"));
+
+		gate.admit(position("a", 1), 1000);
+		Notify relabeled = position("a", 1);
+		relabeled.addParameter("lastlabel", "b");
+
+		assertThat(gate.admit(relabeled, 1010)).isEqualTo(NotifyGate.SEND);
+	}
+
+	@Test public void subscribersMayAskForALowerRate(){
+		ServiceCall register = new ServiceCall("driver", "registerListener");
+		register.addParameter(NotifyPolicy.MAX_RATE_PARAM, "2");
+
+		assertThat(new NotifyPolicy().maxRate(10).requestedBy(register).interval()).isEqualTo(500);
+		register.addParameter(NotifyPolicy.MAX_RATE_PARAM, "100");
+		assertThat(new NotifyPolicy().maxRate(10).requestedBy(register).interval()).isEqualTo(100);
+	}
+
+	@Test public void ignoresTheRatesAskedWhichArentPositive(){
+		ServiceCall register = new ServiceCall("driver", "registerListener");
+		for (String rate : new String[]{"0", "-1", "NaN", "Infinity"}){
+			register.addParameter(NotifyPolicy.MAX_RATE_PARAM, rate);
+			assertThat(new NotifyPolicy().maxRate(10).requestedBy(register).interval()).isEqualTo(100);
+		}
+	}
+
+	@Test public void doesntOverflowOnTheLongestIntervals(){
+		ServiceCall register = new ServiceCall("driver", "registerListener");
+		register.addParameter(NotifyPolicy.MAX_RATE_PARAM, "1e-320");
+		NotifyGate gate = new NotifyGate(new NotifyPolicy().requestedBy(register));
+
+		assertThat(gate.admit(position("a@b.c", 1), 1000)).isEqualTo(NotifyGate.SEND);
+		assertThat(gate.admit(position("a@b.c", 2), 2000)).isGreaterThan(0);
+	}
+
+	private static Notify position(String email, double x){
+		Notify notify = new Notify("position", "tracker", "id");
+		notify.addParameter("email", email);
+		notify.addParameter("x", String.valueOf(x));
+		return notify;
+	}
+}
@@ -51,6 +51,15 @@ public class SmartSpaceGatewayTest {
 		verify(engine).callService(target, "s", "d", "i", "t", new HashMap<String, Object>());
 	}
 	
+	@Test public void callServiceAsyncDelegatesToAdaptabilityEngine() throws Exception{
+		UpDevice target = new UpDevice("a");
+		ServiceCall call = new ServiceCall("d", "s");
+		gateway.callServiceAsync(target, call);
+		verify(engine).callServiceAsync(target, call);
+		gateway.callServiceAsync(target, call, 10, null);
+		verify(engine).callServiceAsync(target, call, 10, null);
+	}
+	
 	private static class EventListener implements UosEventListener{
 		public void handleEvent(Notify event) {}
 	}
@@ -76,6 +85,13 @@ public class SmartSpaceGatewayTest {
 		verify(engine).sendEventNotify(event, target);
 	}
 	
+	@Test public void notifySubscribersDelegatesToAdaptabilityEngine() throws Exception{
+		EventSubscribers subscribers = new EventSubscribers();
+		Notify event = new Notify("d", "s");
+		gateway.notifySubscribers(event, subscribers);
+		verify(engine).notifySubscribers(event, subscribers);
+	}
+	
 	@Test public void unregisterForEventDelegatesToAdaptabilityEngine() throws Exception{
 		UosEventListener listener = new EventListener();
 		gateway.unregisterForEvent(listener);
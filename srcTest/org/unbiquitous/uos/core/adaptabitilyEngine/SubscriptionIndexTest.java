@@ -0,0 +1,145 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SubscriptionIndex.Subscription;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SubscriptionIndex.Visitor;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+
+public class SubscriptionIndexTest {
+
+	private SubscriptionIndex index;
+	private UosEventListener listener;
+	private UpDevice device;
+
+	@Before public void setUp(){
+		index = new SubscriptionIndex();
+		listener = mock(UosEventListener.class);
+		device = new UpDevice("the_device");
+	}
+
+	@Test public void matchesTheExactSubscription(){
+		Subscription s = new Subscription(listener, device, "driver", "id", "key");
+		index.add(s);
+
+		assertThat(match("driver", "key", "the_device", "id")).containsExactly(s);
+		assertThat(match("driver", "other", "the_device", "id")).isEmpty();
+		assertThat(match("other", "key", "the_device", "id")).isEmpty();
+		assertThat(match("driver", "key", "other_device", "id")).isEmpty();
+		assertThat(match("driver", "key", "the_device", "other")).isEmpty();
+	}
+
+	@Test public void fieldsLeftOutMatchAnything(){
+		Subscription anyInstance = new Subscription(listener, device, "driver", null, "key");
+		Subscription anyDevice = new Subscription(listener, null, "driver", "", "key");
+		Subscription anyEvent = new Subscription(listener, device, "driver", null, null);
+		index.add(anyInstance);
+		index.add(anyDevice);
+		index.add(anyEvent);
+
+		assertThat(match("driver", "key", "the_device", "id")).containsExactly(anyInstance, anyDevice, anyEvent);
+		assertThat(match("driver", "key", "other_device", "id")).containsExactly(anyDevice);
+		assertThat(match("driver", "other", "the_device", null)).containsExactly(anyEvent);
+		assertThat(match("other", "key", "the_device", "id")).isEmpty();
+	}
+
+	@Test public void notifiesTheMoreSpecificSubscriptionsFirst(){
+		Subscription general = new Subscription(listener, null, "driver", null, "key");
+		Subscription device = new Subscription(listener, this.device, "driver", null, "key");
+		Subscription full = new Subscription(listener, this.device, "driver", "id", "key");
+		index.add(general);
+		index.add(device);
+		index.add(full);
+
+		assertThat(match("driver", "key", "the_device", "id")).containsExactly(full, device, general);
+	}
+
+	@Test public void aListenerIsSubscribedOnlyOnceToTheSameEvent(){
+		assertThat(index.add(new Subscription(listener, device, "driver", "id", "key"))).isTrue();
+		assertThat(index.add(new Subscription(listener, new UpDevice("the_device"), "driver", "id", "key"))).isFalse();
+		assertThat(index.add(new Subscription(mock(UosEventListener.class), device, "driver", "id", "key"))).isTrue();
+
+		assertThat(index.size()).isEqualTo(2);
+		assertThat(match("driver", "key", "the_device", "id")).hasSize(2);
+	}
+
+	@Test public void removesOnlyTheSubscriptionInformed(){
+		UosEventListener other = mock(UosEventListener.class);
+		Subscription mine = new Subscription(listener, device, "driver", "id", "key");
+		Subscription theirs = new Subscription(other, device, "driver", "id", "key");
+		Subscription another = new Subscription(listener, device, "driver", "id", "another");
+		index.add(mine);
+		index.add(theirs);
+		index.add(another);
+
+		assertThat(index.remove(new Subscription(listener, device, "driver", "id", "key"))).isTrue();
+		assertThat(index.remove(mine)).isFalse();
+
+		assertThat(match("driver", "key", "the_device", "id")).containsExactly(theirs);
+		assertThat(index.subscriptionsOf(listener)).containsOnly(another);
+		assertThat(index.size()).isEqualTo(2);
+	}
+
+	@Test public void keepsNoEmptyBranchesBehind(){
+		Subscription s = new Subscription(listener, device, "driver", "id", "key");
+		index.add(s);
+		index.remove(s);
+
+		assertThat(index.size()).isZero();
+		assertThat(index.subscriptionsOf(listener)).isEmpty();
+		assertThat(match("driver", "key", "the_device", "id")).isEmpty();
+		index.add(s);
+		assertThat(match("driver", "key", "the_device", "id")).containsExactly(s);
+	}
+
+	@Test public void matchesWhileSubscriptionsChange() throws Exception{
+		final Subscription stable = new Subscription(listener, null, "driver", null, "key");
+		index.add(stable);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread churn = new Thread(){
+			public void run() {
+				try {
+					for (int i = 0; i < 5000; i++){
+						Subscription s = new Subscription(new UosEventListener() {
+												public void handleEvent(Notify event) {}
+											},
+											new UpDevice("device"+(i%10)), "driver", null, "key");
+						index.add(s);
+						index.remove(s);
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+		churn.start();
+		while (done.getCount() > 0){
+			assertThat(match("driver", "key", "device3", "id")).contains(stable);
+		}
+		assertThat(failure.get()).isNull();
+		assertThat(index.size()).isEqualTo(1);
+	}
+
+	private List<Subscription> match(String driver, String eventKey, String device, String instanceId){
+		final List<Subscription> matched = new ArrayList<Subscription>();
+		int count = index.match(driver, eventKey, device, instanceId, new Visitor<List<Subscription>>() {
+			public void visit(Subscription subscription, List<Subscription> arg) {
+				arg.add(subscription);
+			}
+		}, matched);
+		assertThat(count).isEqualTo(matched.size());
+		return matched;
+	}
+}
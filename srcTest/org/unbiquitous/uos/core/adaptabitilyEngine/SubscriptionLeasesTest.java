@@ -0,0 +1,116 @@
+package org.unbiquitous.uos.core.adaptabitilyEngine;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+
+public class SubscriptionLeasesTest {
+
+	private SubscriptionLeases leases;
+	private EventSubscribers subscribers;
+
+	@Before public void setUp(){
+		leases = new SubscriptionLeases(1000);
+		subscribers = new EventSubscribers();
+	}
+
+	@Test public void expiresTheLeasesNotRenewed(){
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		EventSubscribers.Subscriber subscriber = subscribers.subscribersOf("newUser")[0];
+		long now = System.currentTimeMillis();
+
+		assertThat(leases.isLive(subscriber, now)).isTrue();
+		assertThat(leases.isLive(subscriber, now + 1000)).isFalse();
+	}
+
+	@Test public void renewsTheLeasesWhenTheDeviceRegistersAgain() throws Exception{
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		EventSubscribers.Subscriber subscriber = subscribers.subscribersOf("newUser")[0];
+		long registered = subscriber.renewedAt;
+		Thread.sleep(5);
+
+		assertThat(subscribers.add("newUser", device("10.0.0.1:14984"))).isFalse();
+		assertThat(leases.isLive(subscriber, registered + 1002)).isTrue();
+	}
+
+	@Test public void renewsTheLeasesOnAnyMessageOfTheDevice() throws Exception{
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		EventSubscribers.Subscriber subscriber = subscribers.subscribersOf("newUser")[0];
+		long registered = subscriber.renewedAt;
+		Thread.sleep(5);
+
+		leases.renew(device("10.0.0.1:50123"));
+		assertThat(leases.isLive(subscriber, registered + 1002)).isTrue();
+		leases.renew(new UpDevice("other").addNetworkInterface("10.0.0.2", "Ethernet:TCP"));
+		assertThat(leases.isLive(subscriber, registered + 2002)).isFalse();
+	}
+
+	@Test public void neverExpiresWithoutDuration(){
+		leases = new SubscriptionLeases(0);
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		EventSubscribers.Subscriber subscriber = subscribers.subscribersOf("newUser")[0];
+
+		assertThat(leases.isLive(subscriber, Long.MAX_VALUE)).isTrue();
+	}
+
+	@Test public void purgesTheSubscriptionsOfTheDevicesWhichLeft(){
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		subscribers.add("lostUser", device("10.0.0.1:14984"));
+		subscribers.add("newUser", device("10.0.0.2:14984"));
+		EventSubscribers.Subscriber leaving = subscribers.subscribersOf("newUser")[0];
+		leases.track(subscribers);
+
+		leases.deviceLeft(device("10.0.0.1"));
+
+		assertThat(subscribers.of("newUser")).hasSize(1);
+		assertThat(subscribers.of("newUser").get(0).getNetworkAddress()).isEqualTo("10.0.0.2:14984");
+		assertThat(subscribers.isEmpty("lostUser")).isTrue();
+		assertThat(leases.isLive(leaving, System.currentTimeMillis())).isFalse();
+	}
+
+	@Test public void dropsTheSubscribersOfADeviceWhichLeftUntilItTalksAgain() throws Exception{
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		EventSubscribers.Subscriber subscriber = subscribers.subscribersOf("newUser")[0];
+		Thread.sleep(5);
+
+		leases.deviceLeft(device("10.0.0.1"));
+		assertThat(leases.isLive(subscriber, System.currentTimeMillis())).isFalse();
+
+		Thread.sleep(5);
+		leases.renew(device("10.0.0.1:14984"));
+		assertThat(leases.isLive(subscriber, System.currentTimeMillis())).isTrue();
+	}
+
+	@Test public void tellsTheDevicesApartByHostWhateverThePort(){
+		subscribers.add("newUser", device("[fe80::1]:14984"));
+		subscribers.add("newUser", device("fe80::2"));
+		subscribers.add("newUser", device("10.0.0.1:14984"));
+		leases.track(subscribers);
+
+		leases.deviceLeft(device("fe80::1"));
+		leases.deviceLeft(device("[fe80::2]:50123"));
+
+		assertThat(subscribers.of("newUser")).hasSize(1);
+		assertThat(subscribers.of("newUser").get(0).getNetworkAddress()).isEqualTo("10.0.0.1:14984");
+	}
+
+	@Test public void takesTheHostOfTheAddresses(){
+		assertThat(EventSubscribers.hostOf("10.0.0.1:14984")).isEqualTo("10.0.0.1");
+		assertThat(EventSubscribers.hostOf("10.0.0.1")).isEqualTo("10.0.0.1");
+		assertThat(EventSubscribers.hostOf("[::1]:14984")).isEqualTo("::1");
+		assertThat(EventSubscribers.hostOf("[::1]")).isEqualTo("::1");
+		assertThat(EventSubscribers.hostOf("fe80::1")).isEqualTo("fe80::1");
+	}
+
+	private static NetworkDevice device(String address){
+		NetworkDevice device = mock(NetworkDevice.class);
+		when(device.getNetworkDeviceName()).thenReturn(address);
+		when(device.getNetworkDeviceType()).thenReturn("Ethernet:TCP");
+		return device;
+	}
+}
@@ -0,0 +1,184 @@
+package org.unbiquitous.uos.core.connectivity.proxying;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.adaptabitilyEngine.SmartSpaceGateway;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.connectivity.ConnectivityManager;
+import org.unbiquitous.uos.core.messageEngine.ServiceFuture;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+public class ProxyDriverImplTest {
+
+	private static final Executor INLINE = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private UpDevice provider;
+	private SmartSpaceGateway gateway;
+	private ProxyDriverImpl proxy;
+
+	@Before
+	public void setUp() throws Exception{
+		provider = new UpDevice("provider");
+		gateway = mock(SmartSpaceGateway.class);
+		ConnectivityManager connectivity = mock(ConnectivityManager.class);
+		when(gateway.getConnectivityManager()).thenReturn(connectivity);
+		when(connectivity.getAppropriateInterface(eq(provider), any(ServiceCall.class)))
+								.thenReturn(new UpNetworkInterface("Ethernet:TCP", "10.0.0.1"));
+		proxy = new ProxyDriverImpl(new UpDriver("driver"), provider);
+		proxy.init(gateway, "proxy");
+	}
+
+	@Test
+	public void forwardsTheCallToTheProvider() throws Exception{
+		ServiceCall call = new ServiceCall("driver", "service");
+		ServiceResponse providerResponse = new ServiceResponse().addParameter("answer", 42);
+		when(gateway.callServiceAsync(provider, call)).thenReturn(done(providerResponse));
+
+		ServiceResponse response = new ServiceResponse();
+		proxy.forwardServiceCall(call, response, new UOSMessageContext());
+
+		assertEquals(42, response.getResponseData("answer"));
+		assertNull(response.getError());
+	}
+
+	@Test
+	public void informsTheFailuresOfTheProvider() throws Exception{
+		ServiceCall call = new ServiceCall("driver", "service");
+		ServiceFuture failed = new ServiceFuture(INLINE);
+		failed.fail(new IllegalStateException("provider is gone"));
+		when(gateway.callServiceAsync(provider, call)).thenReturn(failed);
+
+		ServiceResponse response = new ServiceResponse();
+		proxy.forwardServiceCall(call, response, new UOSMessageContext());
+
+		assertNotNull(response.getError());
+		assertTrue(response.getError().contains("provider is gone"));
+	}
+
+	@Test
+	public void forwardsCallsConcurrently() throws Exception{
+		final ServiceCall slowCall = new ServiceCall("driver", "slow");
+		ServiceCall fastCall = new ServiceCall("driver", "fast");
+		ServiceFuture slow = new ServiceFuture(INLINE);
+		when(gateway.callServiceAsync(provider, slowCall)).thenReturn(slow);
+		when(gateway.callServiceAsync(provider, fastCall))
+				.thenReturn(done(new ServiceResponse().addParameter("which", "fast")));
+
+		final ServiceResponse slowResponse = new ServiceResponse();
+		final CountDownLatch slowDone = new CountDownLatch(1);
+		new Thread(){
+			public void run() {
+				proxy.forwardServiceCall(slowCall, slowResponse, new UOSMessageContext());
+				slowDone.countDown();
+			}
+		}.start();
+
+		ServiceResponse fastResponse = new ServiceResponse();
+		proxy.forwardServiceCall(fastCall, fastResponse, new UOSMessageContext());
+
+		assertEquals("fast", fastResponse.getResponseData("which"));
+		assertFalse(slowDone.await(50, TimeUnit.MILLISECONDS));
+		slow.complete(new ServiceResponse().addParameter("which", "slow"));
+		assertTrue(slowDone.await(1, TimeUnit.SECONDS));
+		assertEquals("slow", slowResponse.getResponseData("which"));
+	}
+
+	@Test
+	public void relaysTheStreamsAsSoonAsTheProviderOpensThem() throws Exception{
+		ServiceCall call = new ServiceCall("driver", "stream");
+		call.setServiceType(ServiceType.STREAM);
+		call.setChannels(1);
+
+		final Pipe callerIn = new Pipe();
+		Pipe callerOut = new Pipe();
+		UOSMessageContext callerContext = new UOSMessageContext();
+		callerContext.addDataStreams(callerIn.in, callerOut.out);
+
+		final Pipe providerIn = new Pipe();
+		final Pipe providerOut = new Pipe();
+		final UOSMessageContext providerContext = new UOSMessageContext();
+		ServiceResponse providerResponse = new ServiceResponse();
+		providerResponse.setMessageContext(providerContext);
+		when(gateway.callServiceAsync(provider, call)).thenReturn(done(providerResponse));
+
+		new Thread(){
+			public void run() {
+				try {
+					Thread.sleep(50);
+					providerContext.addDataStreams(providerIn.in, providerOut.out);
+				} catch (Exception e) {}
+			}
+		}.start();
+
+		long start = System.currentTimeMillis();
+		proxy.forwardServiceCall(call, new ServiceResponse(), callerContext);
+		assertTrue("should not wait a fixed time", System.currentTimeMillis() - start < 2000);
+		assertEquals("Ethernet:TCP", call.getChannelType());
+
+		callerIn.send("to provider");
+		assertEquals("to provider", providerOut.receive("to provider".length()));
+		providerIn.send("to caller");
+		assertEquals("to caller", callerOut.receive("to caller".length()));
+	}
+
+	private static ServiceFuture done(ServiceResponse response){
+		ServiceFuture future = new ServiceFuture(INLINE);
+		future.complete(response);
+		return future;
+	}
+
+	/**
+	 * A stream whose written bytes can be read on the other end.
+	 */
+	private static class Pipe {
+		final PipedOutputStream writer = new PipedOutputStream();
+		final DataInputStream in;
+		final PipedOutputStream sink = new PipedOutputStream();
+		final DataOutputStream out;
+		final PipedInputStream reader;
+
+		Pipe() throws Exception {
+			in = new DataInputStream(new PipedInputStream(writer));
+			reader = new PipedInputStream(sink);
+			out = new DataOutputStream(sink);
+		}
+
+		void send(String text) throws Exception {
+			writer.write(text.getBytes("UTF-8"));
+			writer.flush();
+		}
+
+		String receive(int length) throws Exception {
+			byte[] read = new byte[length];
+			new DataInputStream(reader).readFully(read);
+			return new String(read, "UTF-8");
+		}
+	}
+}
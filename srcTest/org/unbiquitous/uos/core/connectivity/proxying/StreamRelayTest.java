@@ -0,0 +1,54 @@
+package org.unbiquitous.uos.core.connectivity.proxying;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamRelayTest {
+
+	private StreamRelay relay;
+
+	@Before
+	public void setUp(){
+		relay = new StreamRelay();
+	}
+
+	@After
+	public void tearDown(){
+		relay.shutdown();
+	}
+
+	@Test
+	public void relaysAllBytesUnchangedAndClosesTheOutputAtTheEnd() throws Exception{
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++){
+			data[i] = (byte) i;
+		}
+		ClosingOutput out = new ClosingOutput();
+
+		relay.relay(new ByteArrayInputStream(data), out);
+
+		assertTrue(out.closed.await(1, TimeUnit.SECONDS));
+		assertArrayEquals(data, out.toByteArray());
+		assertEquals(data.length, relay.relayed());
+		assertEquals(0, relay.active());
+	}
+
+	private static class ClosingOutput extends ByteArrayOutputStream {
+		final CountDownLatch closed = new CountDownLatch(1);
+		public void close() throws IOException {
+			super.close();
+			closed.countDown();
+		}
+	}
+}
@@ -7,7 +7,9 @@ import static org.junit.Assert.assertTrue;
 import static org.fest.assertions.api.Assertions.*;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Vector;
 
 import org.junit.After;
 import org.junit.Before;
@@ -200,4 +202,74 @@ public class DeviceDaoTest {
 		assertEquals(2,dao.list().size());
 	}
 	
+	@Test public void should_replace_a_device_saved_again(){
+		dao.save(new UpDevice("d").addNetworkInterface("10.0.0.1", "Ethernet:TCP"));
+		UpDevice moved = new UpDevice("d").addNetworkInterface("10.0.0.2", "Ethernet:TCP");
+		dao.save(moved);
+		assertEquals(1,dao.list().size());
+		assertTrue(dao.list("10.0.0.1", null).isEmpty());
+		assertTrue(dao.list("10.0.0.1", "Ethernet:TCP").isEmpty());
+		assertThat(dao.list(null, "Ethernet:TCP")).containsOnly(moved);
+		assertThat(dao.list("10.0.0.2", null)).containsOnly(moved);
+	}
+	
+	@Test public void should_ignore_the_deletion_of_an_unknown_device(){
+		dao.save(new UpDevice("a"));
+		dao.delete("b");
+		assertEquals(1,dao.list().size());
+	}
+	
+	@Test public void should_list_a_device_once_even_when_many_interfaces_match(){
+		UpDevice device = new UpDevice("d")
+			.addNetworkInterface("10.0.0.1", "Ethernet:TCP")
+			.addNetworkInterface("10.0.0.1", "Ethernet:UDP")
+			.addNetworkInterface("10.0.0.2", "Ethernet:TCP");
+		dao.save(device);
+		assertThat(dao.list("10.0.0.1", null)).containsOnly(device).hasSize(1);
+		assertThat(dao.list(null, "Ethernet:TCP")).containsOnly(device).hasSize(1);
+	}
+	
+	@Test(expected=UnsupportedOperationException.class) 
+	public void should_not_allow_to_change_the_devices_view(){
+		dao.save(new UpDevice("d").addNetworkInterface("10.0.0.1", "Ethernet:TCP"));
+		dao.devices(null, "Ethernet:TCP").clear();
+	}
+	
+	@Test public void should_keep_the_devices_view_up_to_date(){
+		dao.save(new UpDevice("a").addNetworkInterface("10.0.0.1", "Ethernet:TCP"));
+		Collection<UpDevice> view = dao.devices(null, "Ethernet:TCP");
+		UpDevice other = new UpDevice("b").addNetworkInterface("10.0.0.2", "Ethernet:TCP");
+		dao.save(other);
+		assertEquals(2,view.size());
+		assertTrue(view.contains(other));
+	}
+	
+	@Test public void can_be_read_while_other_thread_writes() throws Exception{
+		final List<Throwable> errors = new Vector<Throwable>();
+		Thread writer = new Thread(){
+			public void run() {
+				try {
+					for (int i = 0; i < 2000; i++){
+						dao.save(new UpDevice("d"+(i % 50))
+									.addNetworkInterface("10.0.0."+(i % 7), "Ethernet:TCP"));
+						if (i % 3 == 0) dao.delete("d"+(i % 11));
+					}
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			}
+		};
+		writer.start();
+		while (writer.isAlive()){
+			for (UpDevice d : dao.list(null, "Ethernet:TCP")){
+				assertNotNull(d.getName());
+			}
+			for (UpDevice d : dao.devices("10.0.0.3", null)){
+				assertEquals("10.0.0.3", d.getNetworks().get(0).getNetworkAddress());
+			}
+			dao.find("d7");
+		}
+		assertEquals(new ArrayList<Throwable>(), errors);
+	}
+	
 }
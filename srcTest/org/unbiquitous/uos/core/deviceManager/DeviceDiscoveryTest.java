@@ -0,0 +1,91 @@
+package org.unbiquitous.uos.core.deviceManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DeviceDiscoveryTest {
+
+	private DeviceDiscovery discovery;
+
+	@After public void tearDown(){
+		if (discovery != null) discovery.shutdown();
+	}
+
+	@Test public void runsTheAttemptOnTheCallerWithoutThreads() throws Exception{
+		discovery = DeviceDiscovery.synchronous();
+		final Thread caller = Thread.currentThread();
+		final AtomicInteger calls = new AtomicInteger();
+		assertTrue(discovery.discover("a", new Callable<Boolean>() {
+			public Boolean call() {
+				assertEquals(caller, Thread.currentThread());
+				calls.incrementAndGet();
+				return true;
+			}
+		}));
+		assertEquals(1, calls.get());
+		assertEquals(0, discovery.inFlight());
+	}
+
+	@Test public void retriesAFailedAttemptUntilItWorks() throws Exception{
+		discovery = new DeviceDiscovery(2, 0, 3, 10);
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		discovery.discover("a", new Callable<Boolean>() {
+			public Boolean call() {
+				if (calls.incrementAndGet() < 3){
+					throw new RuntimeException("not yet");
+				}
+				done.countDown();
+				return true;
+			}
+		});
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertEquals(3, calls.get());
+	}
+
+	@Test public void givesUpAfterTheRetries() throws Exception{
+		discovery = new DeviceDiscovery(0, 0, 2, 1);
+		final AtomicInteger calls = new AtomicInteger();
+		discovery.discover("a", new Callable<Boolean>() {
+			public Boolean call() {
+				calls.incrementAndGet();
+				return false;
+			}
+		});
+		assertEquals(3, calls.get());
+		assertEquals(0, discovery.inFlight());
+	}
+
+	@Test public void discoversEachDeviceOnceAtATime() throws Exception{
+		discovery = new DeviceDiscovery(2, 0, 0, 0);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<Boolean> blocked = new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				calls.incrementAndGet();
+				release.await();
+				return true;
+			}
+		};
+		assertTrue(discovery.discover("a", blocked));
+		assertFalse(discovery.discover("a", blocked));
+		assertTrue(discovery.discover("b", blocked));
+		assertEquals(2, discovery.inFlight());
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 2000;
+		while (discovery.inFlight() > 0 && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertEquals(0, discovery.inFlight());
+		assertEquals(2, calls.get());
+	}
+}
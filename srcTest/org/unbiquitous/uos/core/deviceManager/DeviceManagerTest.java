@@ -17,6 +17,7 @@ import static org.mockito.Mockito.when;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Before;
@@ -37,12 +38,16 @@ import org.unbiquitous.uos.core.driverManager.DriverManagerException;
 import org.unbiquitous.uos.core.driverManager.DriverModel;
 import org.unbiquitous.uos.core.driverManager.DriverNotFoundException;
 import org.unbiquitous.uos.core.driverManager.ReflectionServiceCaller;
+import org.unbiquitous.uos.core.driverManager.UosDriver;
 import org.unbiquitous.uos.core.driverManager.drivers.Pointer;
+import org.unbiquitous.uos.core.messageEngine.ServiceCallback;
+import org.unbiquitous.uos.core.messageEngine.ServiceFuture;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpService;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpService.ParameterType;
 import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDriver;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
@@ -257,12 +262,19 @@ public class DeviceManagerTest {
 	@Test
 	public void IfDontKnowTheDeviceCallAHandshakeWithIt() throws Exception {
 		NetworkDevice enteree = networkDevice("ADDR_UNKNOWN", "UNEXISTANT");
+		when(gatewayHandshakeCall()).thenReturn(
+				new ServiceResponse().addParameter("device", new UpDevice("A")
+						.addNetworkInterface("ADDR_UNKNOWN", "UNEXISTANT").toString()));
 		deviceManager.deviceEntered(enteree);
 		ArgumentCaptor<ServiceCall> scCacther = ArgumentCaptor
 				.forClass(ServiceCall.class);
-		verify(gateway, times(2)).callService(any(UpDevice.class),
+		verify(gateway, times(3)).callService(any(UpDevice.class),
 				scCacther.capture());
-		ServiceCall parameter = scCacther.getAllValues().get(0);
+		ServiceCall withDrivers = scCacther.getAllValues().get(0);
+		assertEquals("handshakeWithDrivers", withDrivers.getService());
+		assertEquals(currentDevice.toString(), withDrivers.getParameter("device"));
+		// peers not supporting it are handshaked as before
+		ServiceCall parameter = scCacther.getAllValues().get(1);
 		assertEquals("handshake", parameter.getService());
 		assertEquals("uos.DeviceDriver",
 				parameter.getDriver());
@@ -1042,6 +1054,132 @@ public class DeviceManagerTest {
 				any(UpDevice.class), any(String.class));
 	}
 
+	@Test
+	public void handshakesAndRegistersTheDriversInASingleCall() throws Exception {
+		NetworkDevice enteree = networkDevice("ADDR_UNKNOWN", "UNEXISTANT");
+		UpDriver parent = new UpDriver("ParentDriver");
+		parent.addService("s1");
+		UpDriver child = new UpDriver("ChildDriver");
+		child.addService("s1");
+		child.addService("s2");
+		child.addEquivalentDrivers("ParentDriver");
+		JSONObject driverList = new JSONObject();
+		driverList.put("id1", new JSONDriver(child));
+		List<JSONDriver> interfaces = new ArrayList<JSONDriver>();
+		interfaces.add(new JSONDriver(parent));
+		final ServiceResponse response = new ServiceResponse()
+			.addParameter("device", new UpDevice("A").addNetworkInterface("A", "T").toString())
+			.addParameter("driverList", driverList.toString())
+			.addParameter("interfaces", new JSONArray(interfaces).toString());
+		when(gateway.callService(any(UpDevice.class), any(ServiceCall.class)))
+			.thenAnswer(new Answer<ServiceResponse>() {
+				public ServiceResponse answer(InvocationOnMock invocation) throws Throwable {
+					ServiceCall call = (ServiceCall) invocation.getArguments()[1];
+					if ("handshakeWithDrivers".equals(call.getService())){
+						return response;
+					}
+					return null;
+				}
+			});
+		deviceManager.deviceEntered(enteree);
+		
+		assertNotNull(dao.find("A"));
+		List<DriverModel> drivers = driverDao.list(null, "A");
+		assertEquals(1, drivers.size());
+		assertEquals(child, drivers.get(0).driver());
+		assertEquals(parent, driverManager.getDriverFromEquivalanceTree("ParentDriver"));
+		verify(gateway, times(1)).callService(any(UpDevice.class), any(ServiceCall.class));
+	}
+
+	@Test
+	public void sendsTheInterfacesTheCurrentDriversDependOnWhenHandshaking() throws Exception {
+		UpDriver parent = new UpDriver("ParentDriver");
+		parent.addService("s1");
+		driverManager.addToEquivalenceTree(parent);
+		UpDriver child = new UpDriver("ChildDriver");
+		child.addService("s1");
+		child.addEquivalentDrivers("ParentDriver");
+		driverManager.insert(new DriverModel("local", child, currentDevice.getName()));
+		
+		NetworkDevice enteree = networkDevice("ADDR_UNKNOWN", "UNEXISTANT");
+		deviceManager.deviceEntered(enteree);
+		
+		ArgumentCaptor<ServiceCall> calls = ArgumentCaptor.forClass(ServiceCall.class);
+		verify(gateway, times(2)).callService(any(UpDevice.class), calls.capture());
+		ServiceCall withDrivers = calls.getAllValues().get(0);
+		JSONObject sentDrivers = new JSONObject(withDrivers.getParameterString("driverList"));
+		assertEquals(new JSONDriver(child).toString(), sentDrivers.get("local").toString());
+		JSONArray sentInterfaces = new JSONArray(withDrivers.getParameterString("interfaces"));
+		assertEquals(1, sentInterfaces.length());
+		assertEquals(new JSONDriver(parent).toString(), sentInterfaces.getString(0));
+	}
+
+	@Test
+	public void retriesOnlyTheDriverListingWhenItFails() throws Exception {
+		deviceManager.setDiscovery(new DeviceDiscovery(0, 0, 1, 1));
+		NetworkDevice enteree = networkDevice("ADDR_UNKNOWN", "UNEXISTANT");
+		when(gatewayHandshakeCall()).thenReturn(
+				new ServiceResponse().addParameter("device", new UpDevice("A")
+						.addNetworkInterface("A", "T").toString()));
+		UpDriver dummy = new UpDriver("DummyDriver");
+		dummy.addService("s1");
+		JSONObject driverList = new JSONObject();
+		driverList.put("id1", new JSONDriver(dummy));
+		when(gatewayListDriversCall())
+				.thenThrow(new ServiceCallException("timeout"))
+				.thenReturn(new ServiceResponse().addParameter("driverList", driverList));
+		deviceManager.deviceEntered(enteree);
+		ArgumentCaptor<ServiceCall> calls = ArgumentCaptor.forClass(ServiceCall.class);
+		verify(gateway, times(4)).callService(any(UpDevice.class), calls.capture());
+		assertEquals("handshakeWithDrivers", calls.getAllValues().get(0).getService());
+		assertEquals("handshake", calls.getAllValues().get(1).getService());
+		assertEquals("listDrivers", calls.getAllValues().get(2).getService());
+		assertEquals("listDrivers", calls.getAllValues().get(3).getService());
+		assertEquals(1, driverDao.list(null, "A").size());
+	}
+
+	@Test
+	public void callsTheDeviceWithTheDiscoveryTimeout() throws Exception {
+		deviceManager.setDiscovery(new DeviceDiscovery(0, 500, 0, 0));
+		NetworkDevice enteree = networkDevice("ADDR_UNKNOWN", "UNEXISTANT");
+		ServiceFuture handshake = new ServiceFuture(null);
+		handshake.complete(new ServiceResponse().addParameter("device", 
+				new UpDevice("A").addNetworkInterface("A", "T").toString()));
+		when(gateway.callServiceAsync(any(UpDevice.class), any(ServiceCall.class), 
+				eq(500L), any(ServiceCallback.class))).thenReturn(handshake);
+		deviceManager.deviceEntered(enteree);
+		assertNotNull(dao.find("A"));
+		verify(gateway, never()).callService(any(UpDevice.class), any(ServiceCall.class));
+	}
+
+	@Test
+	public void discoveryDoesNotHoldTheCaller() throws Exception {
+		DeviceDiscovery discovery = new DeviceDiscovery(2, 0, 0, 0);
+		deviceManager.setDiscovery(discovery);
+		final CountDownLatch release = new CountDownLatch(1);
+		when(gatewayHandshakeCall()).thenAnswer(new Answer<ServiceResponse>() {
+			public ServiceResponse answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return new ServiceResponse().addParameter("device", 
+						new UpDevice("A").addNetworkInterface("A", "T").toString());
+			}
+		});
+		NetworkDevice enteree = networkDevice("ADDR_UNKNOWN", "UNEXISTANT");
+		deviceManager.deviceEntered(enteree);
+		deviceManager.deviceEntered(enteree);
+		assertNull(dao.find("A"));
+		assertEquals(1, discovery.inFlight());
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 2000;
+		while (discovery.inFlight() > 0 && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertNotNull(dao.find("A"));
+		verify(gateway, times(1)).callService(any(UpDevice.class), eq(new ServiceCall(
+				"uos.DeviceDriver", "handshake", null).addParameter("device", currentDevice.toString())));
+		deviceManager.tearDown();
+	}
+
 	// public void deviceLeft(NetworkDevice device) {
 	@Test
 	public void removeTheDeviceFromDatabaseOnLeft() throws Exception {
@@ -1071,6 +1209,22 @@ public class DeviceManagerTest {
 		assertEquals(1, driverDao.list().size());
 	}
 
+	@Test
+	public void informsTheDepartureListenersOnLeft() throws Exception {
+		NetworkDevice leavingCard = networkDevice("ADDR_UNKNOWN_A", "UNEXISTANT");
+		when(connManager.getHost(eq(leavingCard.getNetworkDeviceName())))
+										.thenReturn("ADDR_UNKNOWN_A");
+		deviceManager.registerDevice(upDevice("leavingMan", leavingCard));
+		DeviceManager.DepartureListener listener = mock(DeviceManager.DepartureListener.class);
+		deviceManager.addDepartureListener(listener);
+
+		deviceManager.deviceLeft(leavingCard);
+		deviceManager.deviceLeft(null);
+
+		verify(listener).deviceLeft(leavingCard);
+		verify(listener, never()).deviceLeft(null);
+	}
+
 	private UpDevice upDevice(String name, NetworkDevice networkCard) {
 		return new UpDevice(name).addNetworkInterface(
 									networkCard.getNetworkDeviceName(),
@@ -1153,4 +1307,175 @@ public class DeviceManagerTest {
 		assertEquals(2, dao.list().size());
 		assertEquals(2, driverDao.list().size());
 	}
+
+	@Test
+	public void appliesTheDriverChangesPushedByADevice() throws Exception {
+		UpDriver dummy = dummyDriver();
+		handshakeWithVersion(networkDevice("A", "T"), "e:1", drivers("id1", dummy));
+		
+		JSONArray changes = new JSONArray();
+		changes.put(new JSONObject().put("id", "id2").put("driver", new JSONDriver(dummy)));
+		changes.put(new JSONObject().put("id", "id1"));
+		deviceManager.handleEvent(driversChanged("A", "e:1", "e:3", changes), "A");
+		
+		List<DriverModel> drivers = driverDao.list(null, "A");
+		assertEquals(1, drivers.size());
+		assertEquals("id2", drivers.get(0).id());
+		verify(gateway, times(1)).callService(any(UpDevice.class), any(ServiceCall.class));
+	}
+
+	@Test
+	public void ignoresTheDriverChangesPushedByAnotherDevice() throws Exception {
+		UpDriver dummy = dummyDriver();
+		handshakeWithVersion(networkDevice("A", "T"), "e:1", drivers("id1", dummy));
+		deviceManager.registerDevice(new UpDevice("B").addNetworkInterface("B", "T"));
+		
+		JSONArray changes = new JSONArray().put(new JSONObject().put("id", "id1"));
+		deviceManager.handleEvent(driversChanged("A", "e:1", "e:2", changes), "B");
+		deviceManager.handleEvent(driversChanged("A", "e:1", "e:2", changes), null);
+		deviceManager.handleEvent(driversChanged("A", "e:1", "e:2", changes));
+		
+		assertEquals(1, driverDao.list(null, "A").size());
+		verify(gateway, times(1)).callService(any(UpDevice.class), any(ServiceCall.class));
+	}
+
+	@Test
+	public void catchesUpWhenAPushedChangeWasMissed() throws Exception {
+		UpDriver dummy = dummyDriver();
+		handshakeWithVersion(networkDevice("A", "T"), "e:1", drivers("id1", dummy));
+		
+		JSONArray missed = new JSONArray();
+		missed.put(new JSONObject().put("id", "id2").put("driver", new JSONDriver(dummy)));
+		String known = new JSONArray(driverManager.getInterfaces().hashes()).toString();
+		when(gateway.callService(any(UpDevice.class), eq(new ServiceCall("uos.DeviceDriver", "listDriverChanges", null)
+											.addParameter("since", "e:1")
+											.addParameter("knownInterfaces", known))))
+			.thenReturn(new ServiceResponse()
+							.addParameter("driversVersion", "e:3")
+							.addParameter("changes", missed.toString()));
+		deviceManager.handleEvent(driversChanged("A", "e:2", "e:3", new JSONArray()), "A");
+		
+		assertEquals(2, driverDao.list(null, "A").size());
+		deviceManager.handleEvent(driversChanged("A", "e:3", "e:4", 
+				new JSONArray().put(new JSONObject().put("id", "id1"))), "A");
+		assertEquals(1, driverDao.list(null, "A").size());
+	}
+
+	@Test
+	public void asksOnlyTheDriverChangesWhenADeviceComesBack() throws Exception {
+		UpDriver dummy = dummyDriver();
+		NetworkDevice enteree = networkDevice("A", "T");
+		handshakeWithVersion(enteree, "e:1", drivers("id1", dummy));
+		deviceManager.deviceLeft(enteree);
+		assertEquals(0, driverDao.list(null, "A").size());
+		
+		JSONArray changes = new JSONArray();
+		changes.put(new JSONObject().put("id", "id2").put("driver", new JSONDriver(dummy)));
+		ServiceResponse response = new ServiceResponse()
+			.addParameter("device", new UpDevice("A").addNetworkInterface("A", "T").toString())
+			.addParameter("driversVersion", "e:2")
+			.addParameter("changes", changes.toString());
+		when(gateway.callService(any(UpDevice.class), any(ServiceCall.class))).thenReturn(response);
+		deviceManager.deviceEntered(enteree);
+		
+		ArgumentCaptor<ServiceCall> calls = ArgumentCaptor.forClass(ServiceCall.class);
+		verify(gateway, times(2)).callService(any(UpDevice.class), calls.capture());
+		assertNull(calls.getAllValues().get(0).getParameter("since"));
+		assertEquals("e:1", calls.getAllValues().get(1).getParameter("since"));
+		assertEquals(2, driverDao.list(null, "A").size());
+	}
+
+	@Test
+	public void pushesTheChangesOfTheCurrentDriversToTheDevicesTrackingThem() throws Exception {
+		handshakeWithVersion(networkDevice("A", "T"), "e:1", new JSONObject());
+		UpDevice untracked = new UpDevice("B").addNetworkInterface("B", "T");
+		deviceManager.registerDevice(untracked);
+		String previous = driverManager.getChangeLog().version();
+		
+		UosDriver local = mock(UosDriver.class);
+		when(local.getDriver()).thenReturn(dummyDriver());
+		driverManager.deployDriver(dummyDriver(), local, "local");
+		
+		ArgumentCaptor<Notify> pushed = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway).sendEventNotify(pushed.capture(), eq(dao.find("A")));
+		verify(gateway, never()).sendEventNotify(any(Notify.class), eq(untracked));
+		Notify notify = pushed.getValue();
+		assertEquals("driversChanged", notify.getEventKey());
+		assertEquals("myDevice", notify.getParameter("device"));
+		assertEquals(previous, notify.getParameter("previousVersion"));
+		assertEquals(driverManager.getChangeLog().version(), notify.getParameter("driversVersion"));
+		JSONArray changes = new JSONArray(notify.getParameter("changes").toString());
+		assertEquals(1, changes.length());
+		assertEquals("local", changes.getJSONObject(0).getString("id"));
+	}
+
+	@Test
+	public void sharesTheInterfaceOfIdenticalDriversFromDifferentDevices() throws Exception {
+		handshakeWithVersion(networkDevice("A", "T"), "e:1", drivers("id1", dummyDriver()));
+		UpDevice other = new UpDevice("B").addNetworkInterface("B", "T");
+		deviceManager.registerRemoteDrivers(other, drivers("id2", dummyDriver()), null);
+		
+		UpDriver first = driverDao.list(null, "A").get(0).driver();
+		UpDriver second = driverDao.list(null, "B").get(0).driver();
+		assertEquals(dummyDriver(), first);
+		assertTrue(first == second);
+	}
+
+	@Test
+	public void registersDriversSentAsReferencesToKnownInterfaces() throws Exception {
+		handshakeWithVersion(networkDevice("A", "T"), "e:1", drivers("id1", dummyDriver()));
+		String hash = driverManager.getInterfaces().hashOf(dummyDriver());
+		JSONObject driverList = new JSONObject();
+		driverList.put("id2", new JSONObject().put("interface", hash));
+		driverList.put("id3", new JSONObject().put("interface", "unknown"));
+		UpDevice other = new UpDevice("B").addNetworkInterface("B", "T");
+		deviceManager.registerRemoteDrivers(other, driverList, null);
+		
+		List<DriverModel> drivers = driverDao.list(null, "B");
+		assertEquals(1, drivers.size());
+		assertEquals("id2", drivers.get(0).id());
+		assertEquals(dummyDriver(), drivers.get(0).driver());
+	}
+
+	@Test
+	public void informsTheInterfacesKnownWhenHandshaking() throws Exception {
+		driverManager.getInterfaces().intern(dummyDriver());
+		deviceManager.deviceEntered(networkDevice("ADDR_UNKNOWN", "UNEXISTANT"));
+		
+		ArgumentCaptor<ServiceCall> calls = ArgumentCaptor.forClass(ServiceCall.class);
+		verify(gateway, times(2)).callService(any(UpDevice.class), calls.capture());
+		JSONArray known = new JSONArray(calls.getAllValues().get(0).getParameterString("knownInterfaces"));
+		assertEquals(1, known.length());
+		assertEquals(driverManager.getInterfaces().hashOf(dummyDriver()), known.getString(0));
+	}
+
+	private UpDriver dummyDriver() {
+		UpDriver dummy = new UpDriver("DummyDriver");
+		dummy.addService("s1");
+		return dummy;
+	}
+
+	private JSONObject drivers(String id, UpDriver driver) throws JSONException {
+		JSONObject driverList = new JSONObject();
+		driverList.put(id, new JSONDriver(driver));
+		return driverList;
+	}
+
+	private void handshakeWithVersion(NetworkDevice enteree, String version, JSONObject driverList) throws Exception {
+		ServiceResponse response = new ServiceResponse()
+			.addParameter("device", new UpDevice("A").addNetworkInterface("A", "T").toString())
+			.addParameter("driversVersion", version)
+			.addParameter("driverList", driverList.toString());
+		when(gateway.callService(any(UpDevice.class), any(ServiceCall.class))).thenReturn(response);
+		deviceManager.deviceEntered(enteree);
+	}
+
+	private Notify driversChanged(String device, String previous, String version, JSONArray changes) {
+		Notify notify = new Notify("driversChanged", "uos.DeviceDriver");
+		notify.addParameter("device", device);
+		notify.addParameter("previousVersion", previous);
+		notify.addParameter("driversVersion", version);
+		notify.addParameter("changes", changes.toString());
+		return notify;
+	}
 }
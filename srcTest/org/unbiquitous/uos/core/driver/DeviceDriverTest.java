@@ -19,6 +19,8 @@ public class DeviceDriverTest {
 				new UpService("listDrivers")
 					.addParameter("driverName", 
 							UpService.ParameterType.OPTIONAL)
+					.addParameter("knownInterfaces", 
+							UpService.ParameterType.OPTIONAL)
 				);	
 	}
 	
@@ -47,6 +49,38 @@ public class DeviceDriverTest {
 				);	
 	}
 	
+	@Test public void declareHandshakeWithDrivers(){
+		assertThat(instance.getDriver().getServices())
+				.contains(
+					new UpService("handshakeWithDrivers")
+						.addParameter("device",
+							UpService.ParameterType.MANDATORY)
+						.addParameter("driverList",
+							UpService.ParameterType.OPTIONAL)
+						.addParameter("interfaces",
+							UpService.ParameterType.OPTIONAL)
+						.addParameter("driversVersion",
+							UpService.ParameterType.OPTIONAL)
+						.addParameter("changes",
+							UpService.ParameterType.OPTIONAL)
+						.addParameter("since",
+							UpService.ParameterType.OPTIONAL)
+						.addParameter("knownInterfaces",
+							UpService.ParameterType.OPTIONAL)
+				);	
+	}
+	
+	@Test public void declareListDriverChanges(){
+		assertThat(instance.getDriver().getServices())
+				.contains(
+					new UpService("listDriverChanges")
+						.addParameter("since",
+							UpService.ParameterType.OPTIONAL)
+						.addParameter("knownInterfaces",
+							UpService.ParameterType.OPTIONAL)
+				);	
+	}
+	
 	@Test public void declareTellEquivalentDriver(){
 		assertThat(instance.getDriver().getServices())
 				.contains(
@@ -17,11 +17,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.unbiquitous.json.JSONArray;
 import org.unbiquitous.json.JSONObject;
 import org.unbiquitous.uos.core.UOS;
 import org.unbiquitous.uos.core.adaptabitilyEngine.AdaptabilityEngine;
 import org.unbiquitous.uos.core.adaptabitilyEngine.SmartSpaceGateway;
 import org.unbiquitous.uos.core.deviceManager.DeviceManager;
+import org.unbiquitous.uos.core.driverManager.DriverData;
 import org.unbiquitous.uos.core.driverManager.DriverManager;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
@@ -212,6 +214,81 @@ public class DeviceDriverTest_handShake {
 		assertThat(driverManager.listDrivers("ddd", "Dummy")).isNotEmpty();
 	}
 
+	@Test public void handshakeWithDriversRegistersTheCallerDriversWithoutCallingIt() throws Exception{
+		SmartSpaceGateway gateway = mockGateway(currentDevice);
+		driver.init(gateway, "id");
+		
+		UpDevice toRegister = new UpDevice("Dummy")
+										.addNetworkInterface("HERE", "LOCAL");
+		JSONObject driversList = new JSONObject();
+		UpDriver dummyInterface = new UpDriver("ddd");
+		dummyInterface.addService("s");
+		driversList.put("id_d", new JSONDriver(dummyInterface));
+		
+		ServiceCall call = new ServiceCall()
+					.addParameter("device",new JSONDevice(toRegister).toString())
+					.addParameter("driverList",driversList.toString())
+					.addParameter("interfaces","[]");
+		ServiceResponse response = new ServiceResponse();
+		driver.handshakeWithDrivers(call, response, null);
+		
+		assertThat(response.getError()).isNullOrEmpty();
+		assertThat(deviceManager.listDevices()).contains(toRegister);
+		assertThat(driverManager.listDrivers("ddd", "Dummy")).isNotEmpty();
+		verify(gateway, times(0)).callService((UpDevice)any(), (ServiceCall)any());
+	}
+	
+	@Test public void handshakeWithDriversReturnsTheCurrentDeviceAndItsDrivers() throws Exception{
+		UpDevice toRegister = new UpDevice("Dummy")
+										.addNetworkInterface("HERE", "LOCAL");
+		ServiceCall call = new ServiceCall()
+					.addParameter("device",new JSONDevice(toRegister).toString());
+		ServiceResponse response = new ServiceResponse();
+		driver.handshakeWithDrivers(call, response, null);
+		
+		assertThat(response.getError()).isNullOrEmpty();
+		assertThat(response.getResponseData("device"))
+			.isEqualTo(new JSONDevice(currentDevice).toString());
+		JSONObject driverList = new JSONObject(response.getResponseString("driverList"));
+		for (DriverData data : driverManager.listDrivers(null, currentDevice.getName())){
+			assertThat(driverList.getString(data.getInstanceID()))
+				.isEqualTo(new JSONDriver(data.getDriver()).toString());
+		}
+		assertThat(driverList.length()).isGreaterThan(0);
+		assertThat(response.getResponseString("interfaces")).isEqualTo("[]");
+	}
+	
+	@Test public void handshakeWithDriversReferencesTheInterfacesKnownByTheCaller() throws Exception{
+		UpDevice toRegister = new UpDevice("Dummy")
+										.addNetworkInterface("HERE", "LOCAL");
+		String known = driverManager.getInterfaces().hashOf(driver.getDriver());
+		ServiceCall call = new ServiceCall()
+					.addParameter("device",new JSONDevice(toRegister).toString())
+					.addParameter("knownInterfaces",new JSONArray().put(known).toString());
+		ServiceResponse response = new ServiceResponse();
+		driver.handshakeWithDrivers(call, response, null);
+		
+		assertThat(response.getError()).isNullOrEmpty();
+		JSONObject driverList = new JSONObject(response.getResponseString("driverList"));
+		for (DriverData data : driverManager.listDrivers(null, currentDevice.getName())){
+			JSONObject sent = driverList.getJSONObject(data.getInstanceID());
+			if (data.getDriver().getName().equals("uos.DeviceDriver")){
+				assertThat(sent.getString("interface")).isEqualTo(known);
+				assertThat(sent.has("name")).isFalse();
+			}else{
+				assertThat(sent.toString()).isEqualTo(new JSONDriver(data.getDriver()).toString());
+			}
+		}
+	}
+	
+	@Test public void handshakeWithDriversNeedsTheDevice() throws Exception{
+		ServiceResponse response = new ServiceResponse();
+		driver.handshakeWithDrivers(new ServiceCall(), response, null);
+		
+		assertThat(response.getResponseData()).isNullOrEmpty();
+		assertThat(response.getError()).isNotEmpty();
+	}
+
 	private SmartSpaceGateway mockGateway(UpDevice currentDevice) {
 		SmartSpaceGateway gateway = mock(SmartSpaceGateway.class);
 		when(gateway.getDeviceManager()).thenReturn(deviceManager);
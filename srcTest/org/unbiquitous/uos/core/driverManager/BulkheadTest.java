@@ -0,0 +1,196 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.driverManager.ExecutionPolicy.Pool;
+
+public class BulkheadTest {
+
+	private ExecutorService callers;
+	private CountDownLatch release;
+
+	@Before
+	public void setUp(){
+		callers = Executors.newCachedThreadPool();
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown(){
+		release.countDown();
+		callers.shutdownNow();
+	}
+
+	@Test
+	public void executesOnTheCallerWithoutAPool() throws Exception{
+		Bulkhead bulkhead = new Bulkhead("driver", new ExecutionPolicy(0, 0, 0, Pool.CALLER), null);
+		assertEquals(Thread.currentThread().getName(), bulkhead.execute(new Callable<String>() {
+			public String call() {
+				return Thread.currentThread().getName();
+			}
+		}));
+		assertEquals(1, bulkhead.completed());
+	}
+
+	@Test
+	public void executesOnItsOwnThreadsWhenDedicated() throws Exception{
+		Bulkhead bulkhead = new Bulkhead("driver", new ExecutionPolicy(2, 0, 0, Pool.DEDICATED), null);
+		String thread = bulkhead.execute(new Callable<String>() {
+			public String call() {
+				return Thread.currentThread().getName();
+			}
+		});
+		assertTrue(thread, thread.startsWith("uos-driver-"));
+		bulkhead.shutdown();
+	}
+
+	@Test
+	public void executesOnTheSharedThreads() throws Exception{
+		ExecutorService shared = Executors.newSingleThreadExecutor();
+		final Thread[] used = new Thread[2];
+		Bulkhead bulkhead = new Bulkhead("driver", new ExecutionPolicy(0, 0, 0, Pool.SHARED), shared);
+		used[0] = bulkhead.execute(new Callable<Thread>() {
+			public Thread call() {
+				return Thread.currentThread();
+			}
+		});
+		used[1] = shared.submit(new Callable<Thread>() {
+			public Thread call() {
+				return Thread.currentThread();
+			}
+		}).get();
+		assertEquals(used[1], used[0]);
+		shared.shutdown();
+	}
+
+	@Test
+	public void rejectsTheCallsBeyondTheQueue() throws Exception{
+		Bulkhead bulkhead = new Bulkhead("driver", new ExecutionPolicy(1, 1, 0, Pool.CALLER), null);
+		CountDownLatch started = new CountDownLatch(1);
+		callers.submit(blocked(bulkhead, started));
+		started.await();
+		callers.submit(blocked(bulkhead, new CountDownLatch(1)));
+		waitFor(bulkhead, 1);
+
+		try {
+			bulkhead.execute(blocking(new CountDownLatch(1)));
+			fail("Should be rejected");
+		} catch (RejectedExecutionException e) {}
+
+		assertEquals(1, bulkhead.active());
+		assertEquals(1, bulkhead.waiting());
+		assertEquals(1, bulkhead.rejected());
+		release.countDown();
+		callers.shutdown();
+		callers.awaitTermination(1, TimeUnit.SECONDS);
+		assertEquals(2, bulkhead.completed());
+	}
+
+	@Test
+	public void timesOutWaitingForATurn() throws Exception{
+		Bulkhead bulkhead = new Bulkhead("driver", new ExecutionPolicy(1, 1, 50, Pool.CALLER), null);
+		CountDownLatch started = new CountDownLatch(1);
+		callers.submit(blocked(bulkhead, started));
+		started.await();
+		try {
+			bulkhead.execute(blocking(new CountDownLatch(1)));
+			fail("Should time out");
+		} catch (TimeoutException e) {}
+		assertEquals(1, bulkhead.timedOut());
+		assertEquals(0, bulkhead.waiting());
+	}
+
+	@Test
+	public void keepsTheTurnOfAnAbandonedCallUntilItFinishes() throws Exception{
+		final CountDownLatch stuck = new CountDownLatch(1);
+		Bulkhead bulkhead = new Bulkhead("driver", new ExecutionPolicy(1, 0, 50, Pool.DEDICATED), null);
+		try {
+			bulkhead.execute(new Callable<Object>() {
+				public Object call() throws Exception {
+					// ignores the interruption, as a stuck driver would
+					while (stuck.getCount() > 0){
+						try {
+							stuck.await();
+						} catch (InterruptedException e) {}
+					}
+					return null;
+				}
+			});
+			fail("Should time out");
+		} catch (TimeoutException e) {}
+		assertEquals(1, bulkhead.timedOut());
+		assertEquals(1, bulkhead.active());
+
+		try {
+			bulkhead.execute(blocking(new CountDownLatch(1)));
+			fail("Should be rejected");
+		} catch (RejectedExecutionException e) {}
+
+		stuck.countDown();
+		waitFor(bulkhead, 0);
+		release.countDown();
+		bulkhead.execute(blocking(new CountDownLatch(1)));
+		bulkhead.shutdown();
+	}
+
+	@Test
+	public void countsTheFailures() throws Exception{
+		Bulkhead bulkhead = new Bulkhead("driver", new ExecutionPolicy(1, 0, 0, Pool.DEDICATED), null);
+		try {
+			bulkhead.execute(new Callable<Object>() {
+				public Object call() throws Exception {
+					throw new IllegalStateException("Failed on purpose");
+				}
+			});
+			fail("Should fail");
+		} catch (IllegalStateException e) {}
+		assertEquals(1, bulkhead.failed());
+		assertEquals(0, bulkhead.active());
+		bulkhead.shutdown();
+	}
+
+	private Callable<Object> blocked(final Bulkhead bulkhead, final CountDownLatch started){
+		return new Callable<Object>() {
+			public Object call() throws Exception {
+				return bulkhead.execute(blocking(started));
+			}
+		};
+	}
+
+	private Callable<Object> blocking(final CountDownLatch started){
+		return new Callable<Object>() {
+			public Object call() throws Exception {
+				started.countDown();
+				release.await();
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Waits until the bulkhead has the informed calls waiting or, when none,
+	 * none active.
+	 */
+	private static void waitFor(Bulkhead bulkhead, int waiting) throws InterruptedException{
+		for (int i = 0; i < 200; i++){
+			if (waiting > 0 ? bulkhead.waiting() == waiting : bulkhead.active() == 0){
+				return;
+			}
+			Thread.sleep(5);
+		}
+		fail("Bulkhead never reached the expected state: "+bulkhead);
+	}
+}
@@ -0,0 +1,88 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+
+public class DriverChangeLogTest {
+
+	private DriverChangeLog log;
+	private UpDriver driver;
+
+	@Before public void setUp(){
+		log = new DriverChangeLog(3);
+		driver = new UpDriver("DummyDriver");
+	}
+
+	@Test public void changesTheVersionOnEachChange(){
+		String initial = log.version();
+		log.deployed("id1", driver);
+		String deployed = log.version();
+		log.undeployed("id1");
+		assertFalse(initial.equals(deployed));
+		assertFalse(deployed.equals(log.version()));
+	}
+
+	@Test public void listsTheChangesSinceAVersion(){
+		log.deployed("id1", driver);
+		String version = log.version();
+		log.deployed("id2", driver);
+		log.undeployed("id1");
+		
+		List<DriverChangeLog.Change> changes = log.since(version);
+		assertEquals(2, changes.size());
+		assertEquals("id2", changes.get(0).instanceId());
+		assertTrue(changes.get(0).isDeployed());
+		assertEquals(driver, changes.get(0).driver());
+		assertEquals("id1", changes.get(1).instanceId());
+		assertFalse(changes.get(1).isDeployed());
+		assertEquals(log.version(), changes.get(1).version());
+	}
+
+	@Test public void nothingChangedSinceTheCurrentVersion(){
+		log.deployed("id1", driver);
+		assertTrue(log.since(log.version()).isEmpty());
+	}
+
+	@Test public void cantTellTheChangesOfAVersionFromAnotherLog(){
+		String version = new DriverChangeLog().version();
+		assertNull(log.since(version));
+		assertNull(log.since(null));
+		assertNull(log.since("garbage"));
+	}
+
+	@Test public void cantTellTheChangesOfAVersionTooOld(){
+		String initial = log.version();
+		log.deployed("id1", driver);
+		String first = log.version();
+		for (int i = 2; i <= 4; i++){
+			log.deployed("id"+i, driver);
+		}
+		assertNull(log.since(initial));
+		assertEquals(3, log.since(first).size());
+	}
+
+	@Test public void informsTheListenersOfEachChange(){
+		final List<String> informed = new ArrayList<String>();
+		DriverChangeLog.Listener listener = new DriverChangeLog.Listener() {
+			public void driverChanged(DriverChangeLog.Change change, String previousVersion) {
+				informed.add(previousVersion+">"+change.version());
+			}
+		};
+		log.addListener(listener);
+		String initial = log.version();
+		log.deployed("id1", driver);
+		log.removeListener(listener);
+		log.undeployed("id1");
+		assertEquals(1, informed.size());
+		assertEquals(initial+">"+log.since(initial).get(0).version(), informed.get(0));
+	}
+}
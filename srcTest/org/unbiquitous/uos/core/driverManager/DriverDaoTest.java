@@ -5,6 +5,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -230,4 +234,48 @@ public class DriverDaoTest {
 		dao.insert(createDriver("id.b1","b", "Db"));
 		assertNull(dao.retrieve("id.a1","Dc"));
 	}
+	
+	@Test public void retrieveTheFirstDriverOfADeviceWhenNoIdIsInformed(){
+		dao.insert(createDriver("id.b","b", "Da"));
+		dao.insert(createDriver("id.a","a", "Da"));
+		assertEquals("id.b", dao.retrieve(null,"da").id());
+		dao.delete("id.b", "Da");
+		assertEquals("id.a", dao.retrieve(null,"Da").id());
+	}
+	
+	@Test public void listedDriversAreNotChangedByLaterInserts(){
+		dao.insert(createDriver("id.b","b", "Da"));
+		List<DriverModel> before = dao.list(null, "Da");
+		dao.insert(createDriver("id.a","a", "Da"));
+		assertEquals(1, before.size());
+		assertEquals(2, dao.list(null, "Da").size());
+		assertEquals("id.a", dao.list(null, "Da").get(0).id());
+	}
+	
+	@Test public void canBeReadWhileOtherThreadWrites() throws Exception{
+		final List<Throwable> errors = new Vector<Throwable>();
+		Thread writer = new Thread(){
+			public void run() {
+				try {
+					for (int i = 0; i < 2000; i++){
+						dao.insert(createDriver("id"+i, "driver"+(i % 5), "D"+(i % 7)));
+						if (i % 3 == 0) dao.delete("id"+(i/2), "D"+((i/2) % 7));
+					}
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			}
+		};
+		writer.start();
+		while (writer.isAlive()){
+			for (DriverModel d : dao.list("driver1")){
+				assertNotNull(d.driver());
+			}
+			for (DriverModel d : dao.list("driver2", "D3")){
+				assertEquals("d3", d.device().toLowerCase());
+			}
+			dao.retrieve("id10", "D3");
+		}
+		assertEquals(new ArrayList<Throwable>(), errors);
+	}
 }
@@ -0,0 +1,102 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService.ParameterType;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDriver;
+
+public class DriverInterfacesTest {
+
+	private DriverInterfaces interfaces;
+
+	@Before public void setUp(){
+		interfaces = new DriverInterfaces();
+	}
+
+	private UpDriver driver(String... services){
+		UpDriver driver = new UpDriver("DummyDriver");
+		for (String service : services){
+			driver.addService(service).addParameter("p", ParameterType.MANDATORY);
+		}
+		return driver;
+	}
+
+	@Test public void sharesTheSameInterface(){
+		UpDriver first = interfaces.intern(driver("s1", "s2"));
+		UpDriver second = interfaces.intern(driver("s1", "s2"));
+		assertSame(first, second);
+		assertEquals(driver("s1", "s2"), first);
+		assertEquals(1, interfaces.size());
+	}
+
+	@Test public void theOrderOfTheServicesDoesntMatter(){
+		assertEquals(interfaces.hashOf(driver("s1", "s2")), interfaces.hashOf(driver("s2", "s1")));
+	}
+
+	@Test public void differentParametersAreDifferentInterfaces(){
+		UpDriver optional = driver("s1");
+		optional.getServices().get(0).addParameter("p", ParameterType.OPTIONAL);
+		assertFalse(interfaces.hashOf(driver("s1")).equals(interfaces.hashOf(optional)));
+		UpDriver equivalent = driver("s1");
+		equivalent.addEquivalentDrivers("Parent");
+		assertFalse(interfaces.hashOf(driver("s1")).equals(interfaces.hashOf(equivalent)));
+	}
+
+	@Test public void internedDriversCantBeChanged(){
+		UpDriver interned = interfaces.intern(driver("s1"));
+		try {
+			interned.addService("s2");
+			fail("Interned driver changed");
+		} catch (UnsupportedOperationException e) {}
+		try {
+			interned.getServices().get(0).addParameter("q", ParameterType.OPTIONAL);
+			fail("Interned service changed");
+		} catch (UnsupportedOperationException e) {}
+		try {
+			interned.setName("other");
+			fail("Interned driver changed");
+		} catch (UnsupportedOperationException e) {}
+	}
+
+	@Test public void sendsOnlyAReferenceWhenTheInterfaceIsKnown() throws Exception{
+		UpDriver driver = driver("s1");
+		String hash = interfaces.hashOf(driver);
+		JSONObject reference = interfaces.toJSON(driver, Collections.singleton(hash));
+		assertEquals(hash, reference.getString(DriverInterfaces.REFERENCE_KEY));
+		assertFalse(reference.has("name"));
+		assertEquals(new JSONDriver(driver).toString(), 
+					interfaces.toJSON(driver, Collections.singleton("other")).toString());
+	}
+
+	@Test public void readsDriversAndReferencesToThem() throws Exception{
+		UpDriver read = interfaces.fromJSON(new JSONDriver(driver("s1")).toString());
+		assertEquals(driver("s1"), read);
+		assertSame(read, interfaces.fromJSON(interfaces.reference(driver("s1")).toString()));
+		assertSame(read, interfaces.get(interfaces.hashOf(driver("s1"))));
+	}
+
+	@Test public void failsOnReferencesToUnknownInterfaces() throws Exception{
+		assertNull(interfaces.get("unknown"));
+		try {
+			interfaces.fromJSON("{\"interface\":\"unknown\"}");
+			fail("Unknown interface resolved");
+		} catch (JSONException e) {}
+	}
+
+	@Test public void readsTheKnownHashes() throws Exception{
+		assertTrue(DriverInterfaces.hashesFrom(null).isEmpty());
+		assertEquals(2, DriverInterfaces.hashesFrom("[\"a\",\"b\"]").size());
+	}
+}
@@ -124,6 +124,86 @@ public class DriverManagerTest {
 		assertTrue(secondLevelEquivalentDriver.called);
 	}
 	
+	@Test
+	public void shouldCallServiceFromAnEquivalentDriverBelowAnyChild() throws DriverManagerException, InterfaceValidationException, DriverNotFoundException{
+		manager.insert(new DriverModel("id1",driver.upDriver,"my.Phone"));
+		
+		DriverSpy firstChild = new DriverSpy("Ironhide");
+		firstChild.upDriver.addEquivalentDrivers(driver.upDriver.getName());
+		manager.insert(new DriverModel("id2",firstChild.upDriver,"my.SecondPhone"));
+		
+		DriverSpy secondChild = new DriverSpy("Ratchet");
+		secondChild.upDriver.addEquivalentDrivers(driver.upDriver.getName());
+		manager.insert(new DriverModel("id3",secondChild.upDriver,"my.SecondPhone"));
+		
+		DriverSpy belowSecondChild = new DriverSpy("Bumblebee");
+		belowSecondChild.upDriver.addEquivalentDrivers(secondChild.upDriver.getName());
+		manager.deployDriver(belowSecondChild.upDriver, belowSecondChild);
+		
+		manager.handleServiceCall(new ServiceCall("driver","service"), null);
+		assertTrue(belowSecondChild.called);
+	}
+	
+	@Test(expected=DriverManagerException.class)
+	public void shouldNotCallAnEquivalentDriverAfterItsUndeployed() throws DriverManagerException, InterfaceValidationException, DriverNotFoundException{
+		manager.insert(new DriverModel("id1",driver.upDriver,"my.Phone"));
+		DriverSpy equivalentDriver = new DriverSpy("Bumblebee");
+		equivalentDriver.upDriver.addEquivalentDrivers(driver.upDriver.getName());
+		manager.deployDriver(equivalentDriver.upDriver, equivalentDriver, "bee");
+		manager.undeployDriver("bee");
+		manager.handleServiceCall(new ServiceCall("driver","service"), null);
+	}
+	
+	@Test
+	public void shouldListOnlyTheEquivalentDriversOfTheInformedDevice() throws DriverManagerException, DriverNotFoundException{
+		UpDriver parent = new UpDriver("d0");
+		manager.insert(new DriverModel("id0",parent,currentDevice.getName()));
+		UpDriver child = new UpDriver("d1");
+		child.addEquivalentDrivers(parent.getName());
+		manager.insert(new DriverModel("id1",child,currentDevice.getName()));
+		manager.insert(new DriverModel("id2",child,"other"));
+		
+		List<DriverData> local = manager.listDrivers("d0", currentDevice.getName());
+		assertEquals(2,local.size());
+		assertEquals("id0",local.get(0).getInstanceID());
+		assertEquals("id1",local.get(1).getInstanceID());
+		assertEquals(3,manager.listDrivers("d0", null).size());
+		
+		manager.delete("id1", currentDevice.getName());
+		assertEquals(1,manager.listDrivers("d0", currentDevice.getName()).size());
+		assertEquals(2,manager.listDrivers("d0", null).size());
+	}
+	
+	@Test
+	public void shouldSpreadCallsAmongTheInstancesOfTheDriver() throws DriverManagerException, DriverNotFoundException{
+		DriverSpy other = new DriverSpy();
+		manager.deployDriver(driver.upDriver, driver, "one");
+		manager.deployDriver(other.upDriver, other, "two");
+		
+		manager.handleServiceCall(new ServiceCall("driver","service"), null);
+		manager.handleServiceCall(new ServiceCall("driver","service"), null);
+		
+		assertTrue(driver.called);
+		assertTrue(other.called);
+		DriverModel one = dao.retrieve("one", currentDevice.getName());
+		assertEquals(1,manager.getStats().of(one).calls());
+		assertEquals(0,manager.getStats().of(one).inFlight());
+	}
+	
+	@Test
+	public void shouldUseTheSelectorOfTheDriverCalled() throws DriverManagerException, DriverNotFoundException{
+		DriverSpy other = new DriverSpy();
+		manager.deployDriver(driver.upDriver, driver, "one");
+		manager.deployDriver(other.upDriver, other, "two");
+		manager.setSelector("driver", InstanceSelectors.first());
+		
+		manager.handleServiceCall(new ServiceCall("driver","service"), null);
+		manager.handleServiceCall(new ServiceCall("driver","service"), null);
+		
+		assertTrue(driver.called);
+		assertFalse(other.called);
+	}
+	
 	@Test(expected=DriverManagerException.class)
 	public void shouldFailOnTryingToFindAnEquivalentDriverToHandleServiceCall() throws DriverManagerException, DriverNotFoundException, InterfaceValidationException {
 		manager.insert(new DriverModel("id1",driver.upDriver,"my.Phone"));
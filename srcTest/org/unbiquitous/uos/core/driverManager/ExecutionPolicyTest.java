@@ -0,0 +1,64 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.driverManager.ExecutionPolicy.Pool;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+public class ExecutionPolicyTest {
+
+	@Test
+	public void parsesThePoliciesOfTheDriverAndOfItsServices(){
+		Map<String, ExecutionPolicy> policies = ExecutionPolicy.parse(
+				"maxConcurrent=4, queue=16,timeout=2000,pool=dedicated,Render.maxConcurrent=1,render.pool=shared");
+		assertThat(policies).hasSize(2);
+		assertEquals(new ExecutionPolicy(4, 16, 2000, Pool.DEDICATED), policies.get(ExecutionPolicy.DRIVER));
+		assertEquals(new ExecutionPolicy(1, 0, 0, Pool.SHARED), policies.get("render"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void failsOnUnknownPolicies(){
+		ExecutionPolicy.parse("threads=4");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void failsOnMalformedValues(){
+		ExecutionPolicy.parse("maxConcurrent=many");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void failsOnUnknownPools(){
+		ExecutionPolicy.parse("pool=somewhere");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void failsOnTimeoutsOfTheCallerPool(){
+		ExecutionPolicy.parse("maxConcurrent=1,timeout=2000");
+	}
+
+	@Test
+	public void readsThePoliciesDeclaredOnTheClassAndItsServices(){
+		Map<String, ExecutionPolicy> policies = ExecutionPolicy.declaredBy(Declared.class);
+		assertThat(policies).hasSize(2);
+		assertEquals(new ExecutionPolicy(2, 4, 0, Pool.CALLER), policies.get(ExecutionPolicy.DRIVER));
+		assertEquals(new ExecutionPolicy(1, 0, 100, Pool.DEDICATED), policies.get("slowservice"));
+	}
+
+	@Test
+	public void declaresNoPoliciesByDefault(){
+		assertThat(ExecutionPolicy.declaredBy(Object.class)).isEmpty();
+	}
+
+	@ServicePolicy(maxConcurrent=2, queue=4)
+	public static class Declared {
+		@ServicePolicy(maxConcurrent=1, timeout=100, pool=Pool.DEDICATED)
+		public void slowService(ServiceCall call, ServiceResponse response, UOSMessageContext context){}
+		public void fastService(ServiceCall call, ServiceResponse response, UOSMessageContext context){}
+	}
+}
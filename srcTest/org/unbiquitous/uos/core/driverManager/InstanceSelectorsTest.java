@@ -0,0 +1,199 @@
+package org.unbiquitous.uos.core.driverManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+
+public class InstanceSelectorsTest {
+
+	private InstanceStats stats;
+	private DriverModel first;
+	private DriverModel second;
+	private DriverModel third;
+	private List<DriverModel> candidates;
+
+	@Before
+	public void setUp(){
+		stats = new InstanceStats();
+		UpDriver driver = new UpDriver("driver");
+		first = new DriverModel(1L, "first", driver, "device");
+		second = new DriverModel(2L, "second", driver, "device");
+		third = new DriverModel(3L, "third", driver, "device");
+		candidates = Arrays.asList(first, second, third);
+	}
+
+	@Test
+	public void roundRobinTakesEachInstanceInTurn(){
+		InstanceSelector selector = InstanceSelectors.roundRobin();
+		assertSame(first, selector.select("driver", candidates, null, stats));
+		assertSame(second, selector.select("driver", candidates, null, stats));
+		assertSame(third, selector.select("driver", candidates, null, stats));
+		assertSame(first, selector.select("driver", candidates, null, stats));
+	}
+
+	@Test
+	public void roundRobinKeepsTheTurnsOfEachDriver(){
+		InstanceSelector selector = InstanceSelectors.roundRobin();
+		assertSame(first, selector.select("driver", candidates, null, stats));
+		assertSame(first, selector.select("other", candidates, null, stats));
+		assertSame(second, selector.select("driver", candidates, null, stats));
+	}
+
+	@Test
+	public void leastInFlightAvoidsTheBusyInstances(){
+		stats.started(first);
+		stats.started(first);
+		stats.started(second);
+		InstanceSelector selector = InstanceSelectors.leastInFlight();
+		for (int i = 0; i < 3; i++){
+			assertSame(third, selector.select("driver", candidates, null, stats));
+		}
+		stats.started(third);
+		stats.started(third);
+		assertSame(second, selector.select("driver", candidates, null, stats));
+	}
+
+	@Test
+	public void latencyPrefersTheFastestInstances(){
+		sample(first, 1000);
+		sample(second, 10);
+		sample(third, 100);
+		InstanceSelector selector = InstanceSelectors.latency();
+		assertSame(second, selector.select("driver", candidates, null, stats));
+		for (int i = 0; i < 10; i++){
+			stats.started(second);
+		}
+		assertSame(third, selector.select("driver", candidates, null, stats));
+	}
+
+	@Test
+	public void latencyTriesTheInstancesNotCalledYet(){
+		sample(first, 10);
+		sample(second, 10);
+		assertSame(third, InstanceSelectors.latency().select("driver", candidates, null, stats));
+	}
+
+	@Test
+	public void latencyDoesntPileCallsOnAnInstanceWhichNeverAnswered(){
+		sample(first, 10);
+		sample(second, 100);
+		stats.started(third);
+		InstanceSelector selector = InstanceSelectors.latency();
+		for (int i = 0; i < 10; i++){
+			assertSame(first, selector.select("driver", candidates, null, stats));
+		}
+		for (int i = 0; i < 10; i++){
+			stats.started(first);
+		}
+		assertSame(second, selector.select("driver", candidates, null, stats));
+	}
+
+	@Test
+	public void latencyAveragesTheSamples(){
+		sample(first, 100);
+		sample(first, 200);
+		assertEquals(120, stats.of(first).latency(), 0.001);
+		assertEquals(2, stats.of(first).calls());
+	}
+
+	@Test
+	public void affinityKeepsEachCallerOnTheSameInstance(){
+		InstanceSelector selector = InstanceSelectors.affinity();
+		Set<DriverModel> chosen = new HashSet<DriverModel>();
+		for (int i = 0; i < 30; i++){
+			UOSMessageContext context = callerContext("device"+i);
+			DriverModel model = selector.select("driver", candidates, context, stats);
+			assertSame(model, selector.select("driver", candidates, context, stats));
+			chosen.add(model);
+		}
+		assertTrue("callers must be spread", chosen.size() > 1);
+	}
+
+	@Test
+	public void affinityMovesOnlyTheCallersOfAnInstanceGone(){
+		InstanceSelector selector = InstanceSelectors.affinity();
+		List<DriverModel> remaining = Arrays.asList(first, third);
+		for (int i = 0; i < 30; i++){
+			UOSMessageContext context = callerContext("device"+i);
+			DriverModel before = selector.select("driver", candidates, context, stats);
+			DriverModel after = selector.select("driver", remaining, context, stats);
+			if (before != second){
+				assertSame(before, after);
+			}else{
+				assertNotSame(second, after);
+			}
+		}
+	}
+
+	@Test
+	public void affinityWithoutCallerTakesTurns(){
+		InstanceSelector selector = InstanceSelectors.affinity();
+		assertSame(first, selector.select("driver", candidates, null, stats));
+		assertSame(second, selector.select("driver", candidates, new UOSMessageContext(), stats));
+	}
+
+	@Test
+	public void findsTheSelectorsByName(){
+		assertSame(first, InstanceSelectors.named("first").select("driver", candidates, null, stats));
+		assertTrue(InstanceSelectors.named(FixedSelector.class.getName()) instanceof FixedSelector);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void failsOnUnknownSelectors(){
+		InstanceSelectors.named("nonsense");
+	}
+
+	@Test
+	public void configuresTheSelectorsFromTheProperties(){
+		DriverManager manager = mock(DriverManager.class);
+		InstanceSelectors.configure(manager, new ListResourceBundle() {
+			protected Object[][] getContents() {
+				return new Object[][]{
+						{"ubiquitos.driver.selector", "leastInFlight"},
+						{"ubiquitos.driver.selector.my.Driver", FixedSelector.class.getName()},
+						{"ubiquitos.driver.selector.bad", "nonsense"},
+				};
+			}
+		});
+		verify(manager).setSelector(Mockito.any(InstanceSelector.class));
+		verify(manager).setSelector(Mockito.eq("my.Driver"), Mockito.isA(FixedSelector.class));
+		verify(manager, Mockito.never()).setSelector(Mockito.eq("bad"), Mockito.any(InstanceSelector.class));
+	}
+
+	private void sample(DriverModel model, long nanos){
+		stats.started(model);
+		stats.finished(model, nanos, false);
+	}
+
+	private static UOSMessageContext callerContext(String name){
+		NetworkDevice caller = mock(NetworkDevice.class);
+		when(caller.getNetworkDeviceName()).thenReturn(name);
+		UOSMessageContext context = new UOSMessageContext();
+		context.setCallerDevice(caller);
+		return context;
+	}
+
+	public static class FixedSelector implements InstanceSelector {
+		public DriverModel select(String driver, List<DriverModel> candidates,
+				UOSMessageContext messageContext, InstanceStats stats) {
+			return candidates.get(candidates.size() - 1);
+		}
+	}
+}
@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -89,6 +90,24 @@ public class ReflectionServiceCallerTest {
 		assertNull(driver.capturedResponse.getResponseData());
 	}
 	
+	@Test public void shouldIgnoreNonCompliantOverloadsOfAService() throws Exception{
+		ServiceCall call = new ServiceCall(null, "overloadedService");
+		OverloadedDriverSpy driver = new OverloadedDriverSpy();
+		caller.registerDriver(driver);
+		caller.callServiceOnDriver(call, driver, new UOSMessageContext());
+		assertEquals(call,driver.capturedCall);
+	}
+	
+	@Test public void shouldCallEachInstanceOfARegisteredDriverClass() throws Exception{
+		OverloadedDriverSpy first = new OverloadedDriverSpy();
+		OverloadedDriverSpy second = new OverloadedDriverSpy();
+		caller.registerDriver(first);
+		ServiceCall call = new ServiceCall(null, "myService");
+		caller.callServiceOnDriver(call, second, new UOSMessageContext());
+		assertNull(first.capturedCall);
+		assertEquals(call,second.capturedCall);
+	}
+	
 	@Test(expected=DriverManagerException.class)
 	public void shouldFailWhenServiceFails() throws Exception{
 		caller.callServiceOnDriver(new ServiceCall(null, "failService"), new DriverSpy(), new UOSMessageContext());
@@ -144,6 +163,51 @@ public class ReflectionServiceCallerTest {
 		assertNull(msgCtx.getDataOutputStream(4));
 	}
 	
+	@Test public void shouldRejectTheCallsBeyondTheDeclaredPolicy() throws Exception{
+		final BusyDriverSpy driver = new BusyDriverSpy();
+		caller.registerDriver(driver);
+		Thread busy = new Thread(){
+			public void run() {
+				try {
+					caller.callServiceOnDriver(new ServiceCall(null, "busyService"), driver, new UOSMessageContext());
+				} catch (DriverManagerException e) {}
+			}
+		};
+		busy.start();
+		driver.started.await();
+		
+		ServiceResponse response = caller.callServiceOnDriver(new ServiceCall(null, "busyService"), driver, new UOSMessageContext());
+		
+		assertNotNull(response.getError());
+		assertEquals(1,caller.bulkhead(driver, "busyService").rejected());
+		driver.release.countDown();
+		busy.join();
+		assertEquals(1,caller.bulkhead(driver, "busyService").completed());
+	}
+	
+	@Test public void shouldTimeOutTheCallsBeyondTheInformedPolicy() throws Exception{
+		BusyDriverSpy driver = new BusyDriverSpy();
+		caller.registerDriver(driver, ExecutionPolicy.parse("busyService.timeout=50,busyService.pool=dedicated"));
+		
+		ServiceResponse response = caller.callServiceOnDriver(new ServiceCall(null, "busyService"), driver, new UOSMessageContext());
+		
+		assertNotNull(response.getError());
+		assertEquals(1,caller.bulkhead(driver, "busyService").timedOut());
+		assertEquals(new ExecutionPolicy(1, 0, 0, ExecutionPolicy.Pool.CALLER),caller.bulkhead(driver, "myService").policy());
+		driver.release.countDown();
+	}
+	
+	@Test public void shouldCallDirectlyTheDriversWithoutPolicies() throws Exception{
+		OverloadedDriverSpy driver = new OverloadedDriverSpy();
+		caller.registerDriver(driver);
+		assertNull(caller.bulkhead(driver, "myService"));
+		
+		BusyDriverSpy busy = new BusyDriverSpy();
+		caller.registerDriver(busy);
+		caller.unregisterDriver(busy);
+		assertNull(caller.bulkhead(busy, "myService"));
+	}
+	
 	public static class DriverSpy {
 		ServiceCall capturedCall; 
 		ServiceResponse capturedResponse; 
@@ -162,6 +226,33 @@ public class ReflectionServiceCallerTest {
 		private void privateService(){}
 	}
 	
+	public static class OverloadedDriverSpy extends DriverSpy implements UosDriver {
+		public void overloadedService(){}
+		public void overloadedService(String other){}
+		public void overloadedService(ServiceCall sc, ServiceResponse r, UOSMessageContext ctx){
+			capturedCall = sc;
+		}
+		public UpDriver getDriver() {
+			UpDriver driver = new UpDriver("OverloadedDriver");
+			driver.addService("overloadedService");
+			driver.addService("myService");
+			return driver;
+		}
+		public List<UpDriver> getParent() {return null;}
+		public void init(Gateway gateway, String instanceId) {}
+		public void destroy() {}
+	}
+	
+	@ServicePolicy(maxConcurrent=1)
+	public static class BusyDriverSpy extends OverloadedDriverSpy {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		public void busyService(ServiceCall sc, ServiceResponse r, UOSMessageContext ctx) throws InterruptedException{
+			started.countDown();
+			release.await();
+		}
+	}
+	
 	public static class ProxyDriverSpy extends DriverSpy implements ProxyDriver {
 		boolean forwardCalled = false;
 		public UpDriver getDriver() {return null;}
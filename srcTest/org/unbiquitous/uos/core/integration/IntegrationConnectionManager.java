@@ -24,67 +24,21 @@ public class IntegrationConnectionManager implements ConnectionManager {
 	private static class CM implements ChannelManager {
 		/*    PC (Driver side)              CELL (App side)
 		 * 
-		 * Writes on 'pcOut' ----------->  Reads on 'cellIn'
+		 * Each active connection gets its own pair of pipes:
 		 * 
-		 *  Reads on 'pcIn'  <----------- writes on 'cellOut'
+		 * Writes on 'out'  ----------->  Reads on 'in' (peer)
+		 * 
+		 *  Reads on 'in'   <-----------  Writes on 'out' (peer)
 		 */
 		IntegrationDevice pc;
-		PipedInputStream cellIn;
-		PipedOutputStream cellOut;
-		ClientConnection toPcConn;
 		IntegrationConnectionManager pcManager;
 		
 		IntegrationDevice cell;
-		PipedInputStream pcIn;
-		PipedOutputStream pcOut;
-		ClientConnection toCellConn;
 		IntegrationConnectionManager cellManager;
 		
-		private void loadStreams() throws IOException{
-			cellOut = new PipedOutputStream();
-			pcOut = new PipedOutputStream();
-			cellIn = new PipedInputStream(pcOut);
-			pcIn = new PipedInputStream(cellOut);
-		}
-		
 		public CM() {
-			try {
-				loadStreams();
-				pc = new IntegrationDevice("my.pc");
-				cell = new IntegrationDevice("my.cell");
-				
-				toPcConn = new ClientConnection(pc) {
-					public DataOutputStream getDataOutputStream() throws IOException {
-						return new DataOutputStream(cellOut);
-					}
-					public DataInputStream getDataInputStream() throws IOException {
-						return new DataInputStream(cellIn);
-					}
-					public void closeConnection() throws IOException {
-						loadStreams();
-					}
-					public boolean isConnected() {
-						return true; //FIXME not right
-					}
-				}; 
-				toCellConn = new ClientConnection(cell) {
-					public DataOutputStream getDataOutputStream() throws IOException {
-						return new DataOutputStream(pcOut);
-					}
-					public DataInputStream getDataInputStream() throws IOException {
-						return new DataInputStream(pcIn);
-					}
-					public void closeConnection() throws IOException {
-						loadStreams();
-					}
-					public boolean isConnected() {
-						return true; //FIXME not right
-					}
-				}; 
-				
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+			pc = new IntegrationDevice("my.pc");
+			cell = new IntegrationDevice("my.cell");
 		}
 		
 		public void tearDown() throws NetworkException, IOException {}
@@ -98,19 +52,56 @@ public class IntegrationConnectionManager implements ConnectionManager {
 		public ClientConnection openActiveConnection(String networkDeviceName)
 				throws NetworkException, IOException {
 			if(networkDeviceName.equals("my.pc")){
-				pcManager.connectionListener.handleClientConnection(toCellConn);
-				return toPcConn;
+				return connect(pcManager, cell, pc);
 			}else if(networkDeviceName.equals("my.cell")){
-				cellManager.connectionListener.handleClientConnection(toPcConn);
-				return toCellConn;
+				return connect(cellManager, pc, cell);
 			}
 			return null;
 		}
+
+		private ClientConnection connect(IntegrationConnectionManager server, 
+				IntegrationDevice from, IntegrationDevice to) throws IOException {
+			PipedOutputStream toServer = new PipedOutputStream();
+			PipedOutputStream toClient = new PipedOutputStream();
+			PipeConnection serverSide = new PipeConnection(from, 
+							new PipedInputStream(toServer, PIPE_SIZE), toClient);
+			PipeConnection clientSide = new PipeConnection(to, 
+							new PipedInputStream(toClient, PIPE_SIZE), toServer);
+			server.connectionListener.handleClientConnection(serverSide);
+			return clientSide;
+		}
 		
 		// TODO: Check this guy
 		public NetworkDevice getAvailableNetworkDevice() {return new IntegrationDevice("non.existant");}
 	}
 	
+	private static final int PIPE_SIZE = 64 * 1024;
+	
+	private static class PipeConnection extends ClientConnection{
+		private DataInputStream in;
+		private DataOutputStream out;
+		private boolean connected = true;
+		
+		PipeConnection(NetworkDevice device, PipedInputStream in, PipedOutputStream out) {
+			super(device);
+			this.in = new DataInputStream(in);
+			this.out = new DataOutputStream(out);
+		}
+		public DataOutputStream getDataOutputStream() throws IOException {
+			return out;
+		}
+		public DataInputStream getDataInputStream() throws IOException {
+			return in;
+		}
+		public synchronized void closeConnection() throws IOException {
+			connected = false;
+			out.close();
+		}
+		public synchronized boolean isConnected() {
+			return connected;
+		}
+	}
+	
 	@Override
 	public void run() {} //Here happens the loop for receiving connections
 
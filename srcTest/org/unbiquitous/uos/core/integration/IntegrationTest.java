@@ -15,6 +15,7 @@ import org.junit.Test;
 import org.unbiquitous.uos.core.ContextException;
 import org.unbiquitous.uos.core.UOS;
 import org.unbiquitous.uos.core.adaptabitilyEngine.AdaptabilityEngine;
+import org.unbiquitous.uos.core.deviceManager.DeviceDiscovery;
 import org.unbiquitous.uos.core.driver.DeviceDriver;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
 
@@ -47,6 +48,7 @@ public class IntegrationTest {
 		
 		//promote radar handshake		
 		cell.getFactory().get(ConnectionManagerControlCenter.class).radarControlCenter().deviceEntered(new IntegrationDevice(pcName));
+		awaitDiscovery(cell);
 		
 		//Test if handshake was successfull
 		assertThat(cell.getGateway().listDrivers(echo.getDriver().getName())).
@@ -86,6 +88,14 @@ public class IntegrationTest {
 		cell.tearDown();
 	}
 
+	private void awaitDiscovery(UOS instance) throws InterruptedException{
+		DeviceDiscovery discovery = instance.getFactory().get(DeviceDiscovery.class);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (discovery.inFlight() > 0 && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+	}
+
 	private UOS startContext(final String deviceName) throws ContextException{
 		ResourceBundle pcBundle = new ListResourceBundle() {
 			protected Object[][] getContents() {
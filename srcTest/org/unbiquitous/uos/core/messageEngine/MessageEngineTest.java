@@ -1,5 +1,6 @@
 package org.unbiquitous.uos.core.messageEngine;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -23,6 +24,8 @@ import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
 import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+import org.unbiquitous.uos.core.messageEngine.messages.binary.BinaryMessageBinder;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
 import org.unbiquitous.uos.core.network.model.NetworkDevice;
 
@@ -107,6 +110,34 @@ public class MessageEngineTest {
 		assertEquals(caller,ctxCatcher.getValue().getCallerDevice());
 	}
 	
+	@Test public void handleIncomingBytes_answersBinaryCallsWithBinaryResponses() throws Exception{
+		ServiceCall call = new ServiceCall("my.driver", "my.service");
+		call.addParameter("image", new byte[]{1,2,3});
+		NetworkDevice caller = mock(NetworkDevice.class);
+		when(callHandler.handleServiceCall(any(ServiceCall.class), any(UOSMessageContext.class)))
+			.thenReturn(new ServiceResponse().addParameter("bla", "0"));
+		
+		byte[] response = engine.handleIncomingBytes(BinaryMessageBinder.toBinary(call), caller);
+		
+		assertTrue(BinaryMessageBinder.isBinary(response));
+		assertEquals("0",MessageEncoding.decodeResponse(response).getResponseString("bla"));
+		ArgumentCaptor<ServiceCall> callCatcher = ArgumentCaptor.forClass(ServiceCall.class);
+		verify(callHandler).handleServiceCall(callCatcher.capture(), any(UOSMessageContext.class));
+		assertArrayEquals(new byte[]{1,2,3},(byte[])callCatcher.getValue().getParameter("image"));
+	}
+	
+	@Test public void handleIncomingBytes_answersJSONCallsWithJSONResponses() throws Exception{
+		String call = "{type:'SERVICE_CALL_REQUEST',driver:'my.driver',service:'my.service'}";
+		when(callHandler.handleServiceCall(any(ServiceCall.class), any(UOSMessageContext.class)))
+			.thenReturn(new ServiceResponse().addParameter("bla", "0"));
+		
+		byte[] response = engine.handleIncomingBytes(WireProtocol.encode(call), mock(NetworkDevice.class));
+		
+		JSONObject json = new JSONObject(WireProtocol.decode(response));
+		assertEquals("SERVICE_CALL_RESPONSE",json.optString("type"));
+		assertEquals("0",json.optJSONObject("responseData").optString("bla"));
+	}
+	
 	@Test public void handleIncomingMessage_returnErrorWhenServiceCallHandlerFails() throws Exception{
 		JSONObject call = new JSONObject();
 		call.put("type", "SERVICE_CALL_REQUEST");
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -13,8 +14,13 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListResourceBundle;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -33,6 +39,9 @@ import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
 import org.unbiquitous.uos.core.messageEngine.messages.json.JSONEncapsulatedMessage;
 import org.unbiquitous.uos.core.messageEngine.messages.json.JSONNotify;
 import org.unbiquitous.uos.core.messageEngine.messages.json.JSONServiceCall;
+import org.unbiquitous.uos.core.network.codec.Frame;
+import org.unbiquitous.uos.core.network.codec.FrameReader;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
 import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
 import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
 
@@ -93,6 +102,7 @@ public class MessageHandlerTest {
 		private UpNetworkInterface wifi;
 		private PipedOutputStream wifiInterfaceIn;
 		private PipedInputStream wifiInterfaceOut;
+		private ClientConnection conn;
 	
 		SnapshotScenario() throws Exception{
 			//Create Parameters for simulation of a snapshot service call
@@ -107,7 +117,7 @@ public class MessageHandlerTest {
 			
 			DataInputStream in = new DataInputStream(new PipedInputStream(wifiInterfaceIn));
 			DataOutputStream out = new DataOutputStream(new PipedOutputStream(wifiInterfaceOut));
-			ClientConnection conn = mock(ClientConnection.class);
+			conn = mock(ClientConnection.class);
 			when(conn.getDataInputStream()).thenReturn(in);
 			when(conn.getDataOutputStream()).thenReturn(out);
 			
@@ -140,6 +150,106 @@ public class MessageHandlerTest {
 		assertEquals("The JSON sent should be compatible with the snapshot created.",scenario.snapshot,new JSONServiceCall(scenario.grabSentString()).getAsObject());
 	}
 
+	@Test public void callService_aDeviceSupportingFramingIsCalledWithLengthPrefixedFrames() throws Exception{
+		SnapshotScenario scenario = new SnapshotScenario();
+		scenario.target.addProperty(WireProtocol.DEVICE_PROPERTY, "FRAMED,LINE");
+		//Simulate a response
+		WireProtocol.FRAMED.write(scenario.wifiInterfaceIn, 
+				WireProtocol.encode("{type:\"SERVICE_CALL_RESPONSE\", responseData:{pic:\"Framed\"}}"));
+		
+		ServiceResponse response = handler.callService(scenario.target, scenario.snapshot);
+		
+		assertEquals("Should return the same response that was stimulated.","Framed",response.getResponseData("pic"));
+		Frame sent = new FrameReader(scenario.wifiInterfaceOut).read();
+		assertEquals("The call should be sent framed.",WireProtocol.FRAMED,sent.codec());
+		assertEquals("The JSON sent should be compatible with the snapshot created.",scenario.snapshot,new JSONServiceCall(sent.text()).getAsObject());
+	}
+
+	@Test public void callService_aDeviceSupportingMultiplexingIsCalledThroughASharedConnection() throws Exception{
+		final SnapshotScenario scenario = new SnapshotScenario();
+		scenario.target.addProperty(WireProtocol.DEVICE_PROPERTY, WireProtocol.supported());
+		when(scenario.conn.isConnected()).thenReturn(true);
+		final List<ServiceCall> received = new ArrayList<ServiceCall>();
+		//Simulate a device answering each call with its own id
+		Thread device = new Thread(){
+			public void run() {
+				try {
+					FrameReader reader = new FrameReader(scenario.wifiInterfaceOut);
+					for (int i = 0; i < 2; i++){
+						Frame call = reader.read();
+						received.add(new JSONServiceCall(call.text()).getAsObject());
+						WireProtocol.MUX.write(scenario.wifiInterfaceIn, call.requestId(), 
+								WireProtocol.encode("{type:\"SERVICE_CALL_RESPONSE\", responseData:{pic:\"Shared\"}}"));
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		device.start();
+		ResourceBundle bundle = new ListResourceBundle() {
+			protected Object[][] getContents() {
+				return new Object[][] {
+		             {"ubiquitos.message.response.timeout", "1000"},
+		             {"ubiquitos.message.response.retry", "1"},
+		        };
+			}
+		};
+		MessageHandler pooled = new MessageHandler(bundle,controlCenter, securityManager, connManager);
+		
+		assertEquals("Shared",pooled.callService(scenario.target, scenario.snapshot).getResponseData("pic"));
+		assertEquals("Shared",pooled.callService(scenario.target, scenario.snapshot).getResponseData("pic"));
+		device.join(1000);
+		
+		assertEquals(2, received.size());
+		assertEquals(scenario.snapshot, received.get(0));
+		verify(controlCenter, times(1)).openActiveConnection(scenario.wifi.getNetworkAddress(), scenario.wifi.getNetType());
+		pooled.tearDown();
+	}
+
+	@Test public void callServiceAsync_theResponseOfAMultiplexedCallCompletesTheFuture() throws Exception{
+		final SnapshotScenario scenario = new SnapshotScenario();
+		scenario.target.addProperty(WireProtocol.DEVICE_PROPERTY, WireProtocol.supported());
+		when(scenario.conn.isConnected()).thenReturn(true);
+		
+		ServiceFuture future = handler.callServiceAsync(scenario.target, scenario.snapshot, 1000);
+		
+		Frame call = new FrameReader(scenario.wifiInterfaceOut).read();
+		assertEquals(scenario.snapshot, new JSONServiceCall(call.text()).getAsObject());
+		WireProtocol.MUX.write(scenario.wifiInterfaceIn, call.requestId(), 
+				WireProtocol.encode("{type:\"SERVICE_CALL_RESPONSE\", responseData:{pic:\"Later\"}}"));
+		
+		assertEquals("Later",future.get(1, TimeUnit.SECONDS).getResponseData("pic"));
+		handler.tearDown();
+	}
+	
+	@Test(expected=TimeoutException.class) public void callServiceAsync_failsWhenNoResponseArrivesInTime() throws Throwable{
+		SnapshotScenario scenario = new SnapshotScenario();
+		scenario.target.addProperty(WireProtocol.DEVICE_PROPERTY, WireProtocol.supported());
+		when(scenario.conn.isConnected()).thenReturn(true);
+		
+		ServiceFuture future = handler.callServiceAsync(scenario.target, scenario.snapshot, 10);
+		try {
+			future.get(1, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		} finally {
+			handler.tearDown();
+		}
+	}
+	
+	@Test public void callServiceAsync_legacyDevicesAreCalledInTheBackground() throws Exception{
+		SnapshotScenario scenario = new SnapshotScenario();
+		for (char c : "{type:\"SERVICE_CALL_RESPONSE\", responseData:{pic:\"Legacy\"}}\n".toCharArray()){
+			scenario.wifiInterfaceIn.write(c);
+		}
+		
+		ServiceFuture future = handler.callServiceAsync(scenario.target, scenario.snapshot, 1000);
+		
+		assertEquals("Legacy",future.get(1, TimeUnit.SECONDS).getResponseData("pic"));
+		assertEquals(scenario.snapshot,new JSONServiceCall(scenario.grabSentString()).getAsObject());
+	}
+
 	@Test public void callService_aSimpleCallMustBeSentButWhenNoResponseIsRetrievedNullShouldBeReturned() throws Exception{
 		SnapshotScenario scenario = new SnapshotScenario();
 		
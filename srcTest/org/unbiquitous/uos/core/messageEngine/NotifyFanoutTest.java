@@ -0,0 +1,203 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.unbiquitous.uos.core.connectivity.ConnectivityManager;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpNetworkInterface;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.network.cache.ConnectionPool;
+import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+public class NotifyFanoutTest {
+
+	private ExecutorService executor;
+	private ConnectivityManager connectivity;
+	private List<Opened> opened;
+	private volatile CountDownLatch connecting;
+	private volatile CountDownLatch gate;
+
+	@Before public void setUp() throws Exception{
+		executor = Executors.newFixedThreadPool(4);
+		opened = Collections.synchronizedList(new ArrayList<Opened>());
+		connecting = new CountDownLatch(0);
+		gate = new CountDownLatch(0);
+		connectivity = mock(ConnectivityManager.class);
+		when(connectivity.getAppropriateInterface(any(UpDevice.class))).thenAnswer(new Answer<UpNetworkInterface>() {
+			public UpNetworkInterface answer(InvocationOnMock invocation) throws Throwable {
+				List<UpNetworkInterface> networks = ((UpDevice) invocation.getArguments()[0]).getNetworks();
+				return networks == null ? null : networks.get(0);
+			}
+		});
+	}
+
+	@After public void tearDown(){
+		executor.shutdownNow();
+	}
+
+	@Test public void reachesTheDevicesInParallel() throws Exception{
+		connecting = new CountDownLatch(3);
+		NotifyFanout fanout = fanout(64);
+
+		fanout.send(event("1"), Arrays.asList(device("A"), device("B"), device("C")));
+
+		awaitSent(fanout, 3);
+		assertThat(fanout.failed()).isZero();
+		assertThat(opened).hasSize(3);
+		for (Opened connection : opened){
+			assertThat(connection.lines()).containsExactly(line(event("1")));
+		}
+	}
+
+	@Test public void sendsTheBurstQueuedWhileWritingInASingleWrite() throws Exception{
+		gate = new CountDownLatch(1);
+		NotifyFanout fanout = fanout(64);
+		List<UpDevice> target = Arrays.asList(device("A"));
+
+		fanout.send(event("1"), target);
+		awaitOpened(1);
+		for (int i = 2; i <= 5; i++){
+			fanout.send(event(String.valueOf(i)), target);
+		}
+		gate.countDown();
+
+		awaitSent(fanout, 5);
+		assertThat(fanout.writes()).isEqualTo(2);
+		assertThat(opened).hasSize(2);
+		assertThat(opened.get(1).lines()).containsExactly(
+				line(event("2")), line(event("3")), line(event("4")), line(event("5")));
+	}
+
+	@Test public void limitsTheNotifiesOfEachWrite() throws Exception{
+		gate = new CountDownLatch(1);
+		NotifyFanout fanout = fanout(2);
+		List<UpDevice> target = Arrays.asList(device("A"));
+
+		fanout.send(event("1"), target);
+		awaitOpened(1);
+		for (int i = 2; i <= 5; i++){
+			fanout.send(event(String.valueOf(i)), target);
+		}
+		gate.countDown();
+
+		awaitSent(fanout, 5);
+		assertThat(fanout.writes()).isEqualTo(3);
+	}
+
+	@Test public void countsTheNotifiesToUnreachableDevices() throws Exception{
+		NotifyFanout fanout = new NotifyFanout(connectivity, new ConnectionManagerControlCenter(){
+			public ClientConnection openActiveConnection(String address, String type) throws NetworkException {
+				return null;
+			}
+		}, null, executor, 64);
+
+		int queued = fanout.send(event("1"), Arrays.asList(device("A"), new UpDevice("Nowhere")));
+
+		assertThat(queued).isEqualTo(1);
+		long deadline = System.currentTimeMillis() + 1000;
+		while (fanout.failed() < 2 && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertThat(fanout.failed()).isEqualTo(2);
+		assertThat(fanout.sent()).isZero();
+	}
+
+	private NotifyFanout fanout(int batch){
+		ConnectionManagerControlCenter net = new ConnectionManagerControlCenter(){
+			public ClientConnection openActiveConnection(String address, String type) throws NetworkException {
+				connecting.countDown();
+				try {
+					// a device is only reached when the others are being reached too
+					if (!connecting.await(1, TimeUnit.SECONDS)){
+						throw new NetworkException("Devices reached one by one.");
+					}
+					Opened connection = new Opened();
+					opened.add(connection);
+					gate.await(1, TimeUnit.SECONDS);
+					return connection;
+				} catch (InterruptedException e) {
+					throw new NetworkException(e);
+				}
+			}
+		};
+		return new NotifyFanout(connectivity, net, new ConnectionPool(net, 1000), executor, batch);
+	}
+
+	private void awaitOpened(int connections) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + 1000;
+		while (opened.size() < connections && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertThat(opened).hasSize(connections);
+	}
+
+	private void awaitSent(NotifyFanout fanout, int notifies) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + 1000;
+		while (fanout.sent() < notifies && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertThat(fanout.sent()).isEqualTo(notifies);
+	}
+
+	private static Notify event(String value){
+		Notify notify = new Notify("key", "driver", "id");
+		notify.addParameter("value", value);
+		return notify;
+	}
+
+	private static String line(Notify notify) throws Exception{
+		return new String(MessageEncoding.encode(notify, MessageEncoding.JSON), "UTF-8").trim();
+	}
+
+	private static UpDevice device(String address){
+		return new UpDevice("Anonymous").addNetworkInterface(address, "Test");
+	}
+
+	static class Opened extends ClientConnection {
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(written);
+		private final DataInputStream in = new DataInputStream(new ByteArrayInputStream(new byte[0]));
+
+		Opened() {
+			super(null);
+		}
+
+		List<String> lines() throws Exception{
+			List<String> lines = new ArrayList<String>();
+			for (String line : new String(written.toByteArray(), "UTF-8").split("\n")){
+				if (!line.trim().isEmpty()){
+					lines.add(line.trim());
+				}
+			}
+			return lines;
+		}
+
+		public boolean isConnected() {return true;}
+		public DataInputStream getDataInputStream() {return in;}
+		public DataOutputStream getDataOutputStream() {return out;}
+		public void closeConnection() {}
+	}
+}
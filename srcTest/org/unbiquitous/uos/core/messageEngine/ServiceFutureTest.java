@@ -0,0 +1,112 @@
+package org.unbiquitous.uos.core.messageEngine;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+public class ServiceFutureTest {
+
+	private ServiceCallExecutor executor = new ServiceCallExecutor(null);
+	
+	@After public void tearDown(){
+		executor.shutdown();
+	}
+	
+	@Test public void callbacksAreInformedOfTheResponse() throws Exception{
+		ServiceFuture future = executor.newFuture(0);
+		Recorder before = new Recorder();
+		future.addCallback(before);
+		ServiceResponse response = new ServiceResponse();
+		
+		assertThat(future.complete(response)).isTrue();
+		Recorder after = new Recorder();
+		future.addCallback(after);
+		
+		assertThat(before.await()).isSameAs(response);
+		assertThat(after.await()).isSameAs(response);
+		assertThat(future.get()).isSameAs(response);
+		assertThat(future.isDone()).isTrue();
+	}
+	
+	@Test public void onlyTheFirstOutcomeCounts() throws Exception{
+		ServiceFuture future = executor.newFuture(0);
+		ServiceResponse response = new ServiceResponse();
+		future.complete(response);
+		
+		assertThat(future.fail(new RuntimeException())).isFalse();
+		assertThat(future.cancel(true)).isFalse();
+		assertThat(future.get()).isSameAs(response);
+	}
+	
+	@Test public void failuresAreDeliveredAsExecutionExceptions() throws Exception{
+		ServiceFuture future = executor.newFuture(0);
+		Recorder recorder = new Recorder();
+		future.addCallback(recorder);
+		RuntimeException cause = new RuntimeException();
+		future.fail(cause);
+		
+		recorder.await();
+		assertThat(recorder.failure.get()).isSameAs(cause);
+		try {
+			future.get();
+			fail("Should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isSameAs(cause);
+		}
+	}
+	
+	@Test public void expiresIfNotDoneInTime() throws Exception{
+		ServiceFuture future = executor.newFuture(10);
+		Recorder recorder = new Recorder();
+		future.addCallback(recorder);
+		
+		recorder.await();
+		assertThat(recorder.failure.get()).isInstanceOf(TimeoutException.class);
+	}
+	
+	@Test(expected=CancellationException.class) 
+	public void cancelledCallsHaveNoResponse() throws Exception{
+		ServiceFuture future = executor.newFuture(0);
+		future.cancel(false);
+		assertThat(future.isCancelled()).isTrue();
+		future.get();
+	}
+	
+	@Test public void blockingCallsAreRunInThePool() throws Exception{
+		final ServiceResponse response = new ServiceResponse();
+		ServiceFuture future = executor.submit(new java.util.concurrent.Callable<ServiceResponse>() {
+			public ServiceResponse call() throws Exception {
+				return response;
+			}
+		}, 1000);
+		assertThat(future.get(1, TimeUnit.SECONDS)).isSameAs(response);
+	}
+	
+	private static class Recorder implements ServiceCallback{
+		CountDownLatch done = new CountDownLatch(1);
+		AtomicReference<ServiceResponse> response = new AtomicReference<ServiceResponse>();
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		
+		public void onResponse(ServiceResponse r) {
+			response.set(r);
+			done.countDown();
+		}
+		public void onFailure(Exception cause) {
+			failure.set(cause);
+			done.countDown();
+		}
+		ServiceResponse await() throws InterruptedException{
+			assertThat(done.await(1, TimeUnit.SECONDS)).isTrue();
+			return response.get();
+		}
+	}
+}
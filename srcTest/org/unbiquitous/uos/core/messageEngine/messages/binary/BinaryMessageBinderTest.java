@@ -0,0 +1,167 @@
+package org.unbiquitous.uos.core.messageEngine.messages.binary;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.unbiquitous.json.JSONArray;
+import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.uos.core.messageEngine.MessageEncoding;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService.ParameterType;
+import org.unbiquitous.uos.core.messageEngine.dataType.binary.BinaryDataTypeBinder;
+import org.unbiquitous.uos.core.messageEngine.messages.EncapsulatedMessage;
+import org.unbiquitous.uos.core.messageEngine.messages.Message;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+import org.unbiquitous.uos.core.messageEngine.messages.json.MessageBinder;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+
+public class BinaryMessageBinderTest {
+
+	@Test public void roundTripsServiceCall() throws Exception{
+		byte[] image = new byte[]{0, 1, 2, (byte) 0xFF, '\n'};
+		ServiceCall call = new ServiceCall("driver", "service", "id");
+		call.addParameter("text", "çãé   😀");
+		call.addParameter("int", -2);
+		call.addParameter("long", 1L << 40);
+		call.addParameter("double", 1.5);
+		call.addParameter("bool", true);
+		call.addParameter("image", image);
+		call.addParameter("list", Arrays.<Object>asList("a", 1));
+		call.setServiceType(ServiceType.STREAM);
+		call.setChannels(2);
+		call.setChannelIDs(new String[]{"a","b"});
+		call.setSecurityType("basic");
+
+		Message read = BinaryMessageBinder.fromBinary(BinaryMessageBinder.toBinary(call));
+
+		assertThat(read).isInstanceOf(ServiceCall.class);
+		ServiceCall readCall = (ServiceCall) read;
+		assertThat(readCall.getDriver()).isEqualTo("driver");
+		assertThat(readCall.getService()).isEqualTo("service");
+		assertThat(readCall.getInstanceId()).isEqualTo("id");
+		assertThat(readCall.getParameter("text")).isEqualTo("çãé   😀");
+		assertThat(readCall.getParameter("int")).isEqualTo(-2);
+		assertThat(readCall.getParameter("long")).isEqualTo(1L << 40);
+		assertThat(readCall.getParameter("double")).isEqualTo(1.5);
+		assertThat(readCall.getParameter("bool")).isEqualTo(true);
+		assertThat((byte[]) readCall.getParameter("image")).isEqualTo(image);
+		assertThat(readCall.getParameter("list")).isInstanceOf(JSONArray.class);
+		assertThat(readCall.getParameter("list").toString()).isEqualTo("[\"a\",1]");
+		assertThat(readCall.getServiceType()).isEqualTo(ServiceType.STREAM);
+		assertThat(readCall.getChannels()).isEqualTo(2);
+		assertThat(readCall.getChannelIDs()).containsOnly("a","b");
+		assertThat(readCall.getSecurityType()).isEqualTo("basic");
+	}
+
+	@Test public void readsNestedMapsAsJSONObjects() throws Exception{
+		ServiceCall call = new ServiceCall("driver", "service");
+		call.addParameter("obj", new JSONObject("{a:1,b:{c:null}}"));
+
+		ServiceCall read = (ServiceCall) BinaryMessageBinder.fromBinary(BinaryMessageBinder.toBinary(call));
+
+		JSONObject obj = (JSONObject) read.getParameter("obj");
+		assertThat(obj.getInt("a")).isEqualTo(1);
+		assertThat(obj.getJSONObject("b").isNull("c")).isTrue();
+	}
+
+	@Test public void readsResponseDataAsTheJSONResponseDoes() throws Exception{
+		byte[] image = new byte[]{1, 2, 3};
+		ServiceResponse response = new ServiceResponse();
+		response.addParameter("text", "value");
+		response.addParameter("number", 10);
+		response.addParameter("image", image);
+		response.setError("problem");
+
+		ServiceResponse read = MessageEncoding.decodeResponse(BinaryMessageBinder.toBinary(response));
+
+		assertThat(read.getResponseString("text")).isEqualTo("value");
+		assertThat(read.getResponseString("number")).isEqualTo("10");
+		assertThat((byte[]) read.getResponseData("image")).isEqualTo(image);
+		assertThat(read.getError()).isEqualTo("problem");
+	}
+
+	@Test public void roundTripsNotifyAndEncapsulatedMessage() throws Exception{
+		Notify notify = new Notify("event", "driver", "id");
+		notify.addParameter("a", "b");
+		assertThat(BinaryMessageBinder.fromBinary(BinaryMessageBinder.toBinary(notify))).isEqualTo(notify);
+
+		EncapsulatedMessage message = new EncapsulatedMessage("basic", "inner");
+		EncapsulatedMessage read = (EncapsulatedMessage) BinaryMessageBinder.fromBinary(BinaryMessageBinder.toBinary(message));
+		assertThat(read.getSecurityType()).isEqualTo("basic");
+		assertThat(read.getInnerMessage()).isEqualTo("inner");
+	}
+
+	@Test public void isSmallerThanJSON() throws Exception{
+		ServiceCall call = new ServiceCall("uos.DeviceDriver", "listDrivers", "instance");
+		call.addParameter("driverName", "uos.DeviceDriver");
+
+		assertThat(BinaryMessageBinder.toBinary(call).length)
+			.isLessThan(MessageBinder.toJSON(call).length() / 2);
+	}
+
+	@Test public void tellsTheEncodingByTheFirstByte() throws Exception{
+		Notify notify = new Notify("event", "driver");
+
+		byte[] binary = MessageEncoding.encode(notify, MessageEncoding.BINARY);
+		byte[] json = MessageEncoding.encode(notify, MessageEncoding.JSON);
+
+		assertThat(MessageEncoding.detect(binary)).isEqualTo(MessageEncoding.BINARY);
+		assertThat(MessageEncoding.detect(json)).isEqualTo(MessageEncoding.JSON);
+		assertThat(MessageEncoding.decode(binary)).isEqualTo(notify);
+		assertThat(MessageEncoding.decode(json)).isEqualTo(notify);
+	}
+
+	@Test public void negotiatesBinaryOnlyWithDevicesAdvertisingItOverFramedCodecs(){
+		UpDevice old = new UpDevice("old");
+		UpDevice lineOnly = new UpDevice("line");
+		lineOnly.addProperty(MessageEncoding.DEVICE_PROPERTY, MessageEncoding.supported());
+		UpDevice jsonOnly = new UpDevice("json");
+		jsonOnly.addProperty(WireProtocol.DEVICE_PROPERTY, WireProtocol.supported());
+		UpDevice current = new UpDevice("current");
+		current.addProperty(WireProtocol.DEVICE_PROPERTY, WireProtocol.supported());
+		current.addProperty(MessageEncoding.DEVICE_PROPERTY, MessageEncoding.supported());
+
+		assertThat(MessageEncoding.negotiate(null)).isEqualTo(MessageEncoding.JSON);
+		assertThat(MessageEncoding.negotiate(old)).isEqualTo(MessageEncoding.JSON);
+		assertThat(MessageEncoding.negotiate(lineOnly)).isEqualTo(MessageEncoding.JSON);
+		assertThat(MessageEncoding.negotiate(jsonOnly)).isEqualTo(MessageEncoding.JSON);
+		assertThat(MessageEncoding.negotiate(current)).isEqualTo(MessageEncoding.BINARY);
+	}
+
+	@Test(expected=IOException.class)
+	public void failsOnTruncatedContent() throws Exception{
+		byte[] bytes = BinaryMessageBinder.toBinary(new Notify("event", "driver"));
+		BinaryMessageBinder.fromBinary(Arrays.copyOf(bytes, bytes.length - 2));
+	}
+
+	@Test(expected=IOException.class)
+	public void failsOnCorruptedSizes() throws Exception{
+		BinaryMessageBinder.fromBinary(new byte[]{(byte) BinaryMessageBinder.MAGIC, 1, 3, 0, 0, 0, 0,
+													(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F});
+	}
+
+	@Test public void roundTripsDevicesAndDrivers() throws Exception{
+		UpDevice device = new UpDevice("device")
+								.addNetworkInterface("127.0.0.1", "Ethernet:TCP");
+		device.addProperty("platform", "java");
+		UpDevice readDevice = BinaryDataTypeBinder.deviceFromBinary(BinaryDataTypeBinder.toBinary(device));
+		assertThat(readDevice).isEqualTo(device);
+		assertThat(readDevice.getProperty("platform")).isEqualTo("java");
+
+		UpDriver driver = new UpDriver("driver");
+		driver.addService("s1").addParameter("p", ParameterType.OPTIONAL);
+		driver.addEvent("e1");
+		driver.addEquivalentDrivers("other");
+		UpDriver readDriver = BinaryDataTypeBinder.driverFromBinary(BinaryDataTypeBinder.toBinary(driver));
+		assertThat(readDriver).isEqualTo(driver);
+		assertThat(readDriver.getServices().get(0).getParameters().get("p")).isEqualTo(ParameterType.OPTIONAL);
+		assertThat(readDriver.getEquivalentDrivers()).containsOnly("other");
+	}
+}
@@ -0,0 +1,173 @@
+package org.unbiquitous.uos.core.messageEngine.messages.json;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.unbiquitous.json.JSONArray;
+import org.unbiquitous.json.JSONException;
+import org.unbiquitous.json.JSONObject;
+import org.unbiquitous.json.JSONStreamReader;
+import org.unbiquitous.json.JSONStreamWriter;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDriver;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpService.ParameterType;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.DataTypeBinder;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDevice;
+import org.unbiquitous.uos.core.messageEngine.dataType.json.JSONDriver;
+import org.unbiquitous.uos.core.messageEngine.messages.Message;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceCall.ServiceType;
+import org.unbiquitous.uos.core.messageEngine.messages.ServiceResponse;
+
+public class MessageBinderTest {
+
+	@Test public void writesServiceCallAsJSONServiceCallDoes() throws Exception{
+		ServiceCall call = new ServiceCall("driver", "service", "id");
+		call.addParameter("p1", "v1");
+		call.addParameter("p2", 2);
+		call.setServiceType(ServiceType.STREAM);
+		call.setChannels(2);
+		call.setChannelIDs(new String[]{"a","b"});
+
+		JSONObject written = new JSONObject(MessageBinder.toJSON(call));
+		JSONObject expected = new JSONObject(new JSONServiceCall(call).toString());
+
+		assertThat(written.toMap()).isEqualTo(expected.toMap());
+	}
+
+	@Test public void readsServiceCallWrittenByJSONServiceCall() throws Exception{
+		ServiceCall call = new ServiceCall("driver", "service", "id");
+		call.addParameter("p1", "v1");
+		call.addParameter("p2", 2);
+		call.setServiceType(ServiceType.STREAM);
+		call.setChannels(2);
+		call.setChannelIDs(new String[]{"a","b"});
+
+		Message read = MessageBinder.fromJSON(new JSONServiceCall(call).toString());
+
+		assertThat(read).isInstanceOf(ServiceCall.class).isEqualTo(call);
+		ServiceCall readCall = (ServiceCall) read;
+		assertThat(readCall.getServiceType()).isEqualTo(ServiceType.STREAM);
+		assertThat(readCall.getChannels()).isEqualTo(2);
+		assertThat(readCall.getChannelIDs()).containsOnly("a","b");
+		assertThat(readCall.getParameter("p2")).isEqualTo(2);
+	}
+
+	@Test public void keepsNestedParametersAsJSONValues() throws Exception{
+		Message read = MessageBinder.fromJSON(
+				"{type:'SERVICE_CALL_REQUEST',driver:'d',service:'s'," +
+				"parameters:{obj:{a:1},list:[1,'b']}}");
+
+		ServiceCall call = (ServiceCall) read;
+		assertThat(call.getParameter("obj")).isInstanceOf(JSONObject.class);
+		assertThat(((JSONObject)call.getParameter("obj")).getInt("a")).isEqualTo(1);
+		assertThat(call.getParameter("list")).isInstanceOf(JSONArray.class);
+	}
+
+	@Test public void acceptsTheTypeAfterTheOtherFields() throws Exception{
+		Message read = MessageBinder.fromJSON(
+				"{\"driver\":\"d\",\"service\":\"s\",\"type\":\"SERVICE_CALL_REQUEST\"}");
+
+		assertThat(read).isEqualTo(new ServiceCall("d","s"));
+	}
+
+	@Test public void readsServiceResponseWrittenByJSONServiceResponse() throws Exception{
+		ServiceResponse response = new ServiceResponse();
+		response.addParameter("key", "value");
+		response.addParameter("number", 10);
+		response.setError("problem");
+
+		ServiceResponse read = MessageBinder.readServiceResponse(
+				new JSONStreamReader(new JSONServiceResponse(response).toString()));
+
+		assertThat(read.getResponseString("key")).isEqualTo("value");
+		assertThat(read.getResponseString("number")).isEqualTo("10");
+		assertThat(read.getError()).isEqualTo("problem");
+	}
+
+	@Test public void roundTripsNotify() throws Exception{
+		Notify notify = new Notify("event", "driver", "id");
+		notify.addParameter("a", "b");
+
+		Message read = MessageBinder.fromJSON(MessageBinder.toJSON(notify));
+
+		assertThat(read).isEqualTo(notify);
+		assertThat(new JSONObject(MessageBinder.toJSON(notify)).toMap())
+			.isEqualTo(new JSONObject(new JSONNotify(notify).toString()).toMap());
+	}
+
+	@Test public void returnsNullForUnknownTypes() throws Exception{
+		assertThat(MessageBinder.fromJSON("{type:\"NotKnownType\"}")).isNull();
+	}
+
+	@Test(expected=JSONException.class)
+	public void failsOnMalformedText() throws Exception{
+		MessageBinder.fromJSON("not a json");
+	}
+
+	@Test(expected=JSONException.class)
+	public void failsOnUnknownServiceType() throws Exception{
+		MessageBinder.fromJSON("{type:'SERVICE_CALL_REQUEST',serviceType:'NONE'}");
+	}
+
+	@Test public void roundTripsDevice() throws Exception{
+		UpDevice device = new UpDevice("device")
+								.addNetworkInterface("127.0.0.1", "Ethernet:TCP")
+								.addNetworkInterface("00:00", "Bluetooth");
+		device.addProperty("platform", "java");
+
+		String text = DataTypeBinder.toJSON(device);
+
+		assertThat(new JSONObject(text).toMap())
+			.isEqualTo(new JSONObject(new JSONDevice(device).toString()).toMap());
+		assertThat(DataTypeBinder.deviceFromJSON(text)).isEqualTo(device);
+		assertThat(DataTypeBinder.deviceFromJSON(new JSONDevice(device).toString()))
+			.isEqualTo(new JSONDevice(device).getAsObject());
+	}
+
+	@Test public void roundTripsDriver() throws Exception{
+		UpDriver driver = new UpDriver("driver");
+		driver.addService("s1").addParameter("p", ParameterType.MANDATORY);
+		driver.addService("s2");
+		driver.addEvent("e1");
+		driver.addEquivalentDrivers("other");
+
+		String text = DataTypeBinder.toJSON(driver);
+
+		assertThat(new JSONObject(text).toMap())
+			.isEqualTo(new JSONObject(new JSONDriver(driver).toString()).toMap());
+		assertThat(DataTypeBinder.driverFromJSON(text)).isEqualTo(driver);
+		assertThat(DataTypeBinder.driverFromJSON(text).getEquivalentDrivers())
+			.containsOnly("other");
+	}
+
+	@Test(expected=JSONException.class)
+	public void failsOnDeviceWithoutName() throws Exception{
+		DataTypeBinder.deviceFromJSON("{networks:[]}");
+	}
+
+	@Test public void readerAndWriterReuseTheirBuffers() throws Exception{
+		JSONStreamWriter writer = new JSONStreamWriter();
+		JSONStreamReader reader = new JSONStreamReader("");
+		for (int i = 0; i < 3; i++){
+			Map<String,Object> map = new HashMap<String, Object>();
+			map.put("text", "line\n\"quoted\" </tag>  ");
+			map.put("index", i);
+			writer.reset().beginObject().name("map").value(map).endObject();
+
+			reader.reset(writer.toString());
+			reader.beginObject();
+			assertThat(reader.nextName()).isEqualTo("map");
+			JSONObject read = (JSONObject) reader.nextValue();
+			reader.endObject();
+
+			assertThat(read.getString("text")).isEqualTo("line\n\"quoted\" </tag>  ");
+			assertThat(read.getInt("index")).isEqualTo(i);
+			assertThat(writer.toString()).isEqualTo(new JSONObject().put("map", map).toString());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.unbiquitous.uos.core.network.cache;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.unbiquitous.uos.core.network.connectionManager.ConnectionManagerControlCenter;
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+public class ConnectionPoolTest {
+
+	private final AtomicInteger opened = new AtomicInteger();
+	private ConnectionPool pool;
+
+	@After public void tearDown(){
+		pool.clear();
+	}
+
+	@Test public void sharesTheConnectionToEachDevice() throws Exception{
+		pool = new ConnectionPool(network(), 60000);
+
+		MultiplexedConnection first = pool.connection("A", "Test");
+
+		assertThat(pool.connection("A", "Test")).isSameAs(first);
+		assertThat(pool.connection("B", "Test")).isNotSameAs(first);
+		assertThat(pool.connection("A", "Other")).isNotSameAs(first);
+		assertThat(opened.get()).isEqualTo(3);
+	}
+
+	@Test public void closesTheConnectionsLeftIdle() throws Exception{
+		pool = new ConnectionPool(network(), 20);
+		MultiplexedConnection idle = pool.connection("A", "Test");
+
+		long deadline = System.currentTimeMillis() + 1000;
+		while (idle.isConnected() && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+
+		assertThat(idle.isConnected()).isFalse();
+		assertThat(pool.connection("A", "Test")).isNotSameAs(idle);
+	}
+
+	@Test public void opensAnotherConnectionOnceOneIsDiscarded() throws Exception{
+		pool = new ConnectionPool(network(), 60000);
+		MultiplexedConnection discarded = pool.connection("A", "Test");
+
+		pool.discard(discarded);
+
+		assertThat(discarded.isConnected()).isFalse();
+		assertThat(pool.connection("A", "Test")).isNotSameAs(discarded);
+	}
+
+	private ConnectionManagerControlCenter network(){
+		return new ConnectionManagerControlCenter(){
+			public ClientConnection openActiveConnection(String address, String type) throws NetworkException {
+				opened.incrementAndGet();
+				try {
+					return new Piped();
+				} catch (IOException e) {
+					throw new NetworkException(e);
+				}
+			}
+		};
+	}
+
+	/** A connection to a device which never answers. */
+	static class Piped extends ClientConnection {
+		private final PipedOutputStream toClient = new PipedOutputStream();
+		private final DataInputStream in = new DataInputStream(new PipedInputStream(toClient));
+		private final DataOutputStream out = new DataOutputStream(new ByteArrayOutputStream());
+		private volatile boolean connected = true;
+
+		Piped() throws IOException {
+			super(null);
+		}
+
+		public boolean isConnected() {return connected;}
+		public DataInputStream getDataInputStream() {return in;}
+		public DataOutputStream getDataOutputStream() {return out;}
+		public void closeConnection() throws IOException {
+			connected = false;
+			toClient.close();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package org.unbiquitous.uos.core.network.cache;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.network.cache.MultiplexedConnection.PendingResponse;
+import org.unbiquitous.uos.core.network.codec.Frame;
+import org.unbiquitous.uos.core.network.codec.FrameReader;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+public class MultiplexedConnectionTest {
+
+	private PipedOutputStream toClient;
+	private FrameReader fromClient;
+	private MultiplexedConnection connection;
+	
+	@Before
+	public void setUp() throws Exception{
+		toClient = new PipedOutputStream();
+		PipedOutputStream toDevice = new PipedOutputStream();
+		fromClient = new FrameReader(new PipedInputStream(toDevice));
+		final DataInputStream in = new DataInputStream(new PipedInputStream(toClient));
+		final DataOutputStream out = new DataOutputStream(toDevice);
+		ClientConnection raw = new ClientConnection(device()) {
+			public boolean isConnected() {
+				return true;
+			}
+			public DataOutputStream getDataOutputStream() throws IOException {
+				return out;
+			}
+			public DataInputStream getDataInputStream() throws IOException {
+				return in;
+			}
+			public void closeConnection() throws IOException {
+				toClient.close();
+			}
+		};
+		connection = new MultiplexedConnection(device(), raw);
+		connection.start();
+	}
+	
+	@Test
+	public void responsesAreDeliveredToTheirRequestsInAnyOrder() throws Exception{
+		PendingResponse first = connection.request(WireProtocol.encode("first"));
+		PendingResponse second = connection.request(WireProtocol.encode("second"));
+		
+		Frame firstCall = fromClient.read();
+		Frame secondCall = fromClient.read();
+		assertThat(firstCall.requestId()).isNotEqualTo(secondCall.requestId());
+		
+		WireProtocol.MUX.write(toClient, secondCall.requestId(), WireProtocol.encode("to second"));
+		WireProtocol.MUX.write(toClient, firstCall.requestId(), WireProtocol.encode("to first"));
+		
+		assertThat(WireProtocol.decode(first.await(1000))).isEqualTo("to first");
+		assertThat(WireProtocol.decode(second.await(1000))).isEqualTo("to second");
+	}
+	
+	@Test
+	public void postedMessagesExpectNoResponse() throws Exception{
+		connection.post(WireProtocol.encode("event"));
+		Frame event = fromClient.read();
+		assertThat(event.requestId()).isZero();
+		assertThat(event.text()).isEqualTo("event");
+	}
+	
+	@Test
+	public void messagesPostedTogetherAreReadOneByOne() throws Exception{
+		connection.postAll(Arrays.asList(WireProtocol.encode("first"), WireProtocol.encode("second")));
+		Frame first = fromClient.read();
+		Frame second = fromClient.read();
+		assertThat(first.requestId()).isZero();
+		assertThat(first.text()).isEqualTo("first");
+		assertThat(second.requestId()).isZero();
+		assertThat(second.text()).isEqualTo("second");
+	}
+
+	@Test
+	public void returnsNullWhenTheResponseDoesNotArriveInTime() throws Exception{
+		PendingResponse response = connection.request(WireProtocol.encode("call"));
+		assertThat(response.await(10)).isNull();
+	}
+	
+	@Test(expected=IOException.class)
+	public void failsPendingRequestsWhenTheConnectionIsClosed() throws Exception{
+		PendingResponse response = connection.request(WireProtocol.encode("call"));
+		fromClient.read();
+		toClient.close();
+		response.await(1000);
+	}
+	
+	@Test(expected=IOException.class)
+	public void cantSendThroughATornDownConnection() throws Exception{
+		connection.tearDown();
+		connection.request(WireProtocol.encode("call"));
+	}
+	
+	private NetworkDevice device() {
+		return new NetworkDevice() {
+			public String getNetworkDeviceType() {
+				return "Test";
+			}
+			public String getNetworkDeviceName() {
+				return "my.device";
+			}
+		};
+	}
+}
@@ -0,0 +1,93 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import org.junit.Test;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+
+public class FrameCodecTest {
+
+	@Test
+	public void lineFramesAreSeparatedByANewLine() throws Exception{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WireProtocol.LINE.write(out, WireProtocol.encode("{a:1}"));
+		assertThat(new String(out.toByteArray(), "UTF-8")).isEqualTo("{a:1}\n");
+	}
+	
+	@Test
+	public void lengthPrefixedFramesCarryMarkerAndLength() throws Exception{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WireProtocol.FRAMED.write(out, WireProtocol.encode("{a:1}"));
+		byte[] bytes = out.toByteArray();
+		assertThat(bytes).hasSize(10);
+		assertThat(bytes[0]).isEqualTo((byte)LengthPrefixedFrameCodec.MARKER);
+		assertThat(bytes[4]).isEqualTo((byte)5);
+	}
+	
+	@Test
+	public void readerDetectsTheCodecOfEachFrame() throws Exception{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WireProtocol.FRAMED.write(out, WireProtocol.encode("first\nwith break"));
+		WireProtocol.LINE.write(out, WireProtocol.encode("second"));
+		WireProtocol.FRAMED.write(out, WireProtocol.encode("çãé"));
+		
+		FrameReader reader = new FrameReader(new ByteArrayInputStream(out.toByteArray()));
+		Frame first = reader.read();
+		assertThat(first.codec()).isSameAs(WireProtocol.FRAMED);
+		assertThat(first.text()).isEqualTo("first\nwith break");
+		Frame second = reader.read();
+		assertThat(second.codec()).isSameAs(WireProtocol.LINE);
+		assertThat(second.text()).isEqualTo("second");
+		assertThat(reader.read().text()).isEqualTo("çãé");
+		assertThat(reader.read()).isNull();
+	}
+	
+	@Test(expected=StreamCorruptedException.class)
+	public void rejectsFramesLargerThanTheLimit() throws Exception{
+		byte[] header = {LengthPrefixedFrameCodec.MARKER, 0x7F, 0, 0, 0};
+		new FrameReader(new ByteArrayInputStream(header)).read();
+	}
+	
+	@Test(expected=IOException.class)
+	public void truncatedFramesAreAnError() throws Exception{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WireProtocol.FRAMED.write(out, WireProtocol.encode("{a:1}"));
+		byte[] truncated = new byte[out.size() - 2];
+		System.arraycopy(out.toByteArray(), 0, truncated, 0, truncated.length);
+		new FrameReader(new ByteArrayInputStream(truncated)).read();
+	}
+	
+	@Test
+	public void multiplexedFramesCarryTheRequestId() throws Exception{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WireProtocol.MUX.write(out, 42, WireProtocol.encode("answer"));
+		WireProtocol.MUX.write(out, WireProtocol.encode("event"));
+		byte[] bytes = out.toByteArray();
+		
+		FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes));
+		Frame answer = reader.read();
+		assertThat(answer.codec()).isSameAs(WireProtocol.MUX);
+		assertThat(answer.requestId()).isEqualTo(42);
+		assertThat(answer.text()).isEqualTo("answer");
+		assertThat(reader.read().requestId()).isEqualTo(MultiplexedFrameCodec.NO_RESPONSE);
+	}
+	
+	@Test
+	public void negotiatesTheBestCodecTheDeviceAdvertises(){
+		UpDevice legacy = new UpDevice("legacy");
+		UpDevice framed = new UpDevice("framed");
+		framed.addProperty(WireProtocol.DEVICE_PROPERTY, "FRAMED,LINE");
+		UpDevice current = new UpDevice("current");
+		current.addProperty(WireProtocol.DEVICE_PROPERTY, WireProtocol.supported());
+		
+		assertThat(WireProtocol.negotiate(null)).isSameAs(WireProtocol.LINE);
+		assertThat(WireProtocol.negotiate(legacy)).isSameAs(WireProtocol.LINE);
+		assertThat(WireProtocol.negotiate(framed)).isSameAs(WireProtocol.FRAMED);
+		assertThat(WireProtocol.negotiate(current)).isSameAs(WireProtocol.MUX);
+	}
+}
@@ -0,0 +1,67 @@
+package org.unbiquitous.uos.core.network.codec;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+public class ReadTimeoutTest {
+
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	@After public void tearDown(){
+		Thread.interrupted();
+	}
+
+	@Test public void clearsTheInterruptionOfTheTimeout() throws Exception{
+		ReadTimeout timeout = ReadTimeout.start(connection(), 10);
+		awaitClosed();
+
+		assertThat(timeout.finish()).isTrue();
+		assertThat(Thread.currentThread().isInterrupted()).isFalse();
+	}
+
+	@Test public void keepsTheInterruptionsForOtherReasons() throws Exception{
+		ReadTimeout timeout = ReadTimeout.start(connection(), 10);
+		Thread.currentThread().interrupt();
+		awaitClosed();
+
+		assertThat(timeout.finish()).isTrue();
+		assertThat(Thread.currentThread().isInterrupted()).isTrue();
+	}
+
+	@Test public void leavesTheThreadAloneWhenTheReadEndsOnTime() throws Exception{
+		ReadTimeout timeout = ReadTimeout.start(connection(), 60000);
+
+		assertThat(timeout.finish()).isFalse();
+		assertThat(Thread.currentThread().isInterrupted()).isFalse();
+	}
+
+	/** Waits for the timeout without being woken by its interruption. */
+	private void awaitClosed() {
+		long deadline = System.currentTimeMillis() + 1000;
+		while (closed.getCount() > 0 && System.currentTimeMillis() < deadline){
+			Thread.yield();
+		}
+		assertThat(closed.getCount()).isZero();
+	}
+
+	private ClientConnection connection() throws Exception {
+		final DataInputStream in = new DataInputStream(new PipedInputStream(new PipedOutputStream()));
+		final DataOutputStream out = new DataOutputStream(new ByteArrayOutputStream());
+		return new ClientConnection(null) {
+			public boolean isConnected() {return true;}
+			public DataInputStream getDataInputStream() {return in;}
+			public DataOutputStream getDataOutputStream() {return out;}
+			public void closeConnection() {closed.countDown();}
+		};
+	}
+}
@@ -0,0 +1,114 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ChannelWriterTest {
+
+	private ExecutorService loop = Executors.newCachedThreadPool();
+
+	@After public void tearDown(){
+		loop.shutdownNow();
+	}
+
+	@Test public void writesTheBytesInOrder() throws Exception{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChannelWriter writer = new ChannelWriter(out, 16, loop);
+
+		writer.write("hello ".getBytes());
+		writer.write("world".getBytes());
+
+		assertThat(writer.flush(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(out.toString()).isEqualTo("hello world");
+		assertThat(writer.pending()).isZero();
+	}
+
+	@Test public void letsTheWriterReuseItsBuffer() throws Exception{
+		StuckStream out = new StuckStream();
+		ChannelWriter writer = new ChannelWriter(out, 16, loop);
+		byte[] buffer = "hello ".getBytes();
+		writer.write(buffer);
+		System.arraycopy("world!".getBytes(), 0, buffer, 0, buffer.length);
+		writer.write(buffer);
+
+		out.release.countDown();
+		assertThat(writer.flush(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(out.toString()).isEqualTo("hello world!");
+	}
+
+	@Test public void refusesOffersBeyondTheWindow() throws Exception{
+		StuckStream out = new StuckStream();
+		ChannelWriter writer = new ChannelWriter(out, 8, loop);
+
+		assertThat(writer.offer(new byte[6])).isTrue();
+		assertThat(writer.offer(new byte[6])).isFalse();
+		assertThat(writer.pending()).isEqualTo(6);
+		assertThat(writer.available()).isEqualTo(2);
+
+		out.release.countDown();
+		assertThat(writer.flush(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(writer.offer(new byte[6])).isTrue();
+	}
+
+	@Test public void holdsTheWriterUntilTheChannelCatchesUp() throws Exception{
+		StuckStream out = new StuckStream();
+		ChannelWriter writer = new ChannelWriter(out, 8, loop);
+		writer.write(new byte[6]);
+
+		assertThat(writer.write(new byte[6], 100, TimeUnit.MILLISECONDS)).isFalse();
+		out.release.countDown();
+		assertThat(writer.write(new byte[6], 1, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test(expected=IOException.class)
+	public void informsTheFailuresOfTheChannelOnTheNextWrite() throws Exception{
+		ChannelWriter writer = new ChannelWriter(new OutputStream() {
+			public void write(int b) throws IOException {
+				throw new IOException("broken");
+			}
+		}, 8, loop);
+		writer.write(new byte[1]);
+		writer.flush(1, TimeUnit.SECONDS);
+	}
+
+	@Test public void closesTheChannelAfterTheQueuedBytes() throws Exception{
+		StuckStream out = new StuckStream();
+		ChannelWriter writer = new ChannelWriter(out, 8, loop);
+		writer.write(new byte[4]);
+		writer.close();
+		assertThat(out.closed.getCount()).isEqualTo(1);
+
+		out.release.countDown();
+		assertThat(out.closed.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(out.size()).isEqualTo(4);
+	}
+
+	/** Holds the writes until released. */
+	private static class StuckStream extends ByteArrayOutputStream {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+
+		public synchronized void write(byte[] b, int off, int len) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			super.write(b, off, len);
+		}
+
+		public void close() {
+			closed.countDown();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.unbiquitous.uos.core.network.codec.FrameReader;
+import org.unbiquitous.uos.core.network.codec.WireProtocol;
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.model.NetworkDevice;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+public class ConnectionDispatcherTest {
+
+	private ConnectionDispatcher dispatcher;
+	private volatile boolean closed = false;
+
+	@After
+	public void tearDown(){
+		if (dispatcher != null){
+			dispatcher.tearDown();
+		}
+	}
+
+	@Test
+	public void answersMessagesReceivedThroughStreams() throws Exception{
+		dispatcher = new ConnectionDispatcher(properties(4, 8, 1000));
+		PipedOutputStream toDevice = new PipedOutputStream();
+		PipedOutputStream fromDevice = new PipedOutputStream();
+		FrameReader replies = new FrameReader(new PipedInputStream(fromDevice));
+
+		dispatcher.dispatch(streamConnection(new PipedInputStream(toDevice), fromDevice), new Echo());
+		WireProtocol.LINE.write(toDevice, WireProtocol.encode("hello"));
+
+		assertThat(replies.read().text()).isEqualTo("echo:hello");
+	}
+
+	@Test
+	public void handlesMessagesOfAConnectionInTheOrderTheyArrive() throws Exception{
+		dispatcher = new ConnectionDispatcher(properties(4, 2, 1000));
+		PipedOutputStream toDevice = new PipedOutputStream();
+		PipedOutputStream fromDevice = new PipedOutputStream();
+		FrameReader replies = new FrameReader(new PipedInputStream(fromDevice));
+		final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+		dispatcher.dispatch(streamConnection(new PipedInputStream(toDevice), fromDevice), new MessageListener() {
+			public String handleIncomingMessage(String message, NetworkDevice clientDevice) throws NetworkException {
+				received.add(message);
+				return message;
+			}
+		});
+		List<String> sent = new ArrayList<String>();
+		for (int i = 0; i < 20; i++){
+			sent.add("m"+i);
+			WireProtocol.LINE.write(toDevice, WireProtocol.encode("m"+i));
+		}
+		for (int i = 0; i < 20; i++){
+			replies.read();
+		}
+
+		assertThat(received).isEqualTo(sent);
+	}
+
+	@Test
+	public void rejectsMessagesWhenTheConnectionQueueIsFull() throws Exception{
+		dispatcher = new ConnectionDispatcher(properties(1, 1, 10));
+		PipedOutputStream toDevice = new PipedOutputStream();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		dispatcher.dispatch(streamConnection(new PipedInputStream(toDevice), new PipedOutputStream(new PipedInputStream())),
+				new MessageListener() {
+			public String handleIncomingMessage(String message, NetworkDevice clientDevice) throws NetworkException {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {}
+				return null;
+			}
+		});
+		for (int i = 0; i < 3; i++){
+			WireProtocol.FRAMED.write(toDevice, WireProtocol.encode("m"+i));
+		}
+
+		long deadline = System.currentTimeMillis() + 2000;
+		while (dispatcher.rejectedMessages() < 2 && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertThat(dispatcher.rejectedMessages()).isEqualTo(2);
+		release.countDown();
+	}
+
+	@Test
+	public void servesAsManyConnectionsAsAreOpen() throws Exception{
+		dispatcher = new ConnectionDispatcher(properties(4, 8, 1000));
+		List<PipedOutputStream> idle = new ArrayList<PipedOutputStream>();
+		for (int i = 0; i < 300; i++){
+			PipedOutputStream toDevice = new PipedOutputStream();
+			idle.add(toDevice);
+			dispatcher.dispatch(streamConnection(new PipedInputStream(toDevice), new PipedOutputStream(new PipedInputStream())),
+								new Echo());
+		}
+		PipedOutputStream toDevice = new PipedOutputStream();
+		PipedOutputStream fromDevice = new PipedOutputStream();
+		FrameReader replies = new FrameReader(new PipedInputStream(fromDevice));
+
+		dispatcher.dispatch(streamConnection(new PipedInputStream(toDevice), fromDevice), new Echo());
+		WireProtocol.LINE.write(toDevice, WireProtocol.encode("hello"));
+
+		assertThat(replies.read().text()).isEqualTo("echo:hello");
+		assertThat(closed).isFalse();
+		assertThat(dispatcher.openConnections()).isEqualTo(301);
+	}
+
+	@Test
+	public void closesTheConnectionsBeyondTheReadersConfigured() throws Exception{
+		dispatcher = new ConnectionDispatcher(properties(4, 8, 1000, 2));
+		for (int i = 0; i < 2; i++){
+			dispatcher.dispatch(streamConnection(new PipedInputStream(new PipedOutputStream()), 
+									new PipedOutputStream(new PipedInputStream())), new Echo());
+		}
+		assertThat(closed).isFalse();
+
+		dispatcher.dispatch(streamConnection(new PipedInputStream(new PipedOutputStream()), 
+								new PipedOutputStream(new PipedInputStream())), new Echo());
+
+		assertThat(closed).isTrue();
+		assertThat(dispatcher.rejectedConnections()).isEqualTo(1);
+		assertThat(dispatcher.openConnections()).isEqualTo(2);
+	}
+
+	@Test
+	public void closesTheConnectionWhenTheStreamEndsAndAllMessagesWereHandled() throws Exception{
+		dispatcher = new ConnectionDispatcher(properties(4, 8, 1000));
+		PipedOutputStream toDevice = new PipedOutputStream();
+		PipedOutputStream fromDevice = new PipedOutputStream();
+		FrameReader replies = new FrameReader(new PipedInputStream(fromDevice));
+
+		dispatcher.dispatch(streamConnection(new PipedInputStream(toDevice), fromDevice), new Echo());
+		assertThat(dispatcher.openConnections()).isEqualTo(1);
+		WireProtocol.LINE.write(toDevice, WireProtocol.encode("bye"));
+		toDevice.close();
+
+		assertThat(replies.read().text()).isEqualTo("echo:bye");
+		long deadline = System.currentTimeMillis() + 2000;
+		while (!closed && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertThat(closed).isTrue();
+		assertThat(dispatcher.openConnections()).isZero();
+		assertThat(dispatcher.handledMessages()).isEqualTo(1);
+	}
+
+	private static class Echo implements MessageListener{
+		public String handleIncomingMessage(String message, NetworkDevice clientDevice) throws NetworkException {
+			return "echo:"+message;
+		}
+	}
+
+	private ClientConnection streamConnection(PipedInputStream in, OutputStream out){
+		final DataInputStream input = new DataInputStream(in);
+		final DataOutputStream output = new DataOutputStream(out);
+		return new ClientConnection(device()) {
+			public boolean isConnected() {
+				return !closed;
+			}
+			public DataInputStream getDataInputStream() throws IOException {
+				return input;
+			}
+			public DataOutputStream getDataOutputStream() throws IOException {
+				return output;
+			}
+			public void closeConnection() throws IOException {
+				closed = true;
+			}
+		};
+	}
+
+	private NetworkDevice device(){
+		return new NetworkDevice() {
+			public String getNetworkDeviceType() {
+				return "Test";
+			}
+			public String getNetworkDeviceName() {
+				return "client";
+			}
+		};
+	}
+
+	private ListResourceBundle properties(int workers, int queue, int offerTimeout){
+		return properties(workers, queue, offerTimeout, 0);
+	}
+
+	private ListResourceBundle properties(final int workers, final int queue, final int offerTimeout, final int readers){
+		return new ListResourceBundle() {
+			protected Object[][] getContents() {
+				return new Object[][] {
+					{"ubiquitos.connection.dispatcher.workers", String.valueOf(workers)},
+					{"ubiquitos.connection.dispatcher.queue", String.valueOf(queue)},
+					{"ubiquitos.connection.dispatcher.offerTimeout", String.valueOf(offerTimeout)},
+					{"ubiquitos.connection.dispatcher.readers", String.valueOf(readers)},
+				};
+			}
+		};
+	}
+}
@@ -0,0 +1,128 @@
+package org.unbiquitous.uos.core.network.connectionManager;
+
+import static org.fest.assertions.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.unbiquitous.uos.core.applicationManager.UOSMessageContext;
+import org.unbiquitous.uos.core.network.exceptions.NetworkException;
+import org.unbiquitous.uos.core.network.loopback.LoopbackDevice;
+import org.unbiquitous.uos.core.network.model.connection.ClientConnection;
+
+public class StreamChannelsTest {
+
+	private ConnectionManagerControlCenter net;
+	private StreamChannels channels;
+	private UOSMessageContext context;
+
+	@Before public void setUp(){
+		net = mock(ConnectionManagerControlCenter.class);
+		channels = new StreamChannels(net);
+		context = new UOSMessageContext();
+	}
+
+	@Test public void connectsToAllChannelsAtOnce() throws Exception{
+		final CountDownLatch allConnecting = new CountDownLatch(3);
+		final List<String> connected = Collections.synchronizedList(new ArrayList<String>());
+		// a mock would answer one channel at a time
+		channels = new StreamChannels(new ConnectionManagerControlCenter(){
+			public ClientConnection openActiveConnection(String networkDeviceName, String networkDeviceType) throws NetworkException {
+				allConnecting.countDown();
+				try {
+					// a channel only opens when the others are opening too
+					if (!allConnecting.await(1, TimeUnit.SECONDS)){
+						throw new NetworkException("Channels opened one by one.");
+					}
+				} catch (InterruptedException e) {
+					throw new NetworkException("Interrupted.");
+				}
+				connected.add(networkDeviceName+"@"+networkDeviceType);
+				return connection();
+			}
+		});
+
+		channels.connect("host", new String[]{"1","2","3"}, "Loopback", context, 2000);
+
+		assertThat(connected).containsOnly("host:1@Loopback", "host:2@Loopback", "host:3@Loopback");
+		assertThat(context.awaitDataStreams(3, 0, TimeUnit.MILLISECONDS)).isTrue();
+	}
+
+	@Test public void retriesTheChannelsUntilTheyAreListened() throws Exception{
+		final AtomicInteger attempts = new AtomicInteger();
+		when(net.openActiveConnection(anyString(), anyString())).thenAnswer(new Answer<ClientConnection>() {
+			public ClientConnection answer(InvocationOnMock invocation) throws Throwable {
+				if (attempts.incrementAndGet() < 3){
+					throw new NetworkException("Not listening yet.");
+				}
+				return connection();
+			}
+		});
+
+		channels.connect("host", new String[]{"1"}, "Loopback", context, 2000);
+
+		assertThat(attempts.get()).isEqualTo(3);
+		assertThat(context.getDataInputStream(0)).isNotNull();
+	}
+
+	@Test(expected=NetworkException.class)
+	public void failsWhenTheChannelsAreNotReadyOnTime() throws Exception{
+		when(net.openActiveConnection(anyString(), anyString())).thenThrow(new NetworkException("Not listening."));
+
+		channels.connect("host", new String[]{"1","2"}, "Loopback", context, 100);
+	}
+
+	@Test public void handsTheListenedChannelsInTheirOrder() throws Exception{
+		final LoopbackDevice firstDevice = new LoopbackDevice(1);
+		final LoopbackDevice secondDevice = new LoopbackDevice(2);
+		final CountDownLatch firstAccepted = new CountDownLatch(1);
+		final ClientConnection first = connection();
+		final ClientConnection second = connection();
+		when(net.getAvailableNetworkDevice("Loopback")).thenReturn(firstDevice, secondDevice);
+		when(net.getChannelID(anyString())).thenReturn("1", "2");
+		when(net.openPassiveConnection(anyString(), anyString())).thenAnswer(new Answer<ClientConnection>() {
+			public ClientConnection answer(InvocationOnMock invocation) throws Throwable {
+				if (firstDevice.getNetworkDeviceName().equals(invocation.getArguments()[0])){
+					// the first channel is opened only after the second one
+					firstAccepted.await(1, TimeUnit.SECONDS);
+					return first;
+				}
+				return second;
+			}
+		});
+
+		StreamChannels.Listening listening = channels.listen("Loopback", 2, context);
+		assertThat(listening.channelIDs()).isEqualTo(new String[]{"1","2"});
+		assertThat(context.awaitDataStreams(2, 100, TimeUnit.MILLISECONDS)).isFalse();
+		firstAccepted.countDown();
+
+		assertThat(context.awaitDataStreams(2, 1, TimeUnit.SECONDS)).isTrue();
+		assertThat(context.getDataInputStream(0)).isSameAs(first.getDataInputStream());
+		assertThat(context.getDataInputStream(1)).isSameAs(second.getDataInputStream());
+	}
+
+	private static ClientConnection connection() {
+		return new ClientConnection(null) {
+			private final DataInputStream in = new DataInputStream(new ByteArrayInputStream(new byte[0]));
+			private final DataOutputStream out = new DataOutputStream(new ByteArrayOutputStream());
+			public boolean isConnected() {return true;}
+			public DataInputStream getDataInputStream() {return in;}
+			public DataOutputStream getDataOutputStream() {return out;}
+			public void closeConnection() {}
+		};
+	}
+}
@@ -0,0 +1,68 @@
+package org.unbiquitous.uos.core.network.loopback;
+
+import static org.fest.assertions.api.Assertions.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.unbiquitous.uos.core.network.loopback.connection.LoopbackClientConnection;
+import org.unbiquitous.uos.core.network.loopback.connection.LoopbackServerConnection;
+
+public class LoopbackChannelTest {
+
+	private LoopbackServerConnection server;
+
+	@Before public void setUp() throws Exception{
+		LoopbackDevice.initDevicesID();
+		LoopbackChannel.initChannel();
+		server = new LoopbackServerConnection(new LoopbackDevice(7));
+		LoopbackChannel.addWaitingServer(server);
+	}
+
+	@After public void tearDown(){
+		LoopbackChannel.tearDown();
+	}
+
+	@Test public void keepsListeningForClientsConnectingBetweenAccepts() throws Exception{
+		new LoopbackClientConnection(new LoopbackDevice(), 7);
+		new LoopbackClientConnection(new LoopbackDevice(), 7);
+		new LoopbackClientConnection(new LoopbackDevice(), 7);
+
+		assertThat(server.accept()).isNotNull();
+		assertThat(server.accept()).isNotNull();
+	}
+
+	@Test public void readsWhatTheOtherSideWroteAsUnsignedBytes() throws Exception{
+		LoopbackClientConnection client = new LoopbackClientConnection(new LoopbackDevice(), 7);
+		LoopbackClientConnection serverSide = server.accept();
+
+		client.getDataOutputStream().write(new byte[]{1, (byte) 0xFF, 3});
+
+		assertThat(serverSide.getDataInputStream().read()).isEqualTo(1);
+		assertThat(serverSide.getDataInputStream().read()).isEqualTo(0xFF);
+		byte[] rest = new byte[10];
+		assertThat(serverSide.getDataInputStream().read(rest)).isEqualTo(1);
+		assertThat(rest[0]).isEqualTo((byte) 3);
+	}
+
+	@Test(timeout=2000)
+	public void waitsForDataAndEndsWhenTheChannelIsClosed() throws Exception{
+		final LoopbackClientConnection client = new LoopbackClientConnection(new LoopbackDevice(), 7);
+		LoopbackClientConnection serverSide = server.accept();
+
+		new Thread(){
+			public void run() {
+				try {
+					Thread.sleep(100);
+					client.getDataOutputStream().write('a');
+					Thread.sleep(100);
+					client.getDataInputStream();
+					client.closeConnection();
+				} catch (Exception e) {}
+			}
+		}.start();
+
+		assertThat(serverSide.getDataInputStream().read()).isEqualTo('a');
+		assertThat(serverSide.getDataInputStream().read()).isEqualTo(-1);
+	}
+}